@@ -0,0 +1,248 @@
+package net.nekonium.explorer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Address to address id cache, keyed by the raw 20 bytes of an address so that letter case of hex doesn't matter.<br>
+ * Entries live in flat primitive arrays (open addressing, about 40 bytes per entry), so it can hold millions of addresses.
+ * When full, an entry is evicted by GCLOCK: every hit raises a small use counter of the entry, the clock hand lowers them as it passes,
+ * and the first one found at zero is evicted. Addresses used again and again (pools, exchanges) survive a flood of addresses only seen once,
+ * which plain LRU doesn't do
+ */
+public class AddressIdCache {
+
+    public static final int ADDRESS_LENGTH = 20;
+
+    private static final int MAX_USE_COUNT = 3;
+    private static final float LOAD_FACTOR = 0.75F;
+
+    private final int capacity;
+    private final int mask;
+
+    // Slot i holds key {keys[i * 3], keys[i * 3 + 1], keys[i * 3 + 2] (only 4 bytes used)}
+    private final long[] keys;
+    private final long[] values;    // Address id << 1 | type, 0 means the slot is empty (ids start from 1)
+    private final byte[] useCounts;
+
+    private int size;
+    private int hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AddressIdCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int slots = 16;
+
+        while (slots * LOAD_FACTOR < capacity) {
+            slots <<= 1;
+        }
+
+        this.capacity = capacity;
+        this.mask = slots - 1;
+        this.keys = new long[slots * 3];
+        this.values = new long[slots];
+        this.useCounts = new byte[slots];
+    }
+
+    /**
+     * Convert prefixed address (0x[40 digit hex]) into a key, upper and lower case are the same
+     *
+     * @throws IllegalArgumentException If it is not an address
+     */
+    public static byte[] toKey(String prefixedAddress) {
+        if (prefixedAddress.length() != 2 + ADDRESS_LENGTH * 2 || !prefixedAddress.startsWith("0x")) {
+            throw new IllegalArgumentException("Not an address [" + prefixedAddress + "]");
+        }
+
+        final byte[] key = new byte[ADDRESS_LENGTH];
+
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            final int high = Character.digit(prefixedAddress.charAt(2 + i * 2), 16);
+            final int low = Character.digit(prefixedAddress.charAt(3 + i * 2), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not an address [" + prefixedAddress + "]");
+            }
+
+            key[i] = (byte) (high << 4 | low);
+        }
+
+        return key;
+    }
+
+    /**
+     * @return The address id of a cached entry
+     */
+    public static long idOf(long entry) {
+        return entry >>> 1;
+    }
+
+    public static AddressType typeOf(long entry) {
+        return (entry & 1) == 0 ? AddressType.NORMAL : AddressType.CONTRACT;
+    }
+
+    /**
+     * @return Cached entry (use {@link #idOf(long)} and {@link #typeOf(long)}), or 0 if not cached
+     */
+    public synchronized long get(byte[] key) {
+        final long k0 = readLong(key, 0), k1 = readLong(key, 8), k2 = readInt(key);
+        final int slot = find(k0, k1, k2);
+
+        if (values[slot] == 0) {
+            misses.increment();
+            return 0;
+        }
+
+        if (useCounts[slot] < MAX_USE_COUNT) {
+            this.useCounts[slot]++;
+        }
+
+        hits.increment();
+
+        return values[slot];
+    }
+
+    public synchronized void put(byte[] key, long addressId, AddressType addressType) {
+        if (addressId < 1) {
+            throw new IllegalArgumentException("Address id must be positive");
+        }
+
+        final long k0 = readLong(key, 0), k1 = readLong(key, 8), k2 = readInt(key);
+        final long entry = addressId << 1 | (addressType == AddressType.CONTRACT ? 1 : 0);
+
+        int slot = find(k0, k1, k2);
+
+        if (values[slot] != 0) {
+            this.values[slot] = entry;  // Update, no eviction
+            return;
+        }
+
+        if (size >= capacity) {
+            evict();
+            slot = find(k0, k1, k2);    // Entries could have moved
+        }
+
+        this.keys[slot * 3] = k0;
+        this.keys[slot * 3 + 1] = k1;
+        this.keys[slot * 3 + 2] = k2;
+        this.values[slot] = entry;
+        this.useCounts[slot] = 0;
+        this.size++;
+    }
+
+    /**
+     * Forget an address, nothing happens if not cached
+     */
+    public synchronized void remove(byte[] key) {
+        final int slot = find(readLong(key, 0), readLong(key, 8), readInt(key));
+
+        if (values[slot] != 0) {
+            delete(slot);
+        }
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(values, 0);
+        this.size = 0;
+    }
+
+    private int find(long k0, long k1, long k2) {
+        for (int slot = hash(k0, k1, k2) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == 0 || (keys[slot * 3] == k0 && keys[slot * 3 + 1] == k1 && keys[slot * 3 + 2] == k2)) {
+                return slot;
+            }
+        }
+    }
+
+    private void evict() {
+        while (true) {
+            if (values[hand] != 0) {
+                if (useCounts[hand] == 0) {
+                    delete(hand);   // The hand stays, an entry may have been moved here
+                    evictions.increment();
+                    return;
+                }
+
+                this.useCounts[hand]--;
+            }
+
+            this.hand = (hand + 1) & mask;
+        }
+    }
+
+    /**
+     * Empty the slot and move the following entries back, so that lookups don't stop at a hole
+     */
+    private void delete(int slot) {
+        this.values[slot] = 0;
+        this.size--;
+
+        for (int i = (slot + 1) & mask; values[i] != 0; i = (i + 1) & mask) {
+            final int home = hash(keys[i * 3], keys[i * 3 + 1], keys[i * 3 + 2]) & mask;
+
+            if (((i - home) & mask) >= ((i - slot) & mask)) {
+                System.arraycopy(keys, i * 3, keys, slot * 3, 3);
+                this.values[slot] = values[i];
+                this.useCounts[slot] = useCounts[i];
+                this.values[i] = 0;
+                slot = i;
+            }
+        }
+    }
+
+    private static int hash(long k0, long k1, long k2) {
+        // Addresses are already random, just fold them
+        final long h = (k0 ^ k1 ^ k2) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long readLong(byte[] key, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (key[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static long readInt(byte[] key) {
+        return (key[16] & 0xFFL) << 24 | (key[17] & 0xFF) << 16 | (key[18] & 0xFF) << 8 | (key[19] & 0xFF);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Hits / (hits + misses) since started, 0 if never asked
+     */
+    public double getHitRate() {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+
+        return total == 0 ? 0 : (double) hit / total;
+    }
+}
@@ -1,10 +1,10 @@
 package net.nekonium.explorer;
 
+import net.nekonium.explorer.util.HexCodec;
 import net.nekonium.explorer.util.IllegalBlockchainStateException;
 import net.nekonium.explorer.util.IllegalDatabaseStateException;
 import net.nekonium.explorer.util.NonNullPair;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -13,77 +13,154 @@ import java.util.*;
 
 import static java.sql.Statement.RETURN_GENERATED_KEYS;
 
+/**
+ * Address to address id mapping shared by the converter and request handlers.<br>
+ * Reading ({@link #findAddressId(Connection, String)}) is thread-safe and only sees committed addresses.
+ * Inserting methods are for the converter thread only, addresses it inserts are kept aside until {@link #commit()},
+ * so that an id rolled back never gets into the shared cache
+ */
 public class AddressIdPoolManager {
 
-    private static final int CACHE_INITIAL_CAPACITY = 1000;  // Initial capacity is big because there are NUMEROUS amount of addresses
-    private LinkedHashMap<String, NonNullPair<AddressType, BigInteger>> addressIdCache;  // An unused address will be deleted from this map (un-caching)
+    private static final int RESOLVE_CHUNK_SIZE = 500;      // Max addresses in one IN (...) list or one multi-row INSERT
+    private final AddressIdCache addressIdCache;
+    // Inserted by the converter but not committed yet, keyed by lower case prefixed address. Converter thread only
+    private final HashMap<String, NonNullPair<AddressType, Long>> uncommitted = new HashMap<>();
 
-    public AddressIdPoolManager() {
-        this.addressIdCache = new AddressIdPool<>(CACHE_INITIAL_CAPACITY);  // Create a pool with initial capacity
+    /**
+     * @param cacheCapacity How many addresses to keep in the cache
+     */
+    public AddressIdPoolManager(int cacheCapacity) {
+        this.addressIdCache = new AddressIdCache(cacheCapacity);
     }
 
-    private boolean isCached(String prefixedAddress) {
-        return addressIdCache.containsKey(prefixedAddress);
+    /**
+     * @param addressType Expected type, checked only if {@code careType} is {@code true}
+     * @return Cached address id, or -1 if not cached
+     */
+    private long getCached(String prefixedAddress, AddressType addressType, boolean careType) throws AddressPoolException {
+        final NonNullPair<AddressType, Long> inserted = uncommitted.get(prefixedAddress.toLowerCase());
+
+        if (inserted != null) {
+            if (careType && inserted.getA() != addressType) {
+                throw new AddressPoolException("Detected cached account type inconsistency. Expected [" + addressType + "], but cached is [" + inserted.getA() + "] : [" + prefixedAddress + "]");
+            }
+
+            return inserted.getB();
+        }
+
+        return getCommittedCached(prefixedAddress, addressType, careType);
     }
 
-    private BigInteger getCached(String prefixedAddress) throws AddressPoolException {
-        final NonNullPair<AddressType, BigInteger> cached = addressIdCache.get(prefixedAddress);    // The element accessed will be top on the list and be the least probable to un-cached
+    private long getCommittedCached(String prefixedAddress, AddressType addressType, boolean careType) throws AddressPoolException {
+        final long cached = addressIdCache.get(AddressIdCache.toKey(prefixedAddress));
 
-        if (cached == null) {
-            throw new AddressPoolException("Requested but address " + prefixedAddress + " is not cached");
+        if (cached == 0) {
+            return -1;
+        }
+        if (careType && AddressIdCache.typeOf(cached) != addressType) {
+            throw new AddressPoolException("Detected cached account type inconsistency. Expected [" + addressType + "], but cached is [" + AddressIdCache.typeOf(cached) + "] : [" + prefixedAddress + "]");
         }
 
-        return cached.getB();
+        return AddressIdCache.idOf(cached);
     }
 
-    private BigInteger getCachedAssume(String prefixedAddress, AddressType addressType) throws AddressPoolException {
-        final NonNullPair<AddressType, BigInteger> cached = addressIdCache.get(prefixedAddress);
+    private void cache(String prefixedAddress, AddressType addressType, long addressId) {
+        this.addressIdCache.put(AddressIdCache.toKey(prefixedAddress), addressId, addressType);
+    }
+
+    private void cacheInserted(String prefixedAddress, AddressType addressType, long addressId) {
+        this.uncommitted.put(prefixedAddress.toLowerCase(), new NonNullPair<>(addressType, addressId));
+    }
 
-        if (cached == null) {
-            throw new AddressPoolException("Requested but address " + prefixedAddress + " is not cached");
+    /**
+     * Call this after the converter's transaction has been committed, addresses inserted in it become visible to everyone
+     */
+    public void commit() {
+        for (Map.Entry<String, NonNullPair<AddressType, Long>> entry : uncommitted.entrySet()) {
+            cache(entry.getKey(), entry.getValue().getA(), entry.getValue().getB());
         }
-        if (cached.getA() != addressType) {
-            throw new AddressPoolException("Detected cached account type inconsistency. Expected [" + addressType + "], but cached is [" + cached.getA() + "] : [" + prefixedAddress + "]");
+
+        this.uncommitted.clear();
+    }
+
+    /**
+     * Call this after the converter's transaction has been rolled back, ids of addresses inserted in it are forgotten
+     */
+    public void rollback() {
+        this.uncommitted.clear();
+    }
+
+    /**
+     * Look up address id without inserting, for request handlers. Thread-safe
+     *
+     * @param connection
+     * @param prefixedAddress
+     * @return The address id, or -1 if the address is not recorded
+     * @throws SQLException
+     */
+    public long findAddressId(Connection connection, String prefixedAddress) throws SQLException {
+        final long cached = getCommittedCached(prefixedAddress, null, false);
+
+        if (cached != -1) {
+            return cached;
         }
 
-        return cached.getB();
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id, type FROM addresses WHERE address = ?")) {
+            HexCodec.setHex(prpstmt, 1, prefixedAddress);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                if (!resultSet.next()) {
+                    return -1;    // Not cached, address that doesn't exist can be asked any number of times
+                }
+
+                final long addressId = resultSet.getLong(1);
+
+                try {
+                    cache(prefixedAddress, AddressType.valueOf(resultSet.getString(2)), addressId);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalDatabaseStateException("Unknown address type", e);
+                }
+
+                return addressId;
+            }
+        }
     }
 
-    private void cache(String prefixedAddress, AddressType addressType, BigInteger addressId) {
-        this.addressIdCache.put(prefixedAddress, new NonNullPair<>(addressType, addressId));
+    public AddressIdCache getCache() {
+        return addressIdCache;
     }
 
-    private BigInteger getOrInsertDatabase(Connection connection, String prefixedAddress, AddressType addressType, boolean careType) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
+    private long getOrInsertDatabase(Connection connection, String prefixedAddress, AddressType addressType, boolean careType) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
         /* Not cached, find address id */
 
-        final PreparedStatement prpstmt = connection.prepareStatement("SELECT type, internal_id FROM addresses WHERE address = UNHEX(?)");
-        prpstmt.setString(1, prefixedAddress.substring(2));
+        final PreparedStatement prpstmt = connection.prepareStatement("SELECT type, internal_id FROM addresses WHERE address = ?");
+        HexCodec.setHex(prpstmt, 1, prefixedAddress);
 
         final ResultSet resultSet = prpstmt.executeQuery();
 
 
-        final BigInteger addressId;
+        final long addressId;
 
         if (resultSet.next()) {
             // An address is recorded
 
-            if (careType) {
-                final AddressType recordedAddressType;
+            final AddressType recordedAddressType;
 
-                try {
-                    recordedAddressType = AddressType.valueOf(resultSet.getString(1));
-                } catch (IllegalArgumentException e) {
-                    throw new IllegalDatabaseStateException("Unknown address type", e);
-                }
+            try {
+                recordedAddressType = AddressType.valueOf(resultSet.getString(1));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalDatabaseStateException("Unknown address type", e);
+            }
 
-                if (recordedAddressType != addressType) {
-                    throw new IllegalDatabaseStateException("Address type mismatch for [" + prefixedAddress + "], expected [" + addressType + "] got [" + recordedAddressType + "]");
-                }
+            if (careType && recordedAddressType != addressType) {
+                throw new IllegalDatabaseStateException("Address type mismatch for [" + prefixedAddress + "], expected [" + addressType + "] got [" + recordedAddressType + "]");
             }
 
-            addressId = new BigInteger(resultSet.getString(2));
+            addressId = resultSet.getLong(2);
 
             prpstmt.close();
+
+            cache(prefixedAddress, recordedAddressType, addressId);
         } else {
             // An address is NOT recorded
 
@@ -91,22 +168,22 @@ public class AddressIdPoolManager {
 
             /* Insert an address into the database */
 
-            final PreparedStatement prpstmti = connection.prepareStatement("INSERT INTO addresses VALUES (NULL, UNHEX(?) ,?, NULL, NULL)", RETURN_GENERATED_KEYS);
-            prpstmti.setString(1, prefixedAddress.substring(2));
+            final PreparedStatement prpstmti = connection.prepareStatement("INSERT INTO addresses VALUES (NULL, ?, ?, NULL, NULL)", RETURN_GENERATED_KEYS);
+            HexCodec.setHex(prpstmti, 1, prefixedAddress);
             prpstmti.setString(2, addressType.name());
             prpstmti.executeUpdate();
 
             final ResultSet generatedKeys = prpstmti.getGeneratedKeys();
 
             if (generatedKeys.next()) {
-                addressId = new BigInteger(generatedKeys.getString(1));
+                addressId = generatedKeys.getLong(1);
             } else {
                 throw new IllegalDatabaseStateException("Generated keys not returned");
             }
 
             prpstmti.close();
 
-            cache(prefixedAddress, addressType, addressId);
+            cacheInserted(prefixedAddress, addressType, addressId);
         }
 
         return addressId;
@@ -125,13 +202,11 @@ public class AddressIdPoolManager {
      * @return address_id The address id of the address specified.
      * @throws IllegalBlockchainStateException If {@code addressType} and on the database are different (check is active when {@code careType} is {@code true}).
      */
-    public BigInteger getOrInsertAddressId(Connection connection, String prefixedAddress, AddressType addressType, boolean careType) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
-        if (isCached(prefixedAddress)) {  // Find it from cache
-            if (careType) {
-                return getCachedAssume(prefixedAddress, addressType);   // Cached, return
-            } else {
-                return getCached(prefixedAddress);
-            }
+    public long getOrInsertAddressId(Connection connection, String prefixedAddress, AddressType addressType, boolean careType) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
+        final long cached = getCached(prefixedAddress, addressType, careType);    // Find it from cache
+
+        if (cached != -1) {
+            return cached;
         }
 
         /* Not cached, find address id */
@@ -148,13 +223,15 @@ public class AddressIdPoolManager {
      * @throws SQLException
      * @throws IllegalDatabaseStateException If address is not recorded on the database
      */
-    public BigInteger getAddressId(Connection connection, String prefixedAddress) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
-        if (isCached(prefixedAddress)) {
-            return getCached(prefixedAddress);
+    public long getAddressId(Connection connection, String prefixedAddress) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
+        final long cached = getCached(prefixedAddress, null, false);
+
+        if (cached != -1) {
+            return cached;
         }
 
-        final PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id FROM addresses WHERE address = UNHEX(?)");
-        prpstmt.setString(1, prefixedAddress.substring(2));
+        final PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id, type FROM addresses WHERE address = ?");
+        HexCodec.setHex(prpstmt, 1, prefixedAddress);
 
         final ResultSet resultSet = prpstmt.executeQuery();
 
@@ -162,26 +239,250 @@ public class AddressIdPoolManager {
             throw new IllegalDatabaseStateException("An address [" + prefixedAddress + "] is not recorded!");
         }
 
-        BigInteger addressId = new BigInteger(resultSet.getString(1));
+        final long addressId = resultSet.getLong(1);
+
+        try {
+            cache(prefixedAddress, AddressType.valueOf(resultSet.getString(2)), addressId);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalDatabaseStateException("Unknown address type", e);
+        }
 
         prpstmt.close();
 
         return addressId;
     }
 
-    public class AddressIdPool<K, V> extends LinkedHashMap<K, V> {
+    /**
+     * Resolve address ids of many addresses at once. Cache misses are looked up by one SELECT and unknown addresses are inserted by one multi-row INSERT IGNORE
+     * (per {@value RESOLVE_CHUNK_SIZE} addresses), then looked up again, so that one inserted by someone else in the meantime doesn't fail the block.<br>
+     * {@link AddressType#CONTRACT} addresses are checked to be contract on the database like {@code careType} of {@link #getOrInsertAddressId(Connection, String, AddressType, boolean)},
+     * {@link AddressType#NORMAL} ones are not checked. If the same address is given as both, it is treated as a contract
+     *
+     * @param connection
+     * @param addresses Pairs of prefixed address and address type to insert as
+     * @param existing  Addresses which have to be on the database already (senders), not inserted
+     * @return Lower case prefixed address to address id, for every address given
+     * @throws IllegalDatabaseStateException If a contract address is recorded as normal, or an address in {@code existing} is not on the database
+     */
+    public Map<String, Long> resolveAll(Connection connection, Collection<NonNullPair<String, AddressType>> addresses, Set<String> existing) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
+        final Map<String, Long> resolved = new HashMap<>();
+        final LinkedHashMap<String, AddressType> missed = new LinkedHashMap<>();
+        final LinkedHashMap<String, AddressType> requested = mergeDuplicates(addresses);
+
+        /* Cache first */
+        for (Map.Entry<String, AddressType> entry : requested.entrySet()) {
+            final long cached = getCached(entry.getKey(), AddressType.CONTRACT, entry.getValue() == AddressType.CONTRACT);
+
+            if (cached != -1) {
+                resolved.put(entry.getKey(), cached);
+            } else {
+                missed.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return resolved;
+        }
+
+        /* Look up all of the missed ones */
+        final List<String> missedAddresses = new ArrayList<>(missed.keySet());
+
+        selectAll(connection, missedAddresses, missed, resolved, false);
+
+        /* Insert the ones not on the database and look them up again for their ids */
+        final List<String> unknownAddresses = new ArrayList<>();
+        final Set<String> existingLowerCase = new HashSet<>();
+
+        for (String prefixedAddress : existing) {
+            existingLowerCase.add(prefixedAddress.toLowerCase());
+        }
+
+        for (String prefixedAddress : missedAddresses) {
+            if (!resolved.containsKey(prefixedAddress)) {
+                if (existingLowerCase.contains(prefixedAddress)) {
+                    // Every sender has received something before, the database is missing blocks
+                    throw new IllegalDatabaseStateException("The sender address [" + prefixedAddress + "] is not on the database");
+                }
+
+                unknownAddresses.add(prefixedAddress);
+            }
+        }
+
+        if (!unknownAddresses.isEmpty()) {
+            insertAll(connection, unknownAddresses, missed);
+            selectAll(connection, unknownAddresses, missed, resolved, true);
+
+            for (String prefixedAddress : unknownAddresses) {
+                if (!resolved.containsKey(prefixedAddress)) {
+                    throw new IllegalDatabaseStateException("Inserted an address [" + prefixedAddress + "] but it could not be found");
+                }
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Resolve address ids of many addresses at once like {@link #resolveAll(Connection, Collection, Set)}, but unknown addresses are inserted
+     * by {@code INSERT IGNORE} and committed right away, {@code connection} has to be in auto-commit mode.
+     * Thread-safe, for backfill workers inserting blocks out of order on several connections.<br>
+     * Blocks are not in order, so an address given as a contract is changed to a contract even if it was recorded as normal
+     *
+     * @param connection In auto-commit mode, not the one inserting blocks so that address rows are not locked until its commit
+     * @param addresses  Pairs of prefixed address and address type to insert as
+     * @return Lower case prefixed address to address id, for every address given
+     */
+    public Map<String, Long> resolveAllCommitted(Connection connection, Collection<NonNullPair<String, AddressType>> addresses) throws SQLException, IllegalDatabaseStateException {
+        final Map<String, Long> resolved = new HashMap<>();
+        final TreeMap<String, AddressType> missed = new TreeMap<>();    // Sorted, so that two workers lock the same rows in the same order
+        final LinkedHashMap<String, AddressType> requested = mergeDuplicates(addresses);
+
+        for (Map.Entry<String, AddressType> entry : requested.entrySet()) {
+            final long cached = addressIdCache.get(AddressIdCache.toKey(entry.getKey()));
 
-        private final int poolSize;
+            if (cached != 0 && (entry.getValue() != AddressType.CONTRACT || AddressIdCache.typeOf(cached) == AddressType.CONTRACT)) {
+                resolved.put(entry.getKey(), AddressIdCache.idOf(cached));
+            } else {
+                missed.put(entry.getKey(), entry.getValue());
+            }
+        }
 
-        public AddressIdPool(int poolSize) {
-            super(poolSize + 5, 1F, true);   // Load factor 1 means no extension of map until size() == capacity
-            // Access order is true, the last accessed element will be the last element on the map
-            this.poolSize = poolSize;
+        if (missed.isEmpty()) {
+            return resolved;
         }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            return size() > poolSize;   // Removing unimportant cache when pool size exceeds
+        final List<String> missedAddresses = new ArrayList<>(missed.keySet());
+        final List<String> contractAddresses = new ArrayList<>();
+
+        for (int from = 0; from < missedAddresses.size(); from += RESOLVE_CHUNK_SIZE) {
+            final List<String> chunk = missedAddresses.subList(from, Math.min(from + RESOLVE_CHUNK_SIZE, missedAddresses.size()));
+
+            try (PreparedStatement prpstmt = connection.prepareStatement("INSERT IGNORE INTO addresses VALUES " + placeholders("(NULL, ?, ?, NULL, NULL)", chunk.size()))) {
+                int n = 0;
+                for (String prefixedAddress : chunk) {
+                    HexCodec.setHex(prpstmt, ++n, prefixedAddress);
+                    prpstmt.setString(++n, missed.get(prefixedAddress).name());
+
+                    if (missed.get(prefixedAddress) == AddressType.CONTRACT) {
+                        contractAddresses.add(prefixedAddress);
+                    }
+                }
+
+                prpstmt.executeUpdate();
+            }
         }
+
+        // Could have been inserted as normal by a block later in the chain but written earlier
+        for (int from = 0; from < contractAddresses.size(); from += RESOLVE_CHUNK_SIZE) {
+            final List<String> chunk = contractAddresses.subList(from, Math.min(from + RESOLVE_CHUNK_SIZE, contractAddresses.size()));
+
+            try (PreparedStatement prpstmt = connection.prepareStatement("UPDATE addresses SET type = 'CONTRACT' WHERE address IN (" + placeholders("?", chunk.size()) + ")")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    HexCodec.setHex(prpstmt, i + 1, chunk.get(i));
+                }
+
+                prpstmt.executeUpdate();
+            }
+        }
+
+        selectAll(connection, missedAddresses, missed, resolved, false);    // Already committed, straight into the cache
+
+        for (String prefixedAddress : missedAddresses) {
+            if (!resolved.containsKey(prefixedAddress)) {
+                throw new IllegalDatabaseStateException("Inserted an address [" + prefixedAddress + "] but it could not be found");
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * @return Lower case prefixed address to the type to insert as, contract if given as both
+     */
+    private static LinkedHashMap<String, AddressType> mergeDuplicates(Collection<NonNullPair<String, AddressType>> addresses) {
+        final LinkedHashMap<String, AddressType> merged = new LinkedHashMap<>();
+
+        for (NonNullPair<String, AddressType> pair : addresses) {
+            // The node and premine list don't agree on letter case, the database doesn't care about it
+            merged.merge(pair.getA().toLowerCase(), pair.getB(), (a, b) -> a == AddressType.CONTRACT ? a : b);
+        }
+
+        return merged;
+    }
+
+    private void selectAll(Connection connection, List<String> prefixedAddresses, Map<String, AddressType> types, Map<String, Long> resolved, boolean inserted) throws SQLException, IllegalDatabaseStateException {
+        // Addresses come back as bytes, match them by lower case hex
+        final Map<String, String> byLowerHex = new HashMap<>();
+
+        for (String prefixedAddress : prefixedAddresses) {
+            byLowerHex.put(prefixedAddress.substring(2).toLowerCase(), prefixedAddress);
+        }
+
+        for (int from = 0; from < prefixedAddresses.size(); from += RESOLVE_CHUNK_SIZE) {
+            final List<String> chunk = prefixedAddresses.subList(from, Math.min(from + RESOLVE_CHUNK_SIZE, prefixedAddresses.size()));
+
+            final PreparedStatement prpstmt = connection.prepareStatement("SELECT address, type, internal_id FROM addresses WHERE address IN (" + placeholders("?", chunk.size()) + ")");
+
+            for (int i = 0; i < chunk.size(); i++) {
+                HexCodec.setHex(prpstmt, i + 1, chunk.get(i));
+            }
+
+            final ResultSet resultSet = prpstmt.executeQuery();
+
+            while (resultSet.next()) {
+                final String prefixedAddress = byLowerHex.get(HexCodec.encode(resultSet.getBytes(1)));
+
+                final AddressType recordedAddressType;
+
+                try {
+                    recordedAddressType = AddressType.valueOf(resultSet.getString(2));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalDatabaseStateException("Unknown address type", e);
+                }
+
+                if (types.get(prefixedAddress) == AddressType.CONTRACT && recordedAddressType != AddressType.CONTRACT) {
+                    throw new IllegalDatabaseStateException("Address type mismatch for [" + prefixedAddress + "], expected [" + AddressType.CONTRACT + "] got [" + recordedAddressType + "]");
+                }
+
+                final long addressId = resultSet.getLong(3);
+
+                resolved.put(prefixedAddress, addressId);
+
+                if (inserted) {
+                    cacheInserted(prefixedAddress, recordedAddressType, addressId);
+                } else {
+                    cache(prefixedAddress, recordedAddressType, addressId);
+                }
+            }
+
+            prpstmt.close();
+        }
+    }
+
+    private void insertAll(Connection connection, List<String> prefixedAddresses, Map<String, AddressType> types) throws SQLException {
+        for (int from = 0; from < prefixedAddresses.size(); from += RESOLVE_CHUNK_SIZE) {
+            final List<String> chunk = prefixedAddresses.subList(from, Math.min(from + RESOLVE_CHUNK_SIZE, prefixedAddresses.size()));
+
+            final PreparedStatement prpstmt = connection.prepareStatement("INSERT IGNORE INTO addresses VALUES " + placeholders("(NULL, ?, ?, NULL, NULL)", chunk.size()));
+
+            int n = 0;
+            for (String prefixedAddress : chunk) {
+                HexCodec.setHex(prpstmt, ++n, prefixedAddress);
+                prpstmt.setString(++n, types.get(prefixedAddress).name());
+            }
+
+            prpstmt.executeUpdate();
+            prpstmt.close();
+        }
+    }
+
+    private static String placeholders(String placeholder, int count) {
+        final StringJoiner joiner = new StringJoiner(", ");
+
+        for (int i = 0; i < count; i++) {
+            joiner.add(placeholder);
+        }
+
+        return joiner.toString();
     }
 }
@@ -0,0 +1,19 @@
+package net.nekonium.explorer;
+
+import java.sql.SQLException;
+
+/**
+ * Gives an address id for an address, the database or some local table is behind it
+ */
+public interface AddressIdResolver {
+
+    /**
+     * Same contract as {@link AddressIdPoolManager#getOrInsertAddressId(java.sql.Connection, String, AddressType, boolean)}
+     */
+    long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) throws SQLException;
+
+    /**
+     * Same contract as {@link AddressIdPoolManager#getAddressId(java.sql.Connection, String)}
+     */
+    long get(String prefixedAddress) throws SQLException;
+}
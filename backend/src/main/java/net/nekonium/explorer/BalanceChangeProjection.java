@@ -0,0 +1,49 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.Int128;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * The balance_changes table, how much each address gained or lost on each block
+ */
+final class BalanceChangeProjection implements Projection {
+
+    static final String NAME = "balance-changes";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String[] getTables() {
+        return new String[]{"balance_changes"};
+    }
+
+    @Override
+    public boolean isBulkLoaded() {
+        return true;
+    }
+
+    @Override
+    public void apply(ConverterStatements statements, BlockEvent event) throws SQLException {
+        final PreparedStatement prpstmt = statements.prepare("INSERT INTO balance_changes VALUES (?, ?, ?, ?)");
+
+        for (Map.Entry<Long, Int128> entry : event.getBalanceChanges().entrySet()) {
+            final Int128 balanceChange = entry.getValue();
+
+            if (balanceChange.signum() == 0) {
+                continue;   // Balance not changed, skip this
+            }
+
+            prpstmt.setLong(1, event.getBlockId());
+            prpstmt.setLong(2, entry.getKey());
+            prpstmt.setInt(3, balanceChange.signum() == -1 ? 1 : 0);    // If balance change is negative then 1 otherwise 0
+            prpstmt.setBytes(4, balanceChange.abs().toByteArray());
+            statements.insert(prpstmt);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import net.nekonium.explorer.web3jexpand.RawTransaction;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.nekonium.explorer.BlockchainConverter.BLOCK_REWARD;
+
+/**
+ * Calculates how balances change by a block: mining rewards, uncle rewards, value transfers and transaction fees.
+ * Changes are summed into one {@link Int128} per address, nothing is allocated for each addition
+ */
+public class BalanceChanges {
+
+    private static final long UNCLE_INCLUSION_REWARD = BLOCK_REWARD / 32;
+    private static final long UNCLE_REWARD_UNIT = BLOCK_REWARD / 8;     // Block reward is a multiple of 8, no remainder
+
+    private BalanceChanges() {
+    }
+
+    /**
+     * @return Address id to balance change map, may contain zero changes
+     */
+    public static HashMap<Long, Int128> of(FetchedBlock fetchedBlock, AddressIdResolver resolver) throws SQLException {
+        final RawBlock block = fetchedBlock.getBlock();
+        final RawTransaction[] transactions = fetchedBlock.getTransactions();
+        final RawReceipt[] transactionReceiptList = fetchedBlock.getTransactionReceipts();
+
+        final long minerAddressId = resolver.getOrInsert(block.getMiner(), AddressType.NORMAL, false);
+
+        final HashMap<Long, Int128> addresses = new HashMap<>();
+
+        /* Pure block mining reward */
+        changeOf(addresses, minerAddressId).add(BLOCK_REWARD);  // Miner of the block gets full block reward
+
+
+        /* Uncle mining / inclusion reward */
+        // FIXME block #0 miner does not get reward
+        for (RawBlock uncle : fetchedBlock.getUncles()) {
+            final long uncleMinerAddressId = resolver.getOrInsert(uncle.getMiner(), AddressType.NORMAL, false);
+
+            final long uncleReward = Math.multiplyExact(uncle.getNumber() + 8 - block.getNumber(), UNCLE_REWARD_UNIT); // This is full uncle reward, (uncle + 8 - block) * reward / 8
+
+            changeOf(addresses, uncleMinerAddressId).add(uncleReward);          // Miner of a uncle block gets full uncle reward
+            changeOf(addresses, minerAddressId).add(UNCLE_INCLUSION_REWARD);    // Miner of the block gets full block reward / 32
+        }
+
+        /* Transaction balance change / fee */
+        for (int i = 0; i < transactions.length; i++) {
+            final RawTransaction transaction = transactions[i];
+            final RawReceipt transactionReceipt = transactionReceiptList[i];
+
+            final long fromAddressId = resolver.get(transaction.getFrom());
+
+            final Int128 valueSent = transaction.getValue();
+            final Int128 gasPrice = transaction.getGasPrice();
+            final long gasUsed = transactionReceipt.getGasUsed();   // Transaction fee is gasUsed * gasPrice
+
+            changeOf(addresses, fromAddressId).subtract(valueSent);             // Subtract sent value from the sender
+            changeOf(addresses, fromAddressId).subtractProduct(gasUsed, gasPrice);  // Subtract fee from the sender
+            changeOf(addresses, minerAddressId).addProduct(gasUsed, gasPrice);  // Give transaction fee to the miner
+
+            if (transaction.getTo() != null) {
+                changeOf(addresses, resolver.getOrInsert(transaction.getTo(), AddressType.NORMAL, false)).add(valueSent);    // Add to target
+
+            } else if (transactionReceipt.getContractAddress() != null) {
+                changeOf(addresses, resolver.getOrInsert(transactionReceipt.getContractAddress(), AddressType.CONTRACT, true)).add(valueSent); // Add to contract
+
+            } else {
+                throw new IllegalBlockchainStateException("Something went wrong. The transaction is not contract creation nor normal sending nor contract execution");
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * @return The running change of the address, added to in place
+     */
+    static Int128 changeOf(Map<Long, Int128> map, long addressId) {
+        return map.computeIfAbsent(addressId, k -> new Int128());
+    }
+}
@@ -0,0 +1,133 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.LongHashMap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest balance on the main chain of every address in memory, so that the converter doesn't have to read the balance table.<br>
+ * Balances set during a database transaction are pending until {@link #commit()}, and thrown away by {@link #rollback()},
+ * so that this is always the same as the committed database. Only for the converter thread, not thread-safe
+ */
+public class BalanceLedger {
+
+    private final LongHashMap<Int128> committed = new LongHashMap<>(1 << 16);
+    private final LongHashMap<Int128> pending = new LongHashMap<>();
+
+    /**
+     * Load the latest balance of every address from the database, call this before anything else
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public void warm(Connection connection) throws SQLException {
+        this.committed.clear();
+        this.pending.clear();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.setFetchSize(10000);   // One row per address, could be millions, stream them
+
+            // The latest main chain row of each address, one walk down number_address_id each instead of every row of the history
+            try (ResultSet resultSet = statement.executeQuery(
+                    "SELECT internal_id, (SELECT balance FROM balance " +
+                            "JOIN blocks ON blocks.internal_id = balance.block_id " +
+                            "WHERE balance.address_id = addresses.internal_id AND blocks.forked = 0 " +
+                            "ORDER BY balance.number DESC LIMIT 1) FROM addresses")) {
+                while (resultSet.next()) {
+                    final byte[] balance = resultSet.getBytes(2);
+
+                    if (balance != null) {  // Never had balance
+                        this.committed.put(resultSet.getLong(1), Int128.fromByteArray(balance));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The latest balance, or {@code null} if the address has never had balance
+     */
+    public Int128 get(long addressId) {
+        final Int128 balance = pending.get(addressId);
+
+        return balance != null ? balance : committed.get(addressId);
+    }
+
+    /**
+     * Set the latest balance, pending until commit
+     */
+    public void put(long addressId, Int128 balance) {
+        this.pending.put(addressId, balance);
+    }
+
+    /**
+     * Call this after the database transaction has been committed
+     */
+    public void commit() {
+        this.pending.forEach(committed::put);
+        this.pending.clear();
+    }
+
+    /**
+     * Call this after the database transaction has been rolled back
+     */
+    public void rollback() {
+        this.pending.clear();
+    }
+
+    /**
+     * After blocks from {@code fromNumber} have been marked forked or revived, balances of addresses which appear on those blocks are stale.
+     * Reload them from the database (the same transaction, not committed yet), as the latest main chain balance below {@code belowNumber}.
+     * Reloaded balances are pending too
+     *
+     * @param connection
+     * @param fromNumber  The lowest block number whose blocks have been changed
+     * @param belowNumber The block number about to be inserted
+     * @throws SQLException
+     */
+    public void reload(Connection connection, long fromNumber, long belowNumber) throws SQLException {
+        final List<Long> addressIds = new ArrayList<>();
+
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT DISTINCT address_id FROM balance WHERE number >= ?")) {
+            prpstmt.setLong(1, fromNumber);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    addressIds.add(resultSet.getLong(1));
+                }
+            }
+        }
+
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT balance FROM balance " +
+                        "LEFT JOIN blocks ON block_id = blocks.internal_id " +
+                        "WHERE forked = 0 AND address_id = ? AND balance.number < ? " +
+                        "ORDER BY balance.number DESC LIMIT 1")) {
+            // Go-nekonium is stupid about block reorg, sometimes it emits the same block that was known 2~3 before
+            // It is confusing, and because of that, internal_id is not the same order as block number
+            for (long addressId : addressIds) {
+                prpstmt.setLong(1, addressId);
+                prpstmt.setLong(2, belowNumber);
+
+                try (ResultSet resultSet = prpstmt.executeQuery()) {
+                    if (resultSet.next()) {
+                        this.pending.put(addressId, Int128.fromByteArray(resultSet.getBytes(1)));
+                    } else {
+                        this.pending.put(addressId, new Int128());   // Only had balance on forked blocks
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return committed.size();
+    }
+}
@@ -0,0 +1,91 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.Int128;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * The balance table, a row of the new balance for every address whose balance changed on a block.
+ * Previous balances come from {@link BalanceLedger}, not from the table
+ */
+final class BalanceProjection implements Projection {
+
+    static final String NAME = "balance";
+
+    private final BalanceLedger balanceLedger = new BalanceLedger();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String[] getTables() {
+        return new String[]{"balance"};
+    }
+
+    @Override
+    public boolean isBulkLoaded() {
+        return true;
+    }
+
+    @Override
+    public void open(Connection connection) throws SQLException {
+        balanceLedger.warm(connection);
+    }
+
+    @Override
+    public void apply(ConverterStatements statements, BlockEvent event) throws SQLException {
+        final PreparedStatement prpstmt = statements.prepare("INSERT INTO balance VALUES (?, ?, ?, ?)");
+
+        for (Map.Entry<Long, Int128> entry : event.getBalanceChanges().entrySet()) {
+            final long addressId = entry.getKey();
+            final Int128 balanceChange = entry.getValue();
+
+            if (balanceChange.signum() == 0) {
+                continue;   // Balance not changed, skip this
+            }
+
+            // Get the previous balance of the address, no need to ask the database
+            final Int128 previousBalance = balanceLedger.get(addressId);
+
+            final Int128 balance;   // The balance will be set
+
+            if (previousBalance != null) {
+                // Add the change to the previous balance, the ledger's one is committed and not touched
+                balance = previousBalance.copy().add(balanceChange);
+            } else {
+                // This is the first time of the address to appear on the database
+                assert balanceChange.signum() != -1;    // Assert change of the balance is not negative
+
+                balance = balanceChange.copy();
+            }
+
+            prpstmt.setLong(1, event.getBlockId());
+            prpstmt.setLong(2, event.getNumber());
+            prpstmt.setLong(3, addressId);
+            prpstmt.setBytes(4, balance.toByteArray());
+            statements.insert(prpstmt);
+
+            balanceLedger.put(addressId, balance);
+        }
+    }
+
+    @Override
+    public void reorganized(Connection connection, long fromNumber, long belowNumber) throws SQLException {
+        balanceLedger.reload(connection, fromNumber, belowNumber);
+    }
+
+    @Override
+    public void commit() {
+        balanceLedger.commit();
+    }
+
+    @Override
+    public void rollback() {
+        balanceLedger.rollback();
+    }
+}
@@ -0,0 +1,429 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.LongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Fetched blocks (with uncles and receipts) kept on the local disk, so that rebuilding the database doesn't have to ask the node for every block again.<br>
+ * Blocks are deflated and appended to segment files in the order they come, and looked up by the block number or the hash through an index in memory,
+ * which is made again from record headers on opening. A segment is mapped into memory once it is full and no more is appended,
+ * records of the segment still being appended to are read from the file.
+ * Only blocks deep enough not to be reorged should be put, a cached block is never checked with the node again.<br>
+ * A record is [compressed length][raw length][CRC32 of the compressed bytes][block number][block hash][compressed bytes].
+ * A torn record at the end is cut off on opening. Thread-safe
+ */
+public class BlockCache implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".blk";
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + HASH_LENGTH;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final Logger logger;
+
+    private final List<Segment> segments = new ArrayList<>();   // In the order of the file name, guarded by this
+    private final LongHashMap<Entry> byNumber = new LongHashMap<>(1 << 16);  // Guarded by this
+    private final LongHashMap<Entry> byHash = new LongHashMap<>(1 << 16);    // By the first 8 bytes of the hash, guarded by this
+    private boolean closed;
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Open the cache in {@code directory}, or create an empty one
+     *
+     * @param segmentBytes A new segment is started when the current one is bigger than this, at most 2GB because of memory mapping
+     */
+    public BlockCache(File directory, long segmentBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 byte and 2GB");
+        }
+
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.logger = LoggerFactory.getLogger("BlockCache");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the block cache directory " + directory);
+        }
+
+        open();
+    }
+
+    /**
+     * Index every record of every segment, reading only the headers
+     */
+    private void open() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+
+        if (files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+
+        Arrays.sort(files);     // Names are zero-padded sequence numbers
+
+        for (File file : files) {
+            final int sequence;
+
+            try {
+                sequence = Integer.parseInt(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring {}, not a segment name", file.getName());
+                continue;
+            }
+
+            final Segment segment = new Segment(sequence, FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            final long fileSize = segment.channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            long position = 0;
+
+            while (fileSize - position >= HEADER_SIZE) {
+                header.clear();
+                readFully(segment.channel, header, position);
+                header.flip();
+
+                final int compressedLength = header.getInt();
+                final int rawLength = header.getInt();
+
+                if (compressedLength <= 0 || rawLength <= 0 || position + HEADER_SIZE + compressedLength > fileSize) {
+                    break;
+                }
+
+                header.getInt();    // CRC is checked on reading
+
+                final long blockNumber = header.getLong();
+                final byte[] hash = new byte[HASH_LENGTH];
+
+                header.get(hash);
+
+                index(new Entry(blockNumber, hash, segment, position, compressedLength, rawLength));
+
+                position += HEADER_SIZE + compressedLength;
+            }
+
+            if (position < fileSize) {
+                logger.warn("Cutting off a torn record at the end of {}, {} bytes", file.getName(), fileSize - position);
+                segment.channel.truncate(position);
+            }
+
+            segment.size = position;
+
+            if (!segments.isEmpty()) {
+                segments.get(segments.size() - 1).sealed = true;
+            }
+
+            this.segments.add(segment);
+        }
+
+        if (!segments.isEmpty()) {
+            logger.info("Block cache has {} blocks in {} segments", byNumber.size(), segments.size());
+        }
+    }
+
+    /**
+     * @return The block on the main chain, or {@code null} if it's not cached
+     */
+    public FetchedBlock get(long blockNumber) throws IOException {
+        final Entry entry;
+
+        synchronized (this) {
+            entry = byNumber.get(blockNumber);
+        }
+
+        return read(entry);
+    }
+
+    /**
+     * @return The block, or {@code null} if it's not cached
+     */
+    public FetchedBlock get(byte[] hash) throws IOException {
+        if (hash.length != HASH_LENGTH) {
+            return read(null);
+        }
+
+        Entry entry;
+
+        synchronized (this) {
+            entry = byHash.get(hashKey(hash));
+        }
+
+        if (entry != null && !Arrays.equals(entry.hash, hash)) {
+            entry = null;   // Another block with the same 8 bytes, can't be told apart
+        }
+
+        return read(entry);
+    }
+
+    private FetchedBlock read(Entry entry) throws IOException {
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        final byte[] compressed = new byte[entry.compressedLength];
+        final int recordedCrc = entry.segment.read(entry.offset, compressed);
+
+        if (crc(compressed) != recordedCrc) {
+            logger.warn("Cached block #{} is broken, asking the node", entry.blockNumber);
+            misses.increment();
+            return null;
+        }
+
+        final Inflater inflater = inflaters.get();
+        final byte[] payload = new byte[entry.rawLength];
+
+        inflater.reset();
+        inflater.setInput(compressed);
+
+        try {
+            if (inflater.inflate(payload) != payload.length) {
+                throw new IOException("Cached block #" + entry.blockNumber + " is shorter than recorded");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Cached block #" + entry.blockNumber + " could not be inflated", e);
+        }
+
+        hits.increment();
+
+        return StagingLog.decode(payload);
+    }
+
+    /**
+     * Cache a block which is deep enough not to be reorged. A block already cached with the same hash is not written again
+     */
+    public void put(FetchedBlock fetchedBlock) throws IOException {
+        final long blockNumber = fetchedBlock.getBlock().getNumber();
+        final byte[] hash = fetchedBlock.getBlock().getHash();
+
+        if (hash.length != HASH_LENGTH) {
+            return;
+        }
+
+        synchronized (this) {
+            final Entry cached = byNumber.get(blockNumber);
+
+            if (cached != null && Arrays.equals(cached.hash, hash)) {
+                return;
+            }
+        }
+
+        // Compressed outside the lock, fetching threads put blocks at the same time
+        final byte[] payload = StagingLog.encode(fetchedBlock);
+        final byte[] compressed = deflate(payload);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + compressed.length);
+
+        buffer.putInt(compressed.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(crc(compressed));
+        buffer.putLong(blockNumber);
+        buffer.put(hash);
+        buffer.put(compressed);
+        buffer.flip();
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Block cache is closed");
+            }
+
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+            if (segment == null || segment.size >= segmentBytes) {
+                segment = roll();
+            }
+
+            final long offset = segment.size;
+
+            while (buffer.hasRemaining()) {
+                segment.channel.write(buffer, offset + buffer.position());
+            }
+
+            segment.size += buffer.limit();
+
+            index(new Entry(blockNumber, hash, segment, offset, compressed.length, payload.length));
+        }
+    }
+
+    private Segment roll() throws IOException {
+        final Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        // After the last one, not the count, segments before it may have been deleted by hand
+        final int sequence = last == null ? 0 : last.sequence + 1;
+        final File file = new File(directory, String.format("%08d", sequence) + SEGMENT_SUFFIX);
+        final Segment segment = new Segment(sequence, FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+
+        if (last != null) {
+            last.sealed = true;     // Its size doesn't change anymore
+        }
+
+        this.segments.add(segment);
+
+        return segment;
+    }
+
+    private void index(Entry entry) {
+        // A later record of the same number replaces the earlier one
+        this.byNumber.put(entry.blockNumber, entry);
+        this.byHash.put(hashKey(entry.hash), entry);
+    }
+
+    private byte[] deflate(byte[] payload) {
+        final Deflater deflater = deflaters.get();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 64);
+        final byte[] chunk = new byte[8192];
+
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+
+        return out.toByteArray();
+    }
+
+    private static long hashKey(byte[] hash) {
+        long key = 0;
+
+        for (int i = 0; i < 8; i++) {
+            key = (key << 8) | (hash[i] & 0xFF);
+        }
+
+        return key;
+    }
+
+    private static int crc(byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+
+        crc32.update(bytes, 0, bytes.length);
+
+        return (int) crc32.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * @return How many blocks were read from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return How many blocks were asked but not in the cache
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return byNumber.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.closed = true;
+
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    private static class Entry {
+        private final long blockNumber;
+        private final byte[] hash;
+        private final Segment segment;
+        private final long offset;      // Of the header
+        private final int compressedLength;
+        private final int rawLength;
+
+        private Entry(long blockNumber, byte[] hash, Segment segment, long offset, int compressedLength, int rawLength) {
+            this.blockNumber = blockNumber;
+            this.hash = hash;
+            this.segment = segment;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private static class Segment {
+        private final int sequence;
+        private final FileChannel channel;
+        private long size;      // Guarded by the cache, doesn't change once sealed
+        private volatile boolean sealed;    // Set under the lock of the cache, when the next segment is started
+
+        private MappedByteBuffer mapped;    // Guarded by this, the whole file once sealed
+
+        private Segment(int sequence, FileChannel channel) {
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+
+        /**
+         * Read the compressed bytes of the record at {@code offset}
+         *
+         * @return CRC32 in the header of the record
+         */
+        private int read(long offset, byte[] compressed) throws IOException {
+            final ByteBuffer view = view();
+
+            if (view == null) {
+                // Still being appended to, only the record is read so that the file is not mapped again for each record beyond the last mapping
+                final ByteBuffer crc = ByteBuffer.allocate(4);
+
+                readFully(channel, crc, offset + 8);
+                readFully(channel, ByteBuffer.wrap(compressed), offset + HEADER_SIZE);
+
+                return crc.getInt(0);
+            }
+
+            view.position((int) offset + HEADER_SIZE);
+            view.get(compressed);
+
+            return view.getInt((int) offset + 8);
+        }
+
+        /**
+         * @return A view of the mapped file for one reader, {@code null} if not sealed yet
+         */
+        private synchronized ByteBuffer view() throws IOException {
+            if (mapped == null) {
+                if (!sealed) {
+                    return null;
+                }
+
+                this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);     // Once, the size is final
+            }
+
+            return mapped.duplicate();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.NonNullPair;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * A main chain block handed to projections, with what they commonly need worked out once
+ */
+final class BlockEvent {
+
+    private final FetchedBlock fetchedBlock;
+    private final long blockId;
+    private final AddressIdResolver resolver;
+
+    private HashMap<Long, Int128> balanceChanges;
+
+    BlockEvent(FetchedBlock fetchedBlock, long blockId, AddressIdResolver resolver) {
+        this.fetchedBlock = fetchedBlock;
+        this.blockId = blockId;
+        this.resolver = resolver;
+    }
+
+    FetchedBlock getFetchedBlock() {
+        return fetchedBlock;
+    }
+
+    long getNumber() {
+        return fetchedBlock.getBlock().getNumber();
+    }
+
+    /**
+     * @return Internal id of the block
+     */
+    long getBlockId() {
+        return blockId;
+    }
+
+    AddressIdResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @return Address id to balance change by this block, premine included on block #0. May contain zero changes
+     */
+    HashMap<Long, Int128> getBalanceChanges() throws SQLException {
+        if (balanceChanges == null) {
+            this.balanceChanges = BalanceChanges.of(fetchedBlock, resolver);
+
+            if (getNumber() == 0) {
+                for (NonNullPair<String, Int128> pair : BlockchainConverter.getPreminedAddresses()) {
+                    BalanceChanges.changeOf(balanceChanges, resolver.getOrInsert(pair.getA(), AddressType.NORMAL, true)).add(pair.getB());
+                }
+            }
+        }
+
+        return balanceChanges;
+    }
+}
@@ -1,18 +1,22 @@
 package net.nekonium.explorer;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import net.nekonium.explorer.util.HexCodec;
 import net.nekonium.explorer.util.IllegalBlockchainStateException;
 import net.nekonium.explorer.util.IllegalDatabaseStateException;
+import net.nekonium.explorer.util.Int128;
 import net.nekonium.explorer.util.NonNullPair;
-import net.nekonium.explorer.web3jexpand.Web3jManager;
+import net.nekonium.explorer.web3jexpand.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.Request;
 import org.web3j.protocol.core.methods.response.EthBlock;
-import org.web3j.protocol.core.methods.response.Transaction;
-import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
 import rx.Subscription;
-import rx.functions.Action1;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -20,8 +24,10 @@ import java.math.RoundingMode;
 import java.sql.*;
 import java.time.ZoneId;
 import java.util.*;
-
-import static java.sql.Statement.RETURN_GENERATED_KEYS;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class BlockchainConverter implements Runnable {
     //
@@ -32,21 +38,65 @@ public class BlockchainConverter implements Runnable {
     private final Web3jManager web3jManager;
     private final DatabaseManager databaseManager;
     private final AddressIdPoolManager addressIdPool;
+    private final ProjectionManager projections;
+    private final RecentChainWindow recentChain;
+    private final SyncStatus syncStatus;
+    private final ConverterMetrics metrics;
+    private final ConfigLoader config;
     private final Logger logger;
 
     private Subscription blockSub;
-    private boolean stop;// Nekonium block reward
-    public static final BigInteger BLOCK_REWARD = BigInteger.valueOf(7500000000000000000L);
-
-    public BlockchainConverter(Web3jManager web3jManager, DatabaseManager databaseManager) {
+    private CatchupPipeline catchupPipeline;
+    private BootstrapLoader bootstrapLoader;
+    private ParallelBackfill backfill;
+    private HistoryBackfill historyBackfill;
+    private Thread historyThread;
+    private BlockCache blockCache;
+    private volatile long nodeHead;     // Blocks this deep below are put in the block cache
+    private volatile boolean stop;// Nekonium block reward
+    public static final long BLOCK_REWARD = 7500000000000000000L;   // In wei, fits in a long
+
+    public BlockchainConverter(Web3jManager web3jManager, DatabaseManager databaseManager, AddressIdPoolManager addressIdPool, SyncStatus syncStatus, ConfigLoader config) {
         this.web3jManager = web3jManager;
         this.databaseManager = databaseManager;
-        this.addressIdPool = new AddressIdPoolManager();
+        this.config = config;
+        this.addressIdPool = addressIdPool;
+        this.projections = new ProjectionManager(Arrays.asList(new BalanceChangeProjection(), new BalanceProjection(), new TokenTransferProjection()),
+                this::fetchBlock, databaseManager, addressIdPool, config);
+        this.recentChain = new RecentChainWindow(config.getRecentChainSize());
+        this.syncStatus = syncStatus;
+        this.metrics = new ConverterMetrics();
         this.logger = LoggerFactory.getLogger("Converter");
     }
 
     @Override
     public void run() {
+        if (config.isCacheEnabled()) {
+            try {
+                this.nodeHead = web3jManager.getWeb3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+                this.blockCache = new BlockCache(new File(config.getCacheDirectory()), config.getCacheSegmentMegabytes() * 1024L * 1024L);
+            } catch (IOException e) {
+                // Not fatal, everything is fetched from the node
+                this.logger.warn("Could not open the block cache, fetching without it", e);
+            }
+        }
+
+        try {
+            convert();
+        } finally {
+            if (blockCache != null) {
+                this.logger.info("Block cache: {} hits, {} misses", blockCache.getHitCount(), blockCache.getMissCount());
+
+                try {
+                    blockCache.close();
+                } catch (IOException e) {
+                    this.logger.error("An error occurred when closing the block cache", e);
+                }
+            }
+        }
+    }
+
+    private void convert() {
         /* Check timezone this machine is in */
         if (!ZoneId.systemDefault().equals(ZoneId.of("UTC"))) {
             this.logger.warn("It is recommended to set timezone 'UTC'.");
@@ -63,9 +113,37 @@ public class BlockchainConverter implements Runnable {
             return;
         }
 
+        if (config.isBootstrapEnabled()) {
+            // Bulk-load most of the blockchain if the database is empty, the rest is done by catchup fetch below
+            this.bootstrapLoader = new BootstrapLoader(this::fetchBlock, web3jManager, databaseManager, config);
+
+            final boolean bootstrapped = bootstrapLoader.run();
+
+            this.bootstrapLoader = null;
+
+            if (!bootstrapped || stop) {
+                this.logger.warn("Bootstrap failed. Stopping converter...");
+                return;
+            }
+        }
+
+        if (config.isBackfillEnabled()) {
+            // Same as bootstrap, but inserting ranges of blocks on several threads. Nothing to do here if bootstrap has done it
+            this.backfill = new ParallelBackfill(this::fetchBlock, web3jManager, databaseManager, addressIdPool, projections, config);
+
+            final boolean backfilled = backfill.run();
+
+            this.backfill = null;
+
+            if (!backfilled || stop) {
+                this.logger.warn("Backfill failed. Stopping converter...");
+                return;
+            }
+        }
+
         // Let's check the block number where to start fetching from
-        // Using BigInteger for avoiding overflow, as go-nekonium uses an arbitrary precision integer for block number
-        BigInteger catchupStart;
+        // go-nekonium uses an arbitrary precision integer for block number, but a long lasts far longer than the chain
+        long catchupStart;
         Connection connection = null;
 
         try {
@@ -80,10 +158,10 @@ public class BlockchainConverter implements Runnable {
             final ResultSet resultSet = statement.executeQuery("SELECT number FROM blocks ORDER BY number DESC LIMIT 1");
 
             if (resultSet.next()) {
-                catchupStart = new BigInteger(resultSet.getString(1)).add(BigInteger.ONE);
+                catchupStart = resultSet.getLong(1) + 1;
             } else {
                 // Found no data on the database, fetching blockchain data from the block 0
-                catchupStart = BigInteger.ZERO;
+                catchupStart = 0;
             }
 
             statement.close();
@@ -106,10 +184,11 @@ public class BlockchainConverter implements Runnable {
 
         this.logger.info("Getting the latest block number from the nekonium node");
 
-        final BigInteger nodeBlockNumber;
+        final long nodeBlockNumber;
 
         try {
-            nodeBlockNumber = this.web3jManager.getWeb3j().ethBlockNumber().send().getBlockNumber();
+            nodeBlockNumber = this.web3jManager.getWeb3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+            this.nodeHead = nodeBlockNumber;
         } catch (IOException e) {
             this.logger.error("An error occurred when executing eth_blockNumber method call on the nekonium node");
 
@@ -118,18 +197,52 @@ public class BlockchainConverter implements Runnable {
             return;
         }
 
-        if (nodeBlockNumber.compareTo(catchupStart) > 0) {
+        // A gap left by head-first sync last time, or a new one if the database is far behind
+        try (Connection historyConnection = databaseManager.getConnection()) {
+            final HistoryBackfill historyBackfill = new HistoryBackfill(this::fetchBlock, databaseManager, addressIdPool, projections,
+                    syncStatus, config);
+
+            if (historyBackfill.resume(historyConnection)) {
+                this.historyBackfill = historyBackfill;
+            } else if (config.isHeadFirstEnabled() && nodeBlockNumber - catchupStart >= config.getHeadFirstThreshold()) {
+                final long anchorNumber = nodeBlockNumber - config.getHeadFirstConfirmations();
+
+                if (anchorNumber > catchupStart && historyBackfill.anchor(historyConnection, anchorNumber)) {
+                    this.historyBackfill = historyBackfill;
+
+                    // Only the blocks above the anchor are caught up here
+                    catchupStart = anchorNumber + 1;
+                } else {
+                    this.logger.warn("Could not start head-first sync, catching up from the database's last block instead");
+                }
+            }
+        } catch (Exception e) {
+            this.logger.error("An error occurred when checking unfilled history, Stopping converter", e);
+            return;
+        }
+
+        try {
+            logger.info("Loading projections...");
+
+            // After the head-first anchor, so that projections not written by history backfill replay the history below it
+            projections.open(catchupStart - 1);
+        } catch (SQLException e) {
+            this.logger.error("A database error occurred when loading projections, Stopping converter", e);
+            return;
+        }
+
+        if (nodeBlockNumber > catchupStart) {
             // Latest block number is grater than the number on the database
             // Catchup fetch is needed
 
-            if (catchupStart.compareTo(BigInteger.ZERO) > 0) {
+            if (catchupStart > 0) {
                 // Before catchup fetch, check parents relation
                 // Because last time before the program closed, it could have fetched a block to be forked block
 
                 final EthBlock.Block block;
 
                 try {
-                    block = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(catchupStart.subtract(BigInteger.ONE)), true).send().getBlock();
+                    block = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(catchupStart - 1)), true).send().getBlock();
                 } catch (IOException e) {
                     this.logger.error("An error occurred when getting a block for parent relation check");
                     return;
@@ -152,28 +265,22 @@ public class BlockchainConverter implements Runnable {
             }
 
             // Fetching all block data from catchupStart to the latest block, this is catchup fetch
-            this.logger.info("A catchup fetch is starting from the block #{} to #{}", catchupStart.toString(), nodeBlockNumber.toString());
+            this.logger.info("A catchup fetch is starting from the block #{} to #{}", catchupStart, nodeBlockNumber);
 
-            this.blockSub = this.web3jManager.getWeb3j()
-                    .replayBlocksObservable(DefaultBlockParameter.valueOf(catchupStart), DefaultBlockParameter.valueOf(nodeBlockNumber), true)
-                    // This happens on error and stops converter
-                    .doOnError(throwable -> stop = true)
-                    .subscribe(new CatchupSubscriber(nodeBlockNumber));
+            // Blocks are fetched ahead on several threads, but written one by one in order on this thread
+            this.catchupPipeline = new CatchupPipeline(this::fetchBlock, config.getCatchupWindowSize(), config.getCatchupFetchThreads());
 
-            this.logger.info("Catching up...");
+            this.logger.info("Catching up... (window {} blocks, {} fetch threads)", config.getCatchupWindowSize(), config.getCatchupFetchThreads());
 
-            // Wait until fetching is over
-            while (!this.blockSub.isUnsubscribed()) {
-                // If subscription unsubscribed on catchUpToLatestBlockObservable then fetching all of block data is done
-                // FIXME I hate this, is there any more efficient way to get notified if block fetch is done???
+            // This blocks until fetching and writing are over
+            final boolean completed = config.isStagingEnabled() ? catchupStaged(catchupStart, nodeBlockNumber) : catchupDirect(catchupStart, nodeBlockNumber);
 
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            if (!completed) {
+                this.stop = true;
             }
 
+            this.catchupPipeline = null;
+
             if (stop) {
                 // Look like there was an error in the subscriber's thread
                 // Stop the whole converter
@@ -184,25 +291,196 @@ public class BlockchainConverter implements Runnable {
 
         this.logger.info("Catchup fetch completed. Initiating a real-time fetch...");
 
+        if (historyBackfill != null && !historyBackfill.isFilled()) {
+            // The history below the anchor is filled while new blocks are coming
+            this.historyThread = new Thread(historyBackfill, "history-backfill");
+            this.historyThread.start();
+        }
+
         // Real-time fetch, this continues through a block explorer is operational, starts from catchup fetch end + 1
-        this.blockSub = web3jManager.getWeb3j()
-                .catchUpToLatestAndSubscribeToNewBlocksObservable(DefaultBlockParameter.valueOf(nodeBlockNumber.add(BigInteger.ONE)), true)
-                .doOnUnsubscribe(() -> logger.debug("REAL-TIME FETCH UNSUBSCRIBED"))
-                .subscribe(new NormalSubscriber());
+        // New blocks come from the shared new heads subscription, they are queued so that its thread doesn't wait for the database
+        final BlockingQueue<EthBlock.Block> newBlocks = new LinkedBlockingQueue<>();
+
+        try (Connection recentConnection = databaseManager.getConnection()) {
+            this.recentChain.warm(recentConnection, nodeBlockNumber);
+        } catch (SQLException e) {
+            // Not fatal, the first new block just goes through the database check
+            this.logger.warn("An error occurred when loading recent blocks", e);
+        }
+
+        this.blockSub = web3jManager.getNewBlockObservable().subscribe(newBlocks::add);
 
         this.logger.info("Real-time fetch started");
 
-        // Waiting
-        while (!this.blockSub.isUnsubscribed()) {
+        long lastInserted = nodeBlockNumber;
+
+        while (!stop) {
+            final EthBlock.Block block;
+
+            try {
+                block = newBlocks.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (block == null) {
+                continue;
+            }
+
+            final long blockNumber = block.getNumber().longValueExact();
+
+            this.nodeHead = Math.max(nodeHead, blockNumber);
+
+            if (recentChain.contains(HexCodec.decode(block.getHash()))) {
+                // go-nekonium sometimes announces a block again a few blocks later, it is already in and on the main chain
+                metrics.blockReemitted();
+                logger.debug("Block #{} was announced again, skipping", blockNumber);
+                continue;
+            }
+
+            // Blocks mined between the end of catchup and the subscription, or missed while the subscription was down
+            long missing = lastInserted + 1;
+
+            while (!stop && missing < blockNumber) {
+                final EthBlock.Block missingBlock;
+
+                try {
+                    missingBlock = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(missing)), true).send().getBlock();
+                } catch (IOException e) {
+                    logger.error("An error occurred when fetching a missed block #{}", missing, e);
+                    break;
+                }
+
+                if (missingBlock == null || !insertNewBlock(missingBlock)) {
+                    break;  // Try again on the next block
+                }
+
+                lastInserted = missing;
+                missing++;
+            }
+
+            if (missing >= blockNumber && insertNewBlock(block)) {
+                lastInserted = blockNumber;
+            }
+
+            if (historyBackfill != null && historyBackfill.isFilled()) {
+                // No block is inserted while balances are summed up again
+                completeHistory();
+            }
+
+            if (projections.hasWork() && !syncStatus.isPartial()) {
+                // Projections behind are replayed a step at a time, new blocks wait in the queue meanwhile
+                projections.step(lastInserted);
+            }
+        }
+
+        this.blockSub.unsubscribe();
+
+        if (historyThread != null) {
             try {
-                Thread.sleep(100);
+                historyThread.join();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                logger.warn("Interrupted while waiting for the history backfill to stop");
             }
         }
+        this.logger.debug("REAL-TIME FETCH UNSUBSCRIBED");
     }
 
 
+    /**
+     * Last step of head-first sync, on the converter thread. If it fails, it is tried again on the next block
+     */
+    private void completeHistory() {
+        try {
+            historyBackfill.complete();
+        } catch (SQLException e) {
+            logger.error("An error occurred when summing up balances of the history, trying again on the next block", e);
+            return;
+        }
+
+        this.historyBackfill = null;
+        this.historyThread = null;
+
+        try {
+            projections.warm();
+        } catch (SQLException e) {
+            // Balances would be wrong from here
+            this.logger.error("A database error occurred when loading balances again, Stopping converter", e);
+            this.stop = true;
+        }
+    }
+
+    /**
+     * Catchup with the pipeline writing fetched blocks straight into the database, any failure stops it
+     *
+     * @return {@code true} if every block has been committed
+     */
+    private boolean catchupDirect(long catchupStart, long catchupGoal) {
+        final CatchupWriter catchupWriter = new CatchupWriter(catchupGoal, null);
+        final boolean completed = this.catchupPipeline.run(catchupStart, catchupGoal, catchupWriter);
+
+        return catchupWriter.finish(completed) && completed;
+    }
+
+    /**
+     * Catchup through the staging log. The pipeline appends fetched blocks to the log on this thread,
+     * and {@link StagedWriter} writes them from the log into the database on another thread at its own speed.
+     * Blocks left in the log by the last run are written without fetching them again
+     *
+     * @return {@code true} if every block has been committed
+     */
+    private boolean catchupStaged(long start, long goal) {
+        try (StagingLog stagingLog = new StagingLog(new File(config.getStagingDirectory()), config.getStagingSegmentMegabytes() * 1024L * 1024L)) {
+            long fetchStart = start;
+
+            if (stagingLog.getLastBlockNumber() >= 0) {
+                if (stagingLog.getFirstBlockNumber() <= start && stagingLog.getLastBlockNumber() >= start - 1
+                        && stagingLog.getLastBlockNumber() <= goal && isOnChain(stagingLog.getLastBlockNumber(), stagingLog.getLastHash())) {
+                    // Continues from the database, only the rest has to be fetched
+                    fetchStart = Math.max(start, stagingLog.getLastBlockNumber() + 1);
+
+                    logger.info("Replaying the staging log from #{} (checkpoint #{}), fetching from #{}", start, stagingLog.getCheckpoint(), fetchStart);
+                } else {
+                    logger.info("Staging log (#{} to #{}) doesn't continue from the database, starting it over",
+                            stagingLog.getFirstBlockNumber(), stagingLog.getLastBlockNumber());
+                    stagingLog.reset();
+                }
+            }
+
+            final StagedWriter stagedWriter = new StagedWriter(stagingLog, start, goal);
+            final Thread writerThread = new Thread(stagedWriter, "catchup-db-writer");
+
+            writerThread.start();
+
+            final boolean fetched = this.catchupPipeline.run(fetchStart, goal, stagingLog::append);
+
+            stagedWriter.fetchOver();
+            writerThread.join();
+
+            return fetched && stagedWriter.isCompleted();
+        } catch (IOException e) {
+            logger.error("An error occurred with the staging log", e);
+            return false;
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for the database writer", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return {@code true} if the node has the block with {@code hash} at {@code blockNumber} on its main chain
+     */
+    private boolean isOnChain(long blockNumber, byte[] hash) {
+        try {
+            final EthBlock.Block block = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(blockNumber)), false).send().getBlock();
+
+            return block != null && Arrays.equals(HexCodec.decode(block.getHash()), hash);
+        } catch (IOException e) {
+            logger.warn("Could not check block #{} on the node", blockNumber, e);
+            return false;
+        }
+    }
+
     /**
      * Insert the data involving {@code block}, including uncleBlocks, which sends sync request for nekonium node
      * No commit
@@ -210,104 +488,342 @@ public class BlockchainConverter implements Runnable {
      *
      * @param connection
      * @param block
+     * @param parentId Internal id of the parent block, -1 to look it up
      * @throws SQLException
      * @throws IOException
      */
-    private void insertBlockRecord(Connection connection, EthBlock.Block block) throws SQLException, IOException, IllegalBlockchainStateException, IllegalDatabaseStateException {
-        int n;
+    private long insertBlockRecord(Connection connection, RawBlock block, long parentId) throws SQLException, IOException, IllegalBlockchainStateException, IllegalDatabaseStateException {
+        final FetchedBlock fetchedBlock = fetchBlockData(block);
 
-        // todo insert block row count check?
+        try (ConverterStatements statements = new ConverterStatements(connection, false)) {
+            return insertBlockRecord(statements, fetchedBlock, parentId);
+        }
+    }
 
-        // Get all of uncles blocks in advance if it exist
+    /**
+     * Fetch a block by its number with transaction objects, and all data involving it.<br>
+     * Called from catchup fetching threads, so this must not touch the database. Read from the block cache first if it is on
+     *
+     * @param blockNumber
+     * @return
+     * @throws IOException
+     */
+    private FetchedBlock fetchBlock(long blockNumber) throws IOException, IllegalBlockchainStateException {
+        if (blockCache != null) {
+            final FetchedBlock cached = blockCache.get(blockNumber);
 
-        final List<String> uncleHashes = block.getUncles();
-        final EthBlock.Block[] uncleBlocks = new EthBlock.Block[uncleHashes.size()];
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final RawClient rawClient = web3jManager.getRawClient();
+        final RawBlock block;
+
+        if (rawClient != null) {
+            // Decoded straight from the response bytes, much lighter than web3j's objects for blocks with many transactions
+            block = rawClient.send(rawClient.createRequest("eth_getBlockByNumber", "0x" + Long.toHexString(blockNumber), true), RawBlockDecoder.BLOCK);
+        } else {
+            final EthBlock.Block ethBlock = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(blockNumber)), true).send().getBlock();
+
+            block = ethBlock == null ? null : RawBlock.of(ethBlock);
+        }
+
+        if (block == null) {
+            throw new IllegalBlockchainStateException("Block #" + blockNumber + " does not exist on the node");
+        }
 
-        if (uncleHashes.size() > 0) {
-            for (int i = 0; i < uncleHashes.size(); i++) {
-                // Get by block hash MAYBE able to retrieve forked blocks, otherwise this function call can fail
-                final EthBlock ethBlock = web3jManager.getWeb3j().ethGetUncleByBlockHashAndIndex(block.getHash(), BigInteger.valueOf(i)).send();
-                uncleBlocks[i] = ethBlock.getBlock();
+        final FetchedBlock fetchedBlock = fetchBlockData(block);
+
+        if (blockCache != null && block.getNumber() <= nodeHead - config.getCacheConfirmations()) {
+            // Only blocks which are not going to be reorged, the cache doesn't ask the node again
+            blockCache.put(fetchedBlock);
+        }
+
+        return fetchedBlock;
+    }
+
+    /**
+     * Fetch uncle blocks and transaction receipts of {@code block} from the node
+     *
+     * @param block
+     * @return
+     * @throws IOException
+     */
+    private FetchedBlock fetchBlockData(RawBlock block) throws IOException, IllegalBlockchainStateException {
+        final RawClient rawClient = web3jManager.getRawClient();
+
+        // Get all of uncles blocks in advance if it exist, all in one batch
+
+        final byte[][] uncleHashes = block.getUncleHashes();
+        final RawBlock[] uncleBlocks = new RawBlock[uncleHashes.length];
+
+        if (uncleHashes.length > 0) {
+            final String blockHash = HexCodec.encodePrefixed(block.getHash());
+            final List<RawBlock> uncleResults;
+
+            if (rawClient != null) {
+                final ArrayNode uncleRequests = JsonNodeFactory.instance.arrayNode();
+
+                for (int i = 0; i < uncleHashes.length; i++) {
+                    // Get by block hash MAYBE able to retrieve forked blocks, otherwise this function call can fail
+                    uncleRequests.add(rawClient.createRequest("eth_getUncleByBlockHashAndIndex", blockHash, "0x" + Integer.toHexString(i)));
+                }
+
+                uncleResults = rawClient.send(uncleRequests, RawBlockDecoder.BLOCKS);
+            } else {
+                final List<Request<?, EthBlock>> uncleRequests = new ArrayList<>(uncleHashes.length);
+
+                for (int i = 0; i < uncleHashes.length; i++) {
+                    uncleRequests.add(web3jManager.getWeb3j().ethGetUncleByBlockHashAndIndex(blockHash, BigInteger.valueOf(i)));
+                }
+
+                uncleResults = new ArrayList<>(uncleHashes.length);
+
+                for (EthBlock uncleResponse : web3jManager.sendBatch(uncleRequests, EthBlock.class)) {
+                    if (uncleResponse.getBlock() != null) {
+                        uncleResults.add(RawBlock.of(uncleResponse.getBlock()));
+                    }
+                }
+            }
+
+            if (!arrange(uncleResults, uncleHashes, RawBlock::getHash, uncleBlocks)) {
+                throw new IllegalBlockchainStateException("An uncle block included in the requested block not exist on the blockchain");
             }
         }
 
-        // Get all of transaction receipt too
-        final List<EthBlock.TransactionResult> transactionResults = block.getTransactions();
-        final Transaction[] transactions = new Transaction[transactionResults.size()];
-        final TransactionReceipt[] transactionReceipts = new TransactionReceipt[transactionResults.size()];
+        // Get all of transaction receipt too, also in one batch
+        final RawTransaction[] transactions = block.getTransactions();
+        final RawReceipt[] transactionReceipts = new RawReceipt[transactions.length];
 
-        for (int i = 0; i < transactions.length; i++) {
-            transactions[i] = (Transaction) transactionResults.get(i).get();
+        if (transactions.length > 0) {
+            final byte[][] transactionHashes = new byte[transactions.length][];
+
+            for (int i = 0; i < transactions.length; i++) {
+                transactionHashes[i] = transactions[i].getHash();
+            }
 
-            final Optional<TransactionReceipt> transactionReceiptOptional = web3jManager.getWeb3j().ethGetTransactionReceipt(transactions[i].getHash()).send().getTransactionReceipt();
+            final List<RawReceipt> receiptResults;
 
-            if (!transactionReceiptOptional.isPresent()) {
+            if (rawClient != null) {
+                final ArrayNode receiptRequests = JsonNodeFactory.instance.arrayNode();
+
+                for (byte[] transactionHash : transactionHashes) {
+                    receiptRequests.add(rawClient.createRequest("eth_getTransactionReceipt", HexCodec.encodePrefixed(transactionHash)));
+                }
+
+                receiptResults = rawClient.send(receiptRequests, RawBlockDecoder.RECEIPTS);
+            } else {
+                final List<Request<?, EthGetTransactionReceipt>> receiptRequests = new ArrayList<>(transactions.length);
+
+                for (byte[] transactionHash : transactionHashes) {
+                    receiptRequests.add(web3jManager.getWeb3j().ethGetTransactionReceipt(HexCodec.encodePrefixed(transactionHash)));
+                }
+
+                receiptResults = new ArrayList<>(transactions.length);
+
+                for (EthGetTransactionReceipt receiptResponse : web3jManager.sendBatch(receiptRequests, EthGetTransactionReceipt.class)) {
+                    receiptResponse.getTransactionReceipt().ifPresent(receipt -> receiptResults.add(RawReceipt.of(receipt)));
+                }
+            }
+
+            if (!arrange(receiptResults, transactionHashes, RawReceipt::getTransactionHash, transactionReceipts)) {
                 throw new IllegalBlockchainStateException("An transaction receipt of a transaction included in the requested block not exist on the blockchain");
             }
+        }
 
-            transactionReceipts[i] = transactionReceiptOptional.get();
+        return new FetchedBlock(block, uncleBlocks, transactionReceipts);
+    }
+
+    /**
+     * Put {@code results} in the order of {@code hashes}, raw batch responses are not always in the order of the requests
+     *
+     * @return {@code false} if any of {@code hashes} is missing in {@code results}
+     */
+    private static <T> boolean arrange(List<T> results, byte[][] hashes, Function<T, byte[]> hashOf, T[] arranged) {
+        for (int i = 0; i < hashes.length; i++) {
+            if (i < results.size() && Arrays.equals(hashOf.apply(results.get(i)), hashes[i])) {
+                arranged[i] = results.get(i);   // Almost always in order
+                continue;
+            }
+
+            for (T result : results) {
+                if (Arrays.equals(hashOf.apply(result), hashes[i])) {
+                    arranged[i] = result;
+                    break;
+                }
+            }
+
+            if (arranged[i] == null) {
+                return false;
+            }
         }
 
-        // Before inserting, get miners address id
-        final BigInteger minerAddressId = addressIdPool.getOrInsertAddressId(connection, block.getMiner(), AddressType.NORMAL, false); // If the miner is not recorded on the database, will be inserted as normal address
+        return true;
+    }
+
+    /**
+     * Insert the data involving a fetched block, no node access
+     * No commit
+     * No parent relation check
+     *
+     * @param statements Statements of the connection to insert with, rows may stay queued if it is batched
+     * @param fetchedBlock
+     * @param parentId Internal id of the parent block, -1 to look it up by its number and hash
+     * @return Internal id of the inserted block
+     * @throws SQLException
+     */
+    private long insertBlockRecord(ConverterStatements statements, FetchedBlock fetchedBlock, long parentId) throws SQLException, IllegalBlockchainStateException, IllegalDatabaseStateException {
+        // todo insert block row count check?
+
+        final Connection connection = statements.getConnection();
+        final RawBlock block = fetchedBlock.getBlock();
+        final RawBlock[] uncleBlocks = fetchedBlock.getUncles();
+        final RawTransaction[] transactions = fetchedBlock.getTransactions();
+        final RawReceipt[] transactionReceipts = fetchedBlock.getTransactionReceipts();
+
+        // Before inserting, get ids of every address involving this block at once
+        final AddressIdResolver resolver = resolveAddresses(connection, fetchedBlock);
+
+        final long minerAddressId = resolver.getOrInsert(block.getMiner(), AddressType.NORMAL, false); // If the miner is not recorded on the database, will be inserted as normal address
         // Just found out that contract address can be a coinbase, so it can receive a mining reward!
 
         // First, insert the block
-        final BigInteger blockInternalId = insertBlock(connection, block, minerAddressId);
+        final long blockInternalId = insertBlock(statements, block, minerAddressId, parentId);
 
         // Second, insert uncle blocks ... usualy just A block. easy job
-        insertUncles(connection, uncleBlocks, blockInternalId);
+        insertUncles(statements, uncleBlocks, blockInternalId, resolver);
 
         // Third, insert transactions
-        insertTransactions(connection, transactions, transactionReceipts, blockInternalId);
+        insertTransactions(statements, transactions, transactionReceipts, blockInternalId, resolver);
 
-        // Finally, record all balance changes on this block
-        insertBalanceChange(connection, block, blockInternalId, uncleBlocks, transactionReceipts);
+        // Finally, derived tables like balances
+        projections.apply(statements, new BlockEvent(fetchedBlock, blockInternalId, resolver));
 
         // Not committing
+
+        return blockInternalId;
     }
 
-    private BigInteger insertBlock(Connection connection, EthBlock.Block block, BigInteger minerAddressId) throws SQLException, IllegalDatabaseStateException {
-        int n;
-        final PreparedStatement prpstmt;
+    /**
+     * Look up or insert all addresses of the block (miners, senders, receivers and created contracts) in one go
+     *
+     * @param connection
+     * @param fetchedBlock
+     * @return A resolver answering from the result, falls back to the address pool for anything else
+     * @throws SQLException
+     */
+    private AddressIdResolver resolveAddresses(Connection connection, FetchedBlock fetchedBlock) throws SQLException {
+        final Map<String, Long> resolved = addressIdPool.resolveAll(connection, addressesOf(fetchedBlock), existingSendersOf(fetchedBlock));
+        final AddressIdResolver fallback = addressIdResolver(connection);
 
-        final boolean isBlockZero = block.getNumber().compareTo(BigInteger.ZERO) == 0;
+        return new AddressIdResolver() {
+            @Override
+            public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) throws SQLException {
+                final Long addressId = resolved.get(prefixedAddress.toLowerCase());
 
-        if (isBlockZero) {    // Block #0 is going through special process
-            /* Block #0 does't have a parent block, set it NULL */
-            prpstmt = connection.prepareStatement(
-                    "INSERT INTO blocks VALUES " +
-                            "(NULL, ?, UNHEX(?), NULL, FROM_UNIXTIME(?), ?, ?, ?, ?, UNHEX(?), ?, " +
-                            "?, 0)", RETURN_GENERATED_KEYS);
-        } else {
-            /* Otherwise, it has a parent */
-            prpstmt = connection.prepareStatement(
-                    "INSERT INTO blocks SELECT " +
-                            "NULL, ?, UNHEX(?), internal_id, FROM_UNIXTIME(?), ?, ?, ?, ?, UNHEX(?), ?, " +
-                            "?, 0 FROM blocks WHERE number = ? AND hash = UNHEX(?)", RETURN_GENERATED_KEYS);
-            // This is special statement, INSERT ~~ SELECT ~~, NOTE: using subquery referencing the same table won't work
+                return addressId != null ? addressId : fallback.getOrInsert(prefixedAddress, addressType, careType);
+            }
+
+            @Override
+            public long get(String prefixedAddress) throws SQLException {
+                final Long addressId = resolved.get(prefixedAddress.toLowerCase());
+
+                return addressId != null ? addressId : fallback.get(prefixedAddress);
+            }
+        };
+    }
+
+    /**
+     * @return Every address of the block (miners, senders, receivers and created contracts) with the type to insert as
+     */
+    static List<NonNullPair<String, AddressType>> addressesOf(FetchedBlock fetchedBlock) {
+        final List<NonNullPair<String, AddressType>> addresses = new ArrayList<>();
+
+        addresses.add(new NonNullPair<>(fetchedBlock.getBlock().getMiner(), AddressType.NORMAL));
+
+        for (RawBlock uncleBlock : fetchedBlock.getUncles()) {
+            addresses.add(new NonNullPair<>(uncleBlock.getMiner(), AddressType.NORMAL));
+        }
+
+        final RawTransaction[] transactions = fetchedBlock.getTransactions();
+        final RawReceipt[] transactionReceipts = fetchedBlock.getTransactionReceipts();
+
+        for (int i = 0; i < transactions.length; i++) {
+            addresses.add(new NonNullPair<>(transactions[i].getFrom(), AddressType.NORMAL));
+
+            if (transactions[i].getTo() != null) {
+                addresses.add(new NonNullPair<>(transactions[i].getTo(), AddressType.NORMAL));
+            }
+            if (transactionReceipts[i].getContractAddress() != null) {
+                addresses.add(new NonNullPair<>(transactionReceipts[i].getContractAddress(), AddressType.CONTRACT));
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * @return Senders of the block which have to be on the database already, ones which received something earlier in the block don't
+     */
+    static Set<String> existingSendersOf(FetchedBlock fetchedBlock) {
+        final Set<String> senders = new HashSet<>();
+        final Set<String> received = new HashSet<>();
+
+        received.add(fetchedBlock.getBlock().getMiner());  // Fees of each transaction go to the miner right away
+
+        final RawTransaction[] transactions = fetchedBlock.getTransactions();
+        final RawReceipt[] transactionReceipts = fetchedBlock.getTransactionReceipts();
+
+        for (int i = 0; i < transactions.length; i++) {
+            if (!received.contains(transactions[i].getFrom())) {
+                senders.add(transactions[i].getFrom());
+            }
+
+            if (transactions[i].getTo() != null) {
+                received.add(transactions[i].getTo());
+            }
+            if (transactionReceipts[i].getContractAddress() != null) {
+                received.add(transactionReceipts[i].getContractAddress());
+            }
         }
 
+        return senders;
+    }
+
+    private long insertBlock(ConverterStatements statements, RawBlock block, long minerAddressId, long parentId) throws SQLException, IllegalDatabaseStateException {
+        int n;
+
+        final boolean isBlockZero = block.getNumber() == 0;
+        final boolean isParentKnown = !isBlockZero && parentId >= 0;
+
+        // Block #0 is going through special process
+        final PreparedStatement prpstmt = isBlockZero ? statements.blockZero : isParentKnown ? statements.blockOfParent : statements.block;
 
         // TODO Every integer number on go-nekonium is arbitrary integer, it will overflow on mysql in future (distant future)
         n = 0;
-        prpstmt.setString(++n, block.getNumber().toString());
-        prpstmt.setString(++n, block.getHash().substring(2));
-        prpstmt.setString(++n, block.getTimestamp().toString());
-        prpstmt.setString(++n, minerAddressId.toString());
-        prpstmt.setString(++n, block.getDifficulty().toString());
-        prpstmt.setString(++n, block.getGasLimit().toString());
-        prpstmt.setString(++n, block.getGasUsed().toString());
-        prpstmt.setString(++n, block.getExtraData().substring(2));
-        prpstmt.setString(++n, block.getNonce().toString());
-        prpstmt.setString(++n, block.getSize().toString());
+        prpstmt.setLong(++n, block.getNumber());
+        prpstmt.setBytes(++n, block.getHash());
 
-        if (!isBlockZero) {
-            prpstmt.setString(++n, block.getNumber().subtract(BigInteger.ONE).toString());  // This block's parent's number
-            prpstmt.setString(++n, block.getParentHash().substring(2)); // Expected parent block's hash
+        if (isParentKnown) {
+            prpstmt.setLong(++n, parentId);
         }
 
-        final int affectedRow = prpstmt.executeUpdate();    // INSERT returns affected row
+        prpstmt.setLong(++n, block.getTimestamp());
+        prpstmt.setLong(++n, minerAddressId);
+        prpstmt.setString(++n, Long.toUnsignedString(block.getDifficulty()));  // BIGINT UNSIGNED
+        prpstmt.setLong(++n, block.getGasLimit());
+        prpstmt.setLong(++n, block.getGasUsed());
+        prpstmt.setBytes(++n, block.getExtraData());
+        prpstmt.setString(++n, Long.toUnsignedString(block.getNonce()));
+        prpstmt.setLong(++n, block.getSize());
+
+        if (!isBlockZero && !isParentKnown) {
+            prpstmt.setLong(++n, block.getNumber() - 1);            // This block's parent's number
+            prpstmt.setBytes(++n, block.getParentHash());           // Expected parent block's hash
+        }
+
+        final int affectedRow = prpstmt.executeUpdate();    // INSERT returns affected row, never batched because the generated id is needed right now
 
         if (affectedRow != 1) { // Affected row has to be 1, not 0 or 2 or 333
             throw new IllegalDatabaseStateException("INSERTed a new block into the database, but the affected row count is not 1 but [" + affectedRow + "], maybe parent relations are messed up?");
@@ -321,242 +837,141 @@ public class BlockchainConverter implements Runnable {
             throw new RuntimeException();
         }
 
-        final BigInteger blockInternalId = new BigInteger(generatedKeys.getString(1));
+        final long blockInternalId = generatedKeys.getLong(1);
 
-        prpstmt.close();
+        generatedKeys.close();
 
         return blockInternalId;
     }
 
-    private void insertUncles(Connection connection, EthBlock.Block[] uncleBlocks, BigInteger blockInternalId) throws SQLException {
+    private void insertUncles(ConverterStatements statements, RawBlock[] uncleBlocks, long blockInternalId, AddressIdResolver resolver) throws SQLException {
         int n;
 
         // Reusing statement
-        final PreparedStatement prpstmt = connection.prepareStatement(
-                "INSERT INTO uncle_blocks VALUES " +
-                        "(NULL, ?, ?, ?, UNHEX(?), " +
-                        "(SELECT internal_id FROM blocks WHERE blocks.number = ? AND hash = UNHEX(?) AND forked = 0), " +  // Search for this uncle's parent block.
-                        // If there are more than 2, it throws exception, if there are no parent found, it also throws exception
-                        "FROM_UNIXTIME(?), ?, ?, ?, ?, UNHEX(?), ?, ?)");
+        final PreparedStatement prpstmt = statements.uncle;
 
         for (int i = 0; i < uncleBlocks.length; i++) {
-            final EthBlock.Block uncleBlock = uncleBlocks[i];
+            final RawBlock uncleBlock = uncleBlocks[i];
 
-            final BigInteger uncleMinerAddressId = addressIdPool.getOrInsertAddressId(connection, uncleBlock.getMiner(), AddressType.NORMAL, false); // Get or insert address
+            final long uncleMinerAddressId = resolver.getOrInsert(uncleBlock.getMiner(), AddressType.NORMAL, false); // Get or insert address
 
             n = 0;
-            prpstmt.setString(++n, uncleBlock.getNumber().toString());           // This uncle block's block number
-            prpstmt.setString(++n, blockInternalId.toString());                  // Block internal id (NOT always same as block number) that this uncle block is included
+            prpstmt.setLong(++n, uncleBlock.getNumber());                       // This uncle block's block number
+            prpstmt.setLong(++n, blockInternalId);                                // Block internal id (NOT always same as block number) that this uncle block is included
             prpstmt.setInt(++n, i);                                              // i is uncle index. gnekonium allows only 2 uncle blocks in a single block
-            prpstmt.setString(++n, uncleBlock.getHash().substring(2));
-            prpstmt.setString(++n, uncleBlock.getNumber().subtract(BigInteger.ONE).toString());    // Parent block's number
-            prpstmt.setString(++n, uncleBlock.getParentHash().substring(2));                        // Parent block's hash
-            prpstmt.setString(++n, uncleBlock.getTimestamp().toString());
-            prpstmt.setString(++n, uncleMinerAddressId.toString());
-            prpstmt.setString(++n, uncleBlock.getDifficulty().toString());
-            prpstmt.setString(++n, uncleBlock.getGasLimit().toString());
-            prpstmt.setString(++n, uncleBlock.getGasUsed().toString());
-            prpstmt.setString(++n, uncleBlock.getExtraData().substring(2));
-            prpstmt.setString(++n, uncleBlock.getNonce().toString());
-            prpstmt.setString(++n, uncleBlock.getSize().toString());
-
-            prpstmt.executeUpdate();
-        }
-        prpstmt.close();
+            prpstmt.setBytes(++n, uncleBlock.getHash());
+            prpstmt.setLong(++n, uncleBlock.getNumber() - 1);                   // Parent block's number
+            prpstmt.setBytes(++n, uncleBlock.getParentHash());                  // Parent block's hash
+            prpstmt.setLong(++n, uncleBlock.getTimestamp());
+            prpstmt.setLong(++n, uncleMinerAddressId);
+            prpstmt.setString(++n, Long.toUnsignedString(uncleBlock.getDifficulty()));
+            prpstmt.setLong(++n, uncleBlock.getGasLimit());
+            prpstmt.setLong(++n, uncleBlock.getGasUsed());
+            prpstmt.setBytes(++n, uncleBlock.getExtraData());
+            prpstmt.setString(++n, Long.toUnsignedString(uncleBlock.getNonce()));
+            prpstmt.setLong(++n, uncleBlock.getSize());
+
+            statements.insert(prpstmt);
+        }
     }
 
-    private void insertTransactions(Connection connection, Transaction[] transactions, TransactionReceipt[] transactionReceipts, BigInteger blockInternalId) throws SQLException {
+    private void insertTransactions(ConverterStatements statements, RawTransaction[] transactions, RawReceipt[] transactionReceipts, long blockInternalId, AddressIdResolver resolver) throws SQLException {
         int n;
 
         // Reusing statement
-        final PreparedStatement prpstmt = connection.prepareStatement(
-                "INSERT INTO transactions VALUES " +
-                        "(NULL, ?, ?, UNHEX(?), " +
-                        "(SELECT internal_id FROM addresses WHERE address = UNHEX(?)), " +   // The from address should exists before this transaction
-                        "?, ?, ?, ?, ?, ?, ?, UNHEX(?))");
+        final PreparedStatement prpstmt = statements.transaction;
 
         for (int i = 0; i < transactions.length; i++) {
-            final Transaction transaction = transactions[i];
-            final TransactionReceipt transactionReceipt = transactionReceipts[i];
+            final RawTransaction transaction = transactions[i];
+            final RawReceipt transactionReceipt = transactionReceipts[i];
 
-            final BigInteger toAddressId;
+            final long fromAddressId = resolver.get(transaction.getFrom());  // The from address should exists before this transaction
+
+            final long toAddressId;
             if (transaction.getTo() == null)    // Get the to address id, if not exists then create it
-                toAddressId = null;
+                toAddressId = -1;
             else
-                toAddressId = addressIdPool.getOrInsertAddressId(connection, transaction.getTo(), AddressType.NORMAL, false);
+                toAddressId = resolver.getOrInsert(transaction.getTo(), AddressType.NORMAL, false);
 
 
-            final BigInteger contractAddressId;
+            final long contractAddressId;
             if (transactionReceipt.getContractAddress() == null) {  // Same thing goes here, except as contract address
-                contractAddressId = null;
+                contractAddressId = -1;
             } else {
-                contractAddressId = addressIdPool.getOrInsertAddressId(connection, transactionReceipt.getContractAddress(), AddressType.CONTRACT, true);
+                contractAddressId = resolver.getOrInsert(transactionReceipt.getContractAddress(), AddressType.CONTRACT, true);
             }
 
             n = 0;
-            prpstmt.setString(++n, blockInternalId.toString());
-            prpstmt.setString(++n, transaction.getTransactionIndex().toString());
-            prpstmt.setString(++n, transaction.getHash().substring(2));
-            prpstmt.setString(++n, transaction.getFrom().substring(2));
-            prpstmt.setString(++n, toAddressId == null ? null : toAddressId.toString());
-            prpstmt.setString(++n, contractAddressId == null ? null : contractAddressId.toString());
+            prpstmt.setLong(++n, blockInternalId);
+            prpstmt.setInt(++n, transaction.getIndex());
+            prpstmt.setBytes(++n, transaction.getHash());
+            prpstmt.setLong(++n, fromAddressId);
+            setNullableId(prpstmt, ++n, toAddressId);
+            setNullableId(prpstmt, ++n, contractAddressId);
             prpstmt.setBytes(++n, transaction.getValue().toByteArray());
-            prpstmt.setString(++n, transaction.getGas().toString());
-            prpstmt.setString(++n, transactionReceipt.getGasUsed().toString());
+            prpstmt.setLong(++n, transaction.getGas());
+            prpstmt.setLong(++n, transactionReceipt.getGasUsed());
             prpstmt.setBytes(++n, transaction.getGasPrice().toByteArray());
-            prpstmt.setString(++n, transaction.getNonce().toString());
-            prpstmt.setString(++n, transaction.getInput().substring(2));
+            prpstmt.setString(++n, Long.toUnsignedString(transaction.getNonce()));
+            prpstmt.setBytes(++n, transaction.getInput());
 
-            prpstmt.executeUpdate();
-        }
-
-        prpstmt.close();
-    }
-
-    private void addBigIntegerOnMap(Map<BigInteger, BigInteger> map, BigInteger addr, BigInteger bigInteger) {
-        if (map.containsKey(addr)) {
-            map.put(addr, map.get(addr).add(bigInteger));
-        } else {
-            map.put(addr, bigInteger);
+            statements.insert(prpstmt);
         }
     }
 
     /**
-     * All address involving the block must have been on the database, before calling this function
-     *
-     * @param connection
-     * @param block
-     * @param blockInternalId
-     * @param uncles
-     * @param transactionReceiptList
-     * @throws SQLException
+     * Bind an address id, or NULL if it is -1
      */
-    private void insertBalanceChange(Connection connection, EthBlock.Block block, BigInteger blockInternalId, EthBlock.Block[] uncles, TransactionReceipt[] transactionReceiptList) throws SQLException {
-        final BigInteger minerAddressId = addressIdPool.getOrInsertAddressId(connection, block.getMiner(), AddressType.NORMAL, false);
-
-        final HashMap<BigInteger, BigInteger> addresses = new HashMap<>();
-
-        /* Pure block mining reward */
-        addBigIntegerOnMap(addresses, minerAddressId, BLOCK_REWARD);   // Miner of the block gets full block reward
-
-
-        /* Uncle mining / inclusion reward */
-        // FIXME block #0 miner does not get reward
-        final BigInteger eight = BigInteger.valueOf(8);
-
-        for (EthBlock.Block uncle : uncles) {
-            final BigInteger uncleMinerAddressId = addressIdPool.getOrInsertAddressId(connection, uncle.getMiner(), AddressType.NORMAL, false);
-
-            final BigInteger uncleReward = uncle.getNumber().add(eight).subtract(block.getNumber()).multiply(BLOCK_REWARD).divide(eight);    // This is full uncle reward
-
-            addBigIntegerOnMap(addresses, uncleMinerAddressId, uncleReward);   // Miner of a uncle block gets full uncle reward
-            addBigIntegerOnMap(addresses, minerAddressId, BLOCK_REWARD.divide(BigInteger.valueOf(32)));    // Miner of the block gets full block reward / 32
+    private static void setNullableId(PreparedStatement prpstmt, int index, long addressId) throws SQLException {
+        if (addressId == -1) {
+            prpstmt.setNull(index, Types.BIGINT);
+        } else {
+            prpstmt.setLong(index, addressId);
         }
+    }
 
-        /* Transaction balance change / fee */
-        for (int i = 0; i < block.getTransactions().size(); i++) {
-            final Transaction transaction = (Transaction) block.getTransactions().get(i).get();
-            final TransactionReceipt transactionReceipt = transactionReceiptList[i];
-
-            final BigInteger fromAddressId = addressIdPool.getAddressId(connection, transaction.getFrom());
-
-            final BigInteger valueSent = transaction.getValue();
-            final BigInteger transactionFee = transactionReceipt.getGasUsed().multiply(transaction.getGasPrice());  // Transaction fee is gasUsed * gasPrice
-
-            addBigIntegerOnMap(addresses, fromAddressId, valueSent.negate());       // Subtract sent value from the sender
-            addBigIntegerOnMap(addresses, fromAddressId, transactionFee.negate());  // Subtract fee from the sender
-            addBigIntegerOnMap(addresses, minerAddressId, transactionFee);          // Give transaction fee to the miner
-
-            if (transaction.getTo() != null) {
-                addBigIntegerOnMap(addresses, addressIdPool.getOrInsertAddressId(connection, transaction.getTo(), AddressType.NORMAL, false), valueSent);    // Add to target
-
-            } else if (transactionReceipt.getContractAddress() != null) {
-                addBigIntegerOnMap(addresses, addressIdPool.getOrInsertAddressId(connection, transactionReceipt.getContractAddress(), AddressType.CONTRACT, true), valueSent); // Add to contract
-
-            } else {
-                throw new IllegalBlockchainStateException("Something went wrong. The transaction is not contract creation nor normal sending nor contract execution");
+    private AddressIdResolver addressIdResolver(Connection connection) {
+        return new AddressIdResolver() {
+            @Override
+            public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) throws SQLException {
+                return addressIdPool.getOrInsertAddressId(connection, prefixedAddress, addressType, careType);
             }
-        }
 
-
-        final PreparedStatement prpstmt1 = connection.prepareStatement("INSERT INTO balance_changes VALUES (?, ?, ?, ?)");
-
-        // Balance
-        final PreparedStatement prpstmt2 = connection.prepareStatement(
-                "SELECT balance FROM balance " +
-                        "LEFT JOIN blocks ON block_id = blocks.internal_id " +
-                        "WHERE forked = 0 AND address_id = ? AND balance.number < ? " +
-                        "ORDER BY balance.number DESC LIMIT 1");// Using left join for now don't know about the performance
-        // Go-nekonium is stupid about block reorg, sometimes it emits the same block that was known 2~3 before
-        // It is confusing, and because of that, internal_id is not the same order as block number
-
-        final PreparedStatement prpstmt3 = connection.prepareStatement("INSERT INTO balance VALUES (?, ?, ?, ?)");
-
-        /* Insert every balance change / its current balance */
-        for (Map.Entry<BigInteger, BigInteger> entry : addresses.entrySet()) {
-            final BigInteger addressId = entry.getKey();
-            final BigInteger balanceChange = entry.getValue();
-
-            if (balanceChange.compareTo(BigInteger.ZERO) == 0) {
-                continue;   // Balance not changed, skip this   TODO is this ok?
+            @Override
+            public long get(String prefixedAddress) throws SQLException {
+                return addressIdPool.getAddressId(connection, prefixedAddress);
             }
+        };
+    }
 
-//            Commented because it is not needed for now
-//            TODO remove it (1&2)
-
-            // Balance changes
-            prpstmt1.setString(1, blockInternalId.toString());
-            prpstmt1.setString(2, addressId.toString());
-            prpstmt1.setInt(3, balanceChange.signum() == -1 ? 1 : 0);    // If balance change is negative then 1 otherwise 0
-            prpstmt1.setBytes(4, balanceChange.abs().toByteArray());
-            prpstmt1.executeUpdate();
-
-
-            // Get the previous balance of the address
-            prpstmt2.setString(1, addressId.toString());
-            prpstmt2.setString(2, block.getNumber().toString());
-
-            ResultSet resultSet2 = prpstmt2.executeQuery();
-
-            final BigInteger balance;   // The balance will be set
-
-            if (resultSet2.next()) {
-                // Add the change to the previous balance
-
-                balance = new BigInteger(resultSet2.getBytes(1)).add(balanceChange);
-            } else {
-                // This is the first time of the address to appear on the database
+    /**
+     * @return The lowest block number where blocks were marked forked or revived, -1 if nothing has changed
+     */
+    private long reorgValidBlock(final Connection connection, final long validBlockNumber, final String validParentHash) throws SQLException, IllegalDatabaseStateException, IllegalBlockchainStateException, IOException {
+        if (validBlockNumber <= 0) {
+            // Block 0 is always correct
+            logger.info("Block #0 is always correct");
+            return -1;
+        }
 
-                assert balanceChange.signum() != -1;    // Assert change of the balance is not negative
+        long parentBlockNumber = validBlockNumber - 1;   // This shows current block number of the parent block
+        String expectedParentBlockHash = validParentHash;   // This shows current EXPECTED block hash of the VALID parent block, expected means maybe not recorded in the database
 
-                balance = balanceChange;
-            }
+        LinkedList<FetchedBlock> parentsMissing = new LinkedList<>();    // Parent block have to be added in the order of the block number, otherwise an error occurs during inserting
 
-            // Insert the balance
-            prpstmt3.setString(1, blockInternalId.toString());
-            prpstmt3.setString(2, block.getNumber().toString());
-            prpstmt3.setString(3, addressId.toString());
-            prpstmt3.setBytes(4, balance.toByteArray());
+        long changedFrom = -1;  // The lowest block number where blocks were marked, balances from here are stale
 
-            prpstmt3.executeUpdate();
-        }
+        /* Blocks with the same number or higher are there already, they are not on the main chain anymore */
+        final PreparedStatement prpstmt0 = connection.prepareStatement("SELECT 1 FROM blocks WHERE number >= ? LIMIT 1");
+        prpstmt0.setLong(1, validBlockNumber);
 
-        prpstmt1.close();
-        prpstmt2.close();   // Don't forget to close the statement!
-        prpstmt3.close();
-    }
+        final ResultSet resultSet0 = prpstmt0.executeQuery();
 
-    private void reorgValidBlock(final Connection connection, final BigInteger validBlockNumber, final String validParentHash) throws SQLException, IllegalDatabaseStateException, IOException {
-        if (validBlockNumber.compareTo(BigInteger.ZERO) <= 0) {
-            // Block 0 is always correct
-            logger.info("Block #0 is always correct");
-            return;
+        if (resultSet0.next()) {
+            changedFrom = validBlockNumber;
         }
 
-        BigInteger parentBlockNumber = validBlockNumber.subtract(BigInteger.ONE);   // This shows current block number of the parent block
-        String expectedParentBlockHash = validParentHash;   // This shows current EXPECTED block hash of the VALID parent block, expected means maybe not recorded in the database
-
-        LinkedList<EthBlock.Block> parentsMissing = new LinkedList<>();    // Parent block have to be added in the order of the block number, otherwise an error occurs during inserting
+        prpstmt0.close();
 
         int affectedRow;
 
@@ -564,10 +979,10 @@ public class BlockchainConverter implements Runnable {
             logger.info("Checking block relation at {}", parentBlockNumber);
 
             /* Get parent's block entry from the database */
-            final PreparedStatement prpstmt = connection.prepareStatement("SELECT blocks.internal_id, NEKH(b2.hash) FROM blocks LEFT JOIN blocks AS b2 ON blocks.parent = b2.internal_id WHERE blocks.number = ? AND blocks.hash = UNHEX(?)");
+            final PreparedStatement prpstmt = connection.prepareStatement("SELECT blocks.internal_id, b2.hash FROM blocks LEFT JOIN blocks AS b2 ON blocks.parent = b2.internal_id WHERE blocks.number = ? AND blocks.hash = ?");
             // Result could contain blocks marked as forked but by reorging it might be revived
-            prpstmt.setString(1, parentBlockNumber.toString());
-            prpstmt.setString(2, expectedParentBlockHash.substring(2));
+            prpstmt.setLong(1, parentBlockNumber);
+            HexCodec.setHex(prpstmt, 2, expectedParentBlockHash);
 
             final ResultSet resultSet = prpstmt.executeQuery();
 
@@ -580,41 +995,47 @@ public class BlockchainConverter implements Runnable {
                     // Parent block is not recorded in the database, maybe converter missed it
                     /* Fetching main chain parent block*/
 
-                    final EthBlock.Block parentOnMainChain = web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(parentBlockNumber), true).send().getBlock();
+                    final FetchedBlock parentOnMainChain = fetchBlock(parentBlockNumber);   // It IS on main chain so is possible to retrieve uncles & transactions
 
                     parentsMissing.addFirst(parentOnMainChain);    // Missing parents will be added after the fork block check
 
                     /* Mark "uncles" (NOT uncles included in blocks) as forked block */
 
                     final PreparedStatement prpstmt2 = connection.prepareStatement("UPDATE blocks SET forked = 1 WHERE number = ? AND forked = 0");// This will mark ALL of the blocks with the number of parentBlockNumber as forked blocks, on-chain parent block will be inserted later
-                    prpstmt2.setString(1, parentBlockNumber.toString());
+                    prpstmt2.setLong(1, parentBlockNumber);
 
                     affectedRow = prpstmt2.executeUpdate();
 
                     prpstmt2.close();
 
-                    parentBlockNumber = parentOnMainChain.getNumber().subtract(BigInteger.ONE);
-                    expectedParentBlockHash = parentOnMainChain.getParentHash();
+                    parentBlockNumber--;
+                    expectedParentBlockHash = HexCodec.encodePrefixed(parentOnMainChain.getBlock().getParentHash());
 
                     assert affectedRow > 0;    // Affected row should be always > 0 because if the parent is missing, that means it was forked, thus there should be more than one blocks having the same block number
+
+                    changedFrom = parentOnMainChain.getBlock().getNumber();
                 } else {
                     // Parent block is recorded in the database
                     /* Mark others (not valid ones) as forked block */
 
-                    final String internalId = resultSet.getString(1);
-                    final String nextValidParentHash = resultSet.getString(2);
+                    final long internalId = resultSet.getLong(1);
+                    final String nextValidParentHash = HexCodec.getHex(resultSet, 2);
 
                     prpstmt.close();    // Don't forget to close the statement
 
                     // This statement marks "forked" all non main-chain blocks and remark (!! important!! remarking happens)
-                    final PreparedStatement prpstmt2 = connection.prepareStatement("UPDATE blocks SET forked = (hash != UNHEX(?)) WHERE number = ? AND internal_id != ?");
-                    prpstmt2.setString(1, expectedParentBlockHash.substring(2));
-                    prpstmt2.setString(2, parentBlockNumber.toString());
-                    prpstmt2.setString(3, internalId);
+                    final PreparedStatement prpstmt2 = connection.prepareStatement("UPDATE blocks SET forked = (hash != ?) WHERE number = ? AND internal_id != ?");
+                    HexCodec.setHex(prpstmt2, 1, expectedParentBlockHash);
+                    prpstmt2.setLong(2, parentBlockNumber);
+                    prpstmt2.setLong(3, internalId);
 
                     affectedRow = prpstmt2.executeUpdate(); // Execute update statement but no committing
 
-                    parentBlockNumber = parentBlockNumber.subtract(BigInteger.ONE); // Next parent block number will be this block's parent block number
+                    if (affectedRow != 0) {
+                        changedFrom = parentBlockNumber;
+                    }
+
+                    parentBlockNumber--; // Next parent block number will be this block's parent block number
                     expectedParentBlockHash = nextValidParentHash;   // Set next parent block hash
 
                     prpstmt2.close();
@@ -625,179 +1046,296 @@ public class BlockchainConverter implements Runnable {
                 throw new IllegalDatabaseStateException("Parent block with the same hash exist many [" + expectedParentBlockHash + "]");
             }
 
-        } while (affectedRow != 0 && parentBlockNumber.compareTo(BigInteger.ZERO) >= 0); // Continue to go back and check and mark until there are no identical blocks with the same block number
+        } while (affectedRow != 0 && parentBlockNumber >= 0); // Continue to go back and check and mark until there are no identical blocks with the same block number
+
+        if (changedFrom != -1) {
+            // Blocks were marked, recalculate balances before inserting anything
+            logger.info("Reorganizing projections from block #{}", changedFrom);
+            projections.reorganized(connection, changedFrom, validBlockNumber);
+        }
 
         /* Insert missing parents */
 
-        for (EthBlock.Block block : parentsMissing) {
-            insertBlockRecord(connection, block);   // It IS on main chain so is possible to retrieve uncles & transactions
+        try (ConverterStatements statements = new ConverterStatements(connection, false)) {
+            long parentId = -1;     // The first one's is looked up
+
+            for (FetchedBlock fetchedBlock : parentsMissing) {
+                parentId = insertBlockRecord(statements, fetchedBlock, parentId);
+            }
         }
 
         // Note! No committing!
+
+        return changedFrom;
     }
 
-    private void addressPair(final List<NonNullPair<String, BigInteger>> list, final String addressPrefixed, final String value) {
-        list.add(new NonNullPair<>(addressPrefixed, new BigInteger(value)));
+    private static void addressPair(final List<NonNullPair<String, Int128>> list, final String addressPrefixed, final String value) {
+        list.add(new NonNullPair<>(addressPrefixed, Int128.valueOf(new BigInteger(value))));
     }
 
     /**
-     * Call this AFTER inserting block #0
-     *
-     * @param connection
-     * @throws SQLException
-     * @throws IllegalDatabaseStateException
-     * @throws AddressPoolException
+     * @return Premined addresses and their allocations, set at block #0
      */
-    private void setupPreminedAddresses(final Connection connection) throws SQLException, IllegalDatabaseStateException, AddressPoolException {
-        this.logger.info("Setting up premined addresses...");
-
-        // These are premine (allocation), set at block #0
-        final List<NonNullPair<String, BigInteger>> distributed = new ArrayList<>();
+    static List<NonNullPair<String, Int128>> getPreminedAddresses() {
+        final List<NonNullPair<String, Int128>> distributed = new ArrayList<>();
         addressPair(distributed, "0xBbFdCBbD22960B6fcf4a0a101b816614aa551c4b", "2448421000000000000000000");
         addressPair(distributed, "0xBc4517bc2ddE774781E3D7B49677DE3449D4D581", "2000000000000000000000000");
         addressPair(distributed, "0x62A87d9716b5826063d98294688ec76F774034d6", "6000000000000000000000000");
         addressPair(distributed, "0x817570E7E0838ca0c6c136bF9701962FF7a6e562", "1000000000000000000000000");
         addressPair(distributed, "0xbd2746c132393fD822D971EecAF7f4cd770A5472", "1000000000000000000000000");
 
-        // Reusing prepared statement makes processing time a bit faster (at least told so)
-        final PreparedStatement prpstmt1 = connection.prepareStatement("INSERT INTO balance_changes VALUES ((SELECT internal_id FROM blocks WHERE number = 0), ?, 0, ?)");
-        final PreparedStatement prpstmt2 = connection.prepareStatement("INSERT INTO balance SELECT internal_id, 0, ?, ? FROM blocks WHERE number = 0");
+        return distributed;
+    }
 
-        for (NonNullPair<String, BigInteger> pair : distributed) {
-            final BigInteger addressId = addressIdPool.getOrInsertAddressId(connection, pair.getA(), AddressType.NORMAL, true);
-//            TODO remove this (1&2)
-            prpstmt1.setString(1, addressId.toString());
-            prpstmt1.setBytes(2, pair.getB().toByteArray());
-            prpstmt1.executeUpdate();
+    /**
+     * Insert a new block on the main chain with missing parents, and mark forked blocks. Committed by itself
+     *
+     * @param block
+     * @return {@code true} if it has been committed or was already in the database
+     */
+    private boolean insertNewBlock(EthBlock.Block block) {
+        logger.info("NEW BLOCK {}", block.getNumber().toString());
 
-            prpstmt2.setString(1, addressId.toString());
-            prpstmt2.setBytes(2, pair.getB().toByteArray());
-            prpstmt2.executeUpdate();
+        if (recentChain.contains(HexCodec.decode(block.getHash()))) {
+            return true;    // Already in the window, nothing asked
         }
-        prpstmt1.close();
-        prpstmt2.close();
-    }
 
-    private class NormalSubscriber implements Action1<EthBlock> {
+        final RawBlock rawBlock = RawBlock.of(block);
+        final long blockNumber = rawBlock.getNumber();
+        final String parentHash = block.getParentHash();
 
-        @Override
-        public void call(EthBlock ethBlock) {
-            logger.info("NEW BLOCK {}", ethBlock.getBlock().getNumber().toString());
+        Connection connection = null;
 
-            Connection connection = null;
+        try {
+            connection = databaseManager.getConnection();
 
-            try {
-                connection = databaseManager.getConnection();
+            connection.setAutoCommit(false);
 
-                connection.setAutoCommit(false);
+            long parentId = -1;
 
-                final BigInteger blockNumber = ethBlock.getBlock().getNumber();
-                final String parentHash = ethBlock.getBlock().getParentHash();
+            if (recentChain.extendsTip(blockNumber, rawBlock.getParentHash())) {
+                parentId = recentChain.getTipId();
+            } else {
+                // Not on top of the last block, go through the database
+                if (isBlockRecorded(connection, block.getHash())) {
+                    // The head the subscription started with could have been caught up already
+                    return true;
+                }
 
-                reorgValidBlock(connection, blockNumber, parentHash); // Insert missing parents and mark forked blocks
-                insertBlockRecord(connection, ethBlock.getBlock());
+                final long tipNumber = recentChain.getTipNumber();
+                final long changedFrom = reorgValidBlock(connection, blockNumber, parentHash); // Insert missing parents and mark forked blocks
 
-                // Don't forget to commit it
-                connection.commit();
-            } catch (SQLException | IOException | IllegalDatabaseStateException | IllegalBlockchainStateException e) {
-                if (connection != null) {
-                    try {
-                        connection.rollback();
-                    } catch (SQLException e1) {
-                        logger.error("An error occurred when performing a rollback on the database", e);
-                    }
+                if (changedFrom != -1) {
+                    final long depth = Math.max(tipNumber, blockNumber - 1) - changedFrom + 1;
+
+                    logger.warn("Chain reorganization at #{}, {} blocks replaced", changedFrom, depth);
+                    metrics.reorganized(depth);
                 }
+            }
 
-                logger.error("An error occurred during committing a new block", e);
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        logger.error("An error occurred during closing a database connection", e);
-                    }
+            final long blockId = insertBlockRecord(connection, rawBlock, parentId);
+
+            // Don't forget to commit it
+            projections.checkpoint(connection, blockNumber, rawBlock.getHash());
+            connection.commit();
+            projections.commit();
+            addressIdPool.commit();
+            recentChain.push(blockNumber, blockId, rawBlock.getHash(), rawBlock.getParentHash());
+            metrics.blockInserted();
+
+            return true;
+        } catch (SQLException | IOException | IllegalDatabaseStateException | IllegalBlockchainStateException e) {
+            projections.rollback();
+            addressIdPool.rollback();
+
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    logger.error("An error occurred when performing a rollback on the database", e);
                 }
             }
 
+            logger.error("An error occurred during committing a new block", e);
+
+            return false;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error("An error occurred during closing a database connection", e);
+                }
+            }
         }
     }
 
-    private class CatchupSubscriber implements Action1<EthBlock> {
-        // FIXME assuming all of the blocks are VALID from the start because it is old and CONFIRMED by a lot of successor blocks
+    private static boolean isBlockRecorded(Connection connection, String prefixedHash) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT 1 FROM blocks WHERE hash = ? AND forked = 0")) {
+            HexCodec.setHex(prpstmt, 1, prefixedHash);
 
-        private final BigInteger BI_100 = BigInteger.valueOf(100);
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private class CatchupWriter implements CatchupPipeline.Writer {
+        // FIXME assuming all of the blocks are VALID from the start because it is old and CONFIRMED by a lot of successor blocks
 
-        private final BigInteger catchupGoal;
-        private BigInteger blockCount = BigInteger.ZERO;
+        private final long catchupGoal;
+        private final StagingLog stagingLog;    // null if not staged
+        private long blockCount;
         private LinkedList<Long> times = new LinkedList<>();
 
-        public CatchupSubscriber(BigInteger catchupGoal) {
+        // One connection is kept through the catchup, rows are committed in groups
+        private Connection connection;
+        private ConverterStatements statements;
+        private int uncommittedBlocks;
+        private long lastCommitTime;
+        private long lastWritten = -1;
+        private long lastWrittenId;
+        private byte[] lastWrittenHash;
+        private long lastCommitted = -1;
+
+        public CatchupWriter(long catchupGoal, StagingLog stagingLog) {
             this.catchupGoal = catchupGoal;
+            this.stagingLog = stagingLog;
         }
 
         @Override
-        public void call(EthBlock ethBlock) {
-            Connection connection = null;
-
-            try {
+        public void write(FetchedBlock fetchedBlock) throws Exception {
+            if (connection == null) {
                 // Get a connection from pool
-                connection = databaseManager.getConnection();
+                this.connection = databaseManager.getConnection();
+                this.connection.setAutoCommit(false);
+                this.statements = new ConverterStatements(connection, config.isCatchupBatchEnabled());
+                this.lastCommitTime = System.currentTimeMillis();
+            }
 
-                connection.setAutoCommit(false);
+            // Get a block response
+            final RawBlock block = fetchedBlock.getBlock();
+            final long blockNumber = block.getNumber();
 
-                // Get a block response
-                final EthBlock.Block block = ethBlock.getBlock();
-                final BigInteger blockNumber = block.getNumber();
+            if (blockCount == 0) {   // When it is the start point of catchup fetch, check for parent relations and correct them
+                reorgValidBlock(connection, blockNumber, HexCodec.encodePrefixed(block.getParentHash()));
+            }
 
-                if (blockCount.compareTo(BigInteger.ZERO) == 0) {   // When it is the start point of catchup fetch, check for parent relations and correct them
-                    reorgValidBlock(connection, blockNumber, block.getParentHash());
-                }
+            // Blocks come in order, the parent is the last one written unless the node reorged meanwhile
+            final boolean isParentWritten = lastWritten == blockNumber - 1 && Arrays.equals(lastWrittenHash, block.getParentHash());
 
-                insertBlockRecord(connection, block);
-                if (blockNumber.compareTo(BigInteger.ZERO) == 0) {  // Do the genesis block setup AFTER the block has been inserted
-                    setupPreminedAddresses(connection);
-                }
-                connection.commit();    // Commit change
+            this.lastWrittenId = insertBlockRecord(statements, fetchedBlock, isParentWritten ? lastWrittenId : -1);
+            this.lastWritten = block.getNumber();
+            this.lastWrittenHash = block.getHash();
+
+            this.uncommittedBlocks++;
+
+            if (!config.isCatchupBatchEnabled()
+                    || uncommittedBlocks >= config.getCatchupCommitBlocks()
+                    || System.currentTimeMillis() - lastCommitTime >= config.getCatchupCommitMillis()) {
+                commit();   // Group commit, N blocks or T milliseconds whichever comes first
+            }
+
+            this.blockCount++;
+
+            if (blockCount % 100 == 0) {
+                addSample(System.currentTimeMillis());
 
-                // Incrementing and set new value for blockCount, be careful that BigInteger is IMMUTABLE.
-                this.blockCount = blockCount.add(BigInteger.ONE);
+                // Show progress each time fetching 100 blocks
+                final BigDecimal progressp = BigDecimal.valueOf(blockNumber * 100)
+                        .divide(BigDecimal.valueOf(catchupGoal), 2, RoundingMode.HALF_UP);
 
-                if (blockCount.mod(BI_100).equals(BigInteger.ZERO)) {
-                    addSample(System.currentTimeMillis());
+                logger.info("Catching up... Fetched {} blocks, the latest is #{}/{} est finish in {}minutes ({}%)",
+                        blockCount, blockNumber,
+                        catchupGoal,
+                        calMinutes(blockNumber),
+                        progressp.toString());
+
+                final AddressIdCache cache = addressIdPool.getCache();
+
+                logger.debug("Address id cache: {}/{} entries, hit rate {}%, {} evictions",
+                        cache.size(), cache.getCapacity(),
+                        BigDecimal.valueOf(cache.getHitRate() * 100).setScale(2, RoundingMode.HALF_UP),
+                        cache.getEvictionCount());
+                logger.debug("{}", web3jManager.getNodePool());
+            }
+        }
+
+        private void commit() throws SQLException {
+            statements.flush();
+
+            if (lastWritten >= 0) {
+                projections.checkpoint(connection, lastWritten, lastWrittenHash);
+            }
 
-                    // Show progress each time fetching 100 blocks
-                    final BigDecimal progressp = new BigDecimal(blockNumber.multiply(BI_100))
-                            .divide(new BigDecimal(catchupGoal), 2, RoundingMode.HALF_UP);
+            connection.commit();    // Commit change
+            projections.commit();
+            addressIdPool.commit();
 
-                    logger.info("Catching up... Fetched {} blocks, the latest is #{}/{} est finish in {}minutes ({}%)",
-                            blockCount, blockNumber.toString(),
-                            catchupGoal,
-                            calMinutes(blockNumber),
-                            progressp.toString());
+            this.uncommittedBlocks = 0;
+            this.lastCommitTime = System.currentTimeMillis();
+            this.lastCommitted = lastWritten;
+
+            if (stagingLog != null && lastCommitted >= 0) {
+                try {
+                    stagingLog.checkpoint(lastCommitted);
+                } catch (IOException e) {
+                    // The database is what counts, the checkpoint only tells which segments can go
+                    logger.warn("Could not write the staging log checkpoint", e);
                 }
-            } catch (Exception e) {
-                if (connection != null) {
-                    try {
-                        connection.rollback();
-                    } catch (SQLException e1) {
-                        logger.error("An error occurred when performing a rollback on the database", e);
-                    }
+            }
+        }
+
+        /**
+         * @return The last block number committed by this writer, -1 if none
+         */
+        public long getLastCommitted() {
+            return lastCommitted;
+        }
+
+        /**
+         * Commit the last group if catchup has completed, otherwise roll it back. Releases the connection
+         *
+         * @return {@code false} if the last commit failed
+         */
+        public boolean finish(boolean completed) {
+            if (connection == null) {
+                return true;    // Nothing has been written
+            }
+
+            boolean committed = false;
+
+            try {
+                if (completed) {
+                    commit();
+                    committed = true;
                 }
-                logger.error("Database issue! Stopping catchup fetch", e);
+            } catch (SQLException e) {
+                logger.error("An error occurred when committing the last blocks of catchup fetch", e);
+            }
 
-                stop = true;
+            try {
+                if (!committed) {
+                    projections.rollback();
+                    addressIdPool.rollback();
+                    statements.discard();
+                    connection.rollback();
+                }
 
-                // This would unsubscribe from observer
-                blockSub.unsubscribe();
+                statements.close();
+            } catch (SQLException e) {
+                logger.error("An error occurred when performing a rollback on the database", e);
             } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        logger.error("An error occurred during closing connection", e);
-                    }
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error("An error occurred during closing connection", e);
                 }
+
+                this.connection = null;
             }
+
+            return committed || !completed;
         }
 
         private void addSample(long timeMillis) {
@@ -808,7 +1346,7 @@ public class BlockchainConverter implements Runnable {
             }
         }
 
-        private String calMinutes(BigInteger blockNumber) {
+        private String calMinutes(long blockNumber) {
             if (times.size() == 1) {
                 // If no sampled time is available, just return "?"
                 return "?";
@@ -825,13 +1363,169 @@ public class BlockchainConverter implements Runnable {
             // One operation is 100 blocks insert
 
             return new BigDecimal(total)
-                    .multiply(new BigDecimal(catchupGoal.subtract(blockNumber)))
+                    .multiply(BigDecimal.valueOf(catchupGoal - blockNumber))
                     .divide(BigDecimal.valueOf(1000L * 60 * 100 * times.size()), 2, RoundingMode.HALF_UP).toString();
         }
     }
 
+    /**
+     * Writes blocks from the staging log into the database on its own thread.<br>
+     * When the database fails, uncommitted blocks are rolled back and written again from the last commit after a while,
+     * blocks fetched meanwhile just wait in the log
+     */
+    private class StagedWriter implements Runnable {
+
+        private static final long MIN_RETRY_MILLIS = 1000;
+        private static final long MAX_RETRY_MILLIS = 60000;
+
+        private final StagingLog stagingLog;
+        private final long goal;
+        private long next;  // The next block to write, everything before is committed
+
+        private volatile boolean fetchOver;
+        private volatile boolean completed;
+
+        StagedWriter(StagingLog stagingLog, long start, long goal) {
+            this.stagingLog = stagingLog;
+            this.next = start;
+            this.goal = goal;
+        }
+
+        @Override
+        public void run() {
+            long retryMillis = MIN_RETRY_MILLIS;
+
+            while (!stop && next <= goal) {
+                final CatchupWriter catchupWriter = new CatchupWriter(goal, stagingLog);
+                long position = next;
+
+                try (StagingLog.Reader reader = stagingLog.openReader(next)) {
+                    while (!stop && position <= goal) {
+                        final FetchedBlock fetchedBlock = reader.next(100);
+
+                        if (fetchedBlock == null) {
+                            if (fetchOver) {
+                                break;  // Fetching failed, nothing more will come
+                            }
+                            continue;
+                        }
+
+                        catchupWriter.write(fetchedBlock);
+                        position++;
+                    }
+                } catch (SQLException e) {
+                    // The database is down or too slow, the blocks are still in the log
+                    catchupWriter.finish(false);
+
+                    if (catchupWriter.getLastCommitted() >= 0) {
+                        this.next = catchupWriter.getLastCommitted() + 1;
+                        retryMillis = MIN_RETRY_MILLIS;     // It was working for a while
+                    }
+
+                    logger.warn("Writing into the database failed, retrying from #{} in {}ms", next, retryMillis, e);
+
+                    sleep(retryMillis);
+                    retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                    continue;
+                } catch (Exception e) {
+                    logger.error("An error occurred when writing blocks from the staging log, stopping catchup", e);
+                    catchupWriter.finish(false);
+                    stopFetching();
+                    return;
+                }
+
+                // Reached the goal, stopped or fetching failed, what has been written is good either way
+                final boolean committed = catchupWriter.finish(true);
+
+                if (catchupWriter.getLastCommitted() >= 0) {
+                    this.next = catchupWriter.getLastCommitted() + 1;
+                }
+
+                if (!committed) {
+                    logger.warn("Committing failed, retrying from #{} in {}ms", next, retryMillis);
+
+                    sleep(retryMillis);
+                    retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                } else if (position <= goal) {
+                    return;
+                }
+            }
+
+            this.completed = next > goal;
+        }
+
+        private void sleep(long millis) {
+            final long until = System.currentTimeMillis() + millis;
+
+            while (!stop && System.currentTimeMillis() < until) {
+                try {
+                    Thread.sleep(Math.min(100, millis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void stopFetching() {
+            final CatchupPipeline catchupPipeline = BlockchainConverter.this.catchupPipeline;
+
+            if (catchupPipeline != null) {
+                catchupPipeline.stop();
+            }
+        }
+
+        /**
+         * Tell that nothing more will be appended to the log
+         */
+        void fetchOver() {
+            this.fetchOver = true;
+        }
+
+        boolean isCompleted() {
+            return completed;
+        }
+    }
+
+    public ConverterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ProjectionManager getProjections() {
+        return projections;
+    }
+
     public void stop() {
-        // Unsubscribe block filter
-        this.blockSub.unsubscribe();
+        this.stop = true;
+
+        final BootstrapLoader bootstrapLoader = this.bootstrapLoader;
+
+        if (bootstrapLoader != null) {
+            bootstrapLoader.stop();
+        }
+
+        final ParallelBackfill backfill = this.backfill;
+
+        if (backfill != null) {
+            backfill.stop();
+        }
+
+        final HistoryBackfill historyBackfill = this.historyBackfill;
+
+        if (historyBackfill != null) {
+            historyBackfill.stop();
+        }
+
+        final CatchupPipeline catchupPipeline = this.catchupPipeline;
+
+        if (catchupPipeline != null) {
+            catchupPipeline.stop();
+        }
+
+        projections.stop();
+
+        // Stop receiving new blocks
+        if (this.blockSub != null) {
+            this.blockSub.unsubscribe();
+        }
     }
 }
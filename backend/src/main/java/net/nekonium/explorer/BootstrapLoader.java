@@ -0,0 +1,598 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.NonNullPair;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import net.nekonium.explorer.web3jexpand.RawTransaction;
+import net.nekonium.explorer.web3jexpand.Web3jManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Initial sync for an empty database. Instead of inserting row by row, every row from block #0 to (node's latest - confirmations)
+ * is written into TSV spool files first, then the files are loaded by {@code LOAD DATA LOCAL INFILE}
+ * with secondary indexes and foreign keys dropped, and those are added back at the end.<br>
+ * Ids are given here, not by AUTO_INCREMENT, because nothing else is in the database.
+ * After this, the normal converter just catches up from where this stopped.
+ */
+public class BootstrapLoader {
+
+    private static final int RECENT_HASHES = 16;    // Uncles can't be older than 7 blocks, 16 is enough
+
+    // Same as database_arch.sql, dropped before loading and added back after
+    private static final List<TableSpec> TABLES = Arrays.asList(
+            new TableSpec("addresses", "(internal_id, @address, type)", "address = UNHEX(@address)")
+                    .uniqueIndex("address", "`address`"),
+            new TableSpec("blocks", "(internal_id, number, @hash, parent, @timestamp, miner_id, difficulty, gas_limit, gas_used, @extra_data, nonce, size)",
+                    "hash = UNHEX(@hash), timestamp = FROM_UNIXTIME(@timestamp), extra_data = UNHEX(@extra_data), forked = 0")
+                    .index("miner", "`miner_id`")
+                    .index("number", "`number`")
+                    .index("hash", "`hash`")
+                    .index("timestamp", "`timestamp`")
+                    .index("FK_blocks_blocks1", "`parent`")
+                    .index("forked", "`forked`")
+                    .foreignKey("FK_blocks_address", "`miner_id`", "addresses")
+                    .foreignKey("FK_blocks_blocks_", "`parent`", "blocks"),
+            new TableSpec("uncle_blocks", "(number, block_id, `index`, @hash, parent, @timestamp, miner_id, difficulty, gas_limit, gas_used, @extra_data, nonce, size)",
+                    "hash = UNHEX(@hash), timestamp = FROM_UNIXTIME(@timestamp), extra_data = UNHEX(@extra_data)")
+                    .index("hash", "`hash`")
+                    .index("number", "`number`")
+                    .index("block_id", "`block_id`")
+                    .index("parent", "`parent`")
+                    .index("miner_addr_id", "`miner_id`")
+                    .foreignKey("FK_uncle_blocks_address", "`miner_id`", "addresses")
+                    .foreignKey("FK_uncle_blocks_blocks", "`block_id`", "blocks")
+                    .foreignKey("FK_uncle_blocks_blocks_2", "`parent`", "blocks"),
+            new TableSpec("transactions", "(block_id, `index`, @hash, from_id, to_id, contract_id, @value, gas_provided, gas_used, @gas_price, nonce, @input)",
+                    "hash = UNHEX(@hash), value = UNHEX(@value), gas_price = UNHEX(@gas_price), input = UNHEX(@input)")
+                    .index("to_addr_id", "`to_id`")
+                    .index("from_addr_id", "`from_id`")
+                    .index("hash", "`hash`")
+                    .index("block_id", "`block_id`")
+                    .index("contract_id", "`contract_id`")
+                    .foreignKey("FK_transactions_address", "`from_id`", "addresses")
+                    .foreignKey("FK_transactions_address_2", "`to_id`", "addresses")
+                    .foreignKey("FK_transactions_address_3", "`contract_id`", "addresses")
+                    .foreignKey("FK_transactions_blocks", "`block_id`", "blocks"),
+            new TableSpec("balance", "(block_id, number, address_id, @balance)", "balance = UNHEX(@balance)")
+                    .index("block_id", "`block_id`")
+                    .index("address_id", "`address_id`")
+                    .index("number", "`number`")
+                    .index("number_address_id", "`address_id`, `number`")
+                    .foreignKey("FK_balance_address", "`address_id`", "addresses")
+                    .foreignKey("FK_balance_blocks", "`block_id`", "blocks"),
+            new TableSpec("balance_changes", "(block_id, address_id, @negative, @delta)", "negative = (@negative = '1'), delta = UNHEX(@delta)")
+                    .index("address_id", "`address_id`")
+                    .index("block_id", "`block_id`")
+                    .foreignKey("FK_addresses_transactions", "`block_id`", "blocks")
+                    .foreignKey("FK_balance_changes_address", "`address_id`", "addresses")
+    );
+
+    private final CatchupPipeline.Fetcher fetcher;
+    private final Web3jManager web3jManager;
+    private final DatabaseManager databaseManager;
+    private final ConfigLoader config;
+    private final Logger logger;
+
+    private volatile CatchupPipeline pipeline;
+    private volatile boolean stop;
+
+    public BootstrapLoader(CatchupPipeline.Fetcher fetcher, Web3jManager web3jManager, DatabaseManager databaseManager, ConfigLoader config) {
+        this.fetcher = fetcher;
+        this.web3jManager = web3jManager;
+        this.databaseManager = databaseManager;
+        this.config = config;
+        this.logger = LoggerFactory.getLogger("Bootstrap");
+    }
+
+    /**
+     * Does nothing if the database has any block
+     *
+     * @return {@code false} if bootstrap failed or was stopped, the converter should not continue
+     */
+    public boolean run() {
+        try {
+            if (!isDatabaseEmpty()) {
+                logger.info("The database is not empty, bootstrap is skipped");
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.error("A database error occurred when checking the database is empty", e);
+            return false;
+        }
+
+        final long end;
+
+        try {
+            // Latest blocks could still be reorged, leave them to the normal converter which can handle it
+            end = web3jManager.getWeb3j().ethBlockNumber().send().getBlockNumber().longValueExact() - config.getBootstrapConfirmations();
+        } catch (IOException e) {
+            logger.error("An error occurred when getting the latest block number from the node", e);
+            return false;
+        }
+
+        if (end < 0) {
+            logger.info("The blockchain is too short to bootstrap, leaving it to the normal converter");
+            return true;
+        }
+
+        final File spoolDirectory = new File(config.getBootstrapSpoolDirectory());
+
+        if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs()) {
+            logger.error("Could not create the spool directory {}", spoolDirectory.getAbsolutePath());
+            return false;
+        }
+
+        /* 1. Spool */
+        logger.info("Bootstrap: spooling blocks #0 to #{} into {}", end, spoolDirectory.getAbsolutePath());
+
+        final boolean spooled;
+
+        try (SpoolWriter writer = new SpoolWriter(spoolDirectory, end)) {
+            this.pipeline = new CatchupPipeline(fetcher, config.getCatchupWindowSize(), config.getCatchupFetchThreads());
+
+            spooled = !stop && pipeline.run(0, end, writer);
+
+            if (spooled) {
+                writer.writeAddresses();    // Only complete after the last block
+            }
+        } catch (IOException e) {
+            logger.error("An error occurred when writing spool files", e);
+            return false;
+        } finally {
+            this.pipeline = null;
+        }
+
+        if (!spooled) {
+            logger.warn("Bootstrap spooling did not complete, nothing is loaded into the database");
+            return false;
+        }
+
+        /* 2, 3, 4. Drop indexes, load, add indexes back */
+        try {
+            load(spoolDirectory);
+        } catch (SQLException | InterruptedException e) {
+            logger.error("Bootstrap loading failed, truncate the tables before trying again", e);
+            return false;
+        }
+
+        for (TableSpec table : TABLES) {
+            if (!table.getSpoolFile(spoolDirectory).delete()) {
+                logger.warn("Could not delete spool file of {}", table.name);
+            }
+        }
+
+        logger.info("Bootstrap completed up to block #{}", end);
+
+        return true;
+    }
+
+    public void stop() {
+        this.stop = true;
+
+        final CatchupPipeline pipeline = this.pipeline;
+
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    private boolean isDatabaseEmpty() throws SQLException {
+        try (Connection connection = databaseManager.getConnection(); Statement statement = connection.createStatement()) {
+            for (TableSpec table : TABLES) {
+                try (ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + table.name + " LIMIT 1")) {
+                    if (resultSet.next()) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void load(File spoolDirectory) throws SQLException, InterruptedException {
+        logger.info("Bootstrap: dropping secondary indexes and foreign keys");
+
+        try (Connection connection = databaseManager.getBulkLoadConnection(); Statement statement = connection.createStatement()) {
+            // Foreign keys first, some indexes can't be dropped while a foreign key is using them
+            for (TableSpec table : TABLES) {
+                if (!table.foreignKeys.isEmpty()) {
+                    statement.executeUpdate("ALTER TABLE " + table.name + " " + table.joinForeignKeys("DROP FOREIGN KEY IF EXISTS `", "`", false));
+                }
+            }
+            for (TableSpec table : TABLES) {
+                statement.executeUpdate("ALTER TABLE " + table.name + " " + table.joinIndexes("DROP INDEX IF EXISTS `", "`", false));
+            }
+        }
+
+        try {
+            logger.info("Bootstrap: loading spool files");
+
+            forEachTableInParallel(table -> {
+                try (Connection connection = databaseManager.getBulkLoadConnection(); Statement statement = connection.createStatement()) {
+                    statement.execute("SET foreign_key_checks = 0, unique_checks = 0");
+
+                    final long rows = statement.executeUpdate("LOAD DATA LOCAL INFILE '" + escapePath(table.getSpoolFile(spoolDirectory)) + "' " +
+                            "INTO TABLE " + table.name + " CHARACTER SET latin1 " +
+                            "FIELDS TERMINATED BY '\\t' LINES TERMINATED BY '\\n' " +
+                            table.columns + " SET " + table.setClause);
+
+                    logger.info("Bootstrap: loaded {} rows into {}", rows, table.name);
+                }
+            });
+        } finally {
+            // Even if loading failed, put the schema back the way it was
+            logger.info("Bootstrap: rebuilding secondary indexes, this takes a while");
+
+            forEachTableInParallel(table -> {
+                try (Connection connection = databaseManager.getBulkLoadConnection(); Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("ALTER TABLE " + table.name + " " + table.joinIndexes("ADD ", "", true));
+                }
+            });
+
+            // Not in parallel, adding a foreign key locks the referenced table too
+            try (Connection connection = databaseManager.getBulkLoadConnection(); Statement statement = connection.createStatement()) {
+                statement.execute("SET foreign_key_checks = 0");    // Rows are already known to be consistent, don't check them again
+
+                for (TableSpec table : TABLES) {
+                    if (!table.foreignKeys.isEmpty()) {
+                        statement.executeUpdate("ALTER TABLE " + table.name + " " + table.joinForeignKeys("ADD ", "", true));
+                    }
+                }
+            }
+        }
+    }
+
+    private void forEachTableInParallel(TableTask task) throws SQLException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(TABLES.size());
+
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+
+            for (TableSpec table : TABLES) {
+                futures.add(executor.submit(() -> {
+                    task.run(table);
+                    return null;
+                }));
+            }
+
+            SQLException exception = null;
+
+            for (Future<Void> future : futures) {   // Wait for all of them even if one failed, the tables can't be left being altered
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        exception = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                    }
+                }
+            }
+
+            if (exception != null) {
+                throw exception;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String escapePath(File file) {
+        return file.getAbsolutePath().replace('\\', '/').replace("'", "\\'");
+    }
+
+    private interface TableTask {
+        void run(TableSpec table) throws SQLException;
+    }
+
+    private static class TableSpec {
+
+        private final String name;
+        private final String columns;   // Column list of LOAD DATA, binary ones are read into variables
+        private final String setClause; // SET clause of LOAD DATA, converts variables
+        private final List<String[]> indexes = new ArrayList<>();       // {name, definition}
+        private final List<String[]> foreignKeys = new ArrayList<>();   // {name, definition}
+
+        TableSpec(String name, String columns, String setClause) {
+            this.name = name;
+            this.columns = columns;
+            this.setClause = setClause;
+        }
+
+        TableSpec index(String indexName, String indexColumns) {
+            this.indexes.add(new String[]{indexName, "INDEX IF NOT EXISTS `" + indexName + "` (" + indexColumns + ")"});
+            return this;
+        }
+
+        TableSpec uniqueIndex(String indexName, String indexColumns) {
+            this.indexes.add(new String[]{indexName, "UNIQUE INDEX IF NOT EXISTS `" + indexName + "` (" + indexColumns + ")"});
+            return this;
+        }
+
+        TableSpec foreignKey(String constraintName, String column, String referencedTable) {
+            this.foreignKeys.add(new String[]{constraintName, "CONSTRAINT `" + constraintName + "` FOREIGN KEY IF NOT EXISTS (" + column + ") " +
+                    "REFERENCES `" + referencedTable + "` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE"});
+            return this;
+        }
+
+        String joinIndexes(String prefix, String suffix, boolean definition) {
+            return join(indexes, prefix, suffix, definition);
+        }
+
+        String joinForeignKeys(String prefix, String suffix, boolean definition) {
+            return join(foreignKeys, prefix, suffix, definition);
+        }
+
+        private static String join(List<String[]> list, String prefix, String suffix, boolean definition) {
+            final StringJoiner joiner = new StringJoiner(", ");
+
+            for (String[] element : list) {
+                joiner.add(prefix + (definition ? element[1] : element[0]) + suffix);
+            }
+
+            return joiner.toString();
+        }
+
+        File getSpoolFile(File spoolDirectory) {
+            return new File(spoolDirectory, name + ".tsv");
+        }
+    }
+
+    /**
+     * Converts blocks into rows, same as the normal converter does but gives ids by itself
+     */
+    private class SpoolWriter implements CatchupPipeline.Writer, AddressIdResolver, Closeable {
+
+        private static final String NULL = "\\N";
+
+        private final long end;
+        private final Map<String, Writer> writers = new HashMap<>();
+
+        // Every address ever appeared, in the order of the id
+        private final LinkedHashMap<String, NonNullPair<AddressType, Long>> addresses = new LinkedHashMap<>();
+        // The latest balance of every address
+        private final HashMap<Long, Int128> balances = new HashMap<>();   // Summed up in place
+        // Hashes of recent blocks for checking parent relations
+        private final LinkedHashMap<Long, byte[]> recentHashes = new LinkedHashMap<Long, byte[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > RECENT_HASHES;
+            }
+        };
+
+        private final StringBuilder row = new StringBuilder();
+
+        SpoolWriter(File spoolDirectory, long end) throws IOException {
+            this.end = end;
+
+            for (TableSpec table : TABLES) {
+                this.writers.put(table.name, new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(table.getSpoolFile(spoolDirectory)), StandardCharsets.ISO_8859_1), 1 << 20));
+            }
+        }
+
+        /**
+         * Blocks are all on the main chain, so the internal id can simply be the block number + 1
+         */
+        private long blockId(long blockNumber) {
+            return blockNumber + 1;
+        }
+
+        @Override
+        public void write(FetchedBlock fetchedBlock) throws Exception {
+            final RawBlock block = fetchedBlock.getBlock();
+            final long blockNumber = block.getNumber();
+            final long blockId = blockId(blockNumber);
+
+            if (blockNumber > 0 && !Arrays.equals(block.getParentHash(), recentHashes.get(blockNumber - 1))) {
+                // The node reorged while spooling, or something is very wrong with it
+                throw new IllegalBlockchainStateException("Block #" + blockNumber + " is not a child of the previous block");
+            }
+
+            this.recentHashes.put(blockNumber, block.getHash());
+
+            /* Block */
+            final long minerAddressId = getOrInsert(block.getMiner(), AddressType.NORMAL, false);
+
+            field(blockId);
+            field(blockNumber);
+            field(HexCodec.encode(block.getHash()));
+            field(blockNumber == 0 ? null : blockNumber);   // Parent's id is its number + 1, that is this block's number
+            field(block.getTimestamp());
+            field(minerAddressId);
+            field(Long.toUnsignedString(block.getDifficulty()));
+            field(block.getGasLimit());
+            field(block.getGasUsed());
+            field(HexCodec.encode(block.getExtraData()));
+            field(Long.toUnsignedString(block.getNonce()));
+            field(block.getSize());
+            endRow("blocks");
+
+            /* Uncles */
+            final RawBlock[] uncleBlocks = fetchedBlock.getUncles();
+
+            for (int i = 0; i < uncleBlocks.length; i++) {
+                final RawBlock uncleBlock = uncleBlocks[i];
+                final long parentNumber = uncleBlock.getNumber() - 1;
+
+                if (!Arrays.equals(uncleBlock.getParentHash(), recentHashes.get(parentNumber))) {
+                    throw new IllegalBlockchainStateException("Parent of an uncle block in block #" + blockNumber + " is not on the main chain");
+                }
+
+                field(uncleBlock.getNumber());
+                field(blockId);
+                field(i);
+                field(HexCodec.encode(uncleBlock.getHash()));
+                field(blockId(parentNumber));
+                field(uncleBlock.getTimestamp());
+                field(getOrInsert(uncleBlock.getMiner(), AddressType.NORMAL, false));
+                field(Long.toUnsignedString(uncleBlock.getDifficulty()));
+                field(uncleBlock.getGasLimit());
+                field(uncleBlock.getGasUsed());
+                field(HexCodec.encode(uncleBlock.getExtraData()));
+                field(Long.toUnsignedString(uncleBlock.getNonce()));
+                field(uncleBlock.getSize());
+                endRow("uncle_blocks");
+            }
+
+            /* Transactions */
+            final RawTransaction[] transactions = fetchedBlock.getTransactions();
+            final RawReceipt[] transactionReceipts = fetchedBlock.getTransactionReceipts();
+
+            for (int i = 0; i < transactions.length; i++) {
+                final RawTransaction transaction = transactions[i];
+                final RawReceipt transactionReceipt = transactionReceipts[i];
+
+                field(blockId);
+                field(transaction.getIndex());
+                field(HexCodec.encode(transaction.getHash()));
+                field(get(transaction.getFrom()));
+                field(transaction.getTo() == null ? null : getOrInsert(transaction.getTo(), AddressType.NORMAL, false));
+                field(transactionReceipt.getContractAddress() == null ? null : getOrInsert(transactionReceipt.getContractAddress(), AddressType.CONTRACT, true));
+                field(HexCodec.encode(transaction.getValue().toByteArray()));
+                field(transaction.getGas());
+                field(transactionReceipt.getGasUsed());
+                field(HexCodec.encode(transaction.getGasPrice().toByteArray()));
+                field(Long.toUnsignedString(transaction.getNonce()));
+                field(HexCodec.encode(transaction.getInput()));
+                endRow("transactions");
+            }
+
+            /* Balances */
+            for (Map.Entry<Long, Int128> entry : BalanceChanges.of(fetchedBlock, this).entrySet()) {
+                final long addressId = entry.getKey();
+                final Int128 balanceChange = entry.getValue();
+
+                if (balanceChange.signum() == 0) {
+                    continue;   // Same as the normal converter
+                }
+
+                final Int128 previousBalance = balances.get(addressId);
+
+                writeBalance(blockId, blockNumber, addressId, balanceChange, previousBalance == null ? balanceChange.copy() : previousBalance.add(balanceChange));
+            }
+
+            if (blockNumber == 0) {
+                for (NonNullPair<String, Int128> pair : BlockchainConverter.getPreminedAddresses()) {
+                    final long addressId = getOrInsert(pair.getA(), AddressType.NORMAL, true);
+
+                    writeBalance(blockId, blockNumber, addressId, pair.getB(), pair.getB().copy());
+                }
+            }
+
+            if (blockNumber % 10000 == 0) {
+                logger.info("Bootstrap: spooled #{}/{}, {} addresses", blockNumber, end, addresses.size());
+            }
+        }
+
+        private void writeBalance(long blockId, long blockNumber, long addressId, Int128 balanceChange, Int128 balance) throws IOException {
+            field(blockId);
+            field(addressId);
+            field(balanceChange.signum() == -1 ? 1 : 0);
+            field(HexCodec.encode(balanceChange.abs().toByteArray()));
+            endRow("balance_changes");
+
+            field(blockId);
+            field(blockNumber);
+            field(addressId);
+            field(HexCodec.encode(balance.toByteArray()));
+            endRow("balance");
+
+            this.balances.put(addressId, balance);
+        }
+
+        void writeAddresses() throws IOException {
+            for (Map.Entry<String, NonNullPair<AddressType, Long>> entry : addresses.entrySet()) {
+                field(entry.getValue().getB());
+                field(entry.getKey());
+                field(entry.getValue().getA().name());
+                endRow("addresses");
+            }
+        }
+
+        @Override
+        public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) {
+            final String address = prefixedAddress.substring(2).toLowerCase();    // The node and premine list don't agree on letter case
+            final NonNullPair<AddressType, Long> known = addresses.get(address);
+
+            if (known == null) {
+                final long addressId = addresses.size() + 1;
+
+                this.addresses.put(address, new NonNullPair<>(addressType, addressId));
+
+                return addressId;
+            }
+
+            if (careType && known.getA() != addressType) {
+                throw new IllegalBlockchainStateException("Address type mismatch for [" + prefixedAddress + "], expected [" + addressType + "] got [" + known.getA() + "]");
+            }
+
+            return known.getB();
+        }
+
+        @Override
+        public long get(String prefixedAddress) {
+            final NonNullPair<AddressType, Long> known = addresses.get(prefixedAddress.substring(2).toLowerCase());
+
+            if (known == null) {
+                throw new IllegalBlockchainStateException("An address [" + prefixedAddress + "] has not appeared before");
+            }
+
+            return known.getB();
+        }
+
+        private void field(Object value) {
+            if (row.length() > 0) {
+                this.row.append('\t');
+            }
+
+            this.row.append(value == null ? NULL : value.toString());
+        }
+
+        private void field(long value) {
+            if (row.length() > 0) {
+                this.row.append('\t');
+            }
+
+            this.row.append(value);
+        }
+
+        private void endRow(String table) throws IOException {
+            this.row.append('\n');
+            this.writers.get(table).write(row.toString());
+            this.row.setLength(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException exception = null;
+
+            for (Writer writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.nekonium.explorer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+/**
+ * Fetches a range of blocks (with uncles and receipts) on several threads, keeping up to {@code windowSize} blocks in flight,
+ * and hands them to a single writer strictly in the order of the block number (ascending, or descending for filling history downward).<br>
+ * The writer runs on the thread which called {@link #run(long, long, Writer)}, so it can keep using one database connection.
+ */
+public class CatchupPipeline {
+
+    private static final int FETCH_ATTEMPTS = 3;    // A fetch is retried this many times before the whole catchup is given up
+
+    private final Fetcher fetcher;
+    private final int windowSize;
+    private final int threads;
+    private final Logger logger;
+
+    private volatile boolean stop;
+
+    public CatchupPipeline(Fetcher fetcher, int windowSize, int threads) {
+        if (windowSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("Window size and thread count must be positive");
+        }
+
+        this.fetcher = fetcher;
+        this.windowSize = windowSize;
+        this.threads = threads;
+        this.logger = LoggerFactory.getLogger("CatchupPipeline");
+    }
+
+    /**
+     * Fetch and write all blocks from {@code start} to {@code end} (both inclusive), downward if {@code start} is greater than {@code end}
+     *
+     * @return {@code true} if every block was written, {@code false} if it was stopped or failed
+     */
+    public boolean run(long start, long end, Writer writer) {
+        final ExecutorService fetchExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "catchup-fetch");
+            thread.setDaemon(true);  // Don't let a stuck node call keep the program alive
+            return thread;
+        });
+
+        final ArrayDeque<Future<FetchedBlock>> window = new ArrayDeque<>(windowSize);  // Head is always the next block to write
+
+        final long step = start > end ? -1 : 1;
+
+        long nextToFetch = start;
+
+        try {
+            while (!stop) {
+                /* Fill the window */
+                while (window.size() < windowSize && (end - nextToFetch) * step >= 0) {
+                    final long blockNumber = nextToFetch;
+
+                    window.addLast(fetchExecutor.submit(() -> fetchWithRetry(blockNumber)));
+                    nextToFetch += step;
+                }
+
+                final Future<FetchedBlock> head = window.pollFirst();
+
+                if (head == null) {
+                    return true;    // Nothing left to fetch nor to write, catchup is done
+                }
+
+                final FetchedBlock fetchedBlock;
+
+                try {
+                    fetchedBlock = head.get();
+                } catch (ExecutionException e) {
+                    logger.error("Could not fetch a block from the node, stopping catchup", e.getCause());
+                    return false;
+                }
+
+                writer.write(fetchedBlock);     // In order, one by one
+            }
+
+            return false;   // Stopped from outside
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for a block to be fetched", e);
+            return false;
+        } catch (Exception e) {
+            logger.error("An error occurred when writing a block, stopping catchup", e);
+            return false;
+        } finally {
+            fetchExecutor.shutdownNow();    // Blocks still in the window are just thrown away
+        }
+    }
+
+    private FetchedBlock fetchWithRetry(long blockNumber) throws Exception {
+        for (int i = 1; ; i++) {
+            try {
+                return fetcher.fetch(blockNumber);
+            } catch (Exception e) {
+                if (i >= FETCH_ATTEMPTS || stop) {
+                    throw e;
+                }
+
+                logger.warn("Fetching block #{} failed, retrying {}/{}", blockNumber, i, FETCH_ATTEMPTS - 1, e);
+            }
+        }
+    }
+
+    public void stop() {
+        this.stop = true;
+    }
+
+    public interface Fetcher {
+        /**
+         * Called from fetching threads, must be thread-safe
+         */
+        FetchedBlock fetch(long blockNumber) throws Exception;
+    }
+
+    public interface Writer {
+        /**
+         * Called from the thread running the pipeline, in the order of the block number (the order given to {@link #run(long, long, Writer)})
+         */
+        void write(FetchedBlock fetchedBlock) throws Exception;
+    }
+}
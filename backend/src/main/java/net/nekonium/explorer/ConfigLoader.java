@@ -1,22 +1,81 @@
 package net.nekonium.explorer;
 
+import net.nekonium.explorer.server.RequestHandler;
 import net.nekonium.explorer.util.UnconfiguredPropertyException;
+import net.nekonium.explorer.web3jexpand.NodePool;
 import net.nekonium.explorer.web3jexpand.Web3jManager;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 public class ConfigLoader {
 
+    private static final int DEFAULT_CATCHUP_WINDOW_SIZE = 64;
+    private static final int DEFAULT_CATCHUP_FETCH_THREADS = 8;
+    private static final int DEFAULT_CATCHUP_COMMIT_BLOCKS = 100;
+    private static final int DEFAULT_CATCHUP_COMMIT_MILLIS = 1000;
+    private static final int DEFAULT_BOOTSTRAP_CONFIRMATIONS = 100;
+    private static final int DEFAULT_ADDRESS_CACHE_CAPACITY = 1000000;
+    private static final int DEFAULT_RECENT_CHAIN_SIZE = 256;
+    private static final int DEFAULT_STAGING_SEGMENT_MEGABYTES = 64;
+    private static final int DEFAULT_BACKFILL_RANGE_SIZE = 10000;
+    private static final int DEFAULT_BACKFILL_CONFIRMATIONS = 100;
+    private static final int DEFAULT_HEAD_FIRST_THRESHOLD = 10000;
+    private static final int DEFAULT_HEAD_FIRST_CONFIRMATIONS = 100;
+    private static final int DEFAULT_CACHE_SEGMENT_MEGABYTES = 256;
+    private static final int DEFAULT_CACHE_CONFIRMATIONS = 100;
+    private static final int DEFAULT_LIGHT_QUERY_THREADS = 4;
+    private static final int DEFAULT_LIGHT_QUERY_QUEUE_SIZE = 64;
+    private static final int DEFAULT_LIGHT_QUERY_MAX_WAIT_MILLIS = 1000;
+    private static final int DEFAULT_HEAVY_QUERY_THREADS = 2;
+    private static final int DEFAULT_HEAVY_QUERY_QUEUE_SIZE = 16;
+    private static final int DEFAULT_HEAVY_QUERY_MAX_WAIT_MILLIS = 5000;
+
     private File configPath;
 
     private String databaseURL;
     private String databaseUser;
     private String databasePassword;
     private Web3jManager.ConnectionType nodeConnectionType;
-    private String nodeURL;
+    private List<String> nodeURLs;
+    private NodePool.Routing nodeRouting;
+    private boolean nodeHedgeEnabled;
+    private String nodeWebSocketURL;
+    private int catchupWindowSize;
+    private int catchupFetchThreads;
+    private boolean catchupBatchEnabled;
+    private int catchupCommitBlocks;
+    private int catchupCommitMillis;
+    private boolean bootstrapEnabled;
+    private String bootstrapSpoolDirectory;
+    private int bootstrapConfirmations;
+    private int addressCacheCapacity;
+    private int recentChainSize;
+    private boolean stagingEnabled;
+    private String stagingDirectory;
+    private int stagingSegmentMegabytes;
+    private boolean backfillEnabled;
+    private int backfillThreads;
+    private int backfillRangeSize;
+    private int backfillConfirmations;
+    private boolean headFirstEnabled;
+    private int headFirstThreshold;
+    private int headFirstConfirmations;
+    private boolean cacheEnabled;
+    private String cacheDirectory;
+    private int cacheSegmentMegabytes;
+    private int cacheConfirmations;
+    private Set<String> disabledProjections;
+    private final EnumMap<RequestHandler.CostClass, Integer> queryThreads = new EnumMap<>(RequestHandler.CostClass.class);
+    private final EnumMap<RequestHandler.CostClass, Integer> queryQueueSizes = new EnumMap<>(RequestHandler.CostClass.class);
+    private final EnumMap<RequestHandler.CostClass, Integer> queryMaxWaitMillis = new EnumMap<>(RequestHandler.CostClass.class);
 
     public ConfigLoader(File configPath) {
         this.configPath = configPath;
@@ -44,9 +103,110 @@ public class ConfigLoader {
             throw new UnconfiguredPropertyException("node.connectiontype references unknown connection type");
         }
 
-        this.nodeURL = properties.getProperty("node.url");
-        checkNull("node.url", nodeURL);
+        final String nodeURLStr = properties.getProperty("node.url");
+        checkNull("node.url", nodeURLStr);
+
+        // Several nodes can be separated by commas
+        this.nodeURLs = new ArrayList<>();
+
+        for (String url : nodeURLStr.split(",")) {
+            if (!url.trim().isEmpty()) {
+                this.nodeURLs.add(url.trim());
+            }
+        }
+
+        if (nodeURLs.isEmpty()) {
+            throw new UnconfiguredPropertyException("node.url is empty");
+        }
+
+        // Optional, how calls are spread over the nodes and whether a slow call is sent to another node too
+        final String routingStr = properties.getProperty("node.routing", NodePool.Routing.ROUND_ROBIN.name());
+        try {
+            this.nodeRouting = NodePool.Routing.valueOf(routingStr.trim());
+        } catch (IllegalArgumentException e) {
+            throw new UnconfiguredPropertyException("node.routing references unknown routing");
+        }
+
+        this.nodeHedgeEnabled = getBoolean(properties, "node.hedge", true);
+
+        // Optional, websocket endpoint for new head notifications
+        this.nodeWebSocketURL = properties.getProperty("node.ws.url");
+
+        // Optional, how many blocks can be fetched ahead of the database writer during catchup fetch
+        this.catchupWindowSize = getPositiveInt(properties, "converter.catchup.window", DEFAULT_CATCHUP_WINDOW_SIZE);
+        this.catchupFetchThreads = getPositiveInt(properties, "converter.catchup.threads", DEFAULT_CATCHUP_FETCH_THREADS);
+
+        // Optional, batched multi-row inserts and group commit during catchup fetch
+        this.catchupBatchEnabled = getBoolean(properties, "converter.catchup.batch", true);
+        this.catchupCommitBlocks = getPositiveInt(properties, "converter.catchup.commit.blocks", DEFAULT_CATCHUP_COMMIT_BLOCKS);
+        this.catchupCommitMillis = getPositiveInt(properties, "converter.catchup.commit.millis", DEFAULT_CATCHUP_COMMIT_MILLIS);
+
+        // Optional, bulk-load an empty database with LOAD DATA before the normal converter starts
+        this.bootstrapEnabled = getBoolean(properties, "converter.bootstrap", false);
+        this.bootstrapSpoolDirectory = properties.getProperty("converter.bootstrap.spool", "./spool");
+        this.bootstrapConfirmations = getPositiveInt(properties, "converter.bootstrap.confirmations", DEFAULT_BOOTSTRAP_CONFIRMATIONS);
 
+        // Optional, how many addresses the address id cache holds, about 40 bytes each
+        this.addressCacheCapacity = getPositiveInt(properties, "converter.addresscache.capacity", DEFAULT_ADDRESS_CACHE_CAPACITY);
+
+        // Optional, how many of the latest blocks are remembered to check new blocks' parents without the database
+        this.recentChainSize = getPositiveInt(properties, "converter.recentchain.size", DEFAULT_RECENT_CHAIN_SIZE);
+
+        // Optional, off by default, catchup fetched blocks go through a log on the local disk, so that a database failure doesn't throw them away
+        this.stagingEnabled = getBoolean(properties, "converter.staging", false);
+        this.stagingDirectory = properties.getProperty("converter.staging.directory", "./staging");
+        this.stagingSegmentMegabytes = getPositiveInt(properties, "converter.staging.segment", DEFAULT_STAGING_SEGMENT_MEGABYTES);
+
+        // Optional, fill an empty database by ranges of blocks on several threads at once, parents and balances are linked at the end
+        this.backfillEnabled = getBoolean(properties, "converter.backfill", false);
+        this.backfillThreads = getPositiveInt(properties, "converter.backfill.threads", Runtime.getRuntime().availableProcessors());
+        this.backfillRangeSize = getPositiveInt(properties, "converter.backfill.range", DEFAULT_BACKFILL_RANGE_SIZE);
+        this.backfillConfirmations = getPositiveInt(properties, "converter.backfill.confirmations", DEFAULT_BACKFILL_CONFIRMATIONS);
+
+        // Optional, if the database is this many blocks behind, start from the node's head and fill the history below in the background
+        this.headFirstEnabled = getBoolean(properties, "converter.headfirst", false);
+        this.headFirstThreshold = getPositiveInt(properties, "converter.headfirst.threshold", DEFAULT_HEAD_FIRST_THRESHOLD);
+        this.headFirstConfirmations = getPositiveInt(properties, "converter.headfirst.confirmations", DEFAULT_HEAD_FIRST_CONFIRMATIONS);
+
+        // Optional, keep fetched blocks on the local disk and read them from there instead of the node when the database is built again
+        this.cacheEnabled = getBoolean(properties, "converter.cache", false);
+        this.cacheDirectory = properties.getProperty("converter.cache.directory", "./blockcache");
+        this.cacheSegmentMegabytes = getPositiveInt(properties, "converter.cache.segment", DEFAULT_CACHE_SEGMENT_MEGABYTES);
+        this.cacheConfirmations = getPositiveInt(properties, "converter.cache.confirmations", DEFAULT_CACHE_CONFIRMATIONS);
+
+        if (cacheSegmentMegabytes > 2047) {
+            throw new UnconfiguredPropertyException("converter.cache.segment has to be less than 2048");
+        }
+
+        // Optional, projections (derived tables) not to maintain, separated by commas
+        this.disabledProjections = new HashSet<>();
+
+        for (String name : properties.getProperty("converter.projections.disabled", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                this.disabledProjections.add(name.trim());
+            }
+        }
+
+        if (headFirstEnabled && disabledProjections.contains(BalanceChangeProjection.NAME)) {
+            // Balances are summed up from balance changes after the history is filled
+            throw new UnconfiguredPropertyException("converter.headfirst needs the " + BalanceChangeProjection.NAME + " projection");
+        }
+
+        // Optional, for each lane of requests, how many are handled at once and how many can wait, the rest are answered busy.
+        // A request which waited longer than max wait is answered busy too, the client has likely given up on it
+        loadQueryLane(properties, RequestHandler.CostClass.LIGHT, DEFAULT_LIGHT_QUERY_THREADS, DEFAULT_LIGHT_QUERY_QUEUE_SIZE, DEFAULT_LIGHT_QUERY_MAX_WAIT_MILLIS);
+        loadQueryLane(properties, RequestHandler.CostClass.HEAVY, DEFAULT_HEAVY_QUERY_THREADS, DEFAULT_HEAVY_QUERY_QUEUE_SIZE, DEFAULT_HEAVY_QUERY_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * server.query.light.threads, server.query.heavy.queue and so on
+     */
+    private void loadQueryLane(Properties properties, RequestHandler.CostClass costClass, int defaultThreads, int defaultQueueSize, int defaultMaxWaitMillis) throws UnconfiguredPropertyException {
+        final String prefix = "server.query." + costClass.name().toLowerCase() + ".";
+
+        this.queryThreads.put(costClass, getPositiveInt(properties, prefix + "threads", defaultThreads));
+        this.queryQueueSizes.put(costClass, getPositiveInt(properties, prefix + "queue", defaultQueueSize));
+        this.queryMaxWaitMillis.put(costClass, getPositiveInt(properties, prefix + "maxwait", defaultMaxWaitMillis));
     }
 
     private void checkNull(String propertyName, Object property) throws UnconfiguredPropertyException {
@@ -55,6 +215,44 @@ public class ConfigLoader {
         }
     }
 
+    private boolean getBoolean(Properties properties, String propertyName, boolean defaultValue) throws UnconfiguredPropertyException {
+        final String str = properties.getProperty(propertyName);
+
+        if (str == null) {
+            return defaultValue;
+        }
+
+        if (str.trim().equalsIgnoreCase("true")) {
+            return true;
+        } else if (str.trim().equalsIgnoreCase("false")) {
+            return false;
+        } else {
+            throw new UnconfiguredPropertyException(propertyName + " has to be true or false");
+        }
+    }
+
+    private int getPositiveInt(Properties properties, String propertyName, int defaultValue) throws UnconfiguredPropertyException {
+        final String str = properties.getProperty(propertyName);
+
+        if (str == null) {
+            return defaultValue;    // Not configured, use default
+        }
+
+        final int value;
+
+        try {
+            value = Integer.parseInt(str.trim());
+        } catch (NumberFormatException e) {
+            throw new UnconfiguredPropertyException(propertyName + " has to be numeric", e);
+        }
+
+        if (value < 1) {
+            throw new UnconfiguredPropertyException(propertyName + " has to be positive");
+        }
+
+        return value;
+    }
+
 
     public String getDatabaseURL() {
         return databaseURL;
@@ -73,8 +271,137 @@ public class ConfigLoader {
         return nodeConnectionType;
     }
 
-    public String getNodeURL() {
-        return nodeURL;
+    public List<String> getNodeURLs() {
+        return nodeURLs;
+    }
+
+    public NodePool.Routing getNodeRouting() {
+        return nodeRouting;
+    }
+
+    public boolean isNodeHedgeEnabled() {
+        return nodeHedgeEnabled;
+    }
+
+    public String getNodeWebSocketURL() {
+        return nodeWebSocketURL;
+    }
+
+
+    public int getCatchupWindowSize() {
+        return catchupWindowSize;
+    }
+
+    public int getCatchupFetchThreads() {
+        return catchupFetchThreads;
+    }
+
+    public boolean isCatchupBatchEnabled() {
+        return catchupBatchEnabled;
+    }
+
+    public int getCatchupCommitBlocks() {
+        return catchupCommitBlocks;
+    }
+
+    public int getCatchupCommitMillis() {
+        return catchupCommitMillis;
+    }
+
+    public boolean isBootstrapEnabled() {
+        return bootstrapEnabled;
+    }
+
+    public String getBootstrapSpoolDirectory() {
+        return bootstrapSpoolDirectory;
+    }
+
+    public int getBootstrapConfirmations() {
+        return bootstrapConfirmations;
+    }
+
+    public int getAddressCacheCapacity() {
+        return addressCacheCapacity;
+    }
+
+    public int getRecentChainSize() {
+        return recentChainSize;
+    }
+
+    public boolean isStagingEnabled() {
+        return stagingEnabled;
+    }
+
+    public String getStagingDirectory() {
+        return stagingDirectory;
+    }
+
+    public int getStagingSegmentMegabytes() {
+        return stagingSegmentMegabytes;
+    }
+
+    public boolean isBackfillEnabled() {
+        return backfillEnabled;
+    }
+
+    public int getBackfillThreads() {
+        return backfillThreads;
+    }
+
+    public int getBackfillRangeSize() {
+        return backfillRangeSize;
+    }
+
+    public int getBackfillConfirmations() {
+        return backfillConfirmations;
+    }
+
+    public boolean isHeadFirstEnabled() {
+        return headFirstEnabled;
+    }
+
+    public int getHeadFirstThreshold() {
+        return headFirstThreshold;
+    }
+
+    public int getHeadFirstConfirmations() {
+        return headFirstConfirmations;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public int getCacheSegmentMegabytes() {
+        return cacheSegmentMegabytes;
+    }
+
+    public int getCacheConfirmations() {
+        return cacheConfirmations;
+    }
+
+    public boolean isProjectionEnabled(String name) {
+        return !disabledProjections.contains(name);
+    }
+
+    public Set<String> getDisabledProjections() {
+        return disabledProjections;
+    }
+
+    public int getQueryThreads(RequestHandler.CostClass costClass) {
+        return queryThreads.get(costClass);
+    }
+
+    public int getQueryQueueSize(RequestHandler.CostClass costClass) {
+        return queryQueueSizes.get(costClass);
+    }
+
+    public int getQueryMaxWaitMillis(RequestHandler.CostClass costClass) {
+        return queryMaxWaitMillis.get(costClass);
     }
 
 
@@ -0,0 +1,58 @@
+package net.nekonium.explorer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of what the real-time fetch of the converter has done since started. Thread-safe
+ */
+public class ConverterMetrics {
+
+    private final LongAdder insertedBlocks = new LongAdder();
+    private final LongAdder reemittedBlocks = new LongAdder();
+    private final LongAdder reorgs = new LongAdder();
+    private final LongAdder reorgedBlocks = new LongAdder();
+
+    void blockInserted() {
+        insertedBlocks.increment();
+    }
+
+    void blockReemitted() {
+        reemittedBlocks.increment();
+    }
+
+    void reorganized(long depth) {
+        reorgs.increment();
+        reorgedBlocks.add(depth);
+    }
+
+    /**
+     * @return How many new blocks were inserted by the real-time fetch
+     */
+    public long getInsertedBlockCount() {
+        return insertedBlocks.sum();
+    }
+
+    /**
+     * @return How many new blocks were announced again by the node after they had been inserted, and skipped
+     */
+    public long getReemittedBlockCount() {
+        return reemittedBlocks.sum();
+    }
+
+    public long getReorgCount() {
+        return reorgs.sum();
+    }
+
+    /**
+     * @return How many main chain blocks were replaced by reorgs in total
+     */
+    public long getReorgedBlockCount() {
+        return reorgedBlocks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Inserted " + getInsertedBlockCount() + " blocks, skipped " + getReemittedBlockCount() + " re-emitted, "
+                + getReorgCount() + " reorgs (" + getReorgedBlockCount() + " blocks replaced)";
+    }
+}
@@ -0,0 +1,142 @@
+package net.nekonium.explorer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+
+import static java.sql.Statement.RETURN_GENERATED_KEYS;
+
+/**
+ * Prepared statements used for inserting blocks, prepared once for a connection and reused for every block.<br>
+ * In batched mode, rows except the block itself are queued with {@link PreparedStatement#addBatch()}
+ * and sent as multi-row INSERTs on {@link #flush()} (the driver rewrites them when rewriteBatchedStatements is on).
+ * Block rows are always inserted immediately because their AUTO_INCREMENT id is needed for the rest.
+ * The parent of a block is bound by its id when the caller knows it (the last block written), and looked up by number and hash when not.
+ * Projections prepare their own statements by {@link #prepare(String)}, which are flushed after the ones of blocks.
+ * Hashes and data are bound as bytes
+ */
+final class ConverterStatements implements AutoCloseable {
+
+    private final Connection connection;
+    private final boolean batched;
+
+    final PreparedStatement blockZero;
+    final PreparedStatement blockOfParent;
+    final PreparedStatement block;
+    final PreparedStatement uncle;
+    final PreparedStatement transaction;
+    private final LinkedHashMap<String, PreparedStatement> prepared = new LinkedHashMap<>();  // Of projections, in the order prepared
+
+    private int queuedRows;
+
+    ConverterStatements(Connection connection, boolean batched) throws SQLException {
+        this.connection = connection;
+        this.batched = batched;
+
+        /* Block #0 does't have a parent block, set it NULL */
+        this.blockZero = connection.prepareStatement(
+                "INSERT INTO blocks VALUES " +
+                        "(NULL, ?, ?, NULL, FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, " +
+                        "?, 0)", RETURN_GENERATED_KEYS);
+        /* Otherwise, it has a parent, whose id is known */
+        this.blockOfParent = connection.prepareStatement(
+                "INSERT INTO blocks VALUES " +
+                        "(NULL, ?, ?, ?, FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, " +
+                        "?, 0)", RETURN_GENERATED_KEYS);
+        /* Or has to be looked up */
+        this.block = connection.prepareStatement(
+                "INSERT INTO blocks SELECT " +
+                        "NULL, ?, ?, internal_id, FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, " +
+                        "?, 0 FROM blocks WHERE number = ? AND hash = ?", RETURN_GENERATED_KEYS);
+        // This is special statement, INSERT ~~ SELECT ~~, NOTE: using subquery referencing the same table won't work
+
+        this.uncle = connection.prepareStatement(
+                "INSERT INTO uncle_blocks VALUES " +
+                        "(NULL, ?, ?, ?, ?, " +
+                        "(SELECT internal_id FROM blocks WHERE blocks.number = ? AND hash = ? AND forked = 0), " +  // Search for this uncle's parent block.
+                        // If there are more than 2, it throws exception, if there are no parent found, it also throws exception
+                        "FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, ?)");
+        this.transaction = connection.prepareStatement(
+                "INSERT INTO transactions VALUES " +
+                        "(NULL, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * @return A statement prepared on this connection, the same one for the same SQL
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement prpstmt = prepared.get(sql);
+
+        if (prpstmt == null) {
+            prpstmt = connection.prepareStatement(sql);
+            this.prepared.put(sql, prpstmt);
+        }
+
+        return prpstmt;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Execute an INSERT now, or queue it in batched mode
+     */
+    void insert(PreparedStatement prpstmt) throws SQLException {
+        if (batched) {
+            prpstmt.addBatch();
+            this.queuedRows++;
+        } else {
+            prpstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Send all queued rows, in the order of foreign key dependencies. No commit
+     */
+    void flush() throws SQLException {
+        if (queuedRows == 0) {
+            return;
+        }
+
+        uncle.executeBatch();
+        transaction.executeBatch();
+
+        for (PreparedStatement prpstmt : prepared.values()) {
+            prpstmt.executeBatch();
+        }
+
+        this.queuedRows = 0;
+    }
+
+    /**
+     * Throw away queued rows, call this on rollback
+     */
+    void discard() throws SQLException {
+        uncle.clearBatch();
+        transaction.clearBatch();
+
+        for (PreparedStatement prpstmt : prepared.values()) {
+            prpstmt.clearBatch();
+        }
+
+        this.queuedRows = 0;
+    }
+
+    /**
+     * Close all statements, not the connection
+     */
+    @Override
+    public void close() throws SQLException {
+        blockZero.close();
+        blockOfParent.close();
+        block.close();
+        uncle.close();
+        transaction.close();
+
+        for (PreparedStatement prpstmt : prepared.values()) {
+            prpstmt.close();
+        }
+    }
+}
@@ -4,18 +4,29 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 public class DatabaseManager {
 
     private HikariDataSource dataSource;
+    private String url;
+    private String user;
+    private String password;
 
     public void init(String url, String user, String password) throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+
         final HikariConfig config = new HikariConfig();
 
         config.setJdbcUrl(url);
         config.setUsername(user);
         config.setPassword(password);
+        // Lets the driver send a batch of INSERTs as one multi-row INSERT
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
 
         this.dataSource = new HikariDataSource(config);
         // Try to connect to the database, if it fail, throws an exception
@@ -25,4 +36,25 @@ public class DatabaseManager {
     public Connection getConnection() throws SQLException {
         return dataSource.getConnection();
     }
+
+    /**
+     * @return How many connections the pool can have at once
+     */
+    public int getPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * A connection outside of the pool which is allowed to send local files by LOAD DATA LOCAL INFILE,
+     * only for bootstrap. Close it after use
+     */
+    public Connection getBulkLoadConnection() throws SQLException {
+        final Properties properties = new Properties();
+
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        properties.setProperty("allowLocalInfile", "true");
+
+        return DriverManager.getConnection(url, properties);
+    }
 }
@@ -0,0 +1,210 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.NonNullPair;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import net.nekonium.explorer.web3jexpand.RawTransaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Prepared statements for inserting blocks with ids given by the caller instead of AUTO_INCREMENT, for filling history out of order.<br>
+ * Blocks go in without a parent, which is linked after the blocks below are in, and uncles point their parent by the id it is going to have.
+ * Uncles and transactions still get AUTO_INCREMENT ids, their order is the one of the block ids and their indexes.
+ * Foreign key checks have to be off on the connection. Only balance changes are inserted, and only if the caller writes that projection,
+ * balances are summed up after. Every row is batched until {@link #flush()}
+ */
+final class ExplicitIdStatements implements AutoCloseable {
+
+    private final AddressIdPoolManager addressIdPool;
+    private final Connection addressConnection;
+    private final boolean balanceChanges;
+
+    private final PreparedStatement block;
+    private final PreparedStatement uncle;
+    private final PreparedStatement transaction;
+    private final PreparedStatement balanceChange;
+
+    /**
+     * @param connection        Foreign key checks off, not in auto-commit mode
+     * @param addressConnection In auto-commit mode, addresses are shared with the converter and other workers
+     * @param balanceChanges    {@code true} to insert balance changes, when the caller writes {@link BalanceChangeProjection}
+     */
+    ExplicitIdStatements(Connection connection, Connection addressConnection, AddressIdPoolManager addressIdPool, boolean balanceChanges) throws SQLException {
+        this.addressIdPool = addressIdPool;
+        this.addressConnection = addressConnection;
+        this.balanceChanges = balanceChanges;
+
+        this.block = connection.prepareStatement("INSERT INTO blocks VALUES (?, ?, ?, NULL, FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, ?, 0)");
+        this.uncle = connection.prepareStatement("INSERT INTO uncle_blocks VALUES (NULL, ?, ?, ?, ?, ?, FROM_UNIXTIME(?), ?, ?, ?, ?, ?, ?, ?)");
+        this.transaction = connection.prepareStatement("INSERT INTO transactions VALUES (NULL, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        this.balanceChange = connection.prepareStatement("INSERT INTO balance_changes VALUES (?, ?, ?, ?)");
+    }
+
+    /**
+     * @param blockId   Id of the block
+     * @param blockIdOf Block number to the id of the main chain block, for parents of uncles
+     */
+    void add(FetchedBlock fetchedBlock, long blockId, LongUnaryOperator blockIdOf) throws SQLException {
+        final RawBlock block = fetchedBlock.getBlock();
+        final List<NonNullPair<String, AddressType>> addresses = BlockchainConverter.addressesOf(fetchedBlock);
+
+        if (block.getNumber() == 0) {
+            for (NonNullPair<String, Int128> pair : BlockchainConverter.getPreminedAddresses()) {
+                addresses.add(new NonNullPair<>(pair.getA(), AddressType.NORMAL));
+            }
+        }
+
+        final AddressIdResolver resolver = resolverOf(addressIdPool.resolveAllCommitted(addressConnection, addresses));
+
+        int n;
+
+        /* Block */
+        n = 0;
+        this.block.setLong(++n, blockId);
+        this.block.setLong(++n, block.getNumber());
+        this.block.setBytes(++n, block.getHash());
+        this.block.setLong(++n, block.getTimestamp());
+        this.block.setLong(++n, resolver.get(block.getMiner()));
+        this.block.setString(++n, Long.toUnsignedString(block.getDifficulty()));
+        this.block.setLong(++n, block.getGasLimit());
+        this.block.setLong(++n, block.getGasUsed());
+        this.block.setBytes(++n, block.getExtraData());
+        this.block.setString(++n, Long.toUnsignedString(block.getNonce()));
+        this.block.setLong(++n, block.getSize());
+        this.block.addBatch();
+
+        /* Uncles */
+        final RawBlock[] uncleBlocks = fetchedBlock.getUncles();
+
+        for (int i = 0; i < uncleBlocks.length; i++) {
+            final RawBlock uncleBlock = uncleBlocks[i];
+
+            n = 0;
+            uncle.setLong(++n, uncleBlock.getNumber());
+            uncle.setLong(++n, blockId);
+            uncle.setInt(++n, i);
+            uncle.setBytes(++n, uncleBlock.getHash());
+            uncle.setLong(++n, blockIdOf.applyAsLong(uncleBlock.getNumber() - 1));
+            uncle.setLong(++n, uncleBlock.getTimestamp());
+            uncle.setLong(++n, resolver.get(uncleBlock.getMiner()));
+            uncle.setString(++n, Long.toUnsignedString(uncleBlock.getDifficulty()));
+            uncle.setLong(++n, uncleBlock.getGasLimit());
+            uncle.setLong(++n, uncleBlock.getGasUsed());
+            uncle.setBytes(++n, uncleBlock.getExtraData());
+            uncle.setString(++n, Long.toUnsignedString(uncleBlock.getNonce()));
+            uncle.setLong(++n, uncleBlock.getSize());
+            uncle.addBatch();
+        }
+
+        /* Transactions */
+        final RawTransaction[] transactions = fetchedBlock.getTransactions();
+        final RawReceipt[] transactionReceipts = fetchedBlock.getTransactionReceipts();
+
+        for (int i = 0; i < transactions.length; i++) {
+            final RawTransaction transaction = transactions[i];
+            final RawReceipt transactionReceipt = transactionReceipts[i];
+
+            n = 0;
+            this.transaction.setLong(++n, blockId);
+            this.transaction.setInt(++n, transaction.getIndex());
+            this.transaction.setBytes(++n, transaction.getHash());
+            this.transaction.setLong(++n, resolver.get(transaction.getFrom()));
+
+            if (transaction.getTo() == null) {
+                this.transaction.setNull(++n, Types.BIGINT);
+            } else {
+                this.transaction.setLong(++n, resolver.get(transaction.getTo()));
+            }
+            if (transactionReceipt.getContractAddress() == null) {
+                this.transaction.setNull(++n, Types.BIGINT);
+            } else {
+                this.transaction.setLong(++n, resolver.get(transactionReceipt.getContractAddress()));
+            }
+
+            this.transaction.setBytes(++n, transaction.getValue().toByteArray());
+            this.transaction.setLong(++n, transaction.getGas());
+            this.transaction.setLong(++n, transactionReceipt.getGasUsed());
+            this.transaction.setBytes(++n, transaction.getGasPrice().toByteArray());
+            this.transaction.setString(++n, Long.toUnsignedString(transaction.getNonce()));
+            this.transaction.setBytes(++n, transaction.getInput());
+            this.transaction.addBatch();
+        }
+
+        /* Balance changes */
+        if (!balanceChanges) {
+            return;
+        }
+
+        final HashMap<Long, Int128> changes = BalanceChanges.of(fetchedBlock, resolver);
+
+        if (block.getNumber() == 0) {
+            for (NonNullPair<String, Int128> pair : BlockchainConverter.getPreminedAddresses()) {
+                BalanceChanges.changeOf(changes, resolver.get(pair.getA())).add(pair.getB());
+            }
+        }
+
+        for (Map.Entry<Long, Int128> entry : changes.entrySet()) {
+            if (entry.getValue().signum() == 0) {
+                continue;   // Same as the normal converter
+            }
+
+            balanceChange.setLong(1, blockId);
+            balanceChange.setLong(2, entry.getKey());
+            balanceChange.setInt(3, entry.getValue().signum() == -1 ? 1 : 0);
+            balanceChange.setBytes(4, entry.getValue().abs().toByteArray());
+            balanceChange.addBatch();
+        }
+    }
+
+    /**
+     * @param resolved Every address of the block by lower case, already in the database
+     */
+    private static AddressIdResolver resolverOf(Map<String, Long> resolved) {
+        return new AddressIdResolver() {
+            @Override
+            public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) {
+                return get(prefixedAddress);
+            }
+
+            @Override
+            public long get(String prefixedAddress) {
+                final Long addressId = resolved.get(prefixedAddress.toLowerCase());   // The node and premine list don't agree on letter case
+
+                if (addressId == null) {
+                    throw new IllegalBlockchainStateException("An address [" + prefixedAddress + "] was not resolved for the block");
+                }
+
+                return addressId;
+            }
+        };
+    }
+
+    /**
+     * Send all queued rows, no commit
+     */
+    void flush() throws SQLException {
+        // In the order of foreign keys, even though they are not checked
+        block.executeBatch();
+        uncle.executeBatch();
+        transaction.executeBatch();
+        balanceChange.executeBatch();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        block.close();
+        uncle.close();
+        transaction.close();
+        balanceChange.close();
+    }
+}
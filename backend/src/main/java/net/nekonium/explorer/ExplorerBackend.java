@@ -1,6 +1,8 @@
 package net.nekonium.explorer;
 
 import net.nekonium.explorer.server.ExplorerServer;
+import net.nekonium.explorer.server.RequestHandler;
+import net.nekonium.explorer.server.endpoint.RequestEndPoint;
 import net.nekonium.explorer.web3jexpand.Web3jManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +19,8 @@ public class ExplorerBackend {
     private Thread converterThread;
     private ExplorerServer webSocketServer;
     private DatabaseManager databaseManager;
+    private AddressIdPoolManager addressIdPool;
+    private SyncStatus syncStatus;
     private ConfigLoader config;
 
     public void start() throws Exception {
@@ -28,15 +32,23 @@ public class ExplorerBackend {
         this.web3jManager = new Web3jManager();
 
         // Connect to the nekonium-node (usually a go-nekonium client)
-        // FIXME On IPC connection, quick mass data fetching like a catch up fetching cause an data corruption and stop an observer thread. maybe a web3j issue
-        this.web3jManager.connect(config.getNodeConnectionType(), config.getNodeURL(), false, 100);
+        this.web3jManager.connect(config.getNodeConnectionType(), config.getNodeURLs(), false, 100, config.getNodeRouting(), config.isNodeHedgeEnabled());
+
+        // One stream of new blocks for the converter and the server, pushed by the node if possible
+        this.web3jManager.subscribeNewHeads(config.getNodeWebSocketURL());
 
         // Initialize database
         this.databaseManager = new DatabaseManager();
         this.databaseManager.init(config.getDatabaseURL(), config.getDatabaseUser(), config.getDatabasePassword());
 
+        // Address id mapping, shared by the converter and request handlers
+        this.addressIdPool = new AddressIdPoolManager(config.getAddressCacheCapacity());
+
+        // How much of the blockchain is in the database, told to clients while history is still being filled
+        this.syncStatus = new SyncStatus();
+
         // Start blockchain-to-database conversion
-        this.converter = new BlockchainConverter(web3jManager, databaseManager);
+        this.converter = new BlockchainConverter(web3jManager, databaseManager, addressIdPool, syncStatus, config);
 
         this.converterThread = new Thread(converter);
         this.converterThread.start();
@@ -58,6 +70,21 @@ public class ExplorerBackend {
 
             if (line.equalsIgnoreCase("stop")) {
                 break;
+            } else if (line.toLowerCase().startsWith("rebuild ")) {
+                final String name = line.substring("rebuild ".length()).trim();
+
+                if (converter.getProjections().requestRebuild(name)) {
+                    System.out.println("Projection " + name + " will be rebuilt");
+                } else {
+                    System.out.println("No projection " + name + " is enabled");
+                }
+                System.out.print("Cmd>");
+            } else if (line.equalsIgnoreCase("metrics")) {
+                System.out.println(converter.getMetrics());
+                for (RequestHandler.CostClass costClass : RequestHandler.CostClass.values()) {
+                    System.out.println(costClass + " requests: " + RequestEndPoint.getMetrics(costClass));
+                }
+                System.out.print("Cmd>");
             } else {
                 System.out.print("Cmd>");
             }
@@ -68,6 +95,7 @@ public class ExplorerBackend {
         this.converter.stop();
         // Wait for converter thread to stop its job
         this.converterThread.join();
+        this.web3jManager.shutdown();
     }
 
     public Web3jManager getWeb3jManager() {
@@ -77,4 +105,20 @@ public class ExplorerBackend {
     public DatabaseManager getDatabaseManager() {
         return databaseManager;
     }
+
+    public AddressIdPoolManager getAddressIdPool() {
+        return addressIdPool;
+    }
+
+    public SyncStatus getSyncStatus() {
+        return syncStatus;
+    }
+
+    public ProjectionManager getProjections() {
+        return converter.getProjections();
+    }
+
+    public ConfigLoader getConfig() {
+        return config;
+    }
 }
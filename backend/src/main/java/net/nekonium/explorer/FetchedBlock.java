@@ -0,0 +1,38 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import net.nekonium.explorer.web3jexpand.RawTransaction;
+
+/**
+ * A block fetched from the node together with everything needed to insert it into the database,
+ * its uncle blocks and a receipt for each transaction
+ */
+public class FetchedBlock {
+
+    private final RawBlock block;
+    private final RawBlock[] uncles;                // Same order as the uncle hashes of the block
+    private final RawReceipt[] transactionReceipts; // Same order as transactions
+
+    public FetchedBlock(RawBlock block, RawBlock[] uncles, RawReceipt[] transactionReceipts) {
+        this.block = block;
+        this.uncles = uncles;
+        this.transactionReceipts = transactionReceipts;
+    }
+
+    public RawBlock getBlock() {
+        return block;
+    }
+
+    public RawBlock[] getUncles() {
+        return uncles;
+    }
+
+    public RawTransaction[] getTransactions() {
+        return block.getTransactions();
+    }
+
+    public RawReceipt[] getTransactionReceipts() {
+        return transactionReceipts;
+    }
+}
@@ -0,0 +1,574 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.LongHashMap;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Head-first sync. Instead of catching up from the last block in the database, the converter starts near the node's head (the anchor)
+ * and this fills the blocks below it downward in the background, until it meets the blocks already in the database.<br>
+ * Ids of the missing blocks are reserved when the anchor is inserted (the anchor's id is the largest id + the number of missing blocks),
+ * so every block of the gap gets the id it would have had, and nothing the converter inserts above the anchor has to wait.
+ * Blocks of the gap stay without a parent until the gap is filled, which is also how an unfinished gap is found after a restart.
+ * Balance changes of the gap are written along with the blocks if that projection has every block below the gap, and then its checkpoint
+ * moves to the anchor with the anchor block, so that it is live above it. The balance projection goes with it if it also has every block below.
+ * Balances inserted by the converter above the anchor don't know about the gap, they are summed up again by {@link #complete()}
+ * on the converter thread, after which the database is the same as if it had been caught up from the bottom,
+ * except for ids of uncles and transactions in the gap, which are AUTO_INCREMENT and above those of later blocks.
+ * Lists of them are ordered by the block id and the index, not by their own ids.
+ * Projections left behind are replayed by {@link ProjectionManager} after that. How far it has got is told to request handlers by {@link SyncStatus}
+ */
+public class HistoryBackfill implements Runnable {
+
+    private static final int RECENT_HASHES = 16;    // Uncles can't be older than 7 blocks, 16 is enough
+    private static final int BALANCE_BATCH_SIZE = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    private final CatchupPipeline.Fetcher fetcher;
+    private final DatabaseManager databaseManager;
+    private final AddressIdPoolManager addressIdPool;
+    private final ProjectionManager projections;
+    private final SyncStatus syncStatus;
+    private final ConfigLoader config;
+    private final Logger logger;
+
+    private long anchorNumber;
+    private long anchorId;
+    private long historyTip;    // The last block of the history below the gap, -1 if there is none
+    private boolean writesBalanceChanges;   // Along with the gap
+    private boolean sumsBalances;           // In complete(), only with balance changes
+    private final LongHashMap<Long> historyIds = new LongHashMap<>();     // Ids of the last main chain blocks of the history
+    private final LongHashMap<byte[]> historyHashes = new LongHashMap<>();
+
+    private volatile long lowest;   // The lowest block of the gap committed so far
+    private byte[] expectedHash;    // Hash of the block below the lowest one, null if not known
+    private final LongHashMap<List<byte[]>> pendingParents = new LongHashMap<>();  // Parent hashes of uncles, checked when that block comes
+
+    private volatile CatchupPipeline pipeline;
+    private volatile boolean stop;
+    private volatile boolean filled;
+
+    public HistoryBackfill(CatchupPipeline.Fetcher fetcher, DatabaseManager databaseManager, AddressIdPoolManager addressIdPool, ProjectionManager projections,
+                           SyncStatus syncStatus, ConfigLoader config) {
+        this.fetcher = fetcher;
+        this.databaseManager = databaseManager;
+        this.addressIdPool = addressIdPool;
+        this.projections = projections;
+        this.syncStatus = syncStatus;
+        this.config = config;
+        this.logger = LoggerFactory.getLogger("HistoryBackfill");
+    }
+
+    /**
+     * Find a gap left by the last run
+     *
+     * @return {@code false} if there is none
+     */
+    public boolean resume(Connection connection) throws Exception {
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT MIN(number), MAX(number) FROM blocks WHERE parent IS NULL AND number > 0 AND forked = 0");
+             ResultSet resultSet = prpstmt.executeQuery()) {
+            resultSet.next();
+
+            if (resultSet.getString(1) == null) {
+                return false;
+            }
+
+            this.lowest = resultSet.getLong(1);
+            this.anchorNumber = resultSet.getLong(2);
+        }
+
+        this.anchorId = findId(connection, anchorNumber);
+
+        // The ones which were moved to the anchor with it
+        this.writesBalanceChanges = projections.isAppliedUpTo(connection, BalanceChangeProjection.NAME, anchorNumber);
+        this.sumsBalances = writesBalanceChanges && projections.isAppliedUpTo(connection, BalanceProjection.NAME, anchorNumber);
+
+        loadHistory(connection, lowest);
+
+        if (historyTip == 0 && !hasBalances(connection, 0)) {
+            // Block #0 doesn't have a parent either, it was the bottom of the gap and is already in
+            this.historyTip = -1;
+            this.lowest = 0;
+            this.filled = true;
+
+            syncStatus.setPartial(lowest);
+
+            return true;
+        }
+
+        // Blocks above this one are not checked again, but this one has to be still on the chain
+        final RawBlock lowestBlock = fetcher.fetch(lowest).getBlock();
+
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT hash FROM blocks WHERE number = ? AND forked = 0")) {
+            prpstmt.setLong(1, lowest);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                if (!resultSet.next() || !Arrays.equals(resultSet.getBytes(1), lowestBlock.getHash())) {
+                    throw new IllegalBlockchainStateException("Block #" + lowest + " of the unfilled history is no longer on the chain");
+                }
+            }
+        }
+
+        this.expectedHash = lowestBlock.getParentHash();
+
+        if (lowest - 1 == historyTip) {
+            checkHistoryTip(expectedHash);
+            this.filled = true;     // Stopped before completing
+        }
+
+        syncStatus.setPartial(lowest);
+
+        logger.info("Resuming history from #{} down to #{}", lowest - 1, historyTip + 1);
+
+        return true;
+    }
+
+    /**
+     * Insert the anchor and a few blocks below it, so that the converter can continue from {@code anchorNumber + 1} right away.
+     * The rest is filled by {@link #run()}. Call this before projections are opened, they are opened at the anchor
+     *
+     * @param anchorNumber Should be deep enough not to be reorged
+     * @return {@code false} if the blocks could not be inserted
+     */
+    public boolean anchor(Connection connection, long anchorNumber) throws SQLException {
+        final long maxId;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT IFNULL(MAX(internal_id), 0) FROM blocks")) {
+            resultSet.next();
+            maxId = resultSet.getLong(1);
+        }
+
+        loadHistory(connection, anchorNumber);
+
+        this.anchorNumber = anchorNumber;
+        this.anchorId = maxId + (anchorNumber - historyTip);    // Leaves ids for the gap
+        this.lowest = anchorNumber + 1;
+
+        // Projections behind already are replayed over the gap later, writing them here too would write it twice
+        this.writesBalanceChanges = projections.isAppliedUpTo(connection, BalanceChangeProjection.NAME, historyTip);
+        this.sumsBalances = writesBalanceChanges && projections.isAppliedUpTo(connection, BalanceProjection.NAME, historyTip);
+
+        logger.info("Head-first sync from #{}, blocks #{} to #{} are filled in the background", anchorNumber, historyTip + 1, anchorNumber - 1);
+
+        // In one transaction with the checkpoints, nothing is left if it fails
+        if (!fill(anchorNumber, Math.max(historyTip + 1, anchorNumber - RECENT_HASHES + 1), Integer.MAX_VALUE)) {
+            return false;
+        }
+
+        this.filled = lowest - 1 == historyTip;
+
+        syncStatus.setPartial(lowest);
+
+        return true;
+    }
+
+    /**
+     * Fill the gap, on its own thread
+     */
+    @Override
+    public void run() {
+        long retryDelay = 1000;
+
+        while (!stop && lowest - 1 > historyTip) {
+            if (fill(lowest - 1, historyTip + 1, config.getCatchupCommitBlocks())) {
+                break;
+            }
+
+            if (stop) {
+                return;
+            }
+
+            logger.warn("Filling history stopped at #{}, retrying in {}ms", lowest, retryDelay);
+
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+
+        if (!stop) {
+            this.filled = true;
+
+            logger.info("History is filled down to #{}, balances are summed up on the next block", historyTip + 1);
+        }
+    }
+
+    /**
+     * @return {@code true} if every block of the gap is in, {@link #complete()} is the last step
+     */
+    public boolean isFilled() {
+        return filled;
+    }
+
+    /**
+     * Sum up balances of blocks from the gap up again and link parents of the gap. Call this on the converter thread,
+     * no block can be inserted while this is running. The converter's balances have to be loaded again after
+     */
+    public void complete() throws SQLException {
+        final long from = historyTip + 1;
+
+        try (Connection readConnection = databaseManager.getConnection(); Connection connection = databaseManager.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                if (sumsBalances) {
+                    logger.info("Summing up balances from #{}, this takes a while", from);
+
+                    sumBalances(readConnection, connection, from);
+                }
+
+                /* Link parents, the gap is contiguous in both numbers and ids. This marks the gap as done */
+                try (PreparedStatement prpstmt = connection.prepareStatement(
+                        "UPDATE blocks SET parent = internal_id - 1 WHERE parent IS NULL AND number > ? AND forked = 0")) {
+                    prpstmt.setLong(1, from);
+                    prpstmt.executeUpdate();
+                }
+
+                if (historyTip >= 0) {
+                    try (PreparedStatement prpstmt = connection.prepareStatement(
+                            "UPDATE blocks SET parent = ? WHERE parent IS NULL AND number = ? AND forked = 0")) {
+                        prpstmt.setLong(1, historyIds.get(historyTip));
+                        prpstmt.setLong(2, from);
+                        prpstmt.executeUpdate();
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        syncStatus.setComplete();
+        addressIdPool.getCache().clear();   // Addresses could have been found to be contracts
+
+        logger.info("Head-first sync completed, every block from #0 is in the database");
+    }
+
+    /**
+     * Delete main chain balances from {@code from} up and insert them again from balance changes, committing as it goes
+     */
+    private static void sumBalances(Connection readConnection, Connection connection, long from) throws SQLException {
+        final LongHashMap<Int128> balances = new LongHashMap<>(1 << 16);   // Summed up in place
+
+        // The latest main chain row of each address, one walk down number_address_id each
+        try (PreparedStatement prpstmt = readConnection.prepareStatement(
+                "SELECT internal_id, (SELECT balance FROM balance " +
+                        "JOIN blocks ON blocks.internal_id = balance.block_id " +
+                        "WHERE balance.address_id = addresses.internal_id AND blocks.forked = 0 AND balance.number < ? " +
+                        "ORDER BY balance.number DESC LIMIT 1) FROM addresses")) {
+            prpstmt.setFetchSize(BALANCE_BATCH_SIZE);
+            prpstmt.setLong(1, from);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    final byte[] balance = resultSet.getBytes(2);
+
+                    if (balance != null) {  // Never had balance before the gap
+                        balances.put(resultSet.getLong(1), Int128.fromByteArray(balance));
+                    }
+                }
+            }
+        }
+
+        /* Main chain balances from the gap up were summed up without the gap */
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "DELETE balance FROM balance JOIN blocks ON blocks.internal_id = balance.block_id WHERE blocks.forked = 0 AND blocks.number >= ?")) {
+            prpstmt.setLong(1, from);
+            prpstmt.executeUpdate();
+        }
+
+        connection.commit();
+
+        /* Sum them up again */
+        try (PreparedStatement select = readConnection.prepareStatement(
+                "SELECT balance_changes.address_id, balance_changes.block_id, blocks.number, negative, delta FROM balance_changes " +
+                        "JOIN blocks ON blocks.internal_id = balance_changes.block_id " +
+                        "WHERE blocks.forked = 0 AND blocks.number >= ? ORDER BY blocks.number");
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO balance VALUES (?, ?, ?, ?)")) {
+            select.setFetchSize(BALANCE_BATCH_SIZE);
+            select.setLong(1, from);
+
+            int queued = 0;
+
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    final long addressId = resultSet.getLong(1);
+                    final Int128 delta = Int128.fromByteArray(resultSet.getBytes(5));
+
+                    Int128 balance = balances.get(addressId);
+
+                    if (balance == null) {
+                        balance = new Int128();
+                        balances.put(addressId, balance);
+                    }
+
+                    if (resultSet.getBoolean(4)) {
+                        balance.subtract(delta);
+                    } else {
+                        balance.add(delta);
+                    }
+
+                    insert.setLong(1, resultSet.getLong(2));
+                    insert.setLong(2, resultSet.getLong(3));
+                    insert.setLong(3, addressId);
+                    insert.setBytes(4, balance.toByteArray());
+                    insert.addBatch();
+
+                    if (++queued >= BALANCE_BATCH_SIZE) {
+                        insert.executeBatch();
+                        connection.commit();
+                        queued = 0;
+                    }
+                }
+            }
+
+            insert.executeBatch();
+        }
+    }
+
+    public void stop() {
+        this.stop = true;
+
+        final CatchupPipeline pipeline = this.pipeline;
+
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Load the last main chain blocks below {@code below}, the history the gap is going to meet
+     */
+    private void loadHistory(Connection connection, long below) throws SQLException {
+        this.historyTip = -1;
+
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT number, internal_id, hash FROM blocks WHERE number < ? AND forked = 0 ORDER BY number DESC LIMIT " + RECENT_HASHES)) {
+            prpstmt.setLong(1, below);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    final long number = resultSet.getLong(1);
+
+                    this.historyTip = Math.max(historyTip, number);
+                    this.historyIds.put(number, resultSet.getLong(2));
+                    this.historyHashes.put(number, resultSet.getBytes(3));
+                }
+            }
+        }
+    }
+
+    private static boolean hasBalances(Connection connection, long blockNumber) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT 1 FROM balance WHERE number = ? LIMIT 1")) {
+            prpstmt.setLong(1, blockNumber);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static long findId(Connection connection, long blockNumber) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id FROM blocks WHERE number = ? AND forked = 0")) {
+            prpstmt.setLong(1, blockNumber);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Block #" + blockNumber + " is not in the database");
+                }
+
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * @return The id of the main chain block, reserved if it is in the gap
+     */
+    private long blockIdOf(long blockNumber) {
+        if (blockNumber > historyTip) {
+            return anchorId - (anchorNumber - blockNumber);
+        }
+
+        final Long blockId = historyIds.get(blockNumber);
+
+        if (blockId == null) {
+            throw new IllegalBlockchainStateException("Block #" + blockNumber + " is too old to be a parent of an uncle in the gap");
+        }
+
+        return blockId;
+    }
+
+    private void checkHistoryTip(byte[] parentHash) {
+        if (historyTip >= 0 && !Arrays.equals(parentHash, historyHashes.get(historyTip))) {
+            throw new IllegalBlockchainStateException("The gap does not meet block #" + historyTip + " in the database, it is not on the chain anymore");
+        }
+    }
+
+    /**
+     * Insert blocks from {@code from} down to {@code to}
+     *
+     * @param commitBlocks Blocks in a transaction
+     * @return {@code true} if every block has been committed
+     */
+    private boolean fill(long from, long to, int commitBlocks) {
+        try (Connection connection = databaseManager.getConnection(); Connection addressConnection = databaseManager.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET foreign_key_checks = 0");    // Parents of the gap are not in yet
+            }
+
+            connection.setAutoCommit(false);
+
+            try (GapWriter writer = new GapWriter(connection, addressConnection, commitBlocks)) {
+                this.pipeline = new CatchupPipeline(fetcher, config.getCatchupWindowSize(), config.getCatchupFetchThreads());
+
+                final boolean completed = !stop && pipeline.run(from, to, writer);
+
+                if (completed) {
+                    writer.commit();
+                } else {
+                    connection.rollback();  // The last block could be half in the batch, start again from the last commit
+                }
+
+                return completed;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                this.pipeline = null;
+
+                connection.setAutoCommit(true);
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET foreign_key_checks = 1");
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("A database error occurred when filling history", e);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts blocks downward, checking each one is the parent of the one above
+     */
+    private class GapWriter implements CatchupPipeline.Writer, AutoCloseable {
+
+        private final Connection connection;
+        private final ExplicitIdStatements statements;
+        private final int commitBlocks;
+
+        private long writtenLowest = lowest;
+        private byte[] writtenExpectedHash = expectedHash;
+        private byte[] anchorHash;  // Until the anchor is committed
+        private int queuedBlocks;
+
+        GapWriter(Connection connection, Connection addressConnection, int commitBlocks) throws SQLException {
+            this.connection = connection;
+            this.statements = new ExplicitIdStatements(connection, addressConnection, addressIdPool, writesBalanceChanges);
+            this.commitBlocks = commitBlocks;
+        }
+
+        @Override
+        public void write(FetchedBlock fetchedBlock) throws Exception {
+            final RawBlock block = fetchedBlock.getBlock();
+            final long blockNumber = block.getNumber();
+
+            if (writtenExpectedHash != null && !Arrays.equals(block.getHash(), writtenExpectedHash)) {
+                // The node reorged deeper than the anchor, or something is very wrong with it
+                throw new IllegalBlockchainStateException("Block #" + blockNumber + " is not the parent of the block above");
+            }
+
+            final List<byte[]> pendings = pendingParents.remove(blockNumber);
+
+            if (pendings != null) {
+                for (byte[] parentHash : pendings) {
+                    if (!Arrays.equals(parentHash, block.getHash())) {
+                        throw new IllegalBlockchainStateException("Parent of an uncle block above #" + blockNumber + " is not on the main chain");
+                    }
+                }
+            }
+
+            for (RawBlock uncleBlock : fetchedBlock.getUncles()) {
+                final long parentNumber = uncleBlock.getNumber() - 1;
+
+                if (parentNumber > historyTip) {
+                    List<byte[]> parentHashes = pendingParents.get(parentNumber);
+
+                    if (parentHashes == null) {
+                        parentHashes = new ArrayList<>(2);
+                        pendingParents.put(parentNumber, parentHashes);
+                    }
+
+                    parentHashes.add(uncleBlock.getParentHash());
+                } else if (!Arrays.equals(uncleBlock.getParentHash(), historyHashes.get(parentNumber))) {
+                    throw new IllegalBlockchainStateException("Parent of an uncle block in block #" + blockNumber + " is not on the main chain");
+                }
+            }
+
+            if (blockNumber == historyTip + 1) {
+                checkHistoryTip(block.getParentHash());
+            }
+
+            statements.add(fetchedBlock, blockIdOf(blockNumber), HistoryBackfill.this::blockIdOf);
+
+            if (blockNumber == anchorNumber) {
+                this.anchorHash = block.getHash();
+            }
+
+            this.writtenLowest = blockNumber;
+            this.writtenExpectedHash = block.getParentHash();
+
+            if (++queuedBlocks >= commitBlocks) {
+                commit();
+            }
+        }
+
+        void commit() throws SQLException {
+            statements.flush();
+
+            if (anchorHash != null) {
+                // Along with the gap they are live from the anchor up
+                if (writesBalanceChanges) {
+                    ProjectionManager.saveCheckpoint(connection, BalanceChangeProjection.NAME, anchorNumber, anchorHash);
+                }
+
+                if (sumsBalances) {
+                    ProjectionManager.saveCheckpoint(connection, BalanceProjection.NAME, anchorNumber, anchorHash);
+                }
+
+                this.anchorHash = null;
+            }
+
+            connection.commit();
+
+            lowest = writtenLowest;
+            expectedHash = writtenExpectedHash;
+            syncStatus.setPartial(lowest);
+
+            this.queuedBlocks = 0;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statements.close();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.IllegalDatabaseStateException;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.NonNullPair;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.Web3jManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Initial sync for an empty database, like {@link BootstrapLoader} but straight into the database on several threads.<br>
+ * Blocks from #0 to (node's latest - confirmations) are cut into ranges, and each range is fetched and inserted by its own worker
+ * on its own connection, in any order. Nothing else is in the database, so the id of a block is its number + 1 and no row
+ * has to wait for the id of another. What does depend on other ranges is left for the end:
+ * parents of blocks are linked after every range is in, parent hashes at range boundaries are checked then,
+ * and balances are summed up from balance changes per address. Balance changes and balances are only written if their projections are enabled,
+ * and checkpoints of both are saved at the end, so that one enabled later is replayed from block #0.
+ * After this, the normal converter just catches up from where this stopped.
+ */
+public class ParallelBackfill {
+
+    private static final int RECENT_HASHES = 16;    // Uncles can't be older than 7 blocks, 16 is enough
+    private static final int BALANCE_BATCH_SIZE = 1000;
+
+    // In the order they can be cleared
+    private static final List<String> TABLES = Arrays.asList("unindexed_tokens", "token_balances", "token_transfers", "balance", "balance_changes", "transactions", "uncle_blocks", "blocks", "addresses");
+
+    private final CatchupPipeline.Fetcher fetcher;
+    private final Web3jManager web3jManager;
+    private final DatabaseManager databaseManager;
+    private final AddressIdPoolManager addressIdPool;
+    private final ConfigLoader config;
+    private final Logger logger;
+
+    private final boolean writesBalanceChanges;
+    private final boolean sumsBalances;     // Only with balance changes
+
+    private final Set<CatchupPipeline> pipelines = ConcurrentHashMap.newKeySet();
+    private volatile boolean stop;
+    private volatile boolean aborted;   // A worker failed, the others give up
+
+    public ParallelBackfill(CatchupPipeline.Fetcher fetcher, Web3jManager web3jManager, DatabaseManager databaseManager, AddressIdPoolManager addressIdPool,
+                            ProjectionManager projections, ConfigLoader config) {
+        this.fetcher = fetcher;
+        this.web3jManager = web3jManager;
+        this.databaseManager = databaseManager;
+        this.addressIdPool = addressIdPool;
+        this.config = config;
+        this.logger = LoggerFactory.getLogger("Backfill");
+
+        this.writesBalanceChanges = projections.isEnabled(BalanceChangeProjection.NAME);
+        this.sumsBalances = writesBalanceChanges && projections.isEnabled(BalanceProjection.NAME);
+    }
+
+    /**
+     * Does nothing if the database has any block
+     *
+     * @return {@code false} if backfill failed or was stopped, the converter should not continue
+     */
+    public boolean run() {
+        try {
+            if (!isDatabaseEmpty()) {
+                logger.info("The database is not empty, backfill is skipped");
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.error("A database error occurred when checking the database is empty", e);
+            return false;
+        }
+
+        final long end;
+
+        try {
+            // Latest blocks could still be reorged, leave them to the normal converter which can handle it
+            end = web3jManager.getWeb3j().ethBlockNumber().send().getBlockNumber().longValueExact() - config.getBackfillConfirmations();
+        } catch (IOException e) {
+            logger.error("An error occurred when getting the latest block number from the node", e);
+            return false;
+        }
+
+        if (end < 0) {
+            logger.info("The blockchain is too short to backfill, leaving it to the normal converter");
+            return true;
+        }
+
+        // A worker uses two connections, leave one for the rest
+        final int threads = Math.max(1, Math.min(config.getBackfillThreads(), (databaseManager.getPoolSize() - 1) / 2));
+        // A range has to be longer than how far back uncles can go, so that only the previous range is referred
+        final long rangeSize = Math.max(RECENT_HASHES, config.getBackfillRangeSize());
+
+        final List<Range> ranges = new ArrayList<>();
+
+        for (long start = 0; start <= end; start += rangeSize) {
+            ranges.add(new Range(start, Math.min(start + rangeSize - 1, end)));
+        }
+
+        logger.info("Backfill: blocks #0 to #{} in {} ranges on {} threads", end, ranges.size(), threads);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "backfill-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            /* 1. Ranges */
+            final int fetchThreads = Math.max(1, config.getCatchupFetchThreads() / threads);   // Don't ask the node more than catchup would
+
+            forEachInParallel(executor, ranges, range -> ingest(range, fetchThreads));
+
+            /* 2. Range boundaries */
+            for (int i = 1; i < ranges.size(); i++) {
+                ranges.get(i).checkLinks(ranges.get(i - 1));
+            }
+
+            /* 3. Parents */
+            logger.info("Backfill: linking parent blocks");
+
+            forEachInParallel(executor, ranges, this::linkParents);
+
+            /* 4. Balances */
+            if (sumsBalances) {
+                logger.info("Backfill: summing up balances");
+
+                final List<Integer> partitions = new ArrayList<>();
+
+                for (int i = 0; i < threads; i++) {
+                    partitions.add(i);
+                }
+
+                forEachInParallel(executor, partitions, partition -> buildBalances(partition, partitions.size()));
+            }
+
+            /* 5. Checkpoints */
+            saveCheckpoints(end, ranges.get(ranges.size() - 1).tailHashes.get(end));
+        } catch (Exception e) {
+            if (stop) {
+                logger.warn("Backfill was stopped, clearing what was written");
+            } else {
+                logger.error("Backfill failed, clearing what was written", e);
+            }
+
+            try {
+                clear();
+            } catch (SQLException e1) {
+                // The next start would take what is left for a finished backfill and catch up on top of unlinked blocks
+                throw new IllegalDatabaseStateException("Could not clear what backfill wrote, empty " + TABLES + " before starting again", e1);
+            }
+
+            return false;
+        } finally {
+            executor.shutdownNow();
+            addressIdPool.getCache().clear();   // Types in it could be from before an address was found to be a contract
+        }
+
+        logger.info("Backfill completed up to block #{}", end);
+
+        return true;
+    }
+
+    public void stop() {
+        this.stop = true;
+
+        abort();
+    }
+
+    private void abort() {
+        this.aborted = true;
+
+        for (CatchupPipeline pipeline : pipelines) {
+            pipeline.stop();
+        }
+    }
+
+    private boolean isDatabaseEmpty() throws SQLException {
+        try (Connection connection = databaseManager.getConnection(); Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                try (ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+                    if (resultSet.next()) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void ingest(Range range, int fetchThreads) throws Exception {
+        if (aborted) {
+            throw new InterruptedException("Stopped");
+        }
+
+        try (Connection connection = databaseManager.getConnection(); Connection addressConnection = databaseManager.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET foreign_key_checks = 0");    // Parents and uncles' parents can be in a range not inserted yet
+            }
+
+            connection.setAutoCommit(false);
+
+            try (RangeWriter writer = new RangeWriter(connection, addressConnection, range)) {
+                final CatchupPipeline pipeline = new CatchupPipeline(fetcher, config.getCatchupWindowSize(), fetchThreads);
+
+                this.pipelines.add(pipeline);
+
+                try {
+                    if (aborted || !pipeline.run(range.start, range.end, writer)) {
+                        throw new IllegalStateException("Range #" + range.start + "-#" + range.end + " did not complete");
+                    }
+                } finally {
+                    this.pipelines.remove(pipeline);
+                }
+
+                writer.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                // Back to the pool
+                connection.setAutoCommit(true);
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET foreign_key_checks = 1");
+                }
+            }
+        }
+
+        logger.info("Backfill: range #{}-#{} is in", range.start, range.end);
+    }
+
+    private void linkParents(Range range) throws SQLException {
+        try (Connection connection = databaseManager.getConnection();
+             PreparedStatement prpstmt = connection.prepareStatement("UPDATE blocks SET parent = internal_id - 1 WHERE internal_id BETWEEN ? AND ? AND number > 0")) {
+            prpstmt.setLong(1, range.start + 1);
+            prpstmt.setLong(2, range.end + 1);
+
+            final int affectedRows = prpstmt.executeUpdate();
+            final long expectedRows = range.end - Math.max(range.start, 1) + 1;
+
+            if (affectedRows != expectedRows) {
+                throw new IllegalDatabaseStateException("Linked " + affectedRows + " blocks in range #" + range.start + "-#" + range.end + ", expected " + expectedRows);
+            }
+        }
+    }
+
+    /**
+     * Sum up balance changes of addresses whose id is {@code partition} modulo {@code partitions}, in the order of blocks
+     */
+    private void buildBalances(int partition, int partitions) throws SQLException {
+        try (Connection readConnection = databaseManager.getConnection(); Connection writeConnection = databaseManager.getConnection()) {
+            writeConnection.setAutoCommit(false);
+
+            try (PreparedStatement select = readConnection.prepareStatement(
+                    "SELECT address_id, block_id, negative, delta FROM balance_changes WHERE address_id % ? = ? ORDER BY address_id, block_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                 PreparedStatement insert = writeConnection.prepareStatement("INSERT INTO balance VALUES (?, ?, ?, ?)")) {
+                select.setFetchSize(BALANCE_BATCH_SIZE);    // Stream it, it's the whole table
+                select.setInt(1, partitions);
+                select.setInt(2, partition);
+
+                long addressId = -1;
+                Int128 balance = new Int128();  // Summed up in place
+                int queued = 0;
+
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (aborted) {
+                            throw new SQLException("Stopped");
+                        }
+
+                        final long rowAddressId = resultSet.getLong(1);
+                        final long blockId = resultSet.getLong(2);
+                        final Int128 delta = Int128.fromByteArray(resultSet.getBytes(4));
+
+                        if (rowAddressId != addressId) {
+                            addressId = rowAddressId;
+                            balance = new Int128();
+                        }
+
+                        if (resultSet.getBoolean(3)) {
+                            balance.subtract(delta);
+                        } else {
+                            balance.add(delta);
+                        }
+
+                        insert.setLong(1, blockId);
+                        insert.setLong(2, blockId - 1);     // Block number
+                        insert.setLong(3, addressId);
+                        insert.setBytes(4, balance.toByteArray());
+                        insert.addBatch();
+
+                        if (++queued >= BALANCE_BATCH_SIZE) {
+                            insert.executeBatch();
+                            writeConnection.commit();
+                            queued = 0;
+                        }
+                    }
+                }
+
+                insert.executeBatch();
+                writeConnection.commit();
+            } catch (SQLException e) {
+                writeConnection.rollback();
+                throw e;
+            } finally {
+                writeConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Checkpoints of the projections which are bulk loaded here, at {@code end} if written and at nothing if not
+     */
+    private void saveCheckpoints(long end, byte[] endHash) throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            ProjectionManager.saveCheckpoint(connection, BalanceChangeProjection.NAME, writesBalanceChanges ? end : -1, endHash);
+            ProjectionManager.saveCheckpoint(connection, BalanceProjection.NAME, sumsBalances ? end : -1, endHash);
+        }
+    }
+
+    /**
+     * Empty every table so that the next run starts over, nothing written by a failed backfill can be trusted.
+     * DELETE rather than TRUNCATE, which needs the DROP privilege the backend doesn't have
+     */
+    private void clear() throws SQLException {
+        try (Connection connection = databaseManager.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SET foreign_key_checks = 0");
+
+            try {
+                for (String table : TABLES) {
+                    statement.executeUpdate("DELETE FROM " + table);
+                }
+
+                // Checkpoints could point at deleted blocks, they are set again when the converter opens projections
+                statement.executeUpdate("DELETE FROM projections");
+            } finally {
+                statement.execute("SET foreign_key_checks = 1");
+            }
+        }
+    }
+
+    private <T> void forEachInParallel(ExecutorService executor, List<T> items, Task<T> task) throws Exception {
+        final List<Future<Void>> futures = new ArrayList<>();
+
+        for (T item : items) {
+            futures.add(executor.submit(() -> {
+                task.run(item);
+                return null;
+            }));
+        }
+
+        Exception exception = null;
+
+        for (Future<Void> future : futures) {   // Wait for all of them even if one failed, so that nothing is writing while clearing
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : new ExecutionException(e.getCause());
+
+                    abort();    // The rest is thrown away anyway
+                }
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private interface Task<T> {
+        void run(T item) throws Exception;
+    }
+
+    private static class Range {
+
+        private final long start;
+        private final long end;
+
+        // Hashes of the last blocks of this range, for checking the next range
+        private final LinkedHashMap<Long, byte[]> tailHashes = new LinkedHashMap<Long, byte[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > RECENT_HASHES;
+            }
+        };
+        // Number and hash of blocks before this range which blocks in this range point as their parent, checked at the end
+        private final List<NonNullPair<Long, byte[]>> outsideParents = new ArrayList<>();
+
+        private Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private void checkLinks(Range previous) {
+            for (NonNullPair<Long, byte[]> parent : outsideParents) {
+                if (!Arrays.equals(parent.getB(), previous.tailHashes.get(parent.getA()))) {
+                    // The node reorged while backfilling, or something is very wrong with it
+                    throw new IllegalBlockchainStateException("Block #" + parent.getA() + " referred from range #" + start + "-#" + end + " is not on the main chain");
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts blocks of a range with ids given by itself, only balance changes if they are written, balances are done at the end
+     */
+    private class RangeWriter implements CatchupPipeline.Writer, AutoCloseable {
+
+        private final Connection connection;
+        private final Range range;
+        private final ExplicitIdStatements statements;
+
+        private final LinkedHashMap<Long, byte[]> recentHashes = new LinkedHashMap<Long, byte[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > RECENT_HASHES;
+            }
+        };
+
+        private int queuedBlocks;
+
+        RangeWriter(Connection connection, Connection addressConnection, Range range) throws SQLException {
+            this.connection = connection;
+            this.range = range;
+            this.statements = new ExplicitIdStatements(connection, addressConnection, addressIdPool, writesBalanceChanges);
+        }
+
+        @Override
+        public void write(FetchedBlock fetchedBlock) throws Exception {
+            final RawBlock block = fetchedBlock.getBlock();
+            final long blockNumber = block.getNumber();
+
+            if (blockNumber > 0) {
+                checkParent(blockNumber - 1, block.getParentHash(), "Block #" + blockNumber + " is not a child of the previous block");
+            }
+
+            for (RawBlock uncleBlock : fetchedBlock.getUncles()) {
+                checkParent(uncleBlock.getNumber() - 1, uncleBlock.getParentHash(), "Parent of an uncle block in block #" + blockNumber + " is not on the main chain");
+            }
+
+            this.recentHashes.put(blockNumber, block.getHash());
+
+            if (range.end - blockNumber < RECENT_HASHES) {
+                range.tailHashes.put(blockNumber, block.getHash());
+            }
+
+            // Blocks are all on the main chain, so the id can simply be the block number + 1
+            statements.add(fetchedBlock, blockNumber + 1, number -> number + 1);
+
+            if (++queuedBlocks >= config.getCatchupCommitBlocks()) {
+                commit();
+            }
+        }
+
+        /**
+         * Check a parent hash now if the parent is in this range, otherwise leave it to {@link Range#checkLinks(Range)}
+         */
+        private void checkParent(long parentNumber, byte[] parentHash, String message) {
+            if (parentNumber < range.start) {
+                range.outsideParents.add(new NonNullPair<>(parentNumber, parentHash));
+            } else if (!Arrays.equals(parentHash, recentHashes.get(parentNumber))) {
+                // The node reorged while backfilling, or something is very wrong with it
+                throw new IllegalBlockchainStateException(message);
+            }
+        }
+
+        void commit() throws SQLException {
+            statements.flush();
+            connection.commit();
+
+            this.queuedBlocks = 0;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statements.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.nekonium.explorer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Tables derived from blocks (balances, indexes...) which the converter keeps up to date as blocks are inserted.<br>
+ * Rows are written with the block in the same database transaction, through {@link ConverterStatements} so that they are batched with it.
+ * How far a projection has got is saved in the projections table by {@link ProjectionManager}, which also rebuilds it from scratch
+ * when it is behind or asked to. Called only from the converter thread
+ */
+interface Projection {
+
+    /**
+     * @return Name used in the config and the projections table
+     */
+    String getName();
+
+    /**
+     * @return Tables of this projection, emptied in this order on rebuild
+     */
+    String[] getTables();
+
+    /**
+     * @return {@code true} if bootstrap, backfill and history backfill write the tables along with blocks,
+     * so that the projection is up to date after them without being replayed
+     */
+    boolean isBulkLoaded();
+
+    /**
+     * Load what is kept in memory from the tables (committed), on start and after the tables are changed by something else
+     */
+    default void open(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Write rows for a main chain block, not committed
+     */
+    void apply(ConverterStatements statements, BlockEvent event) throws SQLException;
+
+    /**
+     * Blocks from {@code fromNumber} have been marked forked or revived, and blocks from {@code belowNumber} are about to be applied.
+     * Rows of forked blocks stay, readers only count main chain blocks. Not committed
+     */
+    default void reorganized(Connection connection, long fromNumber, long belowNumber) throws SQLException {
+    }
+
+    /**
+     * Call this after the database transaction has been committed
+     */
+    default void commit() {
+    }
+
+    /**
+     * Call this after the database transaction has been rolled back
+     */
+    default void rollback() {
+    }
+}
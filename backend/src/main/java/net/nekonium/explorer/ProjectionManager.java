@@ -0,0 +1,494 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.util.LongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps enabled projections in step with the blocks table.<br>
+ * A projection is live when it has every main chain block up to the last one, then it is applied with each new block in the same transaction,
+ * and its checkpoint (the last block applied, in the projections table) moves with it.
+ * A projection behind (just enabled, asked to be rebuilt, or its checkpoint is not on the main chain anymore) is replayed from its checkpoint
+ * a step at a time between new blocks, fetching the blocks again (through the block cache if it is on), and becomes live when it reaches the last block.
+ * Only for the converter thread, except {@link #requestRebuild(String)}
+ */
+public class ProjectionManager {
+
+    private static final int STEP_BLOCKS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 10000;
+
+    private final List<Projection> projections = new ArrayList<>();    // Enabled ones, not changed after constructed
+    private final Map<Projection, Long> checkpoints = new HashMap<>();  // Committed, -1 if nothing is applied
+    private final Map<Projection, Long> pendingCheckpoints = new HashMap<>();
+    private final Set<Projection> live = ConcurrentHashMap.newKeySet();    // Read by request handlers too
+    private final Queue<Projection> rebuildRequests = new ConcurrentLinkedQueue<>();
+
+    private final CatchupPipeline.Fetcher fetcher;
+    private final DatabaseManager databaseManager;
+    private final AddressIdPoolManager addressIdPool;
+    private final ConfigLoader config;
+    private final Logger logger;
+
+    private volatile CatchupPipeline pipeline;
+    private long retryAfter;
+
+    ProjectionManager(List<Projection> all, CatchupPipeline.Fetcher fetcher, DatabaseManager databaseManager, AddressIdPoolManager addressIdPool, ConfigLoader config) {
+        this.fetcher = fetcher;
+        this.databaseManager = databaseManager;
+        this.addressIdPool = addressIdPool;
+        this.config = config;
+        this.logger = LoggerFactory.getLogger("Projections");
+
+        final Set<String> names = new HashSet<>();
+
+        for (Projection projection : all) {
+            names.add(projection.getName());
+
+            if (config.isProjectionEnabled(projection.getName())) {
+                this.projections.add(projection);
+            } else {
+                logger.info("Projection {} is disabled", projection.getName());
+            }
+        }
+
+        for (String name : config.getDisabledProjections()) {
+            if (!names.contains(name)) {
+                logger.warn("Unknown projection {} in converter.projections.disabled", name);
+            }
+        }
+    }
+
+    /**
+     * Load checkpoints and what projections keep in memory, call this before anything is applied
+     *
+     * @param tipNumber The last block in the database, -1 if empty
+     */
+    void open(long tipNumber) throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            connection.setAutoCommit(false);
+
+            final byte[] tipHash = tipNumber >= 0 ? hashOf(connection, tipNumber) : null;
+
+            for (Projection projection : projections) {
+                long checkpoint;
+
+                try (PreparedStatement prpstmt = connection.prepareStatement("SELECT number, hash FROM projections WHERE name = ?")) {
+                    prpstmt.setString(1, projection.getName());
+
+                    try (ResultSet resultSet = prpstmt.executeQuery()) {
+                        if (resultSet.next()) {
+                            checkpoint = resultSet.getLong(1);
+
+                            if (checkpoint >= 0 && (checkpoint > tipNumber || !Arrays.equals(resultSet.getBytes(2), hashOf(connection, checkpoint)))) {
+                                logger.warn("Checkpoint of projection {} (#{}) is not on the main chain anymore, rebuilding it", projection.getName(), checkpoint);
+                                clear(connection, projection);
+                                checkpoint = -1;
+                            }
+                        } else {
+                            // Tables of bulk loaded ones have been written with blocks before projections were there
+                            checkpoint = projection.isBulkLoaded() ? tipNumber : -1;
+
+                            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO projections VALUES (?, ?, ?)")) {
+                                insert.setString(1, projection.getName());
+                                insert.setLong(2, checkpoint);
+                                insert.setBytes(3, checkpoint >= 0 ? tipHash : null);
+                                insert.executeUpdate();
+                            }
+                        }
+                    }
+                }
+
+                this.pendingCheckpoints.put(projection, checkpoint);
+
+                if (checkpoint == tipNumber) {
+                    this.live.add(projection);
+                    logger.info("Projection {} is up to date at block #{}", projection.getName(), checkpoint);
+                } else {
+                    logger.info("Projection {} is behind at block #{}, replaying it up to #{} in the background", projection.getName(), checkpoint, tipNumber);
+                }
+            }
+
+            connection.commit();
+            commit();
+
+            for (Projection projection : projections) {
+                projection.open(connection);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the projection is enabled
+     */
+    boolean isEnabled(String name) {
+        for (Projection projection : projections) {
+            if (projection.getName().equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * For bulk loaders, before {@link #open(long)}
+     *
+     * @return {@code true} if the projection is enabled and bulk loaded, and has applied every block up to {@code blockNumber}
+     * or has no checkpoint yet (bulk loaded with every block so far)
+     */
+    boolean isAppliedUpTo(Connection connection, String name, long blockNumber) throws SQLException {
+        for (Projection projection : projections) {
+            if (projection.getName().equals(name) && projection.isBulkLoaded()) {
+                try (PreparedStatement prpstmt = connection.prepareStatement("SELECT number FROM projections WHERE name = ?")) {
+                    prpstmt.setString(1, name);
+
+                    try (ResultSet resultSet = prpstmt.executeQuery()) {
+                        return !resultSet.next() || resultSet.getLong(1) >= blockNumber;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Save the checkpoint of a projection whose tables a bulk loader has written, enabled or not. Not committed.
+     * Call this before {@link #open(long)}, which loads it
+     *
+     * @param blockNumber -1 if the bulk loader has not written the tables
+     */
+    static void saveCheckpoint(Connection connection, String name, long blockNumber, byte[] hash) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "INSERT INTO projections VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE number = VALUES(number), hash = VALUES(hash)")) {
+            prpstmt.setString(1, name);
+            prpstmt.setLong(2, blockNumber);
+            prpstmt.setBytes(3, blockNumber >= 0 ? hash : null);
+            prpstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Load what projections keep in memory again, after their tables have been changed by something else
+     */
+    void warm() throws SQLException {
+        try (Connection connection = databaseManager.getConnection()) {
+            for (Projection projection : projections) {
+                projection.open(connection);
+            }
+        }
+    }
+
+    /**
+     * Write rows of live projections for a main chain block, not committed
+     */
+    void apply(ConverterStatements statements, BlockEvent event) throws SQLException {
+        for (Projection projection : projections) {
+            if (live.contains(projection)) {
+                projection.apply(statements, event);
+            }
+        }
+    }
+
+    /**
+     * Blocks from {@code fromNumber} have been marked forked or revived, and blocks from {@code belowNumber} are about to be inserted.
+     * Projections behind which have applied any of the changed blocks go back to before them. Not committed
+     */
+    void reorganized(Connection connection, long fromNumber, long belowNumber) throws SQLException {
+        for (Projection projection : projections) {
+            if (live.contains(projection)) {
+                projection.reorganized(connection, fromNumber, belowNumber);
+            } else if (checkpointOf(projection) >= fromNumber) {
+                projection.reorganized(connection, fromNumber, fromNumber);
+                setCheckpoint(connection, projection, fromNumber - 1, fromNumber > 0 ? hashOf(connection, fromNumber - 1) : null);
+            }
+        }
+    }
+
+    /**
+     * Move checkpoints of live projections to the last block written, in the same transaction. Not committed
+     */
+    void checkpoint(Connection connection, long blockNumber, byte[] hash) throws SQLException {
+        for (Projection projection : projections) {
+            if (live.contains(projection)) {
+                setCheckpoint(connection, projection, blockNumber, hash);
+            }
+        }
+    }
+
+    /**
+     * Call this after the database transaction has been committed
+     */
+    void commit() {
+        this.checkpoints.putAll(pendingCheckpoints);
+        this.pendingCheckpoints.clear();
+
+        for (Projection projection : projections) {
+            projection.commit();
+        }
+    }
+
+    /**
+     * Call this after the database transaction has been rolled back
+     */
+    void rollback() {
+        this.pendingCheckpoints.clear();
+
+        for (Projection projection : projections) {
+            projection.rollback();
+        }
+    }
+
+    /**
+     * Ask to empty the tables of a projection and replay it from block #0, done later on the converter thread. Thread-safe
+     *
+     * @return {@code false} if there is no such projection enabled
+     */
+    public boolean requestRebuild(String name) {
+        for (Projection projection : projections) {
+            if (projection.getName().equals(name)) {
+                this.rebuildRequests.add(projection);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the projection is enabled and has every main chain block up to the last one. Thread-safe
+     */
+    public boolean isLive(String name) {
+        for (Projection projection : projections) {
+            if (projection.getName().equals(name)) {
+                return live.contains(projection);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return {@code true} if a projection is behind or asked to be rebuilt
+     */
+    boolean hasWork() {
+        return !rebuildRequests.isEmpty() || live.size() < projections.size();
+    }
+
+    /**
+     * Rebuild projections asked to, and replay the furthest behind one a step. Call this between blocks, nothing else may be written meanwhile
+     *
+     * @param tipNumber The last block in the database
+     */
+    void step(long tipNumber) {
+        Projection requested;
+
+        while ((requested = rebuildRequests.poll()) != null) {
+            try (Connection connection = databaseManager.getConnection()) {
+                connection.setAutoCommit(false);
+
+                try {
+                    clear(connection, requested);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+
+                commit();
+                this.live.remove(requested);
+                this.retryAfter = 0;
+
+                requested.open(connection);
+
+                logger.info("Projection {} has been cleared, replaying it from block #0", requested.getName());
+            } catch (SQLException e) {
+                rollback();
+                logger.error("An error occurred when clearing projection {}", requested.getName(), e);
+            }
+        }
+
+        if (System.currentTimeMillis() < retryAfter) {
+            return;
+        }
+
+        Projection behind = null;
+
+        for (Projection projection : projections) {
+            if (!live.contains(projection) && (behind == null || checkpoints.get(projection) < checkpoints.get(behind))) {
+                behind = projection;
+            }
+        }
+
+        if (behind == null) {
+            return;
+        }
+
+        final long from = checkpoints.get(behind) + 1;
+
+        if (from > tipNumber) {
+            this.live.add(behind);
+            return;
+        }
+
+        final long to = Math.min(tipNumber, from + STEP_BLOCKS - 1);
+
+        if (replay(behind, from, to)) {
+            if (to == tipNumber) {
+                this.live.add(behind);
+                logger.info("Projection {} has caught up at block #{}", behind.getName(), to);
+            } else {
+                logger.info("Replaying projection {}... #{}/{}", behind.getName(), to, tipNumber);
+            }
+        } else {
+            this.retryAfter = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+        }
+    }
+
+    /**
+     * Apply main chain blocks from {@code from} to {@code to} to a projection behind, and move its checkpoint. Committed by itself
+     *
+     * @return {@code true} if committed
+     */
+    private boolean replay(Projection projection, long from, long to) {
+        final LongHashMap<Long> blockIds = new LongHashMap<>(STEP_BLOCKS);
+        final LongHashMap<byte[]> blockHashes = new LongHashMap<>(STEP_BLOCKS);
+
+        try (Connection connection = databaseManager.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement prpstmt = connection.prepareStatement("SELECT number, internal_id, hash FROM blocks WHERE number BETWEEN ? AND ? AND forked = 0")) {
+                prpstmt.setLong(1, from);
+                prpstmt.setLong(2, to);
+
+                try (ResultSet resultSet = prpstmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        blockIds.put(resultSet.getLong(1), resultSet.getLong(2));
+                        blockHashes.put(resultSet.getLong(1), resultSet.getBytes(3));
+                    }
+                }
+            }
+
+            if (blockIds.size() != to - from + 1) {
+                logger.debug("Blocks #{} to #{} are not all in the database yet", from, to);
+                return false;
+            }
+
+            final AddressIdResolver resolver = new AddressIdResolver() {
+                @Override
+                public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) throws SQLException {
+                    return addressIdPool.getOrInsertAddressId(connection, prefixedAddress, addressType, careType);
+                }
+
+                @Override
+                public long get(String prefixedAddress) throws SQLException {
+                    return addressIdPool.getAddressId(connection, prefixedAddress);
+                }
+            };
+
+            this.pipeline = new CatchupPipeline(fetcher, config.getCatchupWindowSize(), config.getCatchupFetchThreads());
+
+            boolean committed = false;
+
+            try (ConverterStatements statements = new ConverterStatements(connection, true)) {
+                final boolean completed = pipeline.run(from, to, fetchedBlock -> {
+                    final long blockNumber = fetchedBlock.getBlock().getNumber();
+
+                    if (!Arrays.equals(fetchedBlock.getBlock().getHash(), blockHashes.get(blockNumber))) {
+                        throw new IllegalBlockchainStateException("Block #" + blockNumber + " on the node is not the one in the database");
+                    }
+
+                    projection.apply(statements, new BlockEvent(fetchedBlock, blockIds.get(blockNumber), resolver));
+                });
+
+                if (completed) {
+                    statements.flush();
+                    setCheckpoint(connection, projection, to, blockHashes.get(to));
+                    connection.commit();
+                    committed = true;
+                } else {
+                    statements.discard();
+                }
+            } finally {
+                this.pipeline = null;
+
+                if (committed) {
+                    addressIdPool.commit();
+                    commit();
+                } else {
+                    addressIdPool.rollback();
+                    rollback();
+                    connection.rollback();
+                }
+            }
+
+            return committed;
+        } catch (SQLException e) {
+            logger.error("An error occurred when replaying projection {} from block #{}", projection.getName(), from, e);
+            return false;
+        }
+    }
+
+    /**
+     * Empty the tables of a projection and set its checkpoint to nothing, not committed
+     */
+    private void clear(Connection connection, Projection projection) throws SQLException {
+        for (String table : projection.getTables()) {
+            try (PreparedStatement prpstmt = connection.prepareStatement("DELETE FROM " + table)) {
+                prpstmt.executeUpdate();
+            }
+        }
+
+        setCheckpoint(connection, projection, -1, null);
+    }
+
+    private void setCheckpoint(Connection connection, Projection projection, long blockNumber, byte[] hash) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement("UPDATE projections SET number = ?, hash = ? WHERE name = ?")) {
+            prpstmt.setLong(1, blockNumber);
+            prpstmt.setBytes(2, hash);
+            prpstmt.setString(3, projection.getName());
+            prpstmt.executeUpdate();
+        }
+
+        this.pendingCheckpoints.put(projection, blockNumber);
+    }
+
+    private long checkpointOf(Projection projection) {
+        final Long pending = pendingCheckpoints.get(projection);
+
+        return pending != null ? pending : checkpoints.get(projection);
+    }
+
+    /**
+     * @return Hash of the main chain block, {@code null} if there is none
+     */
+    private static byte[] hashOf(Connection connection, long blockNumber) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT hash FROM blocks WHERE number = ? AND forked = 0")) {
+            prpstmt.setLong(1, blockNumber);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getBytes(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Stop replaying, call this from another thread when the converter is stopping
+     */
+    void stop() {
+        final CatchupPipeline pipeline = this.pipeline;
+
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+}
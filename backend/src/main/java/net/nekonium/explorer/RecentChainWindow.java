@@ -0,0 +1,145 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.LongHashMap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * The last few committed main chain blocks (number, internal id and hash), oldest to newest in a ring buffer.<br>
+ * A new block whose parent is the tip can be inserted without asking the database about its parents, with the tip's id as its parent,
+ * only real reorgs have to go through the database. The hashes are also indexed by their first 8 bytes, so that a block the node announces again
+ * after it was inserted is found without asking anything. Only for the converter thread, not thread-safe
+ */
+public class RecentChainWindow {
+
+    private final long[] numbers;
+    private final long[] ids;
+    private final byte[][] hashes;
+    private final LongHashMap<Integer> slots;   // First 8 bytes of a hash in the window to its index, hashes are random enough
+
+    private int head;   // Index of the tip
+    private int size;
+
+    public RecentChainWindow(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.numbers = new long[capacity];
+        this.ids = new long[capacity];
+        this.hashes = new byte[capacity][];
+        this.slots = new LongHashMap<>(capacity);
+    }
+
+    /**
+     * Fill the window with the main chain blocks below and including {@code tipNumber} from the database
+     *
+     * @param connection
+     * @param tipNumber
+     * @throws SQLException
+     */
+    public void warm(Connection connection, long tipNumber) throws SQLException {
+        clear();
+
+        // The newest ones, oldest first
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT * FROM (SELECT blocks.number, blocks.internal_id, blocks.hash, b2.hash FROM blocks " +
+                        "LEFT JOIN blocks AS b2 ON blocks.parent = b2.internal_id " +
+                        "WHERE blocks.forked = 0 AND blocks.number <= ? " +
+                        "ORDER BY blocks.number DESC LIMIT ?) AS recent ORDER BY number")) {
+            prpstmt.setLong(1, tipNumber);
+            prpstmt.setInt(2, numbers.length);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    push(resultSet.getLong(1), resultSet.getLong(2), resultSet.getBytes(3), resultSet.getBytes(4));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a block with {@code blockNumber} and {@code parentHash} extends the tip directly
+     */
+    public boolean extendsTip(long blockNumber, byte[] parentHash) {
+        return size > 0 && numbers[head] + 1 == blockNumber && Arrays.equals(hashes[head], parentHash);
+    }
+
+    /**
+     * @return {@code true} if the block is one of the committed main chain blocks in the window
+     */
+    public boolean contains(byte[] hash) {
+        final Integer slot = slots.get(keyOf(hash));
+
+        return slot != null && Arrays.equals(hashes[slot], hash);
+    }
+
+    /**
+     * Add a committed main chain block as the new tip. If it doesn't extend the tip, the window starts over from it
+     *
+     * @param id         Internal id of the block
+     * @param parentHash {@code null} if unknown (block 0)
+     */
+    public void push(long number, long id, byte[] hash, byte[] parentHash) {
+        if (size > 0 && !extendsTip(number, parentHash)) {
+            clear();
+        }
+
+        this.head = size == 0 ? 0 : (head + 1) % numbers.length;
+
+        if (size == numbers.length) {
+            final long oldestKey = keyOf(hashes[head]);   // The oldest one is overwritten
+
+            if (Integer.valueOf(head).equals(slots.get(oldestKey))) {
+                slots.remove(oldestKey);
+            }
+        }
+
+        this.numbers[head] = number;
+        this.ids[head] = id;
+        this.hashes[head] = hash;
+        this.slots.put(keyOf(hash), head);
+
+        if (size < numbers.length) {
+            this.size++;
+        }
+    }
+
+    /**
+     * @return Block number of the tip, -1 if empty
+     */
+    public long getTipNumber() {
+        return size > 0 ? numbers[head] : -1;
+    }
+
+    /**
+     * @return Internal id of the tip, -1 if empty
+     */
+    public long getTipId() {
+        return size > 0 ? ids[head] : -1;
+    }
+
+    public void clear() {
+        this.slots.clear();
+        this.size = 0;
+        this.head = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long keyOf(byte[] hash) {
+        long key = 0;
+
+        for (int i = 0; i < 8 && i < hash.length; i++) {
+            key = key << 8 | (hash[i] & 0xff);
+        }
+
+        return key;
+    }
+}
@@ -0,0 +1,506 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.IllegalBlockchainStateException;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawCodec;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of fetched blocks on the local disk, between fetching from the node and writing to the database.<br>
+ * Blocks are appended in the order of the block number into segment files, and read back by a {@link Reader} from any block still in the log.
+ * The database writer records how far it has committed with {@link #checkpoint(long)}, segments before that are deleted.<br>
+ * A record is [payload length][CRC32 of the payload][payload]. A torn record at the end (the process died while appending) is cut off on opening.
+ * Records are not forced to the disk, the ones lost on a power failure are just fetched again
+ */
+public class StagingLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final Logger logger;
+
+    private final List<Segment> segments = new ArrayList<>();   // Oldest first, guarded by this
+    private FileChannel appendChannel;  // Of the last segment, null until something is appended
+    private byte[] lastHash;            // Of the last block, the next block has to be its child
+    private long checkpoint;
+    private boolean closed;
+
+    /**
+     * Open the log in {@code directory}, or create an empty one
+     *
+     * @param segmentBytes A new segment is started when the current one is bigger than this
+     */
+    public StagingLog(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.logger = LoggerFactory.getLogger("StagingLog");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the staging directory " + directory);
+        }
+
+        recover();
+
+        final File checkpointFile = new File(directory, CHECKPOINT_FILE);
+
+        this.checkpoint = checkpointFile.exists()
+                ? Long.parseLong(new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.US_ASCII).trim()) : -1;
+    }
+
+    /**
+     * Read through every segment, cut off a torn record at the end and drop segments which don't continue from the previous one
+     */
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+
+        if (files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+
+        Arrays.sort(files);     // Names are zero-padded first block numbers
+
+        byte[] lastPayload = null;
+
+        for (File file : files) {
+            final Segment previous = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+            final ScanResult scan = scan(file);
+
+            if (scan.segment == null || (previous != null && scan.segment.first != previous.last + 1)) {
+                if (scan.segment != null) {
+                    logger.warn("Segment {} does not continue from the previous one, deleting", file.getName());
+                }
+
+                Files.delete(file.toPath());
+                continue;
+            }
+
+            segments.add(scan.segment);
+            lastPayload = scan.lastPayload;
+        }
+
+        if (lastPayload != null) {
+            this.lastHash = decode(lastPayload).getBlock().getHash();
+        }
+
+        if (!segments.isEmpty()) {
+            logger.info("Staging log has blocks #{} to #{}", getFirstBlockNumber(), getLastBlockNumber());
+        }
+    }
+
+    /**
+     * @return {@code segment} is null if there is no valid record in the file
+     */
+    private ScanResult scan(File file) throws IOException {
+        final ScanResult result = new ScanResult();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long fileSize = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            long position = 0;
+            long first = -1, last = -1;
+
+            while (fileSize - position >= HEADER_SIZE) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+
+                final int length = header.getInt();
+                final int crc = header.getInt();
+
+                if (length < 8 || position + HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+
+                final ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_SIZE);
+
+                if (crc(payload.array()) != crc) {
+                    break;
+                }
+
+                last = payload.getLong(0);  // A payload starts with the block number
+
+                if (first < 0) {
+                    first = last;
+                }
+
+                result.lastPayload = payload.array();
+                position += HEADER_SIZE + length;
+            }
+
+            if (position < fileSize) {
+                logger.warn("Cutting off a torn record at the end of {}, {} bytes", file.getName(), fileSize - position);
+                channel.truncate(position);
+            }
+
+            if (first >= 0) {
+                result.segment = new Segment(file, first, last, position);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Append the next block
+     *
+     * @throws IllegalArgumentException        If it is not the next block number of the last one
+     * @throws IllegalBlockchainStateException If it is not a child of the last block
+     */
+    public synchronized void append(FetchedBlock fetchedBlock) throws IOException {
+        if (closed) {
+            throw new IOException("Staging log is closed");
+        }
+
+        final RawBlock block = fetchedBlock.getBlock();
+
+        if (!segments.isEmpty() && getLastBlockNumber() >= getFirstBlockNumber()) {
+            if (block.getNumber() != getLastBlockNumber() + 1) {
+                throw new IllegalArgumentException("Block #" + block.getNumber() + " does not follow #" + getLastBlockNumber());
+            }
+            if (!Arrays.equals(block.getParentHash(), lastHash)) {
+                throw new IllegalBlockchainStateException("Block #" + block.getNumber() + " is not a child of the last block in the staging log");
+            }
+        }
+
+        final byte[] payload = encode(fetchedBlock);
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        if (segment == null || appendChannel == null || segment.size >= segmentBytes) {
+            segment = roll(block.getNumber());
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+
+        buffer.putInt(payload.length);
+        buffer.putInt(crc(payload));
+        buffer.put(payload);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            appendChannel.write(buffer);
+        }
+
+        segment.last = block.getNumber();
+        segment.size += HEADER_SIZE + payload.length;
+        this.lastHash = block.getHash();
+
+        notifyAll();    // Wake up readers waiting for this block
+    }
+
+    private Segment roll(long firstBlockNumber) throws IOException {
+        final Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        if (appendChannel != null) {
+            appendChannel.close();
+        }
+
+        if (last != null && last.size < segmentBytes) {
+            // Reopened after a restart, keep appending to it
+            this.appendChannel = FileChannel.open(last.file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            return last;
+        }
+
+        final File file = new File(directory, String.format("%020d", firstBlockNumber) + SEGMENT_SUFFIX);
+        final Segment segment = new Segment(file, firstBlockNumber, firstBlockNumber - 1, 0);
+
+        this.appendChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.segments.add(segment);
+
+        return segment;
+    }
+
+    /**
+     * Record that everything up to and including {@code blockNumber} is in the database, and delete segments not needed anymore.
+     * The segment being appended to is always kept
+     */
+    public synchronized void checkpoint(long blockNumber) throws IOException {
+        final File temporary = new File(directory, CHECKPOINT_FILE + ".tmp");
+
+        Files.write(temporary.toPath(), Long.toString(blockNumber).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary.toPath(), new File(directory, CHECKPOINT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.checkpoint = blockNumber;
+
+        while (segments.size() > 1 && segments.get(0).last <= blockNumber) {
+            Files.delete(segments.remove(0).file.toPath());
+        }
+    }
+
+    /**
+     * Delete every block in the log, for when it doesn't continue from the database anymore. The checkpoint is left as it is
+     */
+    public synchronized void reset() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+            this.appendChannel = null;
+        }
+
+        for (Segment segment : segments) {
+            Files.delete(segment.file.toPath());
+        }
+
+        this.segments.clear();
+        this.lastHash = null;
+    }
+
+    /**
+     * Start reading from {@code blockNumber}, which has to be in the log or the next one to be appended
+     */
+    public Reader openReader(long blockNumber) {
+        return new Reader(blockNumber);
+    }
+
+    /**
+     * @return The oldest block number in the log, -1 if empty
+     */
+    public synchronized long getFirstBlockNumber() {
+        return segments.isEmpty() ? -1 : segments.get(0).first;
+    }
+
+    /**
+     * @return The latest block number in the log, -1 if empty
+     */
+    public synchronized long getLastBlockNumber() {
+        return segments.isEmpty() ? -1 : segments.get(segments.size() - 1).last;
+    }
+
+    /**
+     * @return Hash of the latest block in the log, {@code null} if empty
+     */
+    public synchronized byte[] getLastHash() {
+        return lastHash;
+    }
+
+    /**
+     * @return The last block number recorded by {@link #checkpoint(long)}, -1 if never
+     */
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.closed = true;
+
+        if (appendChannel != null) {
+            appendChannel.close();
+        }
+
+        notifyAll();
+    }
+
+    private synchronized Segment findSegment(long blockNumber) {
+        for (Segment segment : segments) {
+            if (segment.first <= blockNumber && blockNumber <= segment.last) {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+    static byte[] encode(FetchedBlock fetchedBlock) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        RawCodec.writeBlock(out, fetchedBlock.getBlock());     // First, so that the block number comes first
+
+        out.writeInt(fetchedBlock.getUncles().length);
+
+        for (RawBlock uncle : fetchedBlock.getUncles()) {
+            RawCodec.writeBlock(out, uncle);
+        }
+
+        out.writeInt(fetchedBlock.getTransactionReceipts().length);
+
+        for (RawReceipt receipt : fetchedBlock.getTransactionReceipts()) {
+            RawCodec.writeReceipt(out, receipt);
+        }
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    static FetchedBlock decode(byte[] payload) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        final RawBlock block = RawCodec.readBlock(in);
+        final RawBlock[] uncles = new RawBlock[in.readInt()];
+
+        for (int i = 0; i < uncles.length; i++) {
+            uncles[i] = RawCodec.readBlock(in);
+        }
+
+        final RawReceipt[] receipts = new RawReceipt[in.readInt()];
+
+        for (int i = 0; i < receipts.length; i++) {
+            receipts[i] = RawCodec.readReceipt(in);
+        }
+
+        return new FetchedBlock(block, uncles, receipts);
+    }
+
+    private static int crc(byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+
+        crc32.update(bytes, 0, bytes.length);
+
+        return (int) crc32.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Reads blocks one after another, waiting for them to be appended. Only for one thread
+     */
+    public class Reader implements Closeable {
+
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        private long nextBlockNumber;
+        private Segment segment;
+        private FileChannel channel;
+        private long position;
+
+        private Reader(long blockNumber) {
+            this.nextBlockNumber = blockNumber;
+        }
+
+        /**
+         * @return The next block, {@code null} if it was not appended in {@code timeoutMillis}
+         * @throws IOException If the block is not in the log anymore or the record is broken
+         */
+        public FetchedBlock next(long timeoutMillis) throws IOException, InterruptedException {
+            synchronized (StagingLog.this) {
+                final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+                while (!closed && getLastBlockNumber() < nextBlockNumber) {
+                    final long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0) {
+                        return null;
+                    }
+
+                    StagingLog.this.wait(remaining);
+                }
+
+                if (closed) {
+                    throw new IOException("Staging log is closed");
+                }
+            }
+
+            if (segment == null || nextBlockNumber > segment.last) {
+                seek();
+            }
+
+            final FetchedBlock fetchedBlock = decode(read());
+
+            if (fetchedBlock.getBlock().getNumber() != nextBlockNumber) {
+                throw new IOException("Expected block #" + nextBlockNumber + " in the staging log but found #" + fetchedBlock.getBlock().getNumber());
+            }
+
+            this.nextBlockNumber++;
+
+            return fetchedBlock;
+        }
+
+        /**
+         * Move to the record of the next block, from the head of the segment having it
+         */
+        private void seek() throws IOException {
+            final Segment segment = findSegment(nextBlockNumber);
+
+            if (segment == null) {
+                throw new IOException("Block #" + nextBlockNumber + " is not in the staging log");
+            }
+
+            if (channel != null) {
+                channel.close();
+            }
+
+            this.segment = segment;
+            this.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+            this.position = 0;
+
+            // Skip records before it
+            for (long number = segment.first; number < nextBlockNumber; number++) {
+                header.clear();
+                readFully(channel, header, position);
+
+                this.position += HEADER_SIZE + header.getInt(0);
+            }
+        }
+
+        private byte[] read() throws IOException {
+            header.clear();
+            readFully(channel, header, position);
+
+            final int length = header.getInt(0);
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+
+            readFully(channel, payload, position + HEADER_SIZE);
+
+            if (crc(payload.array()) != header.getInt(4)) {
+                throw new IOException("Broken record of block #" + nextBlockNumber + " in " + segment.file.getName());
+            }
+
+            this.position += HEADER_SIZE + length;
+
+            return payload.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long first;
+        private volatile long last;     // Read by readers without the lock
+        private long size;
+
+        private Segment(File file, long first, long last, long size) {
+            this.file = file;
+            this.first = first;
+            this.last = last;
+            this.size = size;
+        }
+    }
+
+    private static class ScanResult {
+        private Segment segment;
+        private byte[] lastPayload;
+    }
+}
@@ -0,0 +1,44 @@
+package net.nekonium.explorer;
+
+/**
+ * How much of the blockchain is in the database, set by the converter and read by request handlers.<br>
+ * With head-first sync, the converter follows the node's head from the start while older blocks are filled downward in the background.
+ * Until that is done, every block from the low-water mark up to the latest one is in the database but some below it are not,
+ * so transaction lists of an address can miss older ones, and balances are not summed up over the whole history yet.
+ * Thread-safe
+ */
+public class SyncStatus {
+
+    private volatile long lowWaterMark; // Read together with partial, both set under this
+    private volatile boolean partial;
+
+    /**
+     * @param lowWaterMark Every block from this number up to the latest is in the database
+     */
+    public synchronized void setPartial(long lowWaterMark) {
+        this.lowWaterMark = lowWaterMark;
+        this.partial = true;
+    }
+
+    /**
+     * Every block from #0 is in the database, and balances are complete
+     */
+    public synchronized void setComplete() {
+        this.lowWaterMark = 0;
+        this.partial = false;
+    }
+
+    /**
+     * @return {@code true} while history is still being filled, data about addresses could be missing older parts
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return The lowest block number from which every block up to the latest is in the database, 0 if not partial
+     */
+    public long getLowWaterMark() {
+        return lowWaterMark;
+    }
+}
@@ -0,0 +1,221 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.util.NonNullPair;
+import net.nekonium.explorer.web3jexpand.RawLog;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import net.nekonium.explorer.web3jexpand.RawTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The token_transfers table, a row for every ERC20 Transfer event in receipt logs,
+ * and the token_balances table, the balance of every holder of every token summed up from those transfers.
+ * A transfer whose value is over 128 bits is left out, and its token is marked in the unindexed_tokens table instead.<br>
+ * Not bulk loaded, so rows are only ever written in the order of blocks (live or replayed from the checkpoint, also after head-first sync).
+ * Their ids are in the order of blocks, which the transfer list pages by
+ */
+final class TokenTransferProjection implements Projection {
+
+    static final String NAME = "token-transfers";
+
+    // keccak256("Transfer(address,address,uint256)")
+    private static final byte[] TRANSFER_TOPIC = HexCodec.decode("0xddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef");
+    private static final int VALUE_LENGTH = 16;   // Values are stored as 128 bit, anything larger is not a sane token transfer
+
+    private final Logger logger = LoggerFactory.getLogger("Projections");
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String[] getTables() {
+        return new String[]{"unindexed_tokens", "token_balances", "token_transfers"};
+    }
+
+    @Override
+    public boolean isBulkLoaded() {
+        return false;   // Backfill doesn't write these, replayed after it
+    }
+
+    @Override
+    public void apply(ConverterStatements statements, BlockEvent event) throws SQLException {
+        final RawTransaction[] transactions = event.getFetchedBlock().getTransactions();
+        final RawReceipt[] transactionReceipts = event.getFetchedBlock().getTransactionReceipts();
+        final AddressIdResolver resolver = event.getResolver();
+
+        final HashMap<NonNullPair<Long, Long>, BigInteger> balanceChanges = new HashMap<>();
+
+        PreparedStatement prpstmt = null;
+
+        for (int i = 0; i < transactions.length; i++) {
+            for (RawLog log : transactionReceipts[i].getLogs()) {
+                if (!isTransfer(log)) {
+                    continue;
+                }
+
+                final long tokenId = resolver.getOrInsert(log.getAddress(), AddressType.CONTRACT, false);
+                final byte[] value = valueOf(log);
+
+                if (value == null) {
+                    // Balances of the token are not right without it, handlers tell it is not complete
+                    logger.warn("Transfer of token {} in transaction {} is over 128 bits, marking the token unindexed",
+                            log.getAddress(), HexCodec.encodePrefixed(transactions[i].getHash()));
+
+                    final PreparedStatement mark = statements.prepare("INSERT IGNORE INTO unindexed_tokens VALUES (?, ?)");
+                    mark.setLong(1, tokenId);
+                    mark.setLong(2, event.getBlockId());
+                    statements.insert(mark);
+                    continue;
+                }
+
+                final long fromId = resolver.getOrInsert(addressOf(log.getTopics()[1]), AddressType.NORMAL, false);
+                final long toId = resolver.getOrInsert(addressOf(log.getTopics()[2]), AddressType.NORMAL, false);
+
+                if (prpstmt == null) {
+                    prpstmt = statements.prepare("INSERT INTO token_transfers VALUES (NULL, ?, ?, ?, ?, ?, ?, ?)");
+                }
+
+                // Transaction ids are not known until the batch is flushed, refer it by the block and the index instead
+                prpstmt.setLong(1, event.getBlockId());
+                prpstmt.setInt(2, transactions[i].getIndex());
+                prpstmt.setInt(3, log.getLogIndex());
+                prpstmt.setLong(4, tokenId);
+                prpstmt.setLong(5, fromId);
+                prpstmt.setLong(6, toId);
+                prpstmt.setBytes(7, value);
+                statements.insert(prpstmt);
+
+                final BigInteger amount = new BigInteger(1, value);
+
+                // The zero address is a holder too, it goes negative on mints, the holder list only shows positive ones
+                balanceChanges.merge(new NonNullPair<>(tokenId, fromId), amount.negate(), BigInteger::add);
+                balanceChanges.merge(new NonNullPair<>(tokenId, toId), amount, BigInteger::add);
+            }
+        }
+
+        if (balanceChanges.isEmpty()) {
+            return;
+        }
+
+        final PreparedStatement upsert = statements.prepare(
+                "INSERT INTO token_balances VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE balance = balance + VALUES(balance)");
+
+        for (Map.Entry<NonNullPair<Long, Long>, BigInteger> entry : balanceChanges.entrySet()) {
+            if (entry.getValue().signum() == 0) {
+                continue;   // Sent to itself or cancelled out in the block
+            }
+
+            upsert.setLong(1, entry.getKey().getA());
+            upsert.setLong(2, entry.getKey().getB());
+            upsert.setBigDecimal(3, new BigDecimal(entry.getValue()));
+            statements.insert(upsert);
+        }
+    }
+
+    @Override
+    public void reorganized(Connection connection, long fromNumber, long belowNumber) throws SQLException {
+        // Holders which had a transfer on a changed block, forked or revived
+        final Set<NonNullPair<Long, Long>> pairs = new HashSet<>();
+
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT DISTINCT token_id, from_id, to_id FROM token_transfers " +
+                        "LEFT JOIN blocks ON block_id = blocks.internal_id " +
+                        "WHERE blocks.number >= ?")) {
+            prpstmt.setLong(1, fromNumber);
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    pairs.add(new NonNullPair<>(resultSet.getLong(1), resultSet.getLong(2)));
+                    pairs.add(new NonNullPair<>(resultSet.getLong(1), resultSet.getLong(3)));
+                }
+            }
+        }
+
+        if (pairs.isEmpty()) {
+            return;
+        }
+
+        // Sum their main chain transfers below the block about to be inserted again, the value is binary and can't be summed by the database
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT from_id, to_id, value FROM token_transfers " +
+                        "LEFT JOIN blocks ON block_id = blocks.internal_id " +
+                        "WHERE forked = 0 AND token_id = ? AND (from_id = ? OR to_id = ?) AND blocks.number < ?");
+             PreparedStatement upsert = connection.prepareStatement(
+                     "INSERT INTO token_balances VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE balance = VALUES(balance)")) {
+            for (NonNullPair<Long, Long> pair : pairs) {
+                select.setLong(1, pair.getA());
+                select.setLong(2, pair.getB());
+                select.setLong(3, pair.getB());
+                select.setLong(4, belowNumber);
+
+                BigInteger balance = BigInteger.ZERO;
+
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        final BigInteger amount = new BigInteger(1, resultSet.getBytes(3));
+
+                        // Sent to itself counts both ways and nets to zero
+                        if (resultSet.getLong(1) == pair.getB()) {
+                            balance = balance.subtract(amount);
+                        }
+                        if (resultSet.getLong(2) == pair.getB()) {
+                            balance = balance.add(amount);
+                        }
+                    }
+                }
+
+                upsert.setLong(1, pair.getA());
+                upsert.setLong(2, pair.getB());
+                upsert.setBigDecimal(3, new BigDecimal(balance));
+                upsert.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the log is an ERC20 Transfer
+     */
+    private static boolean isTransfer(RawLog log) {
+        final byte[][] topics = log.getTopics();
+
+        // ERC721 Transfer has the same signature but the token id is the third topic, skip them by the topic count
+        return topics.length == 3 && Arrays.equals(topics[0], TRANSFER_TOPIC) && log.getData().length == 32;
+    }
+
+    /**
+     * @return The 128 bit big endian value of a Transfer if it fits, otherwise {@code null}
+     */
+    private static byte[] valueOf(RawLog log) {
+        final byte[] data = log.getData();
+
+        for (int i = 0; i < 32 - VALUE_LENGTH; i++) {
+            if (data[i] != 0) {
+                return null;
+            }
+        }
+
+        return Arrays.copyOfRange(data, 32 - VALUE_LENGTH, 32);
+    }
+
+    /**
+     * @return The address in the last 20 bytes of a topic, prefixed
+     */
+    private static String addressOf(byte[] topic) {
+        return HexCodec.encodePrefixed(Arrays.copyOfRange(topic, topic.length - 20, topic.length));
+    }
+}
@@ -2,15 +2,27 @@ package net.nekonium.explorer.web3jexpand;
 
 import org.web3j.protocol.Service;
 import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlock;
 import org.web3j.protocol.http.HttpService;
-import org.web3j.protocol.ipc.UnixIpcService;
 import org.web3j.protocol.ipc.WindowsIpcService;
 import org.web3j.utils.Async;
+import rx.Observable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Web3jManager {
 
     private Web3j web3j;
-    private Service service;
+    private NodePool nodePool;
+    private ConnectionType connectionType;
+    private String path;    // The first node
+    private long pollingInterval;
+    private NewHeadsSubscription newHeadsSubscription;
 
     private ConnectionType determineIPC() {
         final String osName = System.getProperty("os.name");
@@ -27,23 +39,114 @@ public class Web3jManager {
     }
 
     public void connect(ConnectionType type, String path, boolean includeRawResponse, long pollingInterval) {
+        connect(type, Collections.singletonList(path), includeRawResponse, pollingInterval, NodePool.Routing.ROUND_ROBIN, false);
+    }
+
+    /**
+     * Connect to several nodes of the same connection type, calls are spread over them by {@link NodePool}
+     *
+     * @param type
+     * @param paths              Paths or urls of the nodes, the first one is used for new head subscription
+     * @param includeRawResponse
+     * @param pollingInterval
+     * @param routing            How to choose a node for a call
+     * @param hedge              Whether to send a slow call to another node too
+     */
+    public void connect(ConnectionType type, List<String> paths, boolean includeRawResponse, long pollingInterval, NodePool.Routing routing, boolean hedge) {
+        final List<NodeConnection> nodes = new ArrayList<>(paths.size());
+
+        for (String path : paths) {
+            Service service = null;
+            BatchService batchService = null;
+
+            switch (type) {
+                case IPC_UNIX:
+                    // web3j's UnixIpcService mixes up responses when called from several threads, the catchup does that
+                    final MultiplexedUnixIpcService ipcService = new MultiplexedUnixIpcService(path, includeRawResponse);
+                    service = ipcService;
+                    batchService = ipcService.createBatchService(includeRawResponse);
+                    break;
+                case IPC_WINDOWS:
+                    service = new WindowsIpcService(path, includeRawResponse);
+                    // No batch for named pipes, requests are sent one by one
+                    break;
+                case RPC:
+                    service = new HttpService(path, includeRawResponse);
+                    batchService = new HttpBatchService(path, includeRawResponse);
+                    break;
+            }
+
+            nodes.add(new NodeConnection(path, service, batchService));
+        }
+
+        this.nodePool = new NodePool(nodes, routing, hedge);
+        this.web3j = Web3j.build(nodePool, pollingInterval, Async.defaultExecutorService());
+        this.connectionType = type;
+        this.path = paths.get(0);
+        this.pollingInterval = pollingInterval;
+    }
+
+    /**
+     * Start receiving new blocks, call this once after connecting.
+     * Heads are pushed through unix socket IPC or {@code webSocketURL}, otherwise polled at the polling interval
+     *
+     * @param webSocketURL Websocket endpoint of the node, {@code null} if there is none
+     */
+    public void subscribeNewHeads(String webSocketURL) {
+        if (newHeadsSubscription != null) {
+            throw new IllegalStateException("Already subscribed");
+        }
+
+        final String ipcPath = connectionType == ConnectionType.IPC_UNIX ? path : null;    // Named pipe can't be read and written at the same time by jnr
+
+        this.newHeadsSubscription = new NewHeadsSubscription(this, ipcPath, webSocketURL, pollingInterval);
+        this.newHeadsSubscription.start();
+    }
+
+    /**
+     * New blocks with transaction objects, shared by everyone who needs them so that the node is asked only once per block.
+     * Blocks at the same height can come again when the chain reorgs
+     */
+    public Observable<EthBlock.Block> getNewBlockObservable() {
+        if (newHeadsSubscription == null) {
+            throw new IllegalStateException("subscribeNewHeads() has not been called");
+        }
+
+        return newHeadsSubscription.getObservable();
+    }
+
+    public void shutdown() {
+        if (newHeadsSubscription != null) {
+            newHeadsSubscription.stop();
+        }
 
-        Service service = null;
-
-        switch (type) {
-            case IPC_UNIX:
-                service = new UnixIpcService(path, includeRawResponse);
-                break;
-            case IPC_WINDOWS:
-                service = new WindowsIpcService(path, includeRawResponse);
-                break;
-            case RPC:
-                service = new HttpService(path, includeRawResponse);
-                break;
+        if (nodePool != null) {
+            nodePool.shutdown();
         }
+    }
+
+    /**
+     * Send all {@code requests} to one node in one round trip as a JSON-RPC batch, one by one if the node can't.
+     * Requests must be created from {@link #getWeb3j()}
+     *
+     * @param requests
+     * @param responseType
+     * @return Responses in the same order as {@code requests}
+     * @throws IOException If the connection failed or any of the requests returned an error
+     */
+    public <T extends Response<?>> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> responseType) throws IOException {
+        if (nodePool == null) {
+            throw new IllegalStateException("Web3jManager is not initialized!");
+        }
+
+        return nodePool.sendBatch(requests, responseType);
+    }
 
-        this.web3j = Web3j.build(service, pollingInterval, Async.defaultExecutorService());
-        this.service = service;
+    /**
+     * @return {@code null} if raw requests can't be sent on this connection type (named pipe), or not connected
+     */
+    public RawClient getRawClient() {
+        return nodePool != null ? nodePool.getRawClient() : null;
     }
 
     public Web3j getWeb3j() {
@@ -54,8 +157,8 @@ public class Web3jManager {
         return web3j;
     }
 
-    public Service getService() {
-        return service;
+    public NodePool getNodePool() {
+        return nodePool;
     }
 
     public enum ConnectionType {
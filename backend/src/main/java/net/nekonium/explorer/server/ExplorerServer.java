@@ -59,7 +59,11 @@ public class ExplorerServer {
             e.printStackTrace();
         }
 
-        RequestEndPoint.initQueryExecutor(); // Initialize RequestEndPoint's query executor before starting a server
+        // Initialize RequestEndPoint's query executors before starting a server, one for each cost class of handlers
+        for (RequestHandler.CostClass costClass : RequestHandler.CostClass.values()) {
+            RequestEndPoint.initQueryExecutor(costClass, backend.getConfig().getQueryThreads(costClass),
+                    backend.getConfig().getQueryQueueSize(costClass), backend.getConfig().getQueryMaxWaitMillis(costClass));
+        }
         /* Registering handlers for RequestEndPoint */
         RequestEndPoint.registerHandler("search",           new SearchRequestHandler());
         RequestEndPoint.registerHandler("block",            new BlockRequestHandler());
@@ -69,14 +73,16 @@ public class ExplorerServer {
         RequestEndPoint.registerHandler("transaction-list", new TransactionListRequestHandler());
         RequestEndPoint.registerHandler("address",          new AddressRequestHandler());
         RequestEndPoint.registerHandler("address-mined-list", new AddressMinedListRequestHandler());
+        RequestEndPoint.registerHandler("token-transfer-list", new TokenTransferListRequestHandler());
+        RequestEndPoint.registerHandler("token-holder-list", new TokenHolderListRequestHandler());
 
         this.httpServer.start();    // Start a server
 
         /* Subscribe for a new block filter */
 
-        this.backend.getWeb3jManager().getWeb3j().blockObservable(true).subscribe(ethBlock -> {
-            BlockNumberEndPoint.onNewBlock(ethBlock.getBlock());
-            BlockEndPoint.onNewBlock(ethBlock.getBlock());
+        this.backend.getWeb3jManager().getNewBlockObservable().subscribe(block -> {
+            BlockNumberEndPoint.onNewBlock(block);
+            BlockEndPoint.onNewBlock(block);
         });
     }
 
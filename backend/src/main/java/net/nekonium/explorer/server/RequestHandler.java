@@ -5,6 +5,12 @@ import org.json.JSONObject;
 
 public interface RequestHandler<T> {
 
+    /**
+     * Which lane of {@link net.nekonium.explorer.server.endpoint.RequestEndPoint} this handler runs in,
+     * each lane has its own threads and queue so that heavy pages can't make lookups wait
+     */
+    CostClass getCostClass();
+
     T parseParameters(JSONObject jsonObject) throws InvalidRequestException;
 
     /**
@@ -13,4 +19,9 @@ public interface RequestHandler<T> {
      * @return Result, maybe {@link JSONObject} or {@link org.json.JSONArray}
      */
     Object handle(T parameters) throws Exception;
+
+    enum CostClass {
+        LIGHT,  // Looked up by a key or a page of the latest ones, a few milliseconds
+        HEAVY   // Scans or counts by an address, can take seconds on a busy address
+    }
 }
@@ -0,0 +1,113 @@
+package net.nekonium.explorer.server.endpoint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of requests handled by a query executor lane since started. Thread-safe<br>
+ * Time waited in the queue is counted apart from time spent in handlers, a slow page and a full queue look the same to a client
+ */
+public class QueryMetrics {
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder handleNanos = new LongAdder();
+    private final LongAccumulator maxHandleNanos = new LongAccumulator(Math::max, 0);
+
+    void accepted() {
+        accepted.increment();
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    void shed(long waitNanos) {
+        shed.increment();
+        waited(waitNanos);
+    }
+
+    void waited(long nanos) {
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulate(nanos);
+    }
+
+    void handled(long nanos, boolean failed) {
+        (failed ? this.failed : handled).increment();
+        handleNanos.add(nanos);
+        maxHandleNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return How many requests were put in the queue
+     */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return How many requests were answered busy because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return How many requests were answered busy because they had waited in the queue too long
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    /**
+     * @return How many handlers threw
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return Average milliseconds waited in the queue, shed ones included
+     */
+    public double getAverageWaitMillis() {
+        return averageMillis(waitNanos.sum(), handled.sum() + failed.sum() + shed.sum());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * @return Average milliseconds spent in handlers
+     */
+    public double getAverageHandleMillis() {
+        return averageMillis(handleNanos.sum(), handled.sum() + failed.sum());
+    }
+
+    public long getMaxHandleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHandleNanos.get());
+    }
+
+    private static double averageMillis(long nanos, long count) {
+        return count == 0 ? 0 : nanos / 1000000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Accepted %d requests, %d rejected and %d shed as busy, %d handled, %d failed, " +
+                        "queue wait %.1f ms average (%d max), handling %.1f ms average (%d max)",
+                getAcceptedCount(), getRejectedCount(), getShedCount(), getHandledCount(), getFailedCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getAverageHandleMillis(), getMaxHandleMillis());
+    }
+}
@@ -14,27 +14,45 @@ import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.SocketTimeoutException;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ServerEndpoint("/request")
 public class RequestEndPoint {
 
-    private static final int THREAD_NUMBER = 2;
-
-    private static ExecutorService queryExecutor;
+    // A query executor for each cost class, heavy pages fill their own queue and don't make lookups wait
+    private static final EnumMap<RequestHandler.CostClass, Lane> lanes = new EnumMap<>(RequestHandler.CostClass.class);
     private static final HashMap<String, RequestHandler<?>> handlers = new HashMap<>();
 
-    public static void initQueryExecutor() {
-        queryExecutor = Executors.newFixedThreadPool(THREAD_NUMBER);
+    /**
+     * @param costClass Handlers of this cost class run in this executor
+     * @param threads How many requests are handled at once, each can hold a database connection
+     * @param queueSize How many requests can wait for a thread, more than that are answered busy right away
+     * @param maxWaitMillis A request waited longer than this is answered busy instead of handled
+     */
+    public static void initQueryExecutor(RequestHandler.CostClass costClass, int threads, int queueSize, int maxWaitMillis) {
+        if (lanes.containsKey(costClass)) {
+            throw new IllegalArgumentException("The query executor for " + costClass + " exists");
+        }
+
+        lanes.put(costClass, new Lane(costClass, threads, queueSize, maxWaitMillis));
+    }
+
+    public static QueryMetrics getMetrics(RequestHandler.CostClass costClass) {
+        return lanes.get(costClass).metrics;
     }
 
     public static void shutdownQueryExecutorAndWait() {
-        queryExecutor.shutdown();
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdown();
+        }
 
-        /* Try to shutdown the query executor, up to 10 times (10 seconds) */
+        /* Try to shutdown the query executors, up to 10 times (10 seconds) */
         for (int i = 1; i <= 10; i++) {
             if (i == 1) {
                 ExplorerServer.getInstance().getLogger().info("Waiting for query executor to shutdown...");
@@ -42,11 +60,14 @@ public class RequestEndPoint {
                 ExplorerServer.getInstance().getLogger().info("Waiting for query executor to shutdown... {}/10", i);
             }
 
-            boolean terminated = false;
+            boolean terminated = true;
 
             try {
-                terminated = queryExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+                for (Lane lane : lanes.values()) {
+                    terminated &= lane.executor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+                }
             } catch (InterruptedException e) {
+                terminated = false;
                 ExplorerServer.getInstance().getLogger().error("An error occurred when waiting to shutdown", e);
             }
 
@@ -107,21 +128,38 @@ public class RequestEndPoint {
 
         final WeakReference<Session> sessionWeakReference = new WeakReference<>(session);   // Wrap an session with WeakReference for avoiding memory leak (maybe)
 
-        queryExecutor.submit(() -> {
+        final Lane lane = lanes.get(handler.getCostClass());
+        final QueryMetrics metrics = lane.metrics;
+        final long queuedAt = System.nanoTime();
+
+        final Runnable task = () -> {
+            final long startedAt = System.nanoTime();
             final Session sessionRef = sessionWeakReference.get();
 
             if (sessionRef == null) {
                 // An session instance is already cleared by gc
+                metrics.waited(startedAt - queuedAt);
+                return;
+            }
+
+            if (startedAt - queuedAt > lane.maxWaitNanos) {
+                // Waited too long, the client has likely given up, handling it would only make the ones behind wait longer
+                metrics.shed(startedAt - queuedAt);
+                sendBusy(sessionRef, requestId);
                 return;
             }
 
+            metrics.waited(startedAt - queuedAt);
+
             /* let handler do their job */
 
             final Object jsonResult;
 
             try {
                 jsonResult = handler.handle(parameters);
+                metrics.handled(System.nanoTime() - startedAt, false);
             } catch (InvalidRequestException e) {   // This is one special exception, don't show print error on the logger
+                metrics.handled(System.nanoTime() - startedAt, false);
                 /* Received request was invalid, closing the session */
                 try {
                     session.close();
@@ -130,6 +168,7 @@ public class RequestEndPoint {
                 }
                 return;
             } catch (Exception e) {
+                metrics.handled(System.nanoTime() - startedAt, true);
                 /* Something went wrong in handler, not sure what had happened, but print it on the logger and close the connection for safety */
                 ExplorerServer.getInstance().getLogger().error("An error occurred when processing a request with handler [{}]", demand, e);
                 try {
@@ -148,7 +187,32 @@ public class RequestEndPoint {
             jsonObjectWrapper.put("content", jsonResult);
 
             sessionRef.getAsyncRemote().sendText(jsonObjectWrapper.toString());    // Sending asynchronous
-        });
+        };
+
+        try {
+            lane.executor.execute(task);
+            metrics.accepted();
+        } catch (RejectedExecutionException e) {
+            if (lane.executor.isShutdown()) {
+                return; // Shutting down, requests are ignored
+            }
+
+            // The queue of this lane is full, tell the client to try again later instead of holding the request
+            metrics.rejected();
+            sendBusy(session, requestId);
+        }
+    }
+
+    /**
+     * Answer a request without content, the client can retry it later
+     */
+    private static void sendBusy(Session session, long requestId) {
+        final JSONObject jsonObjectWrapper = new JSONObject();
+
+        jsonObjectWrapper.put("id", requestId);
+        jsonObjectWrapper.put("busy", true);
+
+        session.getAsyncRemote().sendText(jsonObjectWrapper.toString());
     }
 
     @OnError
@@ -175,4 +239,21 @@ public class RequestEndPoint {
 
         handlers.put(handlerId.toLowerCase(), handler);
     }
+
+    private static final class Lane {
+
+        private final ThreadPoolExecutor executor;
+        private final long maxWaitNanos;
+        private final QueryMetrics metrics = new QueryMetrics();
+
+        private Lane(RequestHandler.CostClass costClass, int threads, int queueSize, int maxWaitMillis) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            final String threadName = "query-" + costClass.name().toLowerCase() + "-";
+
+            // Bounded queue, a spike fills the queue and then gets busy responses rather than making everyone wait for seconds
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                    runnable -> new Thread(runnable, threadName + threadNumber.incrementAndGet()));
+            this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        }
+    }
 }
@@ -3,16 +3,16 @@ package net.nekonium.explorer.server.handler;
 import net.nekonium.explorer.server.ExplorerServer;
 import net.nekonium.explorer.server.InvalidRequestException;
 import net.nekonium.explorer.server.RequestHandler;
+import net.nekonium.explorer.util.Int128;
+import net.nekonium.explorer.util.LongHashMap;
 import net.nekonium.explorer.util.NonNullPair;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
 
@@ -21,6 +21,11 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
     private static final int SEARCH_ELEMENTS_IN_PAGE = 25;
     private static final int SEARCH_ELEMENT_LIMIT = 1000;
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
     @Override
     public AddressMinedListRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         checkContentIsArray(jsonObject);
@@ -69,7 +74,7 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
                 jsonArrayPage = new JSONArray();
             } else {
                 // Get fee spent in each block
-                final HashMap<String, BigInteger> txFeesInBlock = getTxFees(connection, parameters, addressId);
+                final LongHashMap<Int128> txFeesInBlock = getTxFees(connection, parameters, addressId);
 
                 // Get mined block/uncle blocks list from a database
                 jsonArrayPage = makeMinedList(connection, parameters, txFeesInBlock, addressId);
@@ -88,6 +93,7 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
 
             jsonArray.put(foundRowCount);   // Add it
             jsonArray.put(SEARCH_ELEMENT_LIMIT);
+            putSyncStatus(jsonArray);
 
             return jsonArray;
         } finally {
@@ -102,45 +108,39 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
     }
 
     private NonNullPair<Long, Integer> getAddressIdAndApproximateRowCount(Connection connection, AddressMinedListRequest parameters) throws SQLException {
+        final long addressId = ExplorerServer.getInstance().getBackend().getAddressIdPool().findAddressId(connection, "0x" + parameters.hash);
+
+        if (addressId == -1) {
+            return null;
+        }
+
         final PreparedStatement prpstmt = connection.prepareStatement(
-                "SELECT addresses.internal_id, " +
+                "SELECT " +
                         "(SELECT COUNT(*) FROM " +
                         "(SELECT 0 FROM blocks " +
-                        "LEFT JOIN addresses a ON blocks.miner_id = a.internal_id " +
-                        "WHERE a.address = UNHEX(?) LIMIT ?)" +
+                        "WHERE blocks.miner_id = ? LIMIT ?)" +
                         " AS a) + " +
                         "(SELECT COUNT(*) FROM " +
                         "(SELECT 0 FROM uncle_blocks " +
-                        "LEFT JOIN addresses a ON uncle_blocks.miner_id = a.internal_id " +
-                        "WHERE a.address = UNHEX(?) LIMIT ?)" +
-                        " AS b) FROM addresses " +
-                        "WHERE addresses.address = UNHEX(?)");
-        prpstmt.setString(1, parameters.hash);
+                        "WHERE uncle_blocks.miner_id = ? LIMIT ?)" +
+                        " AS b)");
+        prpstmt.setLong(1, addressId);
         prpstmt.setInt(2, SEARCH_ELEMENT_LIMIT + 1);
-        prpstmt.setString(3, parameters.hash);
+        prpstmt.setLong(3, addressId);
         prpstmt.setInt(4, SEARCH_ELEMENT_LIMIT + 1);
-        prpstmt.setString(5, parameters.hash);
 
         final ResultSet resultSet = prpstmt.executeQuery();
 
+        resultSet.next();   // Always 1 row
+        final int approximateRowCount = resultSet.getInt(1);
 
-        if (resultSet.next()) {
-            final long addressId = resultSet.getLong(1);
-            final int approximateRowCount = resultSet.getInt(2);
-
-            resultSet.close();
-            prpstmt.close();
-
-            return new NonNullPair<>(addressId, approximateRowCount);
-        } else {
-            resultSet.close();
-            prpstmt.close();
+        resultSet.close();
+        prpstmt.close();
 
-            return null;
-        }
+        return new NonNullPair<>(addressId, approximateRowCount);
     }
 
-    private JSONArray makeMinedList(Connection connection, AddressMinedListRequest parameters, HashMap<String, BigInteger> txFeesInBlock, long addressId) throws SQLException {
+    private JSONArray makeMinedList(Connection connection, AddressMinedListRequest parameters, LongHashMap<Int128> txFeesInBlock, long addressId) throws SQLException {
         final PreparedStatement prpstmt = connection.prepareStatement("(SELECT blocks.number, -1, " +
                 "(SELECT COUNT(*) FROM uncle_blocks WHERE uncle_blocks.block_id = blocks.internal_id) FROM blocks " +
                 "WHERE blocks.miner_id = ? " +
@@ -165,21 +165,21 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
         while (resultSet.next()) {
             final JSONArray jsonArrayElem = new JSONArray();
 
-            final String uncleBlockNumber = resultSet.getString(2);
+            final long uncleBlockNumber = resultSet.getLong(2);
 
-            if (uncleBlockNumber.equals("-1")) {
+            if (uncleBlockNumber == -1) {
                 // Normal block
                 jsonArrayElem.put("BLOCK"); // Type
 
-                final String blockNumber = resultSet.getString(1);
-                jsonArrayElem.put(blockNumber); // Block number
+                final long blockNumber = resultSet.getLong(1);
+                jsonArrayElem.put(Long.toString(blockNumber)); // Block number
                 jsonArrayElem.put(resultSet.getInt(3));    // Number of uncles included in an block
-                jsonArrayElem.put(getTxFeeOf(blockNumber, txFeesInBlock));
+                jsonArrayElem.put(getTxFeeOf(blockNumber, txFeesInBlock).toBigInteger());  // Still a number in json
             } else {
                 // Uncle block
                 jsonArrayElem.put("UNCLE_BLOCK");   // Type
                 jsonArrayElem.put(resultSet.getString(1)); // Mined block number
-                jsonArrayElem.put(resultSet.getString(2)); // Uncle block number
+                jsonArrayElem.put(Long.toString(uncleBlockNumber)); // Uncle block number
                 jsonArrayElem.put(resultSet.getInt(3));    // Uncle index in mined block
             }
 
@@ -188,8 +188,8 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
         return jsonArrayPage;
     }
 
-    private HashMap<String, BigInteger> getTxFees(Connection connection, AddressMinedListRequest parameters, long addressId) throws SQLException {
-        final HashMap<String, BigInteger> txFeesInBlock = new HashMap<>(SEARCH_ELEMENTS_IN_PAGE, 1);
+    private LongHashMap<Int128> getTxFees(Connection connection, AddressMinedListRequest parameters, long addressId) throws SQLException {
+        final LongHashMap<Int128> txFeesInBlock = new LongHashMap<>(SEARCH_ELEMENTS_IN_PAGE);
 
         PreparedStatement prpstmt = connection.prepareStatement(
                 "SELECT b.number, transactions.gas_used, transactions.gas_price FROM transactions " +
@@ -204,14 +204,12 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
 
         while (resultSet.next()) {
             // Calculate sum of tx fee for each block
-            final String blockNumber = resultSet.getString(1);
+            final long blockNumber = resultSet.getLong(1);
 
-            final BigInteger gasUsed = BigInteger.valueOf(resultSet.getLong(2));
-            final BigInteger gasPrice = new BigInteger(resultSet.getBytes(3));
+            final long gasUsed = resultSet.getLong(2);
+            final Int128 gasPrice = Int128.fromByteArray(resultSet.getBytes(3));
 
-            final BigInteger txFee = gasPrice.multiply(gasUsed);
-
-            addTxFeeOf(blockNumber, txFee, txFeesInBlock);
+            addTxFeeOf(blockNumber, gasUsed, gasPrice, txFeesInBlock);
         }
 
         resultSet.close();
@@ -220,19 +218,21 @@ public class AddressMinedListRequestHandler implements RequestHandler<AddressMin
         return txFeesInBlock;
     }
 
-    private void addTxFeeOf(String blockNumber, BigInteger txFee, HashMap<String, BigInteger> txFeesInBlock) {
-        final BigInteger feeSumBefore = txFeesInBlock.get(blockNumber);
+    private void addTxFeeOf(long blockNumber, long gasUsed, Int128 gasPrice, LongHashMap<Int128> txFeesInBlock) {
+        // Summed up in place, no product is made
+        Int128 feeSum = txFeesInBlock.get(blockNumber);
 
-        if (feeSumBefore == null) {
-            txFeesInBlock.put(blockNumber, txFee);
-        } else {
-            txFeesInBlock.put(blockNumber, feeSumBefore.add(txFee));
+        if (feeSum == null) {
+            feeSum = new Int128();
+            txFeesInBlock.put(blockNumber, feeSum);
         }
+
+        feeSum.addProduct(gasUsed, gasPrice);
     }
 
-    private static BigInteger getTxFeeOf(String blockNumber, HashMap<String, BigInteger> txFeesInBlock) {
-        final BigInteger bigInteger = txFeesInBlock.get(blockNumber);
-        return bigInteger == null ? BigInteger.ZERO : bigInteger;
+    private static Int128 getTxFeeOf(long blockNumber, LongHashMap<Int128> txFeesInBlock) {
+        final Int128 feeSum = txFeesInBlock.get(blockNumber);
+        return feeSum == null ? new Int128() : feeSum;
     }
 
     class AddressMinedListRequest {
@@ -8,16 +8,21 @@ import net.nekonium.explorer.util.IllegalDatabaseStateException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
 
 public class AddressRequestHandler implements RequestHandler<AddressRequestHandler.AddressRequest> {
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;   // Counts every transaction and block of the address
+    }
+
     @Override
     public AddressRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         checkContentIsArray(jsonObject);
@@ -31,7 +36,7 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
         if (typeStr.equals("hash")) {
             checkParamCount(jsonArrayContent, 2);
 
-            String hash = getString(jsonArrayContent, 1, "address_hash");
+            String hash = getAddressHash(jsonArrayContent, 1, "address_hash");
 
             return new AddressRequestHandler.AddressRequest.Hash(hash.substring(2));
         } else {
@@ -46,16 +51,21 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
             connection = ExplorerServer.getInstance().getBackend().getDatabaseManager().getConnection();
 
             if (parameters instanceof AddressRequest.Hash) {
+                final long addressId = ExplorerServer.getInstance().getBackend().getAddressIdPool().findAddressId(connection, "0x" + ((AddressRequest.Hash) parameters).hash);
+
+                if (addressId == -1) {    // Return false if there is no hit
+                    return false;
+                }
 
                 // Gather common information
                 final PreparedStatement prpstmt1 = connection.prepareStatement(
-                        "SELECT internal_id, NEKH(address), type, alias, description, " +
+                        "SELECT internal_id, address, type, alias, description, " +
                                 "(SELECT COUNT(*) FROM transactions WHERE from_id = addresses.internal_id)" +
                                 " + (SELECT COUNT(*) FROM transactions WHERE to_id = addresses.internal_id), " +
                                 "(SELECT COUNT(*) FROM blocks WHERE blocks.miner_id = addresses.internal_id)" +
                                 " + (SELECT COUNT(*) FROM uncle_blocks WHERE uncle_blocks.miner_id = addresses.internal_id) " +
-                                "FROM addresses WHERE address = UNHEX(?)");
-                prpstmt1.setString(1, ((AddressRequest.Hash) parameters).hash);
+                                "FROM addresses WHERE internal_id = ?");
+                prpstmt1.setLong(1, addressId);
 
                 final ResultSet resultSet1 = prpstmt1.executeQuery();
 
@@ -69,7 +79,7 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
 
                 // Put all info
                 jsonArray.put(internalId);
-                jsonArray.put(resultSet1.getString(2)); // Hash
+                jsonArray.put(getHex(resultSet1, 2));   // Hash
                 jsonArray.put(AddressType.valueOf(resultSet1.getString(3)));    // Address type
                 jsonArray.put(resultSet1.getString(4)); // Alias
                 jsonArray.put(resultSet1.getString(5)); // Description
@@ -81,8 +91,8 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
 
                 // Get latest and first appearance on blockchain
 
-                // Note: It is sorted by tx table's internal_id for fast search (using blocks.number will slow down query a lot)
-                // So it may returns an incorrect result because transaction's internal_id is not always in the order as block's number do
+                // Note: It is sorted by block ids for fast search (using blocks.number will slow down query a lot)
+                // Main chain block ids are in the order of numbers, but transaction ids are not, head-first sync fills the history after later blocks
                 final PreparedStatement prpstmt2 = connection.prepareStatement(
                         "(SELECT blocks.number, UNIX_TIMESTAMP(blocks.timestamp) FROM balance " +
                                 "LEFT JOIN blocks ON blocks.internal_id = balance.block_id " +
@@ -91,7 +101,7 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
                                 "(SELECT blocks.number, UNIX_TIMESTAMP(blocks.timestamp) FROM transactions " +
                                 "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
                                 "WHERE (from_id = ? OR to_id = ?) AND blocks.forked = 0 " +
-                                "ORDER BY transactions.internal_id DESC LIMIT 1)");
+                                "ORDER BY transactions.block_id DESC, transactions.`index` DESC LIMIT 1)");
                 prpstmt2.setLong(1, internalId);
                 prpstmt2.setLong(2, internalId);
                 prpstmt2.setLong(3, internalId);
@@ -120,6 +130,9 @@ public class AddressRequestHandler implements RequestHandler<AddressRequestHandl
 
                 // TODO Tx count and mining count ?
 
+                // Counts and the first appearance could be missing older parts while history is being filled
+                putSyncStatus(jsonArray);
+
                 return jsonArray;
             } else {
                 throw new InvalidRequestException("Unknown type");
@@ -9,11 +9,17 @@ import org.json.JSONObject;
 import java.sql.*;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
 
 public class BlockListRequestHandler implements RequestHandler<BlockListRequestHandler.BlockListRequest> {
 
     private static final int ELEMENT_IN_PAGE = 25;
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
+
     @Override
     public BlockListRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         checkContentIsArray(jsonObject);
@@ -100,7 +106,7 @@ public class BlockListRequestHandler implements RequestHandler<BlockListRequestH
         final JSONArray jsonArray = new JSONArray();
 
         final PreparedStatement prpstmt = connection.prepareStatement(
-                "SELECT blocks.internal_id, blocks.number, NEKH(blocks.hash), NEKH(addresses.address), " +
+                "SELECT blocks.internal_id, blocks.number, blocks.hash, addresses.address, " +
                         "(SELECT COUNT(*) FROM transactions WHERE transactions.block_id = blocks.internal_id), " +
                         "(SELECT COUNT(*) FROM uncle_blocks WHERE uncle_blocks.block_id = blocks.internal_id), " +
                         "blocks.forked, blocks.internal_id FROM blocks " +
@@ -117,8 +123,8 @@ public class BlockListRequestHandler implements RequestHandler<BlockListRequestH
 
             jsonArrayBlock.put(resultSet.getString(1));                // Internal id
             jsonArrayBlock.put(resultSet.getString(2));                // Block number
-            jsonArrayBlock.put(resultSet.getString(3));                // Hash
-            jsonArrayBlock.put(resultSet.getString(4));                // Miner address
+            jsonArrayBlock.put(getHex(resultSet, 3));                  // Hash
+            jsonArrayBlock.put(getHex(resultSet, 4));                  // Miner address
             jsonArrayBlock.put(resultSet.getInt(5));                   // Transaction count
             jsonArrayBlock.put(resultSet.getInt(6));                   // Uncle block count
             jsonArrayBlock.put(resultSet.getBoolean(7));               // Is forked
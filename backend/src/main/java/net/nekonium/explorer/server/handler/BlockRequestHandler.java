@@ -6,20 +6,25 @@ import net.nekonium.explorer.server.RequestHandler;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+import static net.nekonium.explorer.util.HexCodec.setHex;
 
 public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.BlockRequest> {
 
-    // TODO block number and id have not to be BigInteger since long can cover pretty much large number like 2^63-1, never run out of it unless network exists over 100 million yrs i guess
-    private static final String BLOCK_NONCONDITION = "SELECT internal_id, number, NEKH(hash), NEKH((SELECT hash FROM blocks AS t WHERE t.internal_id = blocks.parent)), " +
-            "UNIX_TIMESTAMP(timestamp), NEKH((SELECT address FROM addresses WHERE addresses.internal_id = blocks.miner_id)), " +
-            "difficulty, gas_limit, gas_used, NEKH(extra_data), nonce, size, forked FROM blocks WHERE ";
+    private static final String BLOCK_NONCONDITION = "SELECT internal_id, number, hash, (SELECT hash FROM blocks AS t WHERE t.internal_id = blocks.parent), " +
+            "UNIX_TIMESTAMP(timestamp), (SELECT address FROM addresses WHERE addresses.internal_id = blocks.miner_id), " +
+            "difficulty, gas_limit, gas_used, extra_data, nonce, size, forked FROM blocks WHERE ";
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
 
     @Override
     public BlockRequest parseParameters(final JSONObject jsonObject) throws InvalidRequestException {
@@ -42,14 +47,12 @@ public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.B
             return new BlockRequest.Hash(hash.substring(2));          // Block hash
         } else if (typeStr.equals("number")) {
 
-            /* Converts to BigInteger to check if sent string is actually a "number" */
-
-            final BigInteger blockNumber = getNonNegativeBigInteger(jsonArrayContent, 1, "block number");
+            final long blockNumber = getNonNegativeLong(jsonArrayContent, 1, "block number");
 
             return new BlockRequest.Number(blockNumber);   // Block number
         } else if (typeStr.equals("id")) {
 
-            final BigInteger internalId = getNonNegativeBigInteger(jsonArrayContent, 1, "internal id");
+            final long internalId = getNonNegativeLong(jsonArrayContent, 1, "internal id");
 
             return new BlockRequest.InternalId(internalId);
         } else {
@@ -72,18 +75,18 @@ public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.B
                 // Returns block on main chain
 
                 prpstmt = connection.prepareStatement(BLOCK_NONCONDITION + "number = ? AND forked = 0 LIMIT 1");
-                prpstmt.setString(1, ((BlockRequest.Number) parameters).number.toString());
+                prpstmt.setLong(1, ((BlockRequest.Number) parameters).number);
 
             } else if (parameters instanceof BlockRequest.InternalId) {
                 // Returns whichever block on main or forked
 
                 prpstmt = connection.prepareStatement(BLOCK_NONCONDITION + "internal_id = ? LIMIT 1");
-                prpstmt.setString(1, ((BlockRequest.InternalId) parameters).internalId.toString());
+                prpstmt.setLong(1, ((BlockRequest.InternalId) parameters).internalId);
 
             } else if (parameters instanceof BlockRequest.Hash) {
                 // type is "hash"
-                prpstmt = connection.prepareStatement(BLOCK_NONCONDITION + "hash = UNHEX(?) AND forked = 0 LIMIT 1");
-                prpstmt.setString(1, ((BlockRequest.Hash) parameters).hash);
+                prpstmt = connection.prepareStatement(BLOCK_NONCONDITION + "hash = ? AND forked = 0 LIMIT 1");
+                setHex(prpstmt, 1, ((BlockRequest.Hash) parameters).hash);
 
             } else {
                 throw new InvalidRequestException("Unknown parameter type");
@@ -105,14 +108,14 @@ public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.B
             writeBlock(jsonArrayContents,
                     blockInternalId,
                     resultSet.getLong(2),
-                    resultSet.getString(3),
-                    resultSet.getString(4),
+                    getHex(resultSet, 3),
+                    getHex(resultSet, 4),
                     resultSet.getLong(5),
-                    resultSet.getString(6),
+                    getHex(resultSet, 6),
                     resultSet.getString(7),
                     resultSet.getLong(8),
                     resultSet.getLong(9),
-                    resultSet.getString(10),
+                    getHex(resultSet, 10),
                     resultSet.getString(11),
                     resultSet.getInt(12),
                     resultSet.getBoolean(13)
@@ -161,14 +164,14 @@ public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.B
     private JSONArray getUncleBlocks(Connection connection, long blockInternalId) throws SQLException, InvalidRequestException {
         final JSONArray jsonArrayUncles = new JSONArray();
 
-        final PreparedStatement prpstmt = connection.prepareStatement("SELECT NEKH(hash), number FROM uncle_blocks WHERE block_id = ?");
+        final PreparedStatement prpstmt = connection.prepareStatement("SELECT hash, number FROM uncle_blocks WHERE block_id = ?");
         prpstmt.setLong(1, blockInternalId);
         final ResultSet resultSet = prpstmt.executeQuery();
 
         while (resultSet.next()) {
             final JSONArray jsonArrayUncle = new JSONArray();
 
-            jsonArrayUncle.put(resultSet.getString(1)); // Hash
+            jsonArrayUncle.put(getHex(resultSet, 1));   // Hash
             jsonArrayUncle.put(resultSet.getString(2)); // Number
 
             jsonArrayUncles.put(jsonArrayUncle);
@@ -190,17 +193,17 @@ public class BlockRequestHandler implements RequestHandler<BlockRequestHandler.B
         }
 
         static class Number extends BlockRequest {
-            private final BigInteger number;
+            private final long number;
 
-            private Number(BigInteger number) {
+            private Number(long number) {
                 this.number = number;
             }
         }
 
         static class InternalId extends BlockRequest {
-            private final BigInteger internalId;
+            private final long internalId;
 
-            private InternalId(BigInteger internalId) {
+            private InternalId(long internalId) {
                 this.internalId = internalId;
             }
         }
@@ -1,5 +1,7 @@
 package net.nekonium.explorer.server.handler;
 
+import net.nekonium.explorer.SyncStatus;
+import net.nekonium.explorer.server.ExplorerServer;
 import net.nekonium.explorer.server.InvalidRequestException;
 import net.nekonium.explorer.util.FormatValidateUtil;
 import net.nekonium.explorer.util.NonNullPair;
@@ -7,6 +9,8 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -96,6 +100,30 @@ class HandlerCommon {
         return parseNonNegativeBigInteger(jsonArray.getString(index), name);
     }
 
+    static long parseNonNegativeLong(String str, String name) throws InvalidRequestException {
+        final long value;
+
+        try {
+            value = Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("'" + name + "' has to be numeric and not too large", e);
+        }
+
+        if (value < 0) {
+            throw new InvalidRequestException("'" + name + "' cannot be negative");
+        }
+        return value;
+    }
+
+    /**
+     * For block numbers and internal ids, sent as a string like other numbers
+     */
+    static long getNonNegativeLong(JSONArray jsonArray, int index, String name) throws InvalidRequestException {
+        checkHasString(jsonArray, index, name);
+
+        return parseNonNegativeLong(jsonArray.getString(index), name);
+    }
+
     static int parseUnsignedInt(Object o, String name) throws InvalidRequestException {
         if (!(o instanceof Number)) {
             throw new InvalidRequestException("'" + name + "' has to be numeric");
@@ -138,6 +166,57 @@ class HandlerCommon {
         return new NonNullPair<>(txType, targetAddress);
     }
 
+    /**
+     * Put whether data about addresses could be missing older parts (history is still being filled) and the lowest block number from which it is not,
+     * at the end of a response
+     */
+    static void putSyncStatus(JSONArray jsonArray) {
+        final SyncStatus syncStatus = ExplorerServer.getInstance().getBackend().getSyncStatus();
+
+        synchronized (syncStatus) {
+            jsonArray.put(syncStatus.isPartial());
+            jsonArray.put(syncStatus.getLowWaterMark());
+        }
+    }
+
+    /**
+     * Put whether a projection has every main chain block, a list served from it could be missing some while it is replayed
+     */
+    static void putProjectionStatus(JSONArray jsonArray, String projectionName) {
+        jsonArray.put(ExplorerServer.getInstance().getBackend().getProjections().isLive(projectionName));
+    }
+
+    /**
+     * Put whether every transfer of a token is listed, one over 128 bits is left out and marks its token unindexed
+     *
+     * @param tokenId -1 for any token, for lists of an address
+     */
+    static void putTokenIndexed(JSONArray jsonArray, Connection connection, long tokenId) throws SQLException {
+        try (PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT 1 FROM unindexed_tokens " +
+                        "LEFT JOIN blocks ON blocks.internal_id = unindexed_tokens.block_id " +
+                        "WHERE forked = 0" + (tokenId != -1 ? " AND token_id = ?" : "") + " LIMIT 1")) {
+            if (tokenId != -1) {
+                prpstmt.setLong(1, tokenId);
+            }
+
+            try (ResultSet resultSet = prpstmt.executeQuery()) {
+                jsonArray.put(!resultSet.next());
+            }
+        }
+    }
+
+    /**
+     * @return A keyset cursor sent back by a client, -1 if it is null
+     */
+    static long getCursor(JSONArray jsonArray, int index, String name) throws InvalidRequestException {
+        if (jsonArray.isNull(index)) {
+            return -1;
+        }
+
+        return getNonNegativeLong(jsonArray, index, name);
+    }
+
     enum TransactionType {
         SEND, CONTRACT_CREATION, CONTRACT_CALL
     }
@@ -0,0 +1,172 @@
+package net.nekonium.explorer.server.handler;
+
+import net.nekonium.explorer.server.ExplorerServer;
+import net.nekonium.explorer.server.InvalidRequestException;
+import net.nekonium.explorer.server.RequestHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+
+/**
+ * Holders of a token by balance, largest first.
+ * Paged by a cursor, the balance and the address id of the last holder of the previous page.
+ * Balances of a token marked unindexed are not right, told by the last element of the response
+ */
+public class TokenHolderListRequestHandler implements RequestHandler<TokenHolderListRequestHandler.TokenHolderListRequest> {
+
+    private static final int ELEMENTS_IN_PAGE = 25;
+    private static final String PROJECTION_NAME = "token-transfers";
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
+    @Override
+    public TokenHolderListRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
+        checkContentIsArray(jsonObject);
+
+        final JSONArray jsonArrayContent = jsonObject.getJSONArray("content");
+
+        // Always 2 parameters, token address hash and cursor
+        checkParamCount(jsonArrayContent, 2);
+
+        final String hash = getAddressHash(jsonArrayContent, 0, "token_hash");
+
+        if (jsonArrayContent.isNull(1)) {
+            return new TokenHolderListRequest(hash.substring(2), null, 0);  // First page
+        }
+
+        if (!(jsonArrayContent.get(1) instanceof JSONArray)) {
+            throw new InvalidRequestException("'cursor' has to be array or null");
+        }
+
+        final JSONArray jsonArrayCursor = jsonArrayContent.getJSONArray(1);
+
+        checkParamCount(jsonArrayCursor, 2);
+
+        final BigInteger balance = getNonNegativeBigInteger(jsonArrayCursor, 0, "cursor_balance");
+        final long addressId = getCursor(jsonArrayCursor, 1, "cursor_address_id");
+
+        if (addressId == -1) {
+            throw new InvalidRequestException("'cursor_address_id' cannot be null");
+        }
+
+        return new TokenHolderListRequest(hash.substring(2), new BigDecimal(balance), addressId);
+    }
+
+    @Override
+    public Object handle(TokenHolderListRequest parameters) throws Exception {
+        Connection connection = null;
+
+        try {
+            connection = ExplorerServer.getInstance().getBackend().getDatabaseManager().getConnection();
+
+            final long tokenId = ExplorerServer.getInstance().getBackend().getAddressIdPool().findAddressId(connection, "0x" + parameters.hash);
+
+            final JSONArray jsonArrayPage = new JSONArray();
+            Object nextCursor = JSONObject.NULL;    // Null if this is the last page
+
+            if (tokenId != -1) {
+                final PreparedStatement prpstmt;
+
+                if (parameters.cursorBalance == null) {
+                    prpstmt = connection.prepareStatement(
+                            "SELECT token_balances.address_id, addresses.address, token_balances.balance FROM token_balances " +
+                                    "LEFT JOIN addresses ON addresses.internal_id = token_balances.address_id " +
+                                    "WHERE token_id = ? AND balance > 0 " +
+                                    "ORDER BY balance DESC, address_id DESC LIMIT ?");
+                    prpstmt.setLong(1, tokenId);
+                    prpstmt.setInt(2, ELEMENTS_IN_PAGE + 1);    // One more to know if there is a next page
+                } else {
+                    // Row comparison is not used on the index by MariaDB, spell it out
+                    prpstmt = connection.prepareStatement(
+                            "SELECT token_balances.address_id, addresses.address, token_balances.balance FROM token_balances " +
+                                    "LEFT JOIN addresses ON addresses.internal_id = token_balances.address_id " +
+                                    "WHERE token_id = ? AND balance > 0 AND (balance < ? OR (balance = ? AND address_id < ?)) " +
+                                    "ORDER BY balance DESC, address_id DESC LIMIT ?");
+                    prpstmt.setLong(1, tokenId);
+                    prpstmt.setBigDecimal(2, parameters.cursorBalance);
+                    prpstmt.setBigDecimal(3, parameters.cursorBalance);
+                    prpstmt.setLong(4, parameters.cursorAddressId);
+                    prpstmt.setInt(5, ELEMENTS_IN_PAGE + 1);
+                }
+
+                final ResultSet resultSet = prpstmt.executeQuery();
+
+                int count = 0;
+                long lastAddressId = 0;
+                String lastBalance = null;
+
+                while (resultSet.next()) {
+                    if (++count > ELEMENTS_IN_PAGE) {
+                        final JSONArray jsonArrayCursor = new JSONArray();
+
+                        jsonArrayCursor.put(lastBalance);
+                        jsonArrayCursor.put(Long.toString(lastAddressId));
+
+                        nextCursor = jsonArrayCursor;
+                        break;
+                    }
+
+                    final JSONArray jsonArrayElem = new JSONArray();
+
+                    lastAddressId = resultSet.getLong(1);
+                    lastBalance = resultSet.getBigDecimal(3).toBigInteger().toString();
+
+                    jsonArrayElem.put(getHex(resultSet, 2));    // Address
+                    jsonArrayElem.put(lastBalance);             // Balance
+
+                    jsonArrayPage.put(jsonArrayElem);
+                }
+
+                resultSet.close();
+                prpstmt.close();
+            }
+
+            final JSONArray jsonArrayRsp = new JSONArray();
+
+            jsonArrayRsp.put(jsonArrayPage);
+            jsonArrayRsp.put(nextCursor);
+            putProjectionStatus(jsonArrayRsp, PROJECTION_NAME);
+
+            if (tokenId != -1) {
+                putTokenIndexed(jsonArrayRsp, connection, tokenId);
+            } else {
+                jsonArrayRsp.put(true);     // Nothing of it to be missing
+            }
+
+            return jsonArrayRsp;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    ExplorerServer.getInstance().getLogger().error("An error occurred when closing an connection", e);
+                }
+            }
+        }
+    }
+
+    class TokenHolderListRequest {
+
+        private String hash;
+        private BigDecimal cursorBalance;   // Null for the first page
+        private long cursorAddressId;
+
+        private TokenHolderListRequest(String hash, BigDecimal cursorBalance, long cursorAddressId) {
+            this.hash = hash;
+            this.cursorBalance = cursorBalance;
+            this.cursorAddressId = cursorAddressId;
+        }
+    }
+}
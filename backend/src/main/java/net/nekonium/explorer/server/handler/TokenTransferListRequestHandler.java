@@ -0,0 +1,179 @@
+package net.nekonium.explorer.server.handler;
+
+import net.nekonium.explorer.server.ExplorerServer;
+import net.nekonium.explorer.server.InvalidRequestException;
+import net.nekonium.explorer.server.RequestHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+
+/**
+ * ERC20 transfers of a token or of an address, newest first.
+ * Paged by a cursor (the last internal id of the previous page) instead of a page number, so that deep pages cost the same as the first.
+ * Transfers over 128 bits are not listed, whether the token (or any token, for an address) has one is told by the last element of the response
+ */
+public class TokenTransferListRequestHandler implements RequestHandler<TokenTransferListRequestHandler.TokenTransferListRequest> {
+
+    private static final int ELEMENTS_IN_PAGE = 25;
+    private static final String PROJECTION_NAME = "token-transfers";
+
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
+    @Override
+    public TokenTransferListRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
+        checkContentIsArray(jsonObject);
+
+        final JSONArray jsonArrayContent = jsonObject.getJSONArray("content");
+
+        // Always 3 parameters, type, address hash and cursor
+        checkParamCount(jsonArrayContent, 3);
+
+        final String typeStr = getString(jsonArrayContent, 0, "type");
+        final boolean byToken;
+
+        if (typeStr.equals("token")) {
+            byToken = true;
+        } else if (typeStr.equals("address")) {
+            byToken = false;
+        } else {
+            throw new InvalidRequestException("Unknown type");
+        }
+
+        final String hash = getAddressHash(jsonArrayContent, 1, "address_hash");
+        final long cursor = getCursor(jsonArrayContent, 2, "cursor");
+
+        return new TokenTransferListRequest(byToken, hash.substring(2), cursor == -1 ? Long.MAX_VALUE : cursor);
+    }
+
+    @Override
+    public Object handle(TokenTransferListRequest parameters) throws Exception {
+        Connection connection = null;
+
+        try {
+            connection = ExplorerServer.getInstance().getBackend().getDatabaseManager().getConnection();
+
+            final long addressId = ExplorerServer.getInstance().getBackend().getAddressIdPool().findAddressId(connection, "0x" + parameters.hash);
+
+            final JSONArray jsonArrayPage = new JSONArray();
+            long nextCursor = -1;
+
+            if (addressId != -1) {
+                nextCursor = queryPage(connection, parameters, addressId, jsonArrayPage);
+            }
+
+            final JSONArray jsonArrayRsp = new JSONArray();
+
+            jsonArrayRsp.put(jsonArrayPage);
+            jsonArrayRsp.put(nextCursor != -1 ? Long.toString(nextCursor) : JSONObject.NULL);  // Null if this is the last page
+            putProjectionStatus(jsonArrayRsp, PROJECTION_NAME);
+
+            if (addressId != -1) {
+                putTokenIndexed(jsonArrayRsp, connection, parameters.byToken ? addressId : -1);
+            } else {
+                jsonArrayRsp.put(true);     // Nothing of it to be missing
+            }
+
+            return jsonArrayRsp;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    ExplorerServer.getInstance().getLogger().error("An error occurred when closing an connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The cursor for the next page, -1 if there is no next page
+     */
+    private long queryPage(Connection connection, TokenTransferListRequest parameters, long addressId, JSONArray jsonArrayPage) throws SQLException {
+        final String select = "SELECT token_transfers.* FROM token_transfers " +
+                "LEFT JOIN blocks ON blocks.internal_id = token_transfers.block_id ";
+        final String page = " AND token_transfers.internal_id < ? AND blocks.forked = 0 " +
+                "ORDER BY token_transfers.internal_id DESC LIMIT ?";
+
+        final String transfers;
+
+        if (parameters.byToken) {
+            transfers = select + "WHERE token_id = ?" + page;
+        } else {
+            // Two index scans, each ends after a page, rather than one scan with OR
+            transfers = "(" + select + "WHERE from_id = ?" + page + ") UNION (" + select + "WHERE to_id = ?" + page + ")";
+        }
+
+        final PreparedStatement prpstmt = connection.prepareStatement(
+                "SELECT t.internal_id, transactions.hash, blocks.number, UNIX_TIMESTAMP(blocks.timestamp), " +
+                        "a1.address, a2.address, a3.address, t.`value` FROM (" + transfers + ") AS t " +
+                        "LEFT JOIN blocks ON blocks.internal_id = t.block_id " +
+                        "LEFT JOIN transactions ON transactions.block_id = t.block_id AND transactions.`index` = t.transaction_index " +
+                        "LEFT JOIN addresses AS a1 ON a1.internal_id = t.token_id " +
+                        "LEFT JOIN addresses AS a2 ON a2.internal_id = t.from_id " +
+                        "LEFT JOIN addresses AS a3 ON a3.internal_id = t.to_id " +
+                        "ORDER BY t.internal_id DESC LIMIT ?");
+
+        int index = 1;
+
+        for (int i = 0; i < (parameters.byToken ? 1 : 2); i++) {
+            prpstmt.setLong(index++, addressId);
+            prpstmt.setLong(index++, parameters.cursor);
+            prpstmt.setInt(index++, ELEMENTS_IN_PAGE + 1);  // One more to know if there is a next page
+        }
+        prpstmt.setInt(index, ELEMENTS_IN_PAGE + 1);
+
+        final ResultSet resultSet = prpstmt.executeQuery();
+
+        long lastId = -1;
+        int count = 0;
+
+        while (resultSet.next()) {
+            if (++count > ELEMENTS_IN_PAGE) {
+                break;
+            }
+
+            final JSONArray jsonArrayElem = new JSONArray();
+
+            lastId = resultSet.getLong(1);
+
+            jsonArrayElem.put(getHex(resultSet, 2));    // Tx hash
+            jsonArrayElem.put(resultSet.getString(3));  // Block number
+            jsonArrayElem.put(resultSet.getLong(4));    // Timestamp
+            jsonArrayElem.put(getHex(resultSet, 5));    // Token
+            jsonArrayElem.put(getHex(resultSet, 6));    // From address
+            jsonArrayElem.put(getHex(resultSet, 7));    // To address
+            jsonArrayElem.put(new BigInteger(1, resultSet.getBytes(8)).toString());  // Value, unsigned
+
+            jsonArrayPage.put(jsonArrayElem);
+        }
+
+        resultSet.close();
+        prpstmt.close();
+
+        return count > ELEMENTS_IN_PAGE ? lastId : -1;
+    }
+
+    class TokenTransferListRequest {
+
+        private boolean byToken;    // Or by an address which sent or received
+        private String hash;
+        private long cursor;        // Internal ids below this
+
+        private TokenTransferListRequest(boolean byToken, String hash, long cursor) {
+            this.byToken = byToken;
+            this.hash = hash;
+            this.cursor = cursor;
+        }
+    }
+}
@@ -6,17 +6,19 @@ import net.nekonium.explorer.server.RequestHandler;
 import net.nekonium.explorer.server.handler.TransactionListRequestHandler.TransactionListRequest.AddressHash;
 import net.nekonium.explorer.server.handler.TransactionListRequestHandler.TransactionListRequest.BlockHash;
 import net.nekonium.explorer.server.handler.TransactionListRequestHandler.TransactionListRequest.BlockNumber;
+import net.nekonium.explorer.util.Int128;
 import net.nekonium.explorer.util.NonNullPair;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+import static net.nekonium.explorer.util.HexCodec.setHex;
 
 public class TransactionListRequestHandler implements RequestHandler<TransactionListRequestHandler.TransactionListRequest> {
 
@@ -24,6 +26,11 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
     private static final int ELEMENTS_IN_PAGE = 25;
 
     // TODO tx in blocks list should not have element limit
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.HEAVY;
+    }
+
     @Override
     public TransactionListRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         HandlerCommon.checkContentIsArray(jsonObject);
@@ -54,7 +61,7 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
             return new BlockHash(blockHash.substring(2), pageNumber);
 
         } else if (typeStr.equals("block-number")) {
-            final BigInteger blockNumber = getNonNegativeBigInteger(jsonArrayContent, 1, "block_number");
+            final long blockNumber = getNonNegativeLong(jsonArrayContent, 1, "block_number");
 
             return new BlockNumber(blockNumber, pageNumber);
 
@@ -70,9 +77,20 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
         try {
             connection = ExplorerServer.getInstance().getBackend().getDatabaseManager().getConnection();
 
+            // Address is looked up first, queries use the id directly
+            final long addressId;
+
+            if (parameters instanceof AddressHash) {
+                addressId = ExplorerServer.getInstance().getBackend().getAddressIdPool().findAddressId(connection, "0x" + ((AddressHash) parameters).hash);
+            } else {
+                addressId = -1;
+            }
+
+            final boolean unknownAddress = parameters instanceof AddressHash && addressId == -1;
+
             // Find the last page number
 
-            final int approximateRowCount = getApproximateRowCount(connection, parameters);
+            final int approximateRowCount = unknownAddress ? 0 : getApproximateRowCount(connection, parameters, addressId);
             final int limitedRowCount = approximateRowCount <= SEARCH_ELEMENTS_LIMIT ? approximateRowCount : SEARCH_ELEMENTS_LIMIT;
             final int lastPageNumber = (limitedRowCount - 1) / ELEMENTS_IN_PAGE + 1;
 
@@ -89,14 +107,14 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
 
             final JSONArray jsonArrayPage;
 
-            if (targetPageNumber > lastPageNumber) {
+            if (targetPageNumber > lastPageNumber || unknownAddress) {
                 // No result expected, return empty page
 
                 jsonArrayPage = new JSONArray();
             } else {
                 // Get data from a database
 
-                jsonArrayPage = querySearch(connection, parameters, targetPageNumber);
+                jsonArrayPage = querySearch(connection, parameters, addressId, targetPageNumber);
             }
 
             // Create new array and put page array inside of it, also last page number and return them
@@ -106,6 +124,7 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
             jsonArrayRsp.put(lastPageNumber);
             jsonArrayRsp.put(approximateRowCount);
             jsonArrayRsp.put(SEARCH_ELEMENTS_LIMIT);
+            putSyncStatus(jsonArrayRsp);
 
             return jsonArrayRsp;
         } finally {
@@ -119,22 +138,19 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
         }
     }
 
-    private int getApproximateRowCount(Connection connection, TransactionListRequest parameters) throws SQLException, InvalidRequestException {
+    private int getApproximateRowCount(Connection connection, TransactionListRequest parameters, long addressId) throws SQLException, InvalidRequestException {
         final PreparedStatement prpstmt;
 
         if (parameters instanceof AddressHash) {
-            final String addressHash = ((AddressHash) parameters).hash;
-
             prpstmt = connection.prepareStatement(
                     "SELECT COUNT(*) FROM (" +
                             "SELECT 1 FROM transactions " +
                             "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
-                            "WHERE (from_id = (SELECT addresses.internal_id FROM addresses WHERE addresses.address = UNHEX(?)) " +
-                            "OR to_id = (SELECT addresses.internal_id FROM addresses WHERE addresses.address = UNHEX(?))) AND blocks.forked = 0 " +
+                            "WHERE (from_id = ? OR to_id = ?) AND blocks.forked = 0 " +
                             "LIMIT ?) AS t");
 
-            prpstmt.setString(1, addressHash);
-            prpstmt.setString(2, addressHash);
+            prpstmt.setLong(1, addressId);
+            prpstmt.setLong(2, addressId);
             prpstmt.setInt(3, SEARCH_ELEMENTS_LIMIT + 1);
 
         } else if (parameters instanceof BlockHash) {
@@ -145,13 +161,13 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
                     "SELECT COUNT(*) FROM (" +
                             "SELECT 1 FROM transactions " +
                             "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
-                            "WHERE blocks.hash = UNHEX(?) " +
+                            "WHERE blocks.hash = ? " +
                             "LIMIT ?) AS t");
-            prpstmt.setString(1, blockHash);
+            setHex(prpstmt, 1, blockHash);
             prpstmt.setInt(2, SEARCH_ELEMENTS_LIMIT + 1);
 
         } else if (parameters instanceof BlockNumber) {
-            final BigInteger blockNumber = ((BlockNumber) parameters).blockNumber;
+            final long blockNumber = ((BlockNumber) parameters).blockNumber;
 
             prpstmt = connection.prepareStatement(
                     "SELECT COUNT(*) FROM (" +
@@ -160,7 +176,7 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
                             "WHERE blocks.number = ? AND blocks.forked = 0 " +
                             "LIMIT ?) AS t");
 
-            prpstmt.setString(1, blockNumber.toString());
+            prpstmt.setLong(1, blockNumber);
             prpstmt.setInt(2, SEARCH_ELEMENTS_LIMIT + 1);
         } else {
             throw new InvalidRequestException("Unknown parameter type");
@@ -177,24 +193,24 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
         return count;
     }
 
-    private JSONArray querySearch(Connection connection, TransactionListRequest parameters, int targetPageNumber) throws SQLException, InvalidRequestException {
+    private JSONArray querySearch(Connection connection, TransactionListRequest parameters, long addressId, int targetPageNumber) throws SQLException, InvalidRequestException {
         final JSONArray jsonArrayPage = new JSONArray();    // All txs will be converted and stored here
 
         if (parameters instanceof AddressHash) {
             PreparedStatement prpstmt = connection.prepareStatement(
-                    "SELECT NEKH(transactions.hash), blocks.number, UNIX_TIMESTAMP(blocks.timestamp), " +
-                            "NEKH(a1.address), NEKH(a2.address), NEKH(a3.address), " +
+                    "SELECT transactions.hash, blocks.number, UNIX_TIMESTAMP(blocks.timestamp), " +
+                            "a1.address, a2.address, a3.address, " +
                             "transactions.`value`, transactions.input = 0 FROM transactions " +
                             "LEFT JOIN addresses AS a1 ON a1.internal_id = transactions.from_id " +
                             "LEFT JOIN addresses AS a2 ON a2.internal_id = transactions.to_id " +
                             "LEFT JOIN addresses AS a3 ON a3.internal_id = transactions.contract_id " +
                             "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
-                            "WHERE (a1.address = UNHEX(?) OR a2.address = UNHEX(?)) AND blocks.forked = 0 " +
-                            "ORDER BY transactions.internal_id DESC " +
+                            "WHERE (transactions.from_id = ? OR transactions.to_id = ?) AND blocks.forked = 0 " +
+                            "ORDER BY transactions.block_id DESC, transactions.`index` DESC " +    // Ids of transactions filled in by head-first sync are above later ones
                             "LIMIT ? OFFSET ?");
 
-            prpstmt.setString(1, ((AddressHash) parameters).hash);
-            prpstmt.setString(2, ((AddressHash) parameters).hash);
+            prpstmt.setLong(1, addressId);
+            prpstmt.setLong(2, addressId);
             prpstmt.setInt(3, ELEMENTS_IN_PAGE);
             prpstmt.setInt(4, ELEMENTS_IN_PAGE * (targetPageNumber - 1));
 
@@ -203,19 +219,19 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
             while (resultSet.next()) {
                 final JSONArray jsonArrayElem = new JSONArray();
 
-                final String toAddress = resultSet.getString(5);
-                final String contractAddress = resultSet.getString(6);
+                final String toAddress = getHex(resultSet, 5);
+                final String contractAddress = getHex(resultSet, 6);
                 final boolean emptyInput = resultSet.getBoolean(8);
 
                 final NonNullPair<TransactionType, String> typeAndTarget = determineTxTypeAndTargetAddress(toAddress, contractAddress, emptyInput);
 
                 jsonArrayElem.put(typeAndTarget.getA().toString());         // Tx type
-                jsonArrayElem.put(resultSet.getString(1));     // Tx hash
+                jsonArrayElem.put(getHex(resultSet, 1));       // Tx hash
                 jsonArrayElem.put(resultSet.getString(2));     // Block number
                 jsonArrayElem.put(resultSet.getLong(3));     // Timestamp
-                jsonArrayElem.put(resultSet.getString(4));     // From address
+                jsonArrayElem.put(getHex(resultSet, 4));       // From address
                 jsonArrayElem.put(typeAndTarget.getB());                    // Traget
-                jsonArrayElem.put(new BigInteger(resultSet.getBytes(7)).toString());   // Value
+                jsonArrayElem.put(Int128.fromByteArray(resultSet.getBytes(7)).toString());   // Value
 
                 jsonArrayPage.put(jsonArrayElem);
             }
@@ -229,22 +245,22 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
 
             if (parameters instanceof BlockHash) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT NEKH(transactions.hash), NEKH(a1.address), NEKH(a2.address), NEKH(a3.address), " +
+                        "SELECT transactions.hash, a1.address, a2.address, a3.address, " +
                                 "transactions.`value`, transactions.input = 0 FROM transactions " +
                                 "LEFT JOIN addresses AS a1 ON a1.internal_id = transactions.from_id " +
                                 "LEFT JOIN addresses AS a2 ON a2.internal_id = transactions.to_id " +
                                 "LEFT JOIN addresses AS a3 ON a3.internal_id = transactions.contract_id " +
                                 "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
-                                "WHERE blocks.hash = UNHEX(?) AND blocks.forked = 0 " +
+                                "WHERE blocks.hash = ? AND blocks.forked = 0 " +
                                 "ORDER BY transactions.internal_id DESC " +
                                 "LIMIT ? OFFSET ?");
-                prpstmt.setString(1, ((BlockHash) parameters).hash);
+                setHex(prpstmt, 1, ((BlockHash) parameters).hash);
                 prpstmt.setInt(2, ELEMENTS_IN_PAGE);
                 prpstmt.setInt(3, ELEMENTS_IN_PAGE * (targetPageNumber - 1));
 
             } else if (parameters instanceof BlockNumber) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT NEKH(transactions.hash), NEKH(a1.address), NEKH(a2.address), NEKH(a3.address), " +
+                        "SELECT transactions.hash, a1.address, a2.address, a3.address, " +
                                 "transactions.`value`, transactions.input = 0 FROM transactions " +
                                 "LEFT JOIN addresses AS a1 ON a1.internal_id = transactions.from_id " +
                                 "LEFT JOIN addresses AS a2 ON a2.internal_id = transactions.to_id " +
@@ -254,7 +270,7 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
                                 "ORDER BY transactions.`index` ASC " +
                                 "LIMIT ? OFFSET ?");
 
-                prpstmt.setString(1, ((BlockNumber) parameters).blockNumber.toString());
+                prpstmt.setLong(1, ((BlockNumber) parameters).blockNumber);
                 prpstmt.setInt(2, ELEMENTS_IN_PAGE);
                 prpstmt.setInt(3, ELEMENTS_IN_PAGE * (targetPageNumber - 1));
             } else {
@@ -269,18 +285,18 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
             while (resultSet.next()) {
                 final JSONArray jsonArrayElem = new JSONArray();
 
-                final String toAddress = resultSet.getString(3);
-                final String contractAddress = resultSet.getString(4);
+                final String toAddress = getHex(resultSet, 3);
+                final String contractAddress = getHex(resultSet, 4);
                 final boolean emptyInput = resultSet.getBoolean(6);
 
                 final NonNullPair<TransactionType, String> typeAndTarget =
                         determineTxTypeAndTargetAddress(toAddress, contractAddress, emptyInput);
 
                 jsonArrayElem.put(typeAndTarget.getA().toString());     // Tx type
-                jsonArrayElem.put(resultSet.getString(1)); // Transaction hash
-                jsonArrayElem.put(resultSet.getString(2)); // From hash
+                jsonArrayElem.put(getHex(resultSet, 1));   // Transaction hash
+                jsonArrayElem.put(getHex(resultSet, 2));   // From hash
                 jsonArrayElem.put(typeAndTarget.getB());                // Target hash
-                jsonArrayElem.put(new BigInteger(resultSet.getBytes(5)).toString());    // Value
+                jsonArrayElem.put(Int128.fromByteArray(resultSet.getBytes(5)).toString());    // Value
 
                 jsonArrayPage.put(jsonArrayElem);
             }
@@ -302,9 +318,9 @@ public class TransactionListRequestHandler implements RequestHandler<Transaction
 
         static final class BlockNumber extends TransactionListRequest {
 
-            private final BigInteger blockNumber;
+            private final long blockNumber;
 
-            private BlockNumber(BigInteger blockNumber, int pageNumber) {
+            private BlockNumber(long blockNumber, int pageNumber) {
                 super(pageNumber);
                 this.blockNumber = blockNumber;
             }
@@ -5,24 +5,26 @@ import net.nekonium.explorer.server.InvalidRequestException;
 import net.nekonium.explorer.server.RequestHandler;
 import net.nekonium.explorer.server.handler.TransactionRequestHandler.TransactionRequest.Hash;
 import net.nekonium.explorer.util.FormatValidateUtil;
+import net.nekonium.explorer.util.Int128;
 import net.nekonium.explorer.util.NonNullPair;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+import static net.nekonium.explorer.util.HexCodec.setHex;
 
 public class TransactionRequestHandler implements RequestHandler<TransactionRequestHandler.TransactionRequest> {
 
     private static final String TRANSACTION_NONCONDITION =
-            "SELECT transactions.internal_id, transactions.block_id, blocks.number, transactions.`index`, NEKH(transactions.hash), " +
-            "NEKH(A1.address), NEKH(A2.address), NEKH(A3.address), transactions.`value`, transactions.gas_provided, " +
-            "transactions.gas_used, transactions.gas_price, transactions.nonce, NEKH(transactions.input), transactions.input = 0, blocks.forked " +
+            "SELECT transactions.internal_id, transactions.block_id, blocks.number, transactions.`index`, transactions.hash, " +
+            "A1.address, A2.address, A3.address, transactions.`value`, transactions.gas_provided, " +
+            "transactions.gas_used, transactions.gas_price, transactions.nonce, transactions.input, transactions.input = 0, blocks.forked " +
             "FROM transactions " +
             "LEFT JOIN blocks ON blocks.internal_id = transactions.block_id " +
             "LEFT JOIN addresses AS A1 ON A1.internal_id = transactions.from_id " +
@@ -30,6 +32,11 @@ public class TransactionRequestHandler implements RequestHandler<TransactionRequ
             "LEFT JOIN addresses AS A3 ON A3.internal_id = transactions.contract_id " +
             "WHERE ";
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
+
     @Override
     public TransactionRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         checkContentIsArray(jsonObject);
@@ -68,8 +75,8 @@ public class TransactionRequestHandler implements RequestHandler<TransactionRequ
             final PreparedStatement prpstmt;
 
             if (parameters instanceof Hash) {
-                prpstmt = connection.prepareStatement(TRANSACTION_NONCONDITION + "transactions.hash = UNHEX(?) AND blocks.forked = 0 LIMIT 1");
-                prpstmt.setString(1, ((Hash) parameters).hash);
+                prpstmt = connection.prepareStatement(TRANSACTION_NONCONDITION + "transactions.hash = ? AND blocks.forked = 0 LIMIT 1");
+                setHex(prpstmt, 1, ((Hash) parameters).hash);
 
             } else {
                 throw new InvalidRequestException("Key type unknown");
@@ -84,16 +91,16 @@ public class TransactionRequestHandler implements RequestHandler<TransactionRequ
                         resultSet.getLong(2),
                         resultSet.getLong(3),
                         resultSet.getInt(4),
-                        resultSet.getString(5),
-                        resultSet.getString(6),
-                        resultSet.getString(7),
-                        resultSet.getString(8),
-                        new BigInteger(resultSet.getBytes(9)),
+                        getHex(resultSet, 5),
+                        getHex(resultSet, 6),
+                        getHex(resultSet, 7),
+                        getHex(resultSet, 8),
+                        Int128.fromByteArray(resultSet.getBytes(9)),
                         resultSet.getLong(10),
                         resultSet.getLong(11),
-                        new BigInteger(resultSet.getBytes(12)),
+                        Int128.fromByteArray(resultSet.getBytes(12)),
                         resultSet.getString(13),
-                        resultSet.getString(14),
+                        getHex(resultSet, 14),
                         resultSet.getBoolean(15)
                 );
 
@@ -114,8 +121,8 @@ public class TransactionRequestHandler implements RequestHandler<TransactionRequ
 
     private void writeTx(final JSONArray jsonArray,
                          final long internalId, final long blockId, final long blockNumber, final int index, final String hash,
-                         final String from, final String to, final String contract, final BigInteger value,
-                         final long gasProvided, final long gasUsed, final BigInteger gasPrice, final String nonce, final String input, boolean emptyInput) throws InvalidRequestException {
+                         final String from, final String to, final String contract, final Int128 value,
+                         final long gasProvided, final long gasUsed, final Int128 gasPrice, final String nonce, final String input, boolean emptyInput) throws InvalidRequestException {
         // This method is separated because I can assure every parameters are the type it is supposed to be
 
         final NonNullPair<TransactionType, String> pair = HandlerCommon.determineTxTypeAndTargetAddress(to, contract, emptyInput);
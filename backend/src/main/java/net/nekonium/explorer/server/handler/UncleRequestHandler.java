@@ -8,18 +8,24 @@ import net.nekonium.explorer.util.FormatValidateUtil;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import static net.nekonium.explorer.server.handler.HandlerCommon.*;
+import static net.nekonium.explorer.util.HexCodec.getHex;
+import static net.nekonium.explorer.util.HexCodec.setHex;
 
 public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.UncleRequest> {
 
     // TODO Return forked or not
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
+
     @Override
     public UncleRequest parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         checkContentIsArray(jsonObject);
@@ -44,7 +50,7 @@ public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.U
         } else if (typeStr.equals("number-index")) {
             checkParamCount(jsonArrayContent, 3);
 
-            final BigInteger number = getNonNegativeBigInteger(jsonArrayContent, 1, "number");
+            final long number = getNonNegativeLong(jsonArrayContent, 1, "number");
             final int index = getUnsignedInt(jsonArrayContent, 2, "index");
 
             return new UncleRequest.NumberAndIndex(number, index);
@@ -52,7 +58,7 @@ public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.U
         } else if (typeStr.equals("id-index")) {
             checkParamCount(jsonArrayContent, 3);
 
-            final BigInteger blockId = getNonNegativeBigInteger(jsonArrayContent, 1, "blockId");
+            final long blockId = getNonNegativeLong(jsonArrayContent, 1, "blockId");
             final int index = getUnsignedInt(jsonArrayContent, 2, "index");
 
             return new UncleRequest.IdAndIndex(blockId, index);
@@ -83,50 +89,50 @@ public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.U
 
             if (parameters instanceof UncleRequest.Hash) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, NEKH(uncle_blocks.hash), " +
-                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), NEKH(addresses.address), " +
-                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, NEKH(uncle_blocks.extra_data), " +
+                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, uncle_blocks.hash, " +
+                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), addresses.address, " +
+                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, uncle_blocks.extra_data, " +
                                 "uncle_blocks.nonce, uncle_blocks.size FROM uncle_blocks " +
                                 "LEFT JOIN addresses ON uncle_blocks.miner_id = addresses.internal_id " +
                                 "LEFT JOIN blocks ON blocks.internal_id = uncle_blocks.block_id " +
-                                "WHERE uncle_blocks.hash = UNHEX(?) AND forked = 0 " +
+                                "WHERE uncle_blocks.hash = ? AND forked = 0 " +
                                 "LIMIT 1");
-                prpstmt.setString(1, ((UncleRequest.Hash) parameters).hash);
+                setHex(prpstmt, 1, ((UncleRequest.Hash) parameters).hash);
 
             } else if (parameters instanceof UncleRequest.IdAndIndex) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT uncle_blocks.internal_id, number, NEKH(hash), UNIX_TIMESTAMP(timestamp), NEKH(address), " +
-                                "difficulty, gas_limit, gas_used, NEKH(extra_data), nonce, size FROM uncle_blocks " +
+                        "SELECT uncle_blocks.internal_id, number, hash, UNIX_TIMESTAMP(timestamp), address, " +
+                                "difficulty, gas_limit, gas_used, extra_data, nonce, size FROM uncle_blocks " +
                                 "LEFT JOIN addresses ON uncle_blocks.miner_id = addresses.internal_id " +
                                 "WHERE uncle_blocks.internal_id = ? AND uncle_blocks.`index` = ? " +
                                 "LIMIT 1");
-                prpstmt.setString(1, ((UncleRequest.IdAndIndex) parameters).id.toString());
+                prpstmt.setLong(1, ((UncleRequest.IdAndIndex) parameters).id);
                 prpstmt.setInt(2, ((UncleRequest.IdAndIndex) parameters).index);
 
             } else if (parameters instanceof UncleRequest.NumberAndIndex) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, NEKH(uncle_blocks.hash), " +
-                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), NEKH(addresses.address), " +
-                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, NEKH(uncle_blocks.extra_data), " +
+                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, uncle_blocks.hash, " +
+                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), addresses.address, " +
+                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, uncle_blocks.extra_data, " +
                                 "uncle_blocks.nonce, uncle_blocks.size FROM uncle_blocks " +
                                 "LEFT JOIN addresses ON uncle_blocks.miner_id = addresses.internal_id " +
                                 "LEFT JOIN blocks ON blocks.internal_id = uncle_blocks.block_id " +
                                 "WHERE blocks.number = ? AND uncle_blocks.`index` = ? AND forked = 0 " +
                                 "LIMIT 1");
-                prpstmt.setString(1, ((UncleRequest.NumberAndIndex) parameters).number.toString());
+                prpstmt.setLong(1, ((UncleRequest.NumberAndIndex) parameters).number);
                 prpstmt.setInt(2, ((UncleRequest.NumberAndIndex) parameters).index);
 
             } else if (parameters instanceof UncleRequest.HashAndIndex) {
                 prpstmt = connection.prepareStatement(
-                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, NEKH(uncle_blocks.hash), " +
-                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), NEKH(addresses.address), " +
-                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, NEKH(uncle_blocks.extra_data), " +
+                        "SELECT uncle_blocks.internal_id, uncle_blocks.number, uncle_blocks.hash, " +
+                                "UNIX_TIMESTAMP(uncle_blocks.timestamp), addresses.address, " +
+                                "uncle_blocks.difficulty, uncle_blocks.gas_limit, uncle_blocks.gas_used, uncle_blocks.extra_data, " +
                                 "uncle_blocks.nonce, uncle_blocks.size FROM uncle_blocks " +
                                 "LEFT JOIN addresses ON uncle_blocks.miner_id = addresses.internal_id " +
                                 "LEFT JOIN blocks ON blocks.internal_id = uncle_blocks.block_id " +
-                                "WHERE blocks.hash = UNHEX(?) AND uncle_blocks.`index` = ? AND forked = 0 " +
+                                "WHERE blocks.hash = ? AND uncle_blocks.`index` = ? AND forked = 0 " +
                                 "LIMIT 1");
-                prpstmt.setString(1, ((UncleRequest.HashAndIndex) parameters).hash);
+                setHex(prpstmt, 1, ((UncleRequest.HashAndIndex) parameters).hash);
                 prpstmt.setInt(2, ((UncleRequest.HashAndIndex) parameters).index);
 
             } else {
@@ -163,13 +169,13 @@ public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.U
         int n = 0;
         jsonArray.put(resultSet.getString(++n));
         jsonArray.put(resultSet.getString(++n));
-        jsonArray.put(resultSet.getString(++n));
+        jsonArray.put(getHex(resultSet, ++n));
         jsonArray.put(resultSet.getLong(++n));
-        jsonArray.put(resultSet.getString(++n));
+        jsonArray.put(getHex(resultSet, ++n));
         jsonArray.put(resultSet.getString(++n));
         jsonArray.put(resultSet.getLong(++n));
         jsonArray.put(resultSet.getLong(++n));
-        jsonArray.put(resultSet.getString(++n));
+        jsonArray.put(getHex(resultSet, ++n));
         jsonArray.put(resultSet.getString(++n));
         jsonArray.put(resultSet.getInt(++n));
 
@@ -186,20 +192,20 @@ public class UncleRequestHandler implements RequestHandler<UncleRequestHandler.U
         }
 
         static class NumberAndIndex extends UncleRequest {
-            private final BigInteger number;
+            private final long number;
             private final int index;
 
-            private NumberAndIndex(BigInteger number, int index) {
+            private NumberAndIndex(long number, int index) {
                 this.number = number;
                 this.index = index;
             }
         }
 
         static class IdAndIndex extends UncleRequest {
-            private final BigInteger id;
+            private final long id;
             private final int index;
 
-            public IdAndIndex(BigInteger id, int index) {
+            public IdAndIndex(long id, int index) {
                 this.id = id;
                 this.index = index;
             }
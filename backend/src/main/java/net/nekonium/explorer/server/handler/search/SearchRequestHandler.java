@@ -4,10 +4,10 @@ import net.nekonium.explorer.AddressType;
 import net.nekonium.explorer.server.ExplorerServer;
 import net.nekonium.explorer.server.InvalidRequestException;
 import net.nekonium.explorer.server.RequestHandler;
+import net.nekonium.explorer.util.FormatValidateUtil;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,8 +15,16 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Comparator;
 
+import static net.nekonium.explorer.util.HexCodec.getHex;
+import static net.nekonium.explorer.util.HexCodec.setHex;
+
 public class SearchRequestHandler implements RequestHandler<String> {
 
+    @Override
+    public CostClass getCostClass() {
+        return CostClass.LIGHT;
+    }
+
     @Override
     public String parseParameters(JSONObject jsonObject) throws InvalidRequestException {
         if (jsonObject.get("content") instanceof String) {
@@ -30,7 +38,6 @@ public class SearchRequestHandler implements RequestHandler<String> {
     public JSONArray handle(String searchWord) throws Exception {
         // TODO this thing is in WIP, now it's just checks if entered search word exists on the database
         // TODO maybe search a name tag of an address, a transaction and a contract, or a token name
-        // TODO needs simple address or transaction format check, for saving database resources
         final ArrayList<SearchResultElement> results = new ArrayList<>();
 
         Connection connection = null;
@@ -39,7 +46,7 @@ public class SearchRequestHandler implements RequestHandler<String> {
             connection = ExplorerServer.getInstance().getBackend().getDatabaseManager().getConnection();
 
             try {
-                final BigInteger number = new BigInteger(searchWord);
+                final long number = Long.parseLong(searchWord);
 
                 // This continues if word was complete numeric (number)
                 // Comprehend word as block number
@@ -49,7 +56,8 @@ public class SearchRequestHandler implements RequestHandler<String> {
             }
 
 
-            if (searchWord.length() == 64 + 2) {
+            // Hashes are checked before binding them, words which only look like them find nothing rather than failing
+            if (FormatValidateUtil.isValidBlockHash(searchWord)) {
                 // Search for block
 
                 addIfNotNull(results, searchAsBlockHash(connection, searchWord.substring(2)));
@@ -57,7 +65,7 @@ public class SearchRequestHandler implements RequestHandler<String> {
                 // Might be a transaction
 
                 addIfNotNull(results, searchAsTxHash(connection, searchWord.substring(2)));
-            } else if (searchWord.length() == 40 + 2) {
+            } else if (FormatValidateUtil.isValidAddressHash(searchWord)) {
                 // Might be an address
 
                 // Search for normal address first
@@ -90,8 +98,8 @@ public class SearchRequestHandler implements RequestHandler<String> {
     }
 
     private SearchResultElementAddressHash searchAsAddressHash(Connection connection, String hexWithoutPrefix) throws SQLException {
-        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT type, NEKH(address), alias FROM addresses WHERE address = UNHEX(?) LIMIT 1")) {
-            prpstmt.setString(1, hexWithoutPrefix);
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT type, address, alias FROM addresses WHERE address = ? LIMIT 1")) {
+            setHex(prpstmt, 1, hexWithoutPrefix);
 
             final ResultSet resultSet = prpstmt.executeQuery();
 
@@ -99,7 +107,7 @@ public class SearchRequestHandler implements RequestHandler<String> {
                 // Found it
 
                 final AddressType addressType = AddressType.valueOf(resultSet.getString(1));// Address type
-                final String addressHash = resultSet.getString(2);// Hash
+                final String addressHash = getHex(resultSet, 2);// Hash
                 final String alias = resultSet.getString(3);// Alias
 
                 return new SearchResultElementAddressHash(addressType, addressHash, alias);
@@ -109,14 +117,14 @@ public class SearchRequestHandler implements RequestHandler<String> {
         }
     }
 
-    private SearchResultElementBlockNumber searchAsBlockNumber(Connection connection, BigInteger number) throws SQLException {
+    private SearchResultElementBlockNumber searchAsBlockNumber(Connection connection, long number) throws SQLException {
         try (PreparedStatement prpstmt = connection.prepareStatement("SELECT number FROM blocks WHERE number = ?")) {
-            prpstmt.setString(1, number.toString());
+            prpstmt.setLong(1, number);
 
             final ResultSet resultSet = prpstmt.executeQuery();
 
             if (resultSet.next()) {
-                final BigInteger blockNumber = new BigInteger(resultSet.getString(1));
+                final long blockNumber = resultSet.getLong(1);
 
                 return new SearchResultElementBlockNumber(blockNumber);
             }
@@ -126,13 +134,13 @@ public class SearchRequestHandler implements RequestHandler<String> {
     }
 
     private SearchResultElementTxHash searchAsTxHash(Connection connection, String hexWithoutPrefix) throws SQLException {
-        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT NEKH(hash) FROM transactions WHERE hash = UNHEX(?) LIMIT 1")) {
-            prpstmt.setString(1, hexWithoutPrefix);
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT hash FROM transactions WHERE hash = ? LIMIT 1")) {
+            setHex(prpstmt, 1, hexWithoutPrefix);
 
             final ResultSet resultSet = prpstmt.executeQuery();
 
             if (resultSet.next()) {
-                final String txHash = resultSet.getString(1);
+                final String txHash = getHex(resultSet, 1);
 
                 return new SearchResultElementTxHash(txHash);
             }
@@ -142,13 +150,13 @@ public class SearchRequestHandler implements RequestHandler<String> {
     }
 
     private SearchResultElementBlockHash searchAsBlockHash(Connection connection, String hexWithoutPrefix) throws SQLException {
-        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT NEKH(hash) FROM blocks WHERE hash = UNHEX(?) LIMIT 1")) {
-            prpstmt.setString(1, hexWithoutPrefix);
+        try (PreparedStatement prpstmt = connection.prepareStatement("SELECT hash FROM blocks WHERE hash = ? LIMIT 1")) {
+            setHex(prpstmt, 1, hexWithoutPrefix);
 
             final ResultSet resultSet = prpstmt.executeQuery();
 
             if (resultSet.next()) {
-                final String blockHash = resultSet.getString(1);
+                final String blockHash = getHex(resultSet, 1);
 
                 return new SearchResultElementBlockHash(blockHash);
             }
@@ -2,13 +2,11 @@ package net.nekonium.explorer.server.handler.search;
 
 import org.json.JSONArray;
 
-import java.math.BigInteger;
-
 class SearchResultElementBlockNumber implements SearchResultElement {
 
-    private final BigInteger blockNumber;
+    private final long blockNumber;
 
-    SearchResultElementBlockNumber(BigInteger blockNumber) {
+    SearchResultElementBlockNumber(long blockNumber) {
         this.blockNumber = blockNumber;
     }
 
@@ -17,7 +15,7 @@ class SearchResultElementBlockNumber implements SearchResultElement {
         final JSONArray jsonArray = new JSONArray();
 
         jsonArray.put(ResultElementType.BLOCK_NUMBER.toString());
-        jsonArray.put(blockNumber.toString());
+        jsonArray.put(Long.toString(blockNumber));
 
         return jsonArray;
     }
@@ -0,0 +1,135 @@
+package net.nekonium.explorer.util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hex string to bytes and back, without going through BigInteger.<br>
+ * Hashes and addresses are bound and read as raw bytes with these, the database never converts them to hex
+ */
+public class HexCodec {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private HexCodec() {
+    }
+
+    /**
+     * @return Lowercase hex without 0x
+     */
+    public static String encode(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+
+        encode(bytes, chars, 0);
+
+        return new String(chars);
+    }
+
+    /**
+     * @return Lowercase hex with 0x
+     */
+    public static String encodePrefixed(byte[] bytes) {
+        final char[] chars = new char[2 + bytes.length * 2];
+
+        chars[0] = '0';
+        chars[1] = 'x';
+        encode(bytes, chars, 2);
+
+        return new String(chars);
+    }
+
+    private static void encode(byte[] bytes, char[] chars, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            chars[offset + i * 2] = DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[offset + i * 2 + 1] = DIGITS[bytes[i] & 0xF];
+        }
+    }
+
+    /**
+     * @param hex With or without 0x, upper or lower case
+     * @throws IllegalArgumentException If it is not hex or the length is odd
+     */
+    public static byte[] decode(String hex) {
+        int offset = 0;
+        int length = hex.length();
+
+        if (length >= 2 && hex.charAt(0) == '0' && (hex.charAt(1) == 'x' || hex.charAt(1) == 'X')) {
+            offset = 2;
+            length -= 2;
+        }
+
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Hex of odd length");
+        }
+
+        final byte[] bytes = new byte[length / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hex.charAt(offset + i * 2), 16);
+            final int low = Character.digit(hex.charAt(offset + i * 2 + 1), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not hex [" + hex + "]");
+            }
+
+            bytes[i] = (byte) (high << 4 | low);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Decode a part of a char array, so that a JSON parser's buffer can be decoded without making a String
+     *
+     * @param chars
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static byte[] decode(char[] chars, int offset, int length) {
+        if (length >= 2 && chars[offset] == '0' && (chars[offset + 1] == 'x' || chars[offset + 1] == 'X')) {
+            offset += 2;
+            length -= 2;
+        }
+
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Hex of odd length");
+        }
+
+        final byte[] bytes = new byte[length / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(chars[offset + i * 2], 16);
+            final int low = Character.digit(chars[offset + i * 2 + 1], 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not hex [" + new String(chars, offset, length) + "]");
+            }
+
+            bytes[i] = (byte) (high << 4 | low);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Bind hex to a binary column parameter
+     *
+     * @param hex With or without 0x
+     */
+    public static void setHex(PreparedStatement prpstmt, int index, String hex) throws SQLException {
+        prpstmt.setBytes(index, decode(hex));
+    }
+
+    /**
+     * Read a binary column as hex, the way the explorer shows hashes and addresses
+     *
+     * @return Lowercase hex with 0x, or {@code null} if the column is null
+     */
+    public static String getHex(ResultSet resultSet, int index) throws SQLException {
+        final byte[] bytes = resultSet.getBytes(index);
+
+        return bytes != null ? encodePrefixed(bytes) : null;
+    }
+}
@@ -0,0 +1,321 @@
+package net.nekonium.explorer.util;
+
+import java.math.BigInteger;
+
+/**
+ * Signed 128-bit integer for wei amounts, values, balances and fees, in two longs instead of a BigInteger.<br>
+ * Mutable, {@code add}, {@code subtract} and friends change this one and return it, so that a running sum doesn't allocate anything.
+ * Copy it before handing it to somebody who keeps it. Overflow throws {@link ArithmeticException}, like {@link Math#addExact(long, long)}.
+ * {@link #toByteArray()} is the same as {@link BigInteger#toByteArray()}, so what is in VARBINARY(16) columns is read and written by both
+ */
+public final class Int128 implements Comparable<Int128> {
+
+    private static final long BILLION = 1000000000L;
+
+    private long high;
+    private long low;
+
+    /**
+     * Zero
+     */
+    public Int128() {
+    }
+
+    public Int128(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static Int128 valueOf(long value) {
+        return new Int128(value >> 63, value);
+    }
+
+    /**
+     * Two longs holding an unsigned 128-bit value, like quantities decoded from the node
+     *
+     * @throws ArithmeticException If it is 2^127 or larger
+     */
+    public static Int128 ofUnsigned(long high, long low) {
+        if (high < 0) {
+            throw new ArithmeticException("Int128 overflow");
+        }
+
+        return new Int128(high, low);
+    }
+
+    /**
+     * @throws ArithmeticException If it does not fit in 128 bits
+     */
+    public static Int128 valueOf(BigInteger value) {
+        if (value.bitLength() > 127) {
+            throw new ArithmeticException("Int128 overflow");
+        }
+
+        return fromByteArray(value.toByteArray());
+    }
+
+    /**
+     * @param bytes Big endian two's complement, 1 to 16 bytes, as written by {@link #toByteArray()} or {@link BigInteger#toByteArray()}
+     * @throws NumberFormatException If the length is out of range
+     */
+    public static Int128 fromByteArray(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > 16) {
+            throw new NumberFormatException("Int128 needs 1 to 16 bytes, got " + bytes.length);
+        }
+
+        long high = bytes[0] < 0 ? -1 : 0;  // Sign extension
+        long low = high;
+
+        for (byte b : bytes) {
+            high = high << 8 | low >>> 56;
+            low = low << 8 | (b & 0xFF);
+        }
+
+        return new Int128(high, low);
+    }
+
+    public Int128 copy() {
+        return new Int128(high, low);
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public Int128 add(Int128 value) {
+        return add(value.high, value.low);
+    }
+
+    public Int128 add(long value) {
+        return add(value >> 63, value);
+    }
+
+    public Int128 add(long valueHigh, long valueLow) {
+        final long resultLow = low + valueLow;
+        final long resultHigh = high + valueHigh + (Long.compareUnsigned(resultLow, low) < 0 ? 1 : 0);
+
+        if (((high ^ resultHigh) & (valueHigh ^ resultHigh)) < 0) {
+            throw new ArithmeticException("Int128 overflow");
+        }
+
+        this.high = resultHigh;
+        this.low = resultLow;
+
+        return this;
+    }
+
+    public Int128 subtract(Int128 value) {
+        // -MIN_VALUE is not representable but subtracting it is never a sane amount either
+        return add(~value.high + (value.low == 0 ? 1 : 0), -value.low);
+    }
+
+    /**
+     * Add {@code multiplier * value}, like gas used times gas price, without making the product
+     *
+     * @param multiplier Not negative
+     */
+    public Int128 addProduct(long multiplier, Int128 value) {
+        if (value.high < 0) {
+            return subtractProduct(multiplier, value.copy().negate());
+        }
+
+        return add(productHigh(multiplier, value), value.low * multiplier);
+    }
+
+    /**
+     * Subtract {@code multiplier * value}, like a transaction fee from the sender
+     *
+     * @param multiplier Not negative
+     */
+    public Int128 subtractProduct(long multiplier, Int128 value) {
+        if (value.high < 0) {
+            return addProduct(multiplier, value.copy().negate());
+        }
+
+        // Adds the negated product, negating this instead would overflow on a result of exactly the minimum
+        final long productHigh = productHigh(multiplier, value);
+        final long productLow = value.low * multiplier;
+
+        return add(~productHigh + (productLow == 0 ? 1 : 0), -productLow);
+    }
+
+    public Int128 negate() {
+        if (high == Long.MIN_VALUE && low == 0) {
+            throw new ArithmeticException("Int128 overflow");
+        }
+
+        this.low = -low;
+        this.high = ~high + (low == 0 ? 1 : 0);
+
+        return this;
+    }
+
+    /**
+     * @return A new one, the absolute value of this
+     */
+    public Int128 abs() {
+        return high < 0 ? copy().negate() : copy();
+    }
+
+    public int signum() {
+        if (high < 0) {
+            return -1;
+        }
+
+        return high == 0 && low == 0 ? 0 : 1;
+    }
+
+    /**
+     * @return Big endian two's complement in as few bytes as possible, same as {@link BigInteger#toByteArray()}
+     */
+    public byte[] toByteArray() {
+        final byte[] full = new byte[16];
+
+        for (int i = 0; i < 8; i++) {
+            full[i] = (byte) (high >>> (56 - i * 8));
+            full[8 + i] = (byte) (low >>> (56 - i * 8));
+        }
+
+        // Drop leading bytes which are only sign extension
+        int start = 0;
+
+        while (start < 15 && ((full[start] == 0 && full[start + 1] >= 0) || (full[start] == -1 && full[start + 1] < 0))) {
+            start++;
+        }
+
+        if (start == 0) {
+            return full;
+        }
+
+        final byte[] bytes = new byte[16 - start];
+        System.arraycopy(full, start, bytes, 0, bytes.length);
+
+        return bytes;
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(toByteArray());
+    }
+
+    /**
+     * @return Decimal
+     */
+    @Override
+    public String toString() {
+        if (high == 0 && low >= 0) {
+            return Long.toString(low);  // Almost always
+        }
+
+        final boolean negative = high < 0;
+        final Int128 magnitude = negative ? new Int128(~high + (low == 0 ? 1 : 0), -low) : this;   // 2^127 is fine as unsigned
+
+        // Four 32-bit limbs, most significant first, divided by a billion until nothing is left
+        final long[] limbs = {magnitude.high >>> 32, magnitude.high & 0xFFFFFFFFL, magnitude.low >>> 32, magnitude.low & 0xFFFFFFFFL};
+        final long[] chunks = new long[5];  // 9 digits each, least significant first, 2^128 has 39 digits
+        int chunkCount = 0;
+
+        boolean zero;
+
+        do {
+            long remainder = 0;
+            zero = true;
+
+            for (int i = 0; i < limbs.length; i++) {
+                final long current = remainder << 32 | limbs[i];
+
+                limbs[i] = current / BILLION;
+                remainder = current % BILLION;
+
+                if (limbs[i] != 0) {
+                    zero = false;
+                }
+            }
+
+            chunks[chunkCount++] = remainder;
+        } while (!zero);
+
+        final StringBuilder builder = new StringBuilder(41);
+
+        if (negative) {
+            builder.append('-');
+        }
+
+        builder.append(chunks[chunkCount - 1]);
+
+        for (int i = chunkCount - 2; i >= 0; i--) {
+            final String chunk = Long.toString(chunks[i]);
+
+            for (int j = chunk.length(); j < 9; j++) {
+                builder.append('0');
+            }
+
+            builder.append(chunk);
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public int compareTo(Int128 o) {
+        final int compared = Long.compare(high, o.high);
+
+        return compared != 0 ? compared : Long.compareUnsigned(low, o.low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Int128)) {
+            return false;
+        }
+
+        final Int128 int128 = (Int128) o;
+
+        return high == int128.high && low == int128.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(high) + Long.hashCode(low);
+    }
+
+    /**
+     * @param value Not negative
+     * @return The upper 64 bits of {@code multiplier * value}
+     * @throws ArithmeticException If the product is 2^127 or larger
+     */
+    private static long productHigh(long multiplier, Int128 value) {
+        final long productHigh = Math.addExact(Math.multiplyExact(value.high, multiplier), multiplyHighUnsigned(value.low, multiplier));
+
+        if (productHigh < 0) {
+            throw new ArithmeticException("Int128 overflow");
+        }
+
+        return productHigh;
+    }
+
+    /**
+     * @return The upper 64 bits of the unsigned 128-bit product
+     */
+    private static long multiplyHighUnsigned(long x, long y) {
+        final long x0 = x & 0xFFFFFFFFL;
+        final long x1 = x >>> 32;
+        final long y0 = y & 0xFFFFFFFFL;
+        final long y1 = y >>> 32;
+
+        final long p00 = x0 * y0;
+        final long p01 = x0 * y1;
+        final long p10 = x1 * y0;
+        final long p11 = x1 * y1;
+
+        final long middle = (p00 >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+
+        return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+}
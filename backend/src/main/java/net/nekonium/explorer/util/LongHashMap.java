@@ -0,0 +1,161 @@
+package net.nekonium.explorer.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive long keys, no boxing and no entry objects.<br>
+ * Null values are not allowed, {@link #get(long)} returns {@code null} for a missing key. Not thread-safe
+ *
+ * @param <V> Value type
+ */
+public class LongHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.6F;
+
+    private long[] keys;
+    private Object[] values;    // null means the slot is empty
+    private int size;
+    private int threshold;
+
+    public LongHashMap(int expectedSize) {
+        int capacity = 16;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+    }
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        // Ids are sequential, spread them so that they don't cluster
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long key) {
+        final int mask = keys.length - 1;
+
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == null || keys[i] == key) {
+                return i;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) values[indexOf(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return values[indexOf(key)] != null;
+    }
+
+    /**
+     * @return The previous value or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+
+        final int index = indexOf(key);
+        final V previous = (V) values[index];
+
+        this.keys[index] = key;
+        this.values[index] = value;
+
+        if (previous == null && ++size > threshold) {
+            rehash(keys.length << 1);
+        }
+
+        return previous;
+    }
+
+    /**
+     * @return The removed value or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        final int mask = keys.length - 1;
+        int index = indexOf(key);
+        final V previous = (V) values[index];
+
+        if (previous == null) {
+            return null;
+        }
+
+        this.values[index] = null;
+        this.size--;
+
+        // Move the following entries of the same run back, so that lookups don't stop at the hole
+        for (int i = (index + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            final int home = mix(keys[i]) & mask;
+
+            if (((i - home) & mask) >= ((i - index) & mask)) {
+                this.keys[index] = keys[i];
+                this.values[index] = values[i];
+                this.values[i] = null;
+                index = i;
+            }
+        }
+
+        return previous;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                final int index = indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Calls {@code consumer} for every entry, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        this.size = 0;
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+}
@@ -0,0 +1,95 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Sends many JSON-RPC requests as one batch (a JSON array) and matches each response to its request by id.<br>
+ * web3j can't do this by itself, it always sends requests one by one
+ */
+public abstract class BatchService {
+
+    protected final ObjectMapper objectMapper;
+
+    protected BatchService(boolean includeRawResponses) {
+        this.objectMapper = ObjectMapperFactory.getObjectMapper(includeRawResponses);
+    }
+
+    /**
+     * Write the whole batch and return a stream of the whole response
+     */
+    protected abstract InputStream performBatchIO(byte[] payload) throws IOException;
+
+    /**
+     * Write the batch and read the whole response, override this if the response can be read without a stream
+     */
+    protected JsonNode exchange(List<? extends Request<?, ?>> requests) throws IOException {
+        try (InputStream inputStream = performBatchIO(objectMapper.writeValueAsBytes(requests))) {
+            return objectMapper.readTree(inputStream);
+        }
+    }
+
+    /**
+     * Send a request object or a batch built by hand, and return the response as it is for {@link RawDecoder}.
+     * Ids in the response may not be the ones in the request
+     */
+    public InputStream exchangeRaw(JsonNode request) throws IOException {
+        return performBatchIO(objectMapper.writeValueAsBytes(request));
+    }
+
+    /**
+     * Send {@code requests} in a single round trip
+     *
+     * @return Responses in the same order as {@code requests}
+     * @throws IOException If the connection failed, or any response is missing or has an error
+     */
+    public <T extends Response<?>> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> responseType) throws IOException {
+        final List<T> responses = new ArrayList<>(requests.size());
+
+        if (requests.isEmpty()) {
+            return responses;   // Nothing to send, nodes don't like an empty batch
+        }
+
+        final JsonNode jsonNodeResponses = exchange(requests);
+
+        if (jsonNodeResponses == null || !jsonNodeResponses.isArray()) {
+            // A node returns a single error object when the whole batch was invalid
+            throw new IOException("Node did not return an array for a batch request: " + jsonNodeResponses);
+        }
+
+        /* Responses can come back in any order */
+
+        final HashMap<Long, JsonNode> byId = new HashMap<>(jsonNodeResponses.size() * 2);
+
+        for (JsonNode jsonNodeResponse : jsonNodeResponses) {
+            byId.put(jsonNodeResponse.path("id").asLong(-1), jsonNodeResponse);
+        }
+
+        for (Request<?, T> request : requests) {
+            final JsonNode jsonNodeResponse = byId.get(request.getId());
+
+            if (jsonNodeResponse == null) {
+                throw new IOException("No response for request id " + request.getId() + " (" + request.getMethod() + ") in a batch");
+            }
+
+            final T response = objectMapper.treeToValue(jsonNodeResponse, responseType);
+
+            if (response.hasError()) {
+                throw new IOException("Node returned an error for " + request.getMethod() + ": " + response.getError().getMessage());
+            }
+
+            responses.add(response);
+        }
+
+        return responses;
+    }
+}
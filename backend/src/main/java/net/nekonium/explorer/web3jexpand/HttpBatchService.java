@@ -0,0 +1,46 @@
+package net.nekonium.explorer.web3jexpand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+public class HttpBatchService extends BatchService {
+
+    private final URL url;
+
+    public HttpBatchService(String url, boolean includeRawResponses) {
+        super(includeRawResponses);
+
+        try {
+            this.url = new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid node url [" + url + "]", e);
+        }
+    }
+
+    @Override
+    protected InputStream performBatchIO(byte[] payload) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();   // Keep-alive is handled by the JDK
+
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(payload.length);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(payload);
+        }
+
+        final int code = connection.getResponseCode();
+
+        if (code != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Node returned HTTP " + code + " for a batch request");
+        }
+
+        return connection.getInputStream();
+    }
+}
@@ -0,0 +1,55 @@
+package net.nekonium.explorer.web3jexpand;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of recent calls in a ring buffer, for the 95th percentile and a moving average
+ */
+class LatencyTracker {
+
+    private static final int SAMPLES = 128;
+    private static final int MIN_SAMPLES_FOR_P95 = 20;
+
+    private final long[] latencies = new long[SAMPLES];  // Nanoseconds
+    private int index;
+    private int count;
+    private long p95 = -1;  // Cached, -1 when it has to be calculated again
+    private double average;
+
+    synchronized void add(long latencyNanos) {
+        this.latencies[index] = latencyNanos;
+        this.index = (index + 1) % SAMPLES;
+
+        if (count < SAMPLES) {
+            this.count++;
+        }
+
+        this.p95 = -1;
+        this.average = average == 0 ? latencyNanos : average * 0.9 + latencyNanos * 0.1;
+    }
+
+    /**
+     * @return 95th percentile in nanoseconds, -1 if there are not enough calls yet
+     */
+    synchronized long getP95Nanos() {
+        if (count < MIN_SAMPLES_FOR_P95) {
+            return -1;
+        }
+
+        if (p95 < 0) {
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+
+            this.p95 = sorted[(int) Math.ceil(count * 0.95) - 1];
+        }
+
+        return p95;
+    }
+
+    /**
+     * @return Moving average in nanoseconds, 0 if there are no calls yet
+     */
+    synchronized double getAverageNanos() {
+        return average;
+    }
+}
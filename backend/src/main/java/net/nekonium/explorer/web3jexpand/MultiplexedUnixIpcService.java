@@ -0,0 +1,64 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.web3j.protocol.Service;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Unix socket IPC service safe for concurrent callers, requests are pipelined on one socket by {@link UnixIpcMultiplexer}
+ */
+public class MultiplexedUnixIpcService extends Service implements Closeable {
+
+    private final UnixIpcMultiplexer multiplexer;
+
+    public MultiplexedUnixIpcService(String ipcSocketPath, boolean includeRawResponses) {
+        super(includeRawResponses);
+        this.multiplexer = new UnixIpcMultiplexer(ipcSocketPath, objectMapper);
+    }
+
+    /**
+     * A batch service sending through the same socket
+     */
+    public BatchService createBatchService(boolean includeRawResponses) {
+        return new BatchService(includeRawResponses) {
+            @Override
+            protected JsonNode exchange(List<? extends Request<?, ?>> requests) throws IOException {
+                return multiplexer.call(objectMapper.valueToTree(requests));
+            }
+
+            @Override
+            public InputStream exchangeRaw(JsonNode request) throws IOException {
+                return new ByteArrayInputStream(multiplexer.callRaw(request));
+            }
+
+            @Override
+            protected InputStream performBatchIO(byte[] payload) throws IOException {
+                return new ByteArrayInputStream(objectMapper.writeValueAsBytes(multiplexer.call(objectMapper.readTree(payload))));
+            }
+        };
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        // The reader thread only cuts out the bytes of the response, they are parsed once into a tree on this thread
+        // (to put the id back) and bound from it, not written out and parsed again as performIO would
+        return objectMapper.treeToValue(multiplexer.call(objectMapper.valueToTree(request)), responseType);
+    }
+
+    @Override
+    protected InputStream performIO(String payload) throws IOException {
+        return new ByteArrayInputStream(objectMapper.writeValueAsBytes(multiplexer.call(objectMapper.readTree(payload))));
+    }
+
+    @Override
+    public void close() {
+        multiplexer.close();
+    }
+}
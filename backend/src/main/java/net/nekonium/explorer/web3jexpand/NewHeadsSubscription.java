@@ -0,0 +1,276 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.utils.Numeric;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+import javax.websocket.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The only upstream of new blocks for the whole backend.<br>
+ * New heads are pushed by the node with {@code eth_subscribe("newHeads")} over IPC (unix socket) or websocket.
+ * If neither is available or subscribing fails, the latest block is polled instead, and pushing is tried again later.
+ * Each new head is fetched once with its transactions and emitted to every subscriber, skipped block numbers are fetched and emitted before it
+ */
+public class NewHeadsSubscription {
+
+    private static final long PUSH_RETRY_MILLIS = 30000;    // How long to poll before trying to push again
+    private static final String SUBSCRIBE_REQUEST = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_subscribe\",\"params\":[\"newHeads\"]}\n";
+    private static final String CLOSED = new String("closed");   // Marks the end of websocket messages, compared by identity
+
+    private final Web3jManager web3jManager;
+    private final String ipcPath;          // null if not unix socket IPC
+    private final String webSocketURL;     // null if not configured
+    private final long pollingInterval;
+    private final ObjectMapper objectMapper;
+    private final PublishSubject<EthBlock.Block> subject = PublishSubject.create();
+    private final Logger logger;
+
+    private Thread thread;
+    private volatile boolean stop;
+    private volatile Closeable pushConnection;  // Closed on stop to unblock reading
+
+    // The last emitted block, only touched by the subscription thread
+    private BigInteger lastNumber;
+    private String lastHash;
+
+    NewHeadsSubscription(Web3jManager web3jManager, String ipcPath, String webSocketURL, long pollingInterval) {
+        this.web3jManager = web3jManager;
+        this.ipcPath = ipcPath;
+        this.webSocketURL = webSocketURL;
+        this.pollingInterval = pollingInterval;
+        this.objectMapper = ObjectMapperFactory.getObjectMapper();
+        this.logger = LoggerFactory.getLogger("NewHeads");
+    }
+
+    /**
+     * Each subscriber gets blocks on its own thread, one which throws or blocks doesn't stop the others or the subscription
+     */
+    public Observable<EthBlock.Block> getObservable() {
+        return subject.onBackpressureBuffer().observeOn(Schedulers.newThread());
+    }
+
+    void start() {
+        this.thread = new Thread(this::run, "new-heads");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void stop() {
+        this.stop = true;
+
+        closePushConnection();
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        final boolean pushAvailable = ipcPath != null || webSocketURL != null;
+
+        while (!stop) {
+            try {
+                if (pushAvailable) {
+                    try {
+                        if (webSocketURL != null) {
+                            runWebSocketPush();
+                        } else {
+                            runIpcPush();
+                        }
+
+                        if (!stop) {
+                            logger.warn("New heads subscription was closed by the node, polling for a while");
+                        }
+                    } catch (IOException | DeploymentException e) {
+                        if (!stop) {
+                            logger.warn("New heads subscription failed, polling for a while", e);
+                        }
+                    } catch (RuntimeException e) {
+                        // Like a malformed notification, this thread is the only upstream of new blocks and must not die
+                        logger.error("An unexpected error occurred in new heads subscription, polling for a while", e);
+                    }
+
+                    runPolling(System.currentTimeMillis() + PUSH_RETRY_MILLIS);
+                } else {
+                    runPolling(Long.MAX_VALUE);
+                }
+            } catch (InterruptedException e) {
+                return; // Stopped
+            }
+        }
+    }
+
+    private void runIpcPush() throws IOException {
+        final UnixSocketChannel channel = UnixSocketChannel.open(new UnixSocketAddress(new File(ipcPath)));
+        this.pushConnection = channel;
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(SUBSCRIBE_REQUEST.getBytes(StandardCharsets.UTF_8));
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            // Notifications are just JSON objects one after another on the socket
+            final JsonParser parser = objectMapper.getFactory().createParser(Channels.newInputStream(channel));
+
+            JsonNode message;
+
+            while (!stop && (message = objectMapper.readTree(parser)) != null) {
+                onMessage(message);
+            }
+        } finally {
+            closePushConnection();
+        }
+    }
+
+    private void runWebSocketPush() throws IOException, DeploymentException {
+        final WebSocketClient client = new WebSocketClient();
+        final Session session = ContainerProvider.getWebSocketContainer().connectToServer(client, URI.create(webSocketURL));
+        this.pushConnection = session;
+
+        try {
+            session.getBasicRemote().sendText(SUBSCRIBE_REQUEST);
+
+            while (!stop) {
+                final String text;
+
+                try {
+                    text = client.messages.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (text == CLOSED) {
+                    return;
+                }
+
+                onMessage(objectMapper.readTree(text));
+            }
+        } finally {
+            closePushConnection();
+        }
+    }
+
+    private void runPolling(long untilMillis) throws InterruptedException {
+        logger.info("Polling the latest block every {}ms", pollingInterval);
+
+        while (!stop && System.currentTimeMillis() < untilMillis) {
+            try {
+                // Without transactions, only to see its number and hash
+                final EthBlock.Block latest = fetch(web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send());
+
+                // A reorg can replace the head with another block at the same height, compare hashes not numbers
+                if (!latest.getHash().equals(lastHash)) {
+                    onHead(latest.getNumber(), latest.getHash());
+                }
+            } catch (IOException e) {
+                logger.warn("Polling the latest block failed", e);
+            } catch (RuntimeException e) {
+                logger.error("An unexpected error occurred when polling the latest block", e);
+            }
+
+            Thread.sleep(pollingInterval);
+        }
+    }
+
+    private void onMessage(JsonNode message) throws IOException {
+        if (message.has("id")) {
+            // Response to eth_subscribe
+            if (message.has("error")) {
+                throw new IOException("The node refused eth_subscribe: " + message.get("error").path("message").asText());
+            }
+
+            logger.info("Subscribed to new heads, id {}", message.path("result").asText());
+        } else if ("eth_subscription".equals(message.path("method").asText())) {
+            final JsonNode header = message.path("params").path("result");
+
+            onHead(Numeric.decodeQuantity(header.path("number").asText()), header.path("hash").asText());
+        }
+    }
+
+    private void onHead(BigInteger blockNumber, String hash) throws IOException {
+        if (lastNumber != null) {
+            // Fetch skipped blocks first, so that subscribers see them in order
+            for (BigInteger n = lastNumber.add(BigInteger.ONE); n.compareTo(blockNumber) < 0; n = n.add(BigInteger.ONE)) {
+                emit(fetch(web3jManager.getWeb3j().ethGetBlockByNumber(DefaultBlockParameter.valueOf(n), true).send()));
+            }
+        }
+
+        // By hash, the same number can come again with a different block when the chain reorgs
+        emit(fetch(web3jManager.getWeb3j().ethGetBlockByHash(hash, true).send()));
+    }
+
+    private EthBlock.Block fetch(EthBlock ethBlock) throws IOException {
+        if (ethBlock.getBlock() == null) {
+            throw new IOException("The node could not return a new block");
+        }
+
+        return ethBlock.getBlock();
+    }
+
+    private void emit(EthBlock.Block block) {
+        this.lastNumber = block.getNumber();
+        this.lastHash = block.getHash();
+
+        subject.onNext(block);
+    }
+
+    private void closePushConnection() {
+        final Closeable connection = this.pushConnection;
+
+        if (connection != null) {
+            this.pushConnection = null;
+
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug("An error occurred when closing the new heads connection", e);
+            }
+        }
+    }
+
+    @ClientEndpoint
+    public static class WebSocketClient {
+
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+        @OnMessage
+        public void onMessage(String text) {
+            messages.add(text);
+        }
+
+        @OnClose
+        public void onClose(Session session, CloseReason closeReason) {
+            messages.add(CLOSED);
+        }
+
+        @OnError
+        public void onError(Session session, Throwable throwable) {
+            messages.add(CLOSED);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.nekonium.explorer.web3jexpand;
+
+import org.web3j.protocol.Service;
+
+/**
+ * One node in {@link NodePool}, with its health and how long its calls have taken recently
+ */
+public class NodeConnection {
+
+    private static final long MIN_DOWN_MILLIS = 1000;
+    private static final long MAX_DOWN_MILLIS = 30000;
+
+    private final String path;
+    private final Service service;
+    private final BatchService batchService;    // null if batch is not supported on the connection type
+
+    private final LatencyTracker latency = new LatencyTracker();
+
+    private int consecutiveFailures;
+    private long downUntil;     // System.currentTimeMillis(), not used until then
+    private long calls;
+    private long failures;
+
+    NodeConnection(String path, Service service, BatchService batchService) {
+        this.path = path;
+        this.service = service;
+        this.batchService = batchService;
+    }
+
+    synchronized void onSuccess(long latencyNanos) {
+        this.latency.add(latencyNanos);
+        this.consecutiveFailures = 0;
+        this.downUntil = 0;
+        this.calls++;
+    }
+
+    synchronized void onFailure() {
+        this.consecutiveFailures++;
+        this.calls++;
+        this.failures++;
+
+        // Back off longer the more it fails in a row
+        final long downMillis = Math.min(MAX_DOWN_MILLIS, MIN_DOWN_MILLIS << Math.min(consecutiveFailures - 1, 10));
+
+        this.downUntil = System.currentTimeMillis() + downMillis;
+    }
+
+    public synchronized boolean isHealthy() {
+        return System.currentTimeMillis() >= downUntil;
+    }
+
+    synchronized long getDownUntil() {
+        return downUntil;
+    }
+
+    /**
+     * @return 95th percentile of recent latencies in nanoseconds, -1 if there are not enough calls yet
+     */
+    public long getP95Nanos() {
+        return latency.getP95Nanos();
+    }
+
+    /**
+     * @return Moving average of latencies in nanoseconds, 0 if never called
+     */
+    public double getAverageNanos() {
+        return latency.getAverageNanos();
+    }
+
+    public synchronized long getCallCount() {
+        return calls;
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    Service getService() {
+        return service;
+    }
+
+    BatchService getBatchService() {
+        return batchService;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final long p95 = getP95Nanos();
+
+        return path + " (" + (isHealthy() ? "up" : "down") + ", avg " + Math.round(getAverageNanos() / 1000000) + "ms, p95 "
+                + (p95 < 0 ? "-" : (p95 / 1000000) + "ms") + ", " + failures + "/" + calls + " failed)";
+    }
+}
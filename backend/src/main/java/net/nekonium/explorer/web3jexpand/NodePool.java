@@ -0,0 +1,383 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Sends requests to one of several nodes, so that one stalled node doesn't stall the whole converter.<br>
+ * Each call goes to a healthy node picked by {@link Routing}. A node that fails is left alone for a while and the call goes to another one.
+ * If a call takes longer than the 95th percentile of recent calls of the same method, the same call is sent to another node too (hedged), and whichever answers first wins.
+ * Batches are kept apart from single calls of their method, a batch of receipts is not slow compared to {@code eth_blockNumber}.
+ * A response without a result (the node is behind the others) is asked again to another node.
+ * Only for reading calls, sending transactions would be sent twice
+ */
+public class NodePool implements Web3jService {
+
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<NodeConnection> nodes;
+    private final Routing routing;
+    private final boolean hedgeEnabled;
+    private final ExecutorService executor;
+    private final RawClient rawClient;  // null if a node doesn't support batch
+
+    // Of every node by method, and "[]" after the method for batches, tells what is slow
+    private final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public NodePool(List<NodeConnection> nodes, Routing routing, boolean hedgeEnabled) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("No nodes");
+        }
+
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.routing = routing;
+        this.hedgeEnabled = hedgeEnabled;
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "node-pool-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.rawClient = this.nodes.stream().allMatch(node -> node.getBatchService() != null) ? new RawClient(this) : null;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return call(request.getMethod(), false, node -> node.getService().send(request, responseType),
+                response -> response.hasError() || response.getResult() == null);
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(request, responseType);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Send all {@code requests} to one node in a single round trip if the node supports batch, otherwise one by one to the node
+     *
+     * @return Responses in the same order as {@code requests}
+     * @throws IOException If no node could answer all of them
+     */
+    public <T extends Response<?>> List<T> sendBatch(List<? extends Request<?, T>> requests, Class<T> responseType) throws IOException {
+        final String method = requests.isEmpty() ? "batch" : requests.get(0).getMethod();
+
+        return call(method, true, node -> {
+            if (node.getBatchService() != null) {
+                return node.getBatchService().sendBatch(requests, responseType);
+            }
+
+            final List<T> responses = new ArrayList<>(requests.size());
+
+            for (Request<?, T> request : requests) {
+                final T response = node.getService().send(request, responseType);
+
+                if (response.hasError()) {
+                    throw new IOException("Node returned an error for " + request.getMethod() + ": " + response.getError().getMessage());
+                }
+
+                responses.add(response);
+            }
+
+            return responses;
+        }, responses -> responses.stream().anyMatch(response -> response.getResult() == null));
+    }
+
+    /**
+     * Send a request object or a batch built by hand, and decode the response from its bytes with {@code decoder}.
+     * Only for {@link RawClient}, which is made only when every node has a batch service
+     *
+     * @param method Method of the request, for hedging
+     */
+    <T> T sendRaw(JsonNode request, String method, RawDecoder<T> decoder) throws IOException {
+        return call(method, request.isArray(), node -> {
+            try (InputStream inputStream = node.getBatchService().exchangeRaw(request)) {
+                return decoder.decode(inputStream);
+            }
+        }, result -> result == null || (request.isArray() && result instanceof List && ((List<?>) result).size() < request.size()));
+    }
+
+    /**
+     * @return {@code null} if a node doesn't support batch (named pipe), requests have to go through web3j then
+     */
+    public RawClient getRawClient() {
+        return rawClient;
+    }
+
+    /**
+     * @param method     Hedging is skipped for sending methods
+     * @param batch      Latencies of batches are tracked apart from single calls
+     * @param nodeCall   The call to make on a node
+     * @param incomplete Returns true if the result is worth asking another node
+     */
+    private <R> R call(String method, boolean batch, NodeCall<R> nodeCall, Predicate<R> incomplete) throws IOException {
+        final List<NodeConnection> tried = new ArrayList<>(nodes.size());
+        final boolean hedge = hedgeEnabled && nodes.size() > 1 && !method.startsWith("eth_send");
+        final LatencyTracker latency = latencies.computeIfAbsent(batch ? method + "[]" : method, key -> new LatencyTracker());
+
+        R incompleteResult = null;
+        IOException lastException = null;
+
+        if (!hedge) {
+            /* One node at a time, the next one only if it failed */
+            NodeConnection node;
+
+            while ((node = select(tried)) != null) {
+                tried.add(node);
+
+                final Attempt<R> attempt = attempt(node, nodeCall, latency);
+
+                if (attempt.exception != null) {
+                    lastException = attempt.exception;
+                } else if (incomplete.test(attempt.result)) {
+                    incompleteResult = attempt.result;
+                } else {
+                    return attempt.result;
+                }
+            }
+        } else {
+            final CompletionService<Attempt<R>> completionService = new ExecutorCompletionService<>(executor);
+            NodeConnection first = null;
+            boolean hedged = false;
+            int running = 0;
+
+            try {
+                while (true) {
+                    if (running == 0) {
+                        // Nothing running, start on a new node
+                        final NodeConnection node = select(tried);
+
+                        if (node == null) {
+                            break;
+                        }
+
+                        tried.add(node);
+                        completionService.submit(() -> attempt(node, nodeCall, latency));
+                        running++;
+
+                        if (first == null) {
+                            first = node;
+                        }
+                    }
+
+                    final long hedgeDelay = running == 1 && tried.size() < nodes.size() ? hedgeDelayNanos(latency) : -1;
+                    final Future<Attempt<R>> done;
+
+                    if (hedgeDelay > 0) {
+                        done = completionService.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+
+                        if (done == null) {
+                            // Slower than usual, ask another node too
+                            final NodeConnection node = select(tried);
+
+                            tried.add(node);
+                            completionService.submit(() -> attempt(node, nodeCall, latency));
+                            running++;
+                            hedged = true;
+                            hedges.increment();
+
+                            continue;
+                        }
+                    } else {
+                        done = completionService.take();
+                    }
+
+                    running--;
+
+                    final Attempt<R> attempt = done.get();
+
+                    if (attempt.exception != null) {
+                        lastException = attempt.exception;
+                    } else if (incomplete.test(attempt.result)) {
+                        incompleteResult = attempt.result;
+                    } else {
+                        if (hedged && attempt.node != first) {
+                            hedgeWins.increment();
+                        }
+
+                        // A call still running is left to finish, its latency is still worth recording
+                        return attempt.result;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a node");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());    // attempt() doesn't throw
+            }
+        }
+
+        if (incompleteResult != null) {
+            return incompleteResult;    // Every node said the same
+        }
+
+        throw lastException != null ? lastException : new IOException("No node is available");
+    }
+
+    private <R> Attempt<R> attempt(NodeConnection node, NodeCall<R> nodeCall, LatencyTracker latency) {
+        final long start = System.nanoTime();
+
+        try {
+            final R result = nodeCall.call(node);
+
+            final long latencyNanos = System.nanoTime() - start;
+
+            node.onSuccess(latencyNanos);
+            latency.add(latencyNanos);
+
+            return new Attempt<>(node, result, null);
+        } catch (IOException e) {
+            node.onFailure();
+
+            return new Attempt<>(node, null, e);
+        } catch (RuntimeException e) {
+            node.onFailure();
+
+            return new Attempt<>(node, null, new IOException(e));
+        }
+    }
+
+    private static long hedgeDelayNanos(LatencyTracker latency) {
+        final long p95 = latency.getP95Nanos();
+
+        return p95 < 0 ? -1 : Math.max(p95, MIN_HEDGE_DELAY_NANOS);
+    }
+
+    /**
+     * Pick a node not in {@code excluded}, healthy ones first
+     *
+     * @return {@code null} if every node is excluded
+     */
+    private NodeConnection select(List<NodeConnection> excluded) {
+        NodeConnection best = null;
+        NodeConnection leastDown = null;    // Used only if no node is healthy
+
+        final int offset = Math.floorMod(nextNode.getAndIncrement(), nodes.size());
+
+        for (int i = 0; i < nodes.size(); i++) {
+            final NodeConnection node = nodes.get((offset + i) % nodes.size());
+
+            if (excluded.contains(node)) {
+                continue;
+            }
+
+            if (!node.isHealthy()) {
+                if (leastDown == null || node.getDownUntil() < leastDown.getDownUntil()) {
+                    leastDown = node;
+                }
+                continue;
+            }
+
+            if (routing == Routing.ROUND_ROBIN) {
+                return node;    // The first healthy one from a rotating start
+            }
+
+            if (best == null || node.getAverageNanos() < best.getAverageNanos()) {
+                best = node;
+            }
+        }
+
+        return best != null ? best : leastDown;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+
+        for (NodeConnection node : nodes) {
+            if (node.getService() instanceof Closeable) {
+                try {
+                    ((Closeable) node.getService()).close();
+                } catch (IOException e) {
+                    // Shutting down anyway
+                }
+            }
+        }
+    }
+
+    public List<NodeConnection> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return How many calls were sent to a second node because the first one was slow
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return How many hedged calls were answered by the second node first
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder p95s = new StringBuilder();
+
+        for (Map.Entry<String, LatencyTracker> entry : new TreeMap<>(latencies).entrySet()) {
+            final long p95 = entry.getValue().getP95Nanos();
+
+            if (p95 >= 0) {
+                p95s.append(p95s.length() == 0 ? "" : ", ").append(entry.getKey()).append(' ').append(p95 / 1000000).append("ms");
+            }
+        }
+
+        return "Nodes " + nodes + ", p95 {" + p95s + "}, hedged " + getHedgeCount() + " (won " + getHedgeWinCount() + ")";
+    }
+
+    public enum Routing {
+        /**
+         * Spread calls over all nodes evenly
+         */
+        ROUND_ROBIN,
+        /**
+         * Send calls to the node with the lowest average latency
+         */
+        LEAST_LATENCY
+    }
+
+    private interface NodeCall<R> {
+        R call(NodeConnection node) throws IOException;
+    }
+
+    private static class Attempt<R> {
+        private final NodeConnection node;
+        private final R result;
+        private final IOException exception;
+
+        private Attempt(NodeConnection node, R result, IOException exception) {
+            this.node = node;
+            this.result = result;
+            this.exception = exception;
+        }
+    }
+}
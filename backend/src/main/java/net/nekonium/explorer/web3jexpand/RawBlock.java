@@ -0,0 +1,137 @@
+package net.nekonium.explorer.web3jexpand;
+
+import net.nekonium.explorer.util.HexCodec;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.Transaction;
+
+import java.util.List;
+
+/**
+ * A block or an uncle block, flat with numbers as long and hashes as 32 bytes, decoded by {@link RawBlockDecoder}.<br>
+ * Uncle blocks and blocks fetched without transaction objects have no transactions
+ */
+public class RawBlock {
+
+    private static final RawTransaction[] NO_TRANSACTIONS = new RawTransaction[0];
+    private static final byte[][] NO_UNCLES = new byte[0][];
+
+    long number;
+    byte[] hash;
+    byte[] parentHash;
+    long timestamp;
+    String miner;
+    long difficulty;
+    long gasLimit;
+    long gasUsed;
+    byte[] extraData;
+    long nonce;
+    long size;
+    byte[][] uncleHashes = NO_UNCLES;
+    RawTransaction[] transactions = NO_TRANSACTIONS;
+
+    RawBlock() {
+    }
+
+    /**
+     * Adapter from web3j's block, for blocks which didn't come through {@link RawBlockDecoder} (new heads, named pipe IPC)
+     *
+     * @param block With transaction objects, or an uncle block
+     */
+    public static RawBlock of(EthBlock.Block block) {
+        final RawBlock raw = new RawBlock();
+
+        raw.number = block.getNumber().longValueExact();
+        raw.hash = HexCodec.decode(block.getHash());
+        raw.parentHash = HexCodec.decode(block.getParentHash());
+        raw.timestamp = block.getTimestamp().longValueExact();
+        raw.miner = block.getMiner();
+        raw.difficulty = block.getDifficulty().longValue();
+        raw.gasLimit = block.getGasLimit().longValueExact();
+        raw.gasUsed = block.getGasUsed().longValueExact();
+        raw.extraData = HexCodec.decode(block.getExtraData());
+        raw.nonce = block.getNonce().longValue();
+        raw.size = block.getSize().longValueExact();
+
+        final List<String> uncles = block.getUncles();
+
+        if (uncles != null && !uncles.isEmpty()) {
+            raw.uncleHashes = new byte[uncles.size()][];
+
+            for (int i = 0; i < uncles.size(); i++) {
+                raw.uncleHashes[i] = HexCodec.decode(uncles.get(i));
+            }
+        }
+
+        // Not kept in a local, the element type is raw in web3j
+        if (block.getTransactions() != null && !block.getTransactions().isEmpty()) {
+            raw.transactions = new RawTransaction[block.getTransactions().size()];
+
+            for (int i = 0; i < raw.transactions.length; i++) {
+                raw.transactions[i] = RawTransaction.of((Transaction) block.getTransactions().get(i).get());
+            }
+        }
+
+        return raw;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public byte[] getParentHash() {
+        return parentHash;
+    }
+
+    /**
+     * @return Unix time in seconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMiner() {
+        return miner;
+    }
+
+    /**
+     * @return Unsigned
+     */
+    public long getDifficulty() {
+        return difficulty;
+    }
+
+    public long getGasLimit() {
+        return gasLimit;
+    }
+
+    public long getGasUsed() {
+        return gasUsed;
+    }
+
+    public byte[] getExtraData() {
+        return extraData;
+    }
+
+    /**
+     * @return Unsigned
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[][] getUncleHashes() {
+        return uncleHashes;
+    }
+
+    public RawTransaction[] getTransactions() {
+        return transactions;
+    }
+}
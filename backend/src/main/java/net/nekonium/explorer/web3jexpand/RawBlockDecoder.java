@@ -0,0 +1,379 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import net.nekonium.explorer.util.HexCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes blocks and receipts straight from response bytes with a streaming parser, into {@link RawBlock}, {@link RawTransaction}, {@link RawReceipt} and {@link RawLog}.<br>
+ * No JSON tree and no web3j objects are made, quantities are read from the parser's buffer into longs and data into byte arrays.
+ * Fields the converter doesn't use are skipped
+ */
+public class RawBlockDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static final RawDecoder<RawBlock> BLOCK = inputStream -> single(inputStream, RawBlockDecoder::readBlock);
+    public static final RawDecoder<List<RawBlock>> BLOCKS = inputStream -> batch(inputStream, RawBlockDecoder::readBlock);
+    public static final RawDecoder<List<RawReceipt>> RECEIPTS = inputStream -> batch(inputStream, RawBlockDecoder::readReceipt);
+
+    private RawBlockDecoder() {
+    }
+
+    private static <T> T single(InputStream inputStream, ResultReader<T> reader) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            return readResponse(parser, reader);
+        }
+    }
+
+    /**
+     * @return Results in the order of the responses, which is not always the order of the requests. Null results are left out
+     */
+    private static <T> List<T> batch(InputStream inputStream, ResultReader<T> reader) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            final List<T> results = new ArrayList<>();
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final T result = readResponse(parser, reader);
+
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+
+            return results;
+        }
+    }
+
+    private static <T> T readResponse(JsonParser parser, ResultReader<T> reader) throws IOException {
+        T result = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            if ("result".equals(name) && token != JsonToken.VALUE_NULL) {
+                result = reader.read(parser);
+            } else if ("error".equals(name) && token == JsonToken.START_OBJECT) {
+                String message = null;
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String errorName = parser.getCurrentName();
+
+                    parser.nextToken();
+
+                    if ("message".equals(errorName)) {
+                        message = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+
+                throw new IOException("Node returned an error: " + message);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return result;
+    }
+
+    private static RawBlock readBlock(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        final RawBlock block = new RawBlock();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;   // Number, hash and nonce of a pending block, told apart below
+            }
+
+            switch (name) {
+                case "number":
+                    block.number = quantity(parser);
+                    break;
+                case "hash":
+                    block.hash = data(parser);
+                    break;
+                case "parentHash":
+                    block.parentHash = data(parser);
+                    break;
+                case "timestamp":
+                    block.timestamp = quantity(parser);
+                    break;
+                case "miner":
+                    block.miner = parser.getText();
+                    break;
+                case "difficulty":
+                    block.difficulty = quantity(parser);
+                    break;
+                case "gasLimit":
+                    block.gasLimit = quantity(parser);
+                    break;
+                case "gasUsed":
+                    block.gasUsed = quantity(parser);
+                    break;
+                case "extraData":
+                    block.extraData = data(parser);
+                    break;
+                case "nonce":
+                    block.nonce = quantity(parser);  // 8 bytes data, the same as a quantity
+                    break;
+                case "size":
+                    block.size = quantity(parser);
+                    break;
+                case "uncles": {
+                    final List<byte[]> uncleHashes = new ArrayList<>(2);
+
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        uncleHashes.add(data(parser));
+                    }
+
+                    block.uncleHashes = uncleHashes.toArray(new byte[uncleHashes.size()][]);
+                    break;
+                }
+                case "transactions": {
+                    final List<RawTransaction> transactions = new ArrayList<>();
+
+                    JsonToken token;
+
+                    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                        if (token != JsonToken.START_OBJECT) {
+                            throw new IOException("Block was fetched without transaction objects");
+                        }
+
+                        transactions.add(readTransaction(parser));
+                    }
+
+                    block.transactions = transactions.toArray(new RawTransaction[transactions.size()]);
+                    break;
+                }
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (block.hash == null) {
+            throw new IOException("A pending block or not a block");
+        }
+
+        return block;
+    }
+
+    private static RawTransaction readTransaction(JsonParser parser) throws IOException {
+        final RawTransaction transaction = new RawTransaction();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+
+            parser.nextToken();
+
+            switch (name) {
+                case "hash":
+                    transaction.hash = data(parser);
+                    break;
+                case "transactionIndex":
+                    transaction.index = (int) quantity(parser);
+                    break;
+                case "from":
+                    transaction.from = parser.getText();
+                    break;
+                case "to":
+                    transaction.to = parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+                    break;
+                case "gas":
+                    transaction.gas = quantity(parser);
+                    break;
+                case "gasPrice":
+                    transaction.gasPriceHigh = quantityHigh(parser);
+                    transaction.gasPriceLow = quantity128Low(parser);
+                    break;
+                case "value":
+                    transaction.valueHigh = quantityHigh(parser);
+                    transaction.valueLow = quantity128Low(parser);
+                    break;
+                case "nonce":
+                    transaction.nonce = quantity(parser);
+                    break;
+                case "input":
+                    transaction.input = data(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return transaction;
+    }
+
+    private static RawReceipt readReceipt(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+        final RawReceipt receipt = new RawReceipt();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+
+            parser.nextToken();
+
+            switch (name) {
+                case "transactionHash":
+                    receipt.transactionHash = data(parser);
+                    break;
+                case "gasUsed":
+                    receipt.gasUsed = quantity(parser);
+                    break;
+                case "contractAddress":
+                    receipt.contractAddress = parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+                    break;
+                case "logs":
+                    receipt.logs = readLogs(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return receipt;
+    }
+
+    private static RawLog[] readLogs(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return new RawLog[0];
+        }
+
+        expect(parser.getCurrentToken(), JsonToken.START_ARRAY);
+
+        final List<RawLog> logs = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            final RawLog log = new RawLog();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+
+                parser.nextToken();
+
+                switch (name) {
+                    case "address":
+                        log.address = parser.getText();
+                        break;
+                    case "topics":
+                        expect(parser.getCurrentToken(), JsonToken.START_ARRAY);
+
+                        final List<byte[]> topics = new ArrayList<>(4);
+
+                        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            topics.add(data(parser));
+                        }
+
+                        log.topics = topics.toArray(new byte[topics.size()][]);
+                        break;
+                    case "data":
+                        log.data = data(parser);
+                        break;
+                    case "logIndex":
+                        log.logIndex = (int) quantity(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            logs.add(log);
+        }
+
+        return logs.toArray(new RawLog[logs.size()]);
+    }
+
+    /**
+     * Up to 64 bits, bigger ones are unsigned in the long
+     */
+    private static long quantity(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.VALUE_STRING);
+
+        final char[] chars = parser.getTextCharacters();
+        final int start = parser.getTextOffset() + 2;   // 0x
+        final int end = parser.getTextOffset() + parser.getTextLength();
+
+        if (end - start > 16) {
+            throw new IOException("Quantity over 64 bits");
+        }
+
+        return hex(chars, start, end);
+    }
+
+    /**
+     * Upper 64 bits of a quantity up to 128 bits
+     */
+    private static long quantityHigh(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.VALUE_STRING);
+
+        final int start = parser.getTextOffset() + 2;
+        final int end = parser.getTextOffset() + parser.getTextLength();
+
+        if (end - start > 32) {
+            throw new IOException("Quantity over 128 bits");
+        }
+
+        return end - start > 16 ? hex(parser.getTextCharacters(), start, end - 16) : 0;
+    }
+
+    /**
+     * Lower 64 bits of a quantity up to 128 bits
+     */
+    private static long quantity128Low(JsonParser parser) throws IOException {
+        final int start = parser.getTextOffset() + 2;
+        final int end = parser.getTextOffset() + parser.getTextLength();
+
+        return hex(parser.getTextCharacters(), Math.max(start, end - 16), end);
+    }
+
+    private static long hex(char[] chars, int start, int end) throws IOException {
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(chars[i], 16);
+
+            if (digit < 0) {
+                throw new IOException("Not a hex quantity [" + new String(chars, start, end - start) + "]");
+            }
+
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+
+    private static byte[] data(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.VALUE_STRING);
+
+        try {
+            return HexCodec.decode(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected " + actual + " in a response, expected " + expected);
+        }
+    }
+
+    private interface ResultReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+}
@@ -0,0 +1,68 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends JSON-RPC requests built by hand through {@link NodePool}, and decodes the responses straight from their bytes.
+ * Lighter than going through web3j for big responses, no JSON tree nor web3j objects are made.<br>
+ * Only given by {@link NodePool#getRawClient()} when every node supports batch, named pipes don't
+ */
+public class RawClient {
+
+    private final NodePool nodePool;
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+
+    RawClient(NodePool nodePool) {
+        this.nodePool = nodePool;
+    }
+
+    /**
+     * Build a JSON-RPC request object for {@link #send(JsonNode, RawDecoder)}, put several of them in an array for a batch
+     *
+     * @param method
+     * @param params Strings, numbers or booleans
+     */
+    public ObjectNode createRequest(String method, Object... params) {
+        final ObjectNode request = JsonNodeFactory.instance.objectNode();
+
+        request.put("jsonrpc", "2.0");
+        request.put("method", method);
+
+        final ArrayNode paramsNode = request.putArray("params");
+
+        for (Object param : params) {
+            if (param instanceof Boolean) {
+                paramsNode.add((Boolean) param);
+            } else if (param instanceof Long || param instanceof Integer) {
+                paramsNode.add(((Number) param).longValue());
+            } else {
+                paramsNode.add(String.valueOf(param));
+            }
+        }
+
+        request.put("id", nextRequestId.getAndIncrement());
+
+        return request;
+    }
+
+    /**
+     * Send a request made by {@link #createRequest(String, Object...)} (or an array of them) and decode the response.
+     * A null result, or fewer results than the requests in a batch, is asked again to another node
+     *
+     * @param request
+     * @param decoder See {@link RawBlockDecoder}
+     * @return Decoded result, {@code null} if every node returned null
+     * @throws IOException If the connection failed or the node returned an error
+     */
+    public <T> T send(JsonNode request, RawDecoder<T> decoder) throws IOException {
+        final JsonNode first = request.isArray() ? request.path(0) : request;
+
+        return nodePool.sendRaw(request, first.path("method").asText("batch"), decoder);
+    }
+}
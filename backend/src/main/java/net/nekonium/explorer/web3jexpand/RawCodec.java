@@ -0,0 +1,188 @@
+package net.nekonium.explorer.web3jexpand;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary form of {@link RawBlock}, {@link RawTransaction}, {@link RawReceipt} and {@link RawLog}, for keeping them on a local disk.
+ * Not meant to be read by anything but this class, there is no versioning
+ */
+public final class RawCodec {
+
+    private RawCodec() {
+    }
+
+    public static void writeBlock(DataOutput out, RawBlock block) throws IOException {
+        out.writeLong(block.number);
+        writeBytes(out, block.hash);
+        writeBytes(out, block.parentHash);
+        out.writeLong(block.timestamp);
+        writeString(out, block.miner);
+        out.writeLong(block.difficulty);
+        out.writeLong(block.gasLimit);
+        out.writeLong(block.gasUsed);
+        writeBytes(out, block.extraData);
+        out.writeLong(block.nonce);
+        out.writeLong(block.size);
+
+        out.writeInt(block.uncleHashes.length);
+
+        for (byte[] uncleHash : block.uncleHashes) {
+            writeBytes(out, uncleHash);
+        }
+
+        out.writeInt(block.transactions.length);
+
+        for (RawTransaction transaction : block.transactions) {
+            writeTransaction(out, transaction);
+        }
+    }
+
+    public static RawBlock readBlock(DataInput in) throws IOException {
+        final RawBlock block = new RawBlock();
+
+        block.number = in.readLong();
+        block.hash = readBytes(in);
+        block.parentHash = readBytes(in);
+        block.timestamp = in.readLong();
+        block.miner = readString(in);
+        block.difficulty = in.readLong();
+        block.gasLimit = in.readLong();
+        block.gasUsed = in.readLong();
+        block.extraData = readBytes(in);
+        block.nonce = in.readLong();
+        block.size = in.readLong();
+
+        final int uncleCount = in.readInt();
+
+        if (uncleCount > 0) {
+            block.uncleHashes = new byte[uncleCount][];
+
+            for (int i = 0; i < uncleCount; i++) {
+                block.uncleHashes[i] = readBytes(in);
+            }
+        }
+
+        final int transactionCount = in.readInt();
+
+        if (transactionCount > 0) {
+            block.transactions = new RawTransaction[transactionCount];
+
+            for (int i = 0; i < transactionCount; i++) {
+                block.transactions[i] = readTransaction(in);
+            }
+        }
+
+        return block;
+    }
+
+    private static void writeTransaction(DataOutput out, RawTransaction transaction) throws IOException {
+        writeBytes(out, transaction.hash);
+        out.writeInt(transaction.index);
+        writeString(out, transaction.from);
+        writeString(out, transaction.to);
+        out.writeLong(transaction.gas);
+        out.writeLong(transaction.gasPriceHigh);
+        out.writeLong(transaction.gasPriceLow);
+        out.writeLong(transaction.valueHigh);
+        out.writeLong(transaction.valueLow);
+        out.writeLong(transaction.nonce);
+        writeBytes(out, transaction.input);
+    }
+
+    private static RawTransaction readTransaction(DataInput in) throws IOException {
+        final RawTransaction transaction = new RawTransaction();
+
+        transaction.hash = readBytes(in);
+        transaction.index = in.readInt();
+        transaction.from = readString(in);
+        transaction.to = readString(in);
+        transaction.gas = in.readLong();
+        transaction.gasPriceHigh = in.readLong();
+        transaction.gasPriceLow = in.readLong();
+        transaction.valueHigh = in.readLong();
+        transaction.valueLow = in.readLong();
+        transaction.nonce = in.readLong();
+        transaction.input = readBytes(in);
+
+        return transaction;
+    }
+
+    public static void writeReceipt(DataOutput out, RawReceipt receipt) throws IOException {
+        writeBytes(out, receipt.transactionHash);
+        out.writeLong(receipt.gasUsed);
+        writeString(out, receipt.contractAddress);
+
+        out.writeInt(receipt.logs.length);
+
+        for (RawLog log : receipt.logs) {
+            writeString(out, log.address);
+            out.writeInt(log.topics.length);
+
+            for (byte[] topic : log.topics) {
+                writeBytes(out, topic);
+            }
+
+            writeBytes(out, log.data);
+            out.writeInt(log.logIndex);
+        }
+    }
+
+    public static RawReceipt readReceipt(DataInput in) throws IOException {
+        final RawReceipt receipt = new RawReceipt();
+
+        receipt.transactionHash = readBytes(in);
+        receipt.gasUsed = in.readLong();
+        receipt.contractAddress = readString(in);
+
+        final int logCount = in.readInt();
+
+        if (logCount > 0) {
+            receipt.logs = new RawLog[logCount];
+
+            for (int i = 0; i < logCount; i++) {
+                final RawLog log = new RawLog();
+
+                log.address = readString(in);
+                log.topics = new byte[in.readInt()][];
+
+                for (int j = 0; j < log.topics.length; j++) {
+                    log.topics[j] = readBytes(in);
+                }
+
+                log.data = readBytes(in);
+                log.logIndex = in.readInt();
+
+                receipt.logs[i] = log;
+            }
+        }
+
+        return receipt;
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+    private static void writeString(DataOutput out, String str) throws IOException {
+        out.writeBoolean(str != null);
+
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
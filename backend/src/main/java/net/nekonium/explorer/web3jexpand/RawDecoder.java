@@ -0,0 +1,18 @@
+package net.nekonium.explorer.web3jexpand;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a whole JSON-RPC response from raw bytes, see {@link RawBlockDecoder}
+ *
+ * @param <T> Decoded result
+ */
+public interface RawDecoder<T> {
+
+    /**
+     * @return {@code null} if the result was null
+     * @throws IOException If it couldn't be read or the node returned an error
+     */
+    T decode(InputStream inputStream) throws IOException;
+}
@@ -0,0 +1,59 @@
+package net.nekonium.explorer.web3jexpand;
+
+import net.nekonium.explorer.util.HexCodec;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.List;
+
+/**
+ * An event log of a transaction receipt, decoded by {@link RawBlockDecoder}
+ */
+public class RawLog {
+
+    private static final byte[][] NO_TOPICS = new byte[0][];
+    private static final byte[] NO_DATA = new byte[0];
+
+    String address;     // The contract which emitted it
+    byte[][] topics = NO_TOPICS;
+    byte[] data = NO_DATA;
+    int logIndex;       // In the block
+
+    RawLog() {
+    }
+
+    /**
+     * Adapter from web3j's log
+     */
+    public static RawLog of(Log log) {
+        final RawLog raw = new RawLog();
+        final List<String> topics = log.getTopics();
+
+        raw.address = log.getAddress();
+        raw.topics = new byte[topics.size()][];
+
+        for (int i = 0; i < topics.size(); i++) {
+            raw.topics[i] = HexCodec.decode(topics.get(i));
+        }
+
+        raw.data = HexCodec.decode(log.getData());
+        raw.logIndex = log.getLogIndex().intValueExact();
+
+        return raw;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public byte[][] getTopics() {
+        return topics;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLogIndex() {
+        return logIndex;
+    }
+}
@@ -0,0 +1,65 @@
+package net.nekonium.explorer.web3jexpand;
+
+import net.nekonium.explorer.util.HexCodec;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+import java.util.List;
+
+/**
+ * The part of a transaction receipt the converter needs, decoded by {@link RawBlockDecoder}
+ */
+public class RawReceipt {
+
+    private static final RawLog[] NO_LOGS = new RawLog[0];
+
+    byte[] transactionHash;
+    long gasUsed;
+    String contractAddress;     // null if it didn't create a contract
+    RawLog[] logs = NO_LOGS;
+
+    RawReceipt() {
+    }
+
+    /**
+     * Adapter from web3j's receipt
+     */
+    public static RawReceipt of(TransactionReceipt receipt) {
+        final RawReceipt raw = new RawReceipt();
+
+        raw.transactionHash = HexCodec.decode(receipt.getTransactionHash());
+        raw.gasUsed = receipt.getGasUsed().longValueExact();
+        raw.contractAddress = receipt.getContractAddress();
+
+        final List<Log> logs = receipt.getLogs();
+
+        if (logs != null && !logs.isEmpty()) {
+            raw.logs = new RawLog[logs.size()];
+
+            for (int i = 0; i < logs.size(); i++) {
+                raw.logs[i] = RawLog.of(logs.get(i));
+            }
+        }
+
+        return raw;
+    }
+
+    public byte[] getTransactionHash() {
+        return transactionHash;
+    }
+
+    public long getGasUsed() {
+        return gasUsed;
+    }
+
+    /**
+     * @return {@code null} if the transaction didn't create a contract
+     */
+    public String getContractAddress() {
+        return contractAddress;
+    }
+
+    public RawLog[] getLogs() {
+        return logs;
+    }
+}
@@ -0,0 +1,95 @@
+package net.nekonium.explorer.web3jexpand;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.util.Int128;
+import org.web3j.protocol.core.methods.response.Transaction;
+
+
+/**
+ * A transaction in a block, flat and without BigInteger, decoded by {@link RawBlockDecoder}.
+ * Value and gas price are 128-bit unsigned, split into two longs, and handed out as {@link Int128}
+ */
+public class RawTransaction {
+
+    byte[] hash;
+    int index;
+    String from;
+    String to;  // null on contract creation
+    long gas;
+    long gasPriceHigh, gasPriceLow;
+    long valueHigh, valueLow;
+    long nonce;
+    byte[] input;
+
+    RawTransaction() {
+    }
+
+    /**
+     * Adapter from web3j's transaction, for blocks which didn't come through {@link RawBlockDecoder}
+     */
+    public static RawTransaction of(Transaction transaction) {
+        final RawTransaction raw = new RawTransaction();
+
+        raw.hash = HexCodec.decode(transaction.getHash());
+        raw.index = transaction.getTransactionIndex().intValueExact();
+        raw.from = transaction.getFrom();
+        raw.to = transaction.getTo();
+        raw.gas = transaction.getGas().longValueExact();
+        raw.gasPriceHigh = transaction.getGasPrice().shiftRight(64).longValue();
+        raw.gasPriceLow = transaction.getGasPrice().longValue();
+        raw.valueHigh = transaction.getValue().shiftRight(64).longValue();
+        raw.valueLow = transaction.getValue().longValue();
+        raw.nonce = transaction.getNonce().longValue();
+        raw.input = HexCodec.decode(transaction.getInput());
+
+        return raw;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return {@code null} if it creates a contract
+     */
+    public String getTo() {
+        return to;
+    }
+
+    public long getGas() {
+        return gas;
+    }
+
+    /**
+     * @throws ArithmeticException If it is 2^127 or more, which couldn't be stored anyway
+     */
+    public Int128 getGasPrice() {
+        return Int128.ofUnsigned(gasPriceHigh, gasPriceLow);
+    }
+
+    /**
+     * @throws ArithmeticException If it is 2^127 or more, which couldn't be stored anyway
+     */
+    public Int128 getValue() {
+        return Int128.ofUnsigned(valueHigh, valueLow);
+    }
+
+    /**
+     * @return Unsigned
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    public byte[] getInput() {
+        return input;
+    }
+}
@@ -0,0 +1,409 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many JSON-RPC requests in flight at once on one unix socket.<br>
+ * web3j's IPC service assumes one request at a time on its socket, and responses get mixed up when several threads use it.
+ * Here every request gets its own id on the wire, one NIO thread writes queued requests and reads responses,
+ * cuts them into JSON values and hands the bytes of each one to the caller waiting for its id. Safe for any number of threads
+ */
+class UnixIpcMultiplexer implements Closeable {
+
+    private static final long TIMEOUT_MILLIS = 60000;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long NO_ID = -1;     // A notification
+    private static final long NULL_ID = -2;   // An error for a request the node couldn't read an id from, like a whole batch rejected
+
+    private final File ipcSocketPath;
+    private final ObjectMapper objectMapper;
+    private final Logger logger;
+
+    private final AtomicLong nextWireId = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<byte[]>> pendings = new ConcurrentHashMap<>();  // Wire id to the caller waiting for it
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+    private UnixSocketChannel channel;  // null if not connected, guarded by this
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean closed;
+
+    UnixIpcMultiplexer(String ipcSocketPath, ObjectMapper objectMapper) {
+        this.ipcSocketPath = new File(ipcSocketPath);
+        this.objectMapper = objectMapper;
+        this.logger = LoggerFactory.getLogger("IpcMultiplexer");
+    }
+
+    /**
+     * Send a request object or a batch (array of request objects) and wait for its response
+     *
+     * @param request Ids in it are replaced while on the wire (on a copy), and put back in the response
+     * @return A response object, or an array of response objects for a batch
+     * @throws IOException If the socket failed or it timed out
+     */
+    JsonNode call(JsonNode request) throws IOException {
+        final Map<Long, Long> originalIds = new HashMap<>();
+        final JsonNode response = objectMapper.readTree(exchange(request, originalIds));
+
+        if (response.isArray()) {
+            for (JsonNode element : response) {
+                restoreId((ObjectNode) element, originalIds);
+            }
+        } else {
+            restoreId((ObjectNode) response, originalIds);
+        }
+
+        return response;
+    }
+
+    /**
+     * The same as {@link #call(JsonNode)} but the response is returned as it is, ids in it are not the ones in {@code request}
+     */
+    byte[] callRaw(JsonNode request) throws IOException {
+        return exchange(request, new HashMap<>());
+    }
+
+    private byte[] exchange(JsonNode request, Map<Long, Long> originalIds) throws IOException {
+        final JsonNode wireRequest = request.deepCopy();    // The same request could be on its way to another node
+        final long[] wireIds;
+
+        if (wireRequest.isArray()) {
+            wireIds = new long[wireRequest.size()];
+
+            for (int i = 0; i < wireRequest.size(); i++) {
+                wireIds[i] = replaceId((ObjectNode) wireRequest.get(i), originalIds);
+            }
+        } else {
+            wireIds = new long[]{replaceId((ObjectNode) wireRequest, originalIds)};
+        }
+
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        for (long wireId : wireIds) {
+            pendings.put(wireId, future);
+        }
+
+        try {
+            send(objectMapper.writeValueAsBytes(wireRequest));
+
+            return future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("No response from the node in " + TIMEOUT_MILLIS + "ms");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a response", e);
+        } finally {
+            for (long wireId : wireIds) {
+                pendings.remove(wireId);
+            }
+        }
+    }
+
+    private long replaceId(ObjectNode request, Map<Long, Long> originalIds) {
+        final long wireId = nextWireId.getAndIncrement();
+
+        originalIds.put(wireId, request.path("id").asLong());
+        request.put("id", wireId);
+
+        return wireId;
+    }
+
+    private static void restoreId(ObjectNode response, Map<Long, Long> originalIds) {
+        final Long originalId = originalIds.get(response.path("id").asLong());
+
+        if (originalId != null) {
+            response.put("id", originalId);
+        }
+    }
+
+    private synchronized void send(byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Already closed");
+        }
+
+        if (channel == null) {
+            connect();
+        }
+
+        writeQueue.add(ByteBuffer.wrap(payload));
+        selector.wakeup();  // The NIO thread picks it up
+    }
+
+    private void connect() throws IOException {
+        final UnixSocketChannel channel = UnixSocketChannel.open(new UnixSocketAddress(ipcSocketPath));
+
+        try {
+            channel.configureBlocking(false);
+
+            this.selector = channel.provider().openSelector();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.channel = channel;
+
+        final Selector selector = this.selector;
+
+        this.thread = new Thread(() -> runIO(channel, selector), "ipc-multiplexer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void runIO(UnixSocketChannel channel, Selector selector) {
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final JsonFramer framer = new JsonFramer();
+
+        IOException failure = null;
+
+        try {
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+
+            ByteBuffer writing = null;
+
+            while (!closed) {
+                // Write as much as the socket takes, wait for OP_WRITE if it is full
+                while (writing != null || (writing = writeQueue.poll()) != null) {
+                    channel.write(writing);
+
+                    if (writing.hasRemaining()) {
+                        break;
+                    }
+
+                    writing = null;
+                }
+
+                key.interestOps(writing != null ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+                selector.select();
+                selector.selectedKeys().clear();
+
+                if (!key.isValid()) {
+                    break;
+                }
+
+                int read;
+
+                while ((read = channel.read(readBuffer)) > 0) {
+                    readBuffer.flip();
+                    framer.feed(readBuffer, this::onFrame);
+                    readBuffer.clear();
+                }
+
+                if (read < 0) {
+                    throw new IOException("The node closed the IPC socket");
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            disconnect(channel, selector, failure);
+        }
+    }
+
+    private void onFrame(byte[] bytes, int offset, int length) {
+        final long id;
+
+        try {
+            id = findId(bytes, offset, length);
+        } catch (IOException e) {
+            logger.warn("Unreadable message from the node", e);
+            return;
+        }
+
+        if (id == NO_ID) {
+            return; // Notification
+        }
+
+        if (id == NULL_ID) {
+            // Requests are answered in order, so it is most likely for the oldest one in flight. Fail it rather than let it wait until the timeout
+            final long oldest = pendings.keySet().stream().mapToLong(Long::longValue).min().orElse(NULL_ID);
+            final CompletableFuture<byte[]> future = oldest != NULL_ID ? pendings.get(oldest) : null;
+
+            if (future != null) {
+                future.completeExceptionally(new IOException("The node answered with an error without id: " + new String(bytes, offset, Math.min(length, 200), StandardCharsets.UTF_8)));
+            }
+            return;
+        }
+
+        final CompletableFuture<byte[]> future = pendings.get(id);
+
+        if (future == null) {
+            return; // Timed out already
+        }
+
+        // The caller parses it, this thread only reads as far as the id
+        future.complete(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    /**
+     * @return The id of the response, or of the first response with one in a batch (any of them points the same caller),
+     * {@link #NULL_ID} if the id is null, {@link #NO_ID} if there is no id
+     */
+    private long findId(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(bytes, offset, length)) {
+            JsonToken token = parser.nextToken();
+            final boolean batch = token == JsonToken.START_ARRAY;
+
+            if (batch) {
+                token = parser.nextToken();
+            }
+
+            long id = NO_ID;
+
+            while (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+
+                    token = parser.nextToken();
+
+                    if ("id".equals(name)) {
+                        if (token == JsonToken.VALUE_NUMBER_INT) {
+                            return parser.getLongValue();
+                        } else if (token == JsonToken.VALUE_NULL) {
+                            id = NULL_ID;   // An element of a batch the node couldn't read, look at the next one
+                        }
+                    }
+
+                    parser.skipChildren();
+                }
+
+                token = batch ? parser.nextToken() : null;
+            }
+
+            return id;
+        }
+    }
+
+    private synchronized void disconnect(UnixSocketChannel channel, Selector selector, IOException failure) {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("An error occurred when closing the IPC socket", e);
+        }
+
+        if (this.channel == channel) {
+            this.channel = null;    // The next call connects again
+            this.writeQueue.clear();
+        }
+
+        final IOException exception = failure != null ? failure : new IOException("IPC socket was closed");
+
+        if (failure != null && !closed) {
+            logger.warn("IPC socket failed, {} requests are failed", pendings.size(), failure);
+        }
+
+        // Nothing in flight will ever be answered
+        for (CompletableFuture<byte[]> future : pendings.values()) {
+            future.completeExceptionally(exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        final Selector selector;
+
+        synchronized (this) {
+            this.closed = true;
+            selector = this.selector;
+        }
+
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Cuts a byte stream of JSON values one after another into each value, by counting brackets outside of strings
+     */
+    static class JsonFramer {
+
+        private byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int length;     // Bytes in the buffer
+        private int scanned;    // Bytes already looked at
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+
+        void feed(ByteBuffer input, FrameConsumer consumer) {
+            final int incoming = input.remaining();
+
+            if (length + incoming > buffer.length) {
+                this.buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + incoming));
+            }
+
+            input.get(buffer, length, incoming);
+            this.length += incoming;
+
+            int start = 0;
+
+            for (int i = scanned; i < length; i++) {
+                final byte b = buffer[i];
+
+                if (inString) {
+                    if (escaped) {
+                        this.escaped = false;
+                    } else if (b == '\\') {
+                        this.escaped = true;
+                    } else if (b == '"') {
+                        this.inString = false;
+                    }
+                } else if (b == '"') {
+                    this.inString = true;
+                } else if (b == '{' || b == '[') {
+                    if (depth == 0) {
+                        start = i;  // Anything before is whitespace between values
+                    }
+
+                    this.depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        consumer.accept(buffer, start, i + 1 - start);
+                        start = i + 1;
+                    }
+                }
+            }
+
+            if (depth == 0) {
+                // Only whitespace is left
+                this.length = 0;
+                this.scanned = 0;
+            } else {
+                // Keep the unfinished value at the head of the buffer
+                System.arraycopy(buffer, start, buffer, 0, length - start);
+                this.length -= start;
+                this.scanned = length;
+            }
+        }
+    }
+
+    interface FrameConsumer {
+        void accept(byte[] bytes, int offset, int length);
+    }
+}
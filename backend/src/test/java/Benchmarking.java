@@ -20,7 +20,7 @@ public class Benchmarking {
             long startTime = System.currentTimeMillis();
 
 
-            final PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id, number, NEKH(hash),  NEKH((SELECT hash FROM blocks AS t WHERE t.internal_id = blocks.parent)), UNIX_TIMESTAMP(timestamp), NEKH((SELECT address FROM addresses WHERE addresses.internal_id = blocks.miner_id)), difficulty, gas_limit, gas_used, NEKH(extra_data), nonce, size FROM blocks WHERE number = ? LIMIT 1");
+            final PreparedStatement prpstmt = connection.prepareStatement("SELECT internal_id, number, hash, (SELECT hash FROM blocks AS t WHERE t.internal_id = blocks.parent), UNIX_TIMESTAMP(timestamp), (SELECT address FROM addresses WHERE addresses.internal_id = blocks.miner_id), difficulty, gas_limit, gas_used, extra_data, nonce, size FROM blocks WHERE number = ? LIMIT 1");
             for (int i = 0; i <= 100000; i++) {
                 prpstmt.setString(1, String.valueOf(i));
 
@@ -0,0 +1,115 @@
+package net.nekonium.explorer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AddressIdCacheTest {
+
+    @Test
+    public void keyIgnoresCase() {
+        assertArrayEquals(AddressIdCache.toKey("0x5df9b87991262f6ba471f09758cde1c0fc1de734"),
+                AddressIdCache.toKey("0x5DF9B87991262F6BA471F09758CDE1C0FC1DE734"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notAnAddress() {
+        AddressIdCache.toKey("0x5df9b87991262f6ba471f09758cde1c0fc1de7");
+    }
+
+    @Test
+    public void putAndGet() {
+        final AddressIdCache cache = new AddressIdCache(100);
+
+        cache.put(keyOf(1), 10, AddressType.NORMAL);
+        cache.put(keyOf(2), 20, AddressType.CONTRACT);
+
+        assertEquals(10, AddressIdCache.idOf(cache.get(keyOf(1))));
+        assertEquals(AddressType.NORMAL, AddressIdCache.typeOf(cache.get(keyOf(1))));
+        assertEquals(20, AddressIdCache.idOf(cache.get(keyOf(2))));
+        assertEquals(AddressType.CONTRACT, AddressIdCache.typeOf(cache.get(keyOf(2))));
+        assertEquals(0, cache.get(keyOf(3)));
+
+        cache.put(keyOf(1), 10, AddressType.CONTRACT);     // Update
+
+        assertEquals(AddressType.CONTRACT, AddressIdCache.typeOf(cache.get(keyOf(1))));
+        assertEquals(2, cache.size());
+        assertEquals(5, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void hotEntriesSurviveAFlood() {
+        final AddressIdCache cache = new AddressIdCache(100);
+
+        for (int i = 1; i <= 10; i++) {
+            cache.put(keyOf(i), i, AddressType.NORMAL);
+
+            for (int j = 0; j < 3; j++) {
+                cache.get(keyOf(i));
+            }
+        }
+
+        // Seen only once each, far more than the capacity
+        for (int i = 1000; i < 1200; i++) {
+            cache.put(keyOf(i), i, AddressType.NORMAL);
+        }
+
+        assertEquals(100, cache.size());
+        assertTrue(cache.getEvictionCount() >= 110);
+
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, AddressIdCache.idOf(cache.get(keyOf(i))));
+        }
+    }
+
+    @Test
+    public void removeKeepsCollidingEntries() {
+        final AddressIdCache cache = new AddressIdCache(1000);
+
+        for (int i = 1; i <= 1000; i++) {
+            cache.put(keyOf(i), i, AddressType.NORMAL);
+        }
+
+        // Every other one, entries after each hole have to be moved back to stay reachable
+        for (int i = 1; i <= 1000; i += 2) {
+            cache.remove(keyOf(i));
+        }
+
+        assertEquals(500, cache.size());
+
+        for (int i = 1; i <= 1000; i++) {
+            if (i % 2 == 0) {
+                assertEquals(i, AddressIdCache.idOf(cache.get(keyOf(i))));
+            } else {
+                assertEquals(0, cache.get(keyOf(i)));
+            }
+        }
+    }
+
+    @Test
+    public void clear() {
+        final AddressIdCache cache = new AddressIdCache(10);
+
+        cache.put(keyOf(1), 1, AddressType.NORMAL);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.get(keyOf(1)));
+        assertNotEquals(0, cache.getCapacity());
+    }
+
+    private static byte[] keyOf(int n) {
+        final byte[] key = new byte[AddressIdCache.ADDRESS_LENGTH];
+
+        // Spread over the key the way addresses are
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) ((n * 31 + i) * 0x9E3779B1 >>> 24);
+        }
+
+        return key;
+    }
+}
@@ -0,0 +1,154 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.util.IllegalDatabaseStateException;
+import net.nekonium.explorer.util.NonNullPair;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AddressIdPoolManagerTest {
+
+    private static final String MINER = "0x05a56e2d52c817161883f50c441c3228cfe54d9f";
+    private static final String RECEIVER = "0x88E96D4537BEA4D9C05D12549907B32561D3BF31";
+    private static final String CONTRACT = "0x5df9b87991262f6ba471f09758cde1c0fc1de734";
+
+    private final Map<String, Object[]> table = new LinkedHashMap<>();   // Lower case hex to type and id
+    private final List<List<Object>> inserts = new ArrayList<>();
+
+    private FakeDatabase database;
+    private AddressIdPoolManager addressIdPool;
+
+    @Before
+    public void setUp() {
+        this.database = new FakeDatabase();
+        this.addressIdPool = new AddressIdPoolManager(1000);
+
+        database.on("SELECT address, type, internal_id FROM addresses WHERE address IN", parameters -> {
+            final List<Object[]> rows = new ArrayList<>();
+
+            for (Object address : parameters) {
+                final Object[] row = table.get(HexCodec.encode((byte[]) address));
+
+                if (row != null) {
+                    rows.add(new Object[]{address, row[0], row[1]});
+                }
+            }
+
+            return rows;
+        });
+        database.on("INSERT IGNORE INTO addresses", parameters -> {
+            inserts.add(new ArrayList<>(parameters));
+
+            for (int i = 0; i < parameters.size(); i += 2) {
+                table.putIfAbsent(HexCodec.encode((byte[]) parameters.get(i)), new Object[]{parameters.get(i + 1), (long) table.size() + 1});
+            }
+
+            return null;
+        });
+    }
+
+    @Test
+    public void duplicatesInOtherCaseAreMerged() throws Exception {
+        final Map<String, Long> resolved = resolveAll(
+                pair(MINER, AddressType.NORMAL), pair(RECEIVER, AddressType.NORMAL),
+                pair(RECEIVER.toLowerCase(), AddressType.NORMAL), pair(MINER.toUpperCase().replace("0X", "0x"), AddressType.NORMAL));
+
+        assertEquals(1, inserts.size());
+        assertEquals(4, inserts.get(0).size());     // Two addresses, each one once
+        assertEquals(2, resolved.size());
+        assertEquals(Long.valueOf(1), resolved.get(MINER));
+        assertEquals(Long.valueOf(2), resolved.get(RECEIVER.toLowerCase()));
+    }
+
+    @Test
+    public void contractWinsOverNormal() throws Exception {
+        resolveAll(pair(CONTRACT, AddressType.NORMAL), pair(CONTRACT.toUpperCase().replace("0X", "0x"), AddressType.CONTRACT));
+
+        assertEquals("CONTRACT", inserts.get(0).get(1));
+    }
+
+    @Test
+    public void insertedBySomeoneElse() throws Exception {
+        // Not there on the first look up, but there by the time of inserting
+        database.on("SELECT address, type, internal_id FROM addresses WHERE address IN", new FakeDatabase.Handler() {
+            private int calls;
+
+            @Override
+            public List<Object[]> handle(List<Object> parameters) {
+                if (calls++ == 0) {
+                    table.put(MINER.substring(2), new Object[]{"NORMAL", 42L});
+                    return null;
+                }
+
+                return Collections.singletonList(new Object[]{parameters.get(0), "NORMAL", 42L});
+            }
+        });
+        database.on("INSERT INTO addresses", parameters -> {
+            throw new SQLIntegrityConstraintViolationException("Duplicate entry");
+        });
+
+        final Map<String, Long> resolved = resolveAll(pair(MINER, AddressType.NORMAL));
+
+        assertEquals(Long.valueOf(42), resolved.get(MINER));
+    }
+
+    @Test
+    public void insertedAreCachedOnCommit() throws Exception {
+        resolveAll(pair(RECEIVER, AddressType.NORMAL));
+
+        assertEquals(0, addressIdPool.getCache().get(AddressIdCache.toKey(RECEIVER)));
+
+        addressIdPool.commit();
+
+        assertEquals(1, AddressIdCache.idOf(addressIdPool.getCache().get(AddressIdCache.toKey(RECEIVER))));
+
+        try (Connection connection = database.getConnection()) {
+            assertEquals(1, addressIdPool.findAddressId(connection, RECEIVER.toLowerCase()));
+        }
+    }
+
+    @Test
+    public void rolledBackAreForgotten() throws Exception {
+        resolveAll(pair(RECEIVER, AddressType.NORMAL));
+        addressIdPool.rollback();
+
+        assertEquals(0, addressIdPool.getCache().get(AddressIdCache.toKey(RECEIVER)));
+    }
+
+    @Test
+    public void missingSender() throws Exception {
+        try (Connection connection = database.getConnection()) {
+            addressIdPool.resolveAll(connection, Collections.singletonList(pair(RECEIVER, AddressType.NORMAL)),
+                    new HashSet<>(Collections.singletonList(RECEIVER.toLowerCase())));
+            fail();
+        } catch (IllegalDatabaseStateException e) {
+            // Expected, a sender has to be on the database
+        }
+
+        assertEquals(0, inserts.size());
+    }
+
+    @SafeVarargs
+    private final Map<String, Long> resolveAll(NonNullPair<String, AddressType>... addresses) throws Exception {
+        try (Connection connection = database.getConnection()) {
+            return addressIdPool.resolveAll(connection, Arrays.asList(addresses), Collections.emptySet());
+        }
+    }
+
+    private static NonNullPair<String, AddressType> pair(String prefixedAddress, AddressType addressType) {
+        return new NonNullPair<>(prefixedAddress, addressType);
+    }
+}
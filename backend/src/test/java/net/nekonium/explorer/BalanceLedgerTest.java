@@ -0,0 +1,90 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.Int128;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BalanceLedgerTest {
+
+    private FakeDatabase database;
+    private BalanceLedger ledger;
+
+    @Before
+    public void setUp() throws Exception {
+        this.database = new FakeDatabase();
+        this.ledger = new BalanceLedger();
+
+        // The latest main chain balance of each address, null for one that never had balance
+        database.on("SELECT internal_id, (SELECT balance FROM balance", parameters -> Arrays.asList(
+                new Object[]{1L, Int128.valueOf(100).toByteArray()},
+                new Object[]{2L, null},
+                new Object[]{3L, Int128.valueOf(-5).toByteArray()}));
+
+        try (Connection connection = database.getConnection()) {
+            ledger.warm(connection);
+        }
+    }
+
+    @Test
+    public void warm() {
+        assertEquals(2, ledger.size());
+        assertEquals(Int128.valueOf(100), ledger.get(1));
+        assertNull(ledger.get(2));
+        assertEquals(Int128.valueOf(-5), ledger.get(3));
+
+        // Only one row per address is read, not the whole history
+        assertEquals(1, database.getExecuted().size());
+        assertTrue(database.getExecuted().get(0).contains("ORDER BY balance.number DESC LIMIT 1) FROM addresses"));
+    }
+
+    @Test
+    public void pendingUntilCommit() {
+        ledger.put(1, Int128.valueOf(150));
+        ledger.put(4, Int128.valueOf(7));
+
+        assertEquals(Int128.valueOf(150), ledger.get(1));
+        assertEquals(Int128.valueOf(7), ledger.get(4));
+        assertEquals(2, ledger.size());
+
+        ledger.commit();
+
+        assertEquals(Int128.valueOf(150), ledger.get(1));
+        assertEquals(3, ledger.size());
+    }
+
+    @Test
+    public void rollback() {
+        ledger.put(1, Int128.valueOf(150));
+        ledger.put(4, Int128.valueOf(7));
+        ledger.rollback();
+
+        assertEquals(Int128.valueOf(100), ledger.get(1));
+        assertNull(ledger.get(4));
+    }
+
+    @Test
+    public void reload() throws Exception {
+        database.on("SELECT DISTINCT address_id FROM balance WHERE number >= ?", parameters -> Arrays.asList(new Object[]{1L}, new Object[]{3L}));
+        database.on("SELECT balance FROM balance", parameters ->
+                (Long) parameters.get(0) == 1 ? Collections.singletonList(new Object[]{Int128.valueOf(80).toByteArray()}) : null);
+
+        try (Connection connection = database.getConnection()) {
+            ledger.reload(connection, 10, 12);
+        }
+
+        assertEquals(Int128.valueOf(80), ledger.get(1));
+        assertEquals(new Int128(), ledger.get(3));     // Only had balance on forked blocks
+
+        ledger.rollback();
+
+        assertEquals(Int128.valueOf(100), ledger.get(1));
+    }
+}
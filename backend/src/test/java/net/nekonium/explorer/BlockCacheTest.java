@@ -0,0 +1,188 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawBlockDecoder;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    private static final int HEADER_SIZE = 52;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void byNumberAndHash() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (BlockCache blockCache = new BlockCache(directory, 1024)) {
+            put(blockCache, 0, 20);
+
+            assertEquals(20, blockCache.size());
+            assertTrue(segments(directory).length > 1);     // Read from sealed segments and the one being appended to
+
+            for (long number = 0; number < 20; number++) {
+                assertArrayEquals(hashOf(number), blockCache.get(number).getBlock().getHash());
+                assertEquals(number, blockCache.get(hashOf(number)).getBlock().getNumber());
+            }
+
+            assertNull(blockCache.get(20));
+            assertNull(blockCache.get(hashOf(20)));
+            assertEquals(40, blockCache.getHitCount());
+            assertEquals(2, blockCache.getMissCount());
+        }
+    }
+
+    @Test
+    public void indexIsMadeAgainOnOpening() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (BlockCache blockCache = new BlockCache(directory, 1024)) {
+            put(blockCache, 0, 20);
+        }
+
+        try (BlockCache blockCache = new BlockCache(directory, 1024)) {
+            assertEquals(20, blockCache.size());
+
+            for (long number = 0; number < 20; number++) {
+                assertArrayEquals(hashOf(number), blockCache.get(number).getBlock().getHash());
+            }
+
+            // Appending continues in a new segment or the last one
+            put(blockCache, 20, 25);
+
+            assertEquals(24, blockCache.get(hashOf(24)).getBlock().getNumber());
+        }
+    }
+
+    @Test
+    public void segmentDeletedByHand() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (BlockCache blockCache = new BlockCache(directory, 1024)) {
+            put(blockCache, 0, 20);
+        }
+
+        final File[] segments = segments(directory);
+
+        assertTrue(segments.length > 2);
+        assertTrue(segments[0].delete());
+
+        try (BlockCache blockCache = new BlockCache(directory, 1)) {
+            put(blockCache, 20, 22);    // Every put starts a segment, after the last one
+
+            assertNull(blockCache.get(0));
+            assertEquals(21, blockCache.get(21).getBlock().getNumber());
+            assertEquals(19, blockCache.get(19).getBlock().getNumber());
+        }
+    }
+
+    @Test
+    public void brokenRecordIsMissed() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (BlockCache blockCache = new BlockCache(directory, Integer.MAX_VALUE)) {
+            put(blockCache, 0, 3);
+        }
+
+        final File segment = segments(directory)[0];
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // The first byte of the compressed bytes of #0
+            file.seek(HEADER_SIZE);
+            final int value = file.read();
+            file.seek(HEADER_SIZE);
+            file.write(value ^ 0xff);
+        }
+
+        try (BlockCache blockCache = new BlockCache(directory, Integer.MAX_VALUE)) {
+            assertEquals(3, blockCache.size());     // Only the header is read on opening
+            assertNull(blockCache.get(0));
+            assertEquals(1, blockCache.getMissCount());
+            assertEquals(1, blockCache.get(1).getBlock().getNumber());
+        }
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (BlockCache blockCache = new BlockCache(directory, Integer.MAX_VALUE)) {
+            put(blockCache, 0, 3);
+        }
+
+        final File segment = segments(directory)[0];
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        try (BlockCache blockCache = new BlockCache(directory, Integer.MAX_VALUE)) {
+            assertEquals(2, blockCache.size());
+            assertNull(blockCache.get(2));
+
+            put(blockCache, 2, 3);
+
+            assertEquals(2, blockCache.get(2).getBlock().getNumber());
+        }
+    }
+
+    private static void put(BlockCache blockCache, long from, long to) throws IOException {
+        for (long number = from; number < to; number++) {
+            blockCache.put(fetch(number));
+        }
+    }
+
+    private static File[] segments(File directory) {
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".blk"));
+
+        Arrays.sort(segments);
+
+        return segments;
+    }
+
+    private static byte[] hashOf(long number) {
+        return HexCodec.decode(hexHashOf(number));
+    }
+
+    private static String hexHashOf(long number) {
+        return String.format("0x%016x%048x", 0xb10c000L + number, 0);   // Distinct in the first 8 bytes, the key of the hash index
+    }
+
+    private static FetchedBlock fetch(long number) throws IOException {
+        final String json = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"number\":\"0x" + Long.toHexString(number) + "\"," +
+                "\"hash\":\"" + hexHashOf(number) + "\"," +
+                "\"parentHash\":\"" + hexHashOf(number - 1) + "\"," +
+                "\"timestamp\":\"0x55ba4224\"," +
+                "\"miner\":\"0x05a56e2d52c817161883f50c441c3228cfe54d9f\"," +
+                "\"difficulty\":\"0x3ff800000\"," +
+                "\"gasLimit\":\"0x1388\"," +
+                "\"gasUsed\":\"0x0\"," +
+                "\"extraData\":\"0x\"," +
+                "\"nonce\":\"0x539bd4979fef1ec4\"," +
+                "\"size\":\"0x21b\"," +
+                "\"uncles\":[]," +
+                "\"transactions\":[]}}";
+
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        return new FetchedBlock(block, new RawBlock[0], new RawReceipt[0]);
+    }
+}
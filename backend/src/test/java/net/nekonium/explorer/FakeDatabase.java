@@ -0,0 +1,210 @@
+package net.nekonium.explorer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A database manager whose connections answer statements with handlers given by the test, instead of a database.<br>
+ * Handlers are found by the start of the SQL. A query without one has no rows, and an update without one changes a row
+ */
+class FakeDatabase extends DatabaseManager {
+
+    interface Handler {
+        /**
+         * @return Rows of a query, ignored for an update
+         */
+        List<Object[]> handle(List<Object> parameters) throws SQLException;
+    }
+
+    private final Map<String, Handler> handlers = new LinkedHashMap<>();
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    void on(String sqlPrefix, Handler handler) {
+        this.handlers.put(sqlPrefix, handler);
+    }
+
+    /**
+     * @return SQL of every statement executed, once for each row of a batch, and COMMIT and ROLLBACK
+     */
+    List<String> getExecuted() {
+        synchronized (executed) {
+            return new ArrayList<>(executed);
+        }
+    }
+
+    int count(String sqlPrefix) {
+        int count = 0;
+
+        for (String sql : getExecuted()) {
+            if (sql.startsWith(sqlPrefix)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public Connection getConnection() {
+        final boolean[] autoCommit = {true};
+
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return statement((String) args[0]);
+                case "createStatement":
+                    return statement(null);
+                case "setAutoCommit":
+                    autoCommit[0] = (Boolean) args[0];
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit[0];
+                case "commit":
+                    executed.add("COMMIT");
+                    return null;
+                case "rollback":
+                    executed.add("ROLLBACK");
+                    return null;
+                case "isClosed":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * @param sql {@code null} for a plain statement, whose SQL comes with each execution
+     */
+    private PreparedStatement statement(String sql) {
+        final List<Object> parameters = new ArrayList<>();
+        final List<List<Object>> batch = new ArrayList<>();
+
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            final String name = method.getName();
+
+            if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                final int index = (Integer) args[0];
+
+                while (parameters.size() < index) {
+                    parameters.add(null);
+                }
+
+                parameters.set(index - 1, name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+
+            switch (name) {
+                case "addBatch":
+                    batch.add(new ArrayList<>(parameters));
+                    return null;
+                case "executeBatch":
+                    final int[] counts = new int[batch.size()];
+
+                    for (int i = 0; i < batch.size(); i++) {
+                        execute(sql, batch.get(i));
+                        counts[i] = 1;
+                    }
+
+                    batch.clear();
+                    return counts;
+                case "executeQuery":
+                    return resultSet(execute(sql != null ? sql : (String) args[0], parameters));
+                case "executeUpdate":
+                    execute(sql != null ? sql : (String) args[0], parameters);
+                    return 1;
+                case "execute":
+                    execute(sql != null ? sql : (String) args[0], parameters);
+                    return false;
+                case "clearParameters":
+                    parameters.clear();
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private List<Object[]> execute(String sql, List<Object> parameters) throws SQLException {
+        this.executed.add(sql);
+
+        for (Map.Entry<String, Handler> entry : handlers.entrySet()) {
+            if (sql.startsWith(entry.getKey())) {
+                final List<Object[]> rows = entry.getValue().handle(parameters);
+
+                return rows != null ? rows : Collections.emptyList();
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) {
+        final int[] cursor = {-1};
+        final boolean[] wasNull = {false};
+
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++cursor[0] < rows.size();
+                case "wasNull":
+                    return wasNull[0];
+                case "getLong":
+                case "getInt":
+                case "getBoolean":
+                case "getBytes":
+                case "getString":
+                case "getObject":
+                    final Object value = rows.get(cursor[0])[(Integer) args[0] - 1];
+
+                    wasNull[0] = value == null;
+
+                    switch (method.getName()) {
+                        case "getLong":
+                            return value != null ? ((Number) value).longValue() : 0L;
+                        case "getInt":
+                            return value != null ? ((Number) value).intValue() : 0;
+                        case "getBoolean":
+                            return value instanceof Boolean ? value : value != null && ((Number) value).intValue() != 0;
+                        case "getString":
+                            return value != null ? value.toString() : null;
+                        default:
+                            return value;
+                    }
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getName().equals("unwrap") || method.getName().equals("isWrapperFor")) {
+                throw new UnsupportedOperationException();
+            }
+
+            final Object result = handler.invoke(proxy, method, args);
+
+            // Primitive returns of methods which are not faked, so that a null doesn't blow up
+            if (result == null && method.getReturnType() == boolean.class) {
+                return false;
+            } else if (result == null && method.getReturnType() == int.class) {
+                return 0;
+            } else if (result == null && method.getReturnType() == long.class) {
+                return 0L;
+            }
+
+            return result;
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawBlockDecoder;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Head-first sync on a database whose projections are at its old tip, {@link #HISTORY_TIP}
+ */
+public class HistoryBackfillTest {
+
+    private static final String MINER = "0x05a56e2d52c817161883f50c441c3228cfe54d9f";
+    private static final long HISTORY_TIP = 10;
+    private static final long ANCHOR = 30;
+    private static final long FILLED_BY_ANCHOR = 16; // #15 to #30, the rest of the gap is filled in the background
+
+    private final TreeMap<Long, Object[]> blocks = new TreeMap<>();         // Number to id and hash, main chain
+    private final Map<String, Object[]> checkpoints = new HashMap<>();      // Name to number and hash
+
+    private File configFile;
+    private FakeDatabase database;
+    private AddressIdPoolManager addressIdPool;
+    private ProjectionManager projections;
+    private HistoryBackfill historyBackfill;
+
+    @Before
+    public void setUp() throws Exception {
+        this.configFile = File.createTempFile("history-backfill", ".properties");
+
+        final Properties properties = new Properties();
+
+        properties.setProperty("database.url", "jdbc:mariadb://localhost/nekonium");
+        properties.setProperty("database.user", "nekonium");
+        properties.setProperty("database.password", "");
+        properties.setProperty("node.connectiontype", "RPC");
+        properties.setProperty("node.url", "http://localhost:8293");
+
+        try (OutputStream outputStream = new FileOutputStream(configFile)) {
+            properties.store(outputStream, null);
+        }
+
+        final ConfigLoader config = new ConfigLoader(configFile);
+        config.loadFromFile();
+
+        for (long number = 0; number <= HISTORY_TIP; number++) {
+            blocks.put(number, new Object[]{number + 1, hashOf(number)});
+        }
+
+        this.database = new FakeDatabase();
+
+        database.on("SELECT IFNULL(MAX(internal_id), 0) FROM blocks", parameters ->
+                rows(new Object[]{blocks.isEmpty() ? 0L : (long) blocks.lastEntry().getValue()[0]}));
+        database.on("SELECT number, internal_id, hash FROM blocks WHERE number < ?", parameters -> {
+            final List<Object[]> rows = new ArrayList<>();
+
+            for (Map.Entry<Long, Object[]> entry : blocks.headMap((Long) parameters.get(0), false).descendingMap().entrySet()) {
+                if (rows.size() < 16) {
+                    rows.add(new Object[]{entry.getKey(), entry.getValue()[0], entry.getValue()[1]});
+                }
+            }
+
+            return rows;
+        });
+        database.on("SELECT hash FROM blocks WHERE number = ?", parameters -> {
+            final Object[] block = blocks.get((Long) parameters.get(0));
+
+            return block != null ? rows(new Object[]{block[1]}) : null;
+        });
+        database.on("INSERT INTO blocks", parameters -> {
+            blocks.put((Long) parameters.get(1), new Object[]{parameters.get(0), parameters.get(2)});
+            return null;
+        });
+        database.on("SELECT number FROM projections WHERE name = ?", this::selectCheckpoint);
+        database.on("SELECT number, hash FROM projections WHERE name = ?", this::selectCheckpoint);
+        database.on("INSERT INTO projections", parameters -> {
+            checkpoints.put((String) parameters.get(0), new Object[]{parameters.get(1), parameters.get(2)});
+            return null;
+        });
+        database.on("UPDATE projections", parameters -> {
+            checkpoints.put((String) parameters.get(2), new Object[]{parameters.get(0), parameters.get(1)});
+            return null;
+        });
+
+        this.addressIdPool = new AddressIdPoolManager(1000);
+        addressIdPool.getCache().put(AddressIdCache.toKey(MINER), 1, AddressType.NORMAL);
+
+        this.projections = new ProjectionManager(Arrays.asList(new BalanceChangeProjection(), new BalanceProjection(), new TokenTransferProjection()),
+                HistoryBackfillTest::fetch, database, addressIdPool, config);
+        this.historyBackfill = new HistoryBackfill(HistoryBackfillTest::fetch, database, addressIdPool, projections, new SyncStatus(), config);
+    }
+
+    @After
+    public void tearDown() {
+        configFile.delete();
+    }
+
+    @Test
+    public void projectionsAtTheHistoryTipGoLiveAtTheAnchor() throws Exception {
+        setCheckpoint(BalanceChangeProjection.NAME, HISTORY_TIP);
+        setCheckpoint(BalanceProjection.NAME, HISTORY_TIP);
+        setCheckpoint(TokenTransferProjection.NAME, HISTORY_TIP);
+
+        anchor();
+
+        assertEquals(FILLED_BY_ANCHOR, database.count("INSERT INTO balance_changes"));    // A reward for each block
+        assertCheckpoint(BalanceChangeProjection.NAME, ANCHOR);
+        assertCheckpoint(BalanceProjection.NAME, ANCHOR);
+        assertCheckpoint(TokenTransferProjection.NAME, HISTORY_TIP);
+
+        // In the same transaction as the blocks
+        final List<String> executed = database.getExecuted();
+
+        assertEquals(1, database.count("COMMIT"));
+        assertTrue(executed.indexOf("COMMIT") > executed.lastIndexOf("INSERT INTO projections VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE number = VALUES(number), hash = VALUES(hash)"));
+
+        projections.open(ANCHOR);
+
+        // Not replayed over the gap, which has been written already
+        assertTrue(projections.isLive(BalanceChangeProjection.NAME));
+        assertTrue(projections.isLive(BalanceProjection.NAME));
+        assertFalse(projections.isLive(TokenTransferProjection.NAME));
+
+        historyBackfill.complete();
+
+        assertEquals(1, database.count("DELETE balance FROM balance"));
+    }
+
+    @Test
+    public void projectionsBehindAreLeftToReplay() throws Exception {
+        setCheckpoint(BalanceChangeProjection.NAME, HISTORY_TIP - 5);
+        setCheckpoint(BalanceProjection.NAME, HISTORY_TIP);
+        setCheckpoint(TokenTransferProjection.NAME, HISTORY_TIP);
+
+        anchor();
+
+        assertEquals(0, database.count("INSERT INTO balance_changes"));
+        assertCheckpoint(BalanceChangeProjection.NAME, HISTORY_TIP - 5);
+        assertCheckpoint(BalanceProjection.NAME, HISTORY_TIP);
+
+        projections.open(ANCHOR);
+
+        assertFalse(projections.isLive(BalanceChangeProjection.NAME));
+        assertFalse(projections.isLive(BalanceProjection.NAME));
+
+        historyBackfill.complete();
+
+        assertEquals(0, database.count("DELETE balance FROM balance"));
+    }
+
+    @Test
+    public void balancesBehindAreNotSummed() throws Exception {
+        setCheckpoint(BalanceChangeProjection.NAME, HISTORY_TIP);
+        setCheckpoint(BalanceProjection.NAME, HISTORY_TIP - 5);
+
+        anchor();
+
+        assertEquals(FILLED_BY_ANCHOR, database.count("INSERT INTO balance_changes"));
+        assertCheckpoint(BalanceChangeProjection.NAME, ANCHOR);
+        assertCheckpoint(BalanceProjection.NAME, HISTORY_TIP - 5);
+
+        projections.open(ANCHOR);
+
+        assertTrue(projections.isLive(BalanceChangeProjection.NAME));
+        assertFalse(projections.isLive(BalanceProjection.NAME));
+
+        historyBackfill.complete();
+
+        assertEquals(0, database.count("DELETE balance FROM balance"));
+    }
+
+    private void anchor() throws Exception {
+        try (Connection connection = database.getConnection()) {
+            assertTrue(historyBackfill.anchor(connection, ANCHOR));
+        }
+
+        assertFalse(historyBackfill.isFilled());
+    }
+
+    private void setCheckpoint(String name, long number) {
+        checkpoints.put(name, new Object[]{number, hashOf(number)});
+    }
+
+    private void assertCheckpoint(String name, long number) {
+        assertEquals(number, checkpoints.get(name)[0]);
+        assertArrayEquals(hashOf(number), (byte[]) checkpoints.get(name)[1]);
+    }
+
+    private List<Object[]> selectCheckpoint(List<Object> parameters) {
+        final Object[] checkpoint = checkpoints.get((String) parameters.get(0));
+
+        return checkpoint != null ? rows(checkpoint) : null;
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return Arrays.asList(rows);
+    }
+
+    private static byte[] hashOf(long number) {
+        return HexCodec.decode(hexHashOf(number));
+    }
+
+    private static String hexHashOf(long number) {
+        return String.format("0x%064x", 0xb10c000L + number);
+    }
+
+    private static FetchedBlock fetch(long number) throws IOException {
+        final String json = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"number\":\"0x" + Long.toHexString(number) + "\"," +
+                "\"hash\":\"" + hexHashOf(number) + "\"," +
+                "\"parentHash\":\"" + hexHashOf(number - 1) + "\"," +
+                "\"timestamp\":\"0x55ba4224\"," +
+                "\"miner\":\"" + MINER + "\"," +
+                "\"difficulty\":\"0x3ff800000\"," +
+                "\"gasLimit\":\"0x1388\"," +
+                "\"gasUsed\":\"0x0\"," +
+                "\"extraData\":\"0x\"," +
+                "\"nonce\":\"0x539bd4979fef1ec4\"," +
+                "\"size\":\"0x21b\"," +
+                "\"uncles\":[]," +
+                "\"transactions\":[]}}";
+
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        return new FetchedBlock(block, new RawBlock[0], new RawReceipt[0]);
+    }
+}
@@ -0,0 +1,336 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawBlockDecoder;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectionManagerTest {
+
+    private static final long TIP = 20;
+
+    private final TreeMap<Long, Object[]> blocks = new TreeMap<>();         // Number to id and hash, main chain
+    private final Map<String, Object[]> checkpoints = new HashMap<>();      // Name to number and hash
+
+    private final FakeProjection bulk = new FakeProjection("bulk", true);
+    private final FakeProjection index = new FakeProjection("index", false);
+    private final FakeProjection disabled = new FakeProjection("disabled", false);
+
+    private File configFile;
+    private FakeDatabase database;
+    private ProjectionManager projections;
+
+    @Before
+    public void setUp() throws Exception {
+        this.configFile = File.createTempFile("projection-manager", ".properties");
+
+        final Properties properties = new Properties();
+
+        properties.setProperty("database.url", "jdbc:mariadb://localhost/nekonium");
+        properties.setProperty("database.user", "nekonium");
+        properties.setProperty("database.password", "");
+        properties.setProperty("node.connectiontype", "RPC");
+        properties.setProperty("node.url", "http://localhost:8293");
+        properties.setProperty("converter.projections.disabled", "disabled");
+
+        try (OutputStream outputStream = new FileOutputStream(configFile)) {
+            properties.store(outputStream, null);
+        }
+
+        final ConfigLoader config = new ConfigLoader(configFile);
+        config.loadFromFile();
+
+        for (long number = 0; number <= TIP; number++) {
+            blocks.put(number, new Object[]{number + 1, hashOf(number)});
+        }
+
+        this.database = new FakeDatabase();
+
+        database.on("SELECT hash FROM blocks WHERE number = ?", parameters -> {
+            final Object[] block = blocks.get((Long) parameters.get(0));
+
+            return block != null ? Collections.singletonList(new Object[]{block[1]}) : null;
+        });
+        database.on("SELECT number, internal_id, hash FROM blocks WHERE number BETWEEN ? AND ?", parameters -> {
+            final List<Object[]> rows = new ArrayList<>();
+
+            for (Map.Entry<Long, Object[]> entry : blocks.subMap((Long) parameters.get(0), true, (Long) parameters.get(1), true).entrySet()) {
+                rows.add(new Object[]{entry.getKey(), entry.getValue()[0], entry.getValue()[1]});
+            }
+
+            return rows;
+        });
+        database.on("SELECT number, hash FROM projections WHERE name = ?", parameters -> {
+            final Object[] checkpoint = checkpoints.get((String) parameters.get(0));
+
+            return checkpoint != null ? Collections.singletonList(checkpoint) : null;
+        });
+        database.on("INSERT INTO projections", parameters -> {
+            checkpoints.put((String) parameters.get(0), new Object[]{parameters.get(1), parameters.get(2)});
+            return null;
+        });
+        database.on("UPDATE projections", parameters -> {
+            checkpoints.put((String) parameters.get(2), new Object[]{parameters.get(0), parameters.get(1)});
+            return null;
+        });
+
+        this.projections = new ProjectionManager(Arrays.asList(bulk, index, disabled), ProjectionManagerTest::fetch, database, new AddressIdPoolManager(100), config);
+    }
+
+    @After
+    public void tearDown() {
+        configFile.delete();
+    }
+
+    @Test
+    public void firstOpen() throws Exception {
+        projections.open(TIP);
+
+        // Bulk loaded ones have been written with the blocks
+        assertCheckpoint("bulk", TIP);
+        assertCheckpoint("index", -1);
+        assertNull(checkpoints.get("disabled"));
+
+        assertTrue(projections.isLive("bulk"));
+        assertFalse(projections.isLive("index"));
+        assertFalse(projections.isLive("disabled"));
+        assertTrue(projections.hasWork());
+        assertEquals(1, bulk.opened);
+    }
+
+    @Test
+    public void replay() throws Exception {
+        checkpoints.put("bulk", new Object[]{TIP, hashOf(TIP)});
+        checkpoints.put("index", new Object[]{4L, hashOf(4)});
+
+        projections.open(TIP);
+        projections.step(TIP);
+
+        assertTrue(projections.isLive("index"));
+        assertFalse(projections.hasWork());
+        assertCheckpoint("index", TIP);
+        assertEquals(range(5, TIP), index.applied);
+        assertTrue(bulk.applied.isEmpty());
+        assertEquals(2, database.count("COMMIT"));  // Opening and one step
+    }
+
+    @Test
+    public void checkpointOffTheMainChain() throws Exception {
+        checkpoints.put("bulk", new Object[]{TIP, hashOf(TIP)});
+        checkpoints.put("index", new Object[]{7L, hashOf(0x5_1de)});  // A block which has been forked
+
+        projections.open(TIP);
+
+        assertCheckpoint("index", -1);
+        assertEquals(1, database.count("DELETE FROM fake_index"));
+        assertFalse(projections.isLive("index"));
+
+        projections.step(TIP);
+
+        assertEquals(range(0, TIP), index.applied);
+        assertTrue(projections.isLive("index"));
+    }
+
+    @Test
+    public void liveProjectionsMoveWithBlocks() throws Exception {
+        checkpoints.put("bulk", new Object[]{TIP, hashOf(TIP)});
+
+        projections.open(TIP);
+
+        blocks.put(TIP + 1, new Object[]{TIP + 2, hashOf(TIP + 1)});
+
+        try (Connection connection = database.getConnection(); ConverterStatements statements = new ConverterStatements(connection, true)) {
+            projections.apply(statements, new BlockEvent(fetch(TIP + 1), TIP + 2, null));
+            projections.checkpoint(connection, TIP + 1, hashOf(TIP + 1));
+        }
+
+        projections.commit();
+
+        assertEquals(Collections.singletonList(TIP + 1), bulk.applied);
+        assertTrue(index.applied.isEmpty());
+        assertCheckpoint("bulk", TIP + 1);
+        assertCheckpoint("index", -1);
+    }
+
+    @Test
+    public void reorganized() throws Exception {
+        checkpoints.put("bulk", new Object[]{TIP, hashOf(TIP)});
+        checkpoints.put("index", new Object[]{15L, hashOf(15)});
+
+        projections.open(TIP);
+
+        try (Connection connection = database.getConnection()) {
+            projections.reorganized(connection, 12, 18);
+        }
+
+        // The live one keeps its rows of forked blocks, the one behind goes back to before them
+        assertEquals(Collections.singletonList("12-18"), bulk.reorganized);
+        assertEquals(Collections.singletonList("12-12"), index.reorganized);
+        assertCheckpoint("index", 11);
+
+        projections.rollback();
+
+        try (Connection connection = database.getConnection()) {
+            projections.reorganized(connection, 16, 18);
+        }
+
+        // Not applied any of the changed blocks
+        assertEquals(Collections.singletonList("12-12"), index.reorganized);
+    }
+
+    @Test
+    public void rebuild() throws Exception {
+        checkpoints.put("bulk", new Object[]{TIP, hashOf(TIP)});
+        checkpoints.put("index", new Object[]{TIP, hashOf(TIP)});
+
+        projections.open(TIP);
+
+        assertFalse(projections.hasWork());
+        assertFalse(projections.requestRebuild("disabled"));
+        assertTrue(projections.requestRebuild("bulk"));
+        assertTrue(projections.hasWork());
+
+        projections.step(TIP);
+
+        assertEquals(1, database.count("DELETE FROM fake_bulk"));
+        assertEquals(range(0, TIP), bulk.applied);
+        assertCheckpoint("bulk", TIP);
+        assertTrue(projections.isLive("bulk"));
+        assertEquals(2, bulk.opened);
+    }
+
+    private void assertCheckpoint(String name, long number) {
+        assertEquals(number, checkpoints.get(name)[0]);
+
+        if (number >= 0) {
+            assertArrayEquals(hashOf(number), (byte[]) checkpoints.get(name)[1]);
+        } else {
+            assertNull(checkpoints.get(name)[1]);
+        }
+    }
+
+    private static List<Long> range(long from, long to) {
+        final List<Long> numbers = new ArrayList<>();
+
+        for (long number = from; number <= to; number++) {
+            numbers.add(number);
+        }
+
+        return numbers;
+    }
+
+    private static byte[] hashOf(long number) {
+        return HexCodec.decode(hexHashOf(number));
+    }
+
+    private static String hexHashOf(long number) {
+        return String.format("0x%064x", 0xb10c000L + number);
+    }
+
+    private static FetchedBlock fetch(long number) throws IOException {
+        final String json = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"number\":\"0x" + Long.toHexString(number) + "\"," +
+                "\"hash\":\"" + hexHashOf(number) + "\"," +
+                "\"parentHash\":\"" + hexHashOf(number - 1) + "\"," +
+                "\"timestamp\":\"0x55ba4224\"," +
+                "\"miner\":\"0x05a56e2d52c817161883f50c441c3228cfe54d9f\"," +
+                "\"difficulty\":\"0x3ff800000\"," +
+                "\"gasLimit\":\"0x1388\"," +
+                "\"gasUsed\":\"0x0\"," +
+                "\"extraData\":\"0x\"," +
+                "\"nonce\":\"0x539bd4979fef1ec4\"," +
+                "\"size\":\"0x21b\"," +
+                "\"uncles\":[]," +
+                "\"transactions\":[]}}";
+
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        return new FetchedBlock(block, new RawBlock[0], new RawReceipt[0]);
+    }
+
+    /**
+     * Records what it is asked to do, applied blocks are kept only when committed
+     */
+    private static class FakeProjection implements Projection {
+
+        private final String name;
+        private final boolean bulkLoaded;
+
+        private final List<Long> applied = new ArrayList<>();
+        private final List<Long> pending = new ArrayList<>();
+        private final List<String> reorganized = new ArrayList<>();
+        private int opened;
+
+        private FakeProjection(String name, boolean bulkLoaded) {
+            this.name = name;
+            this.bulkLoaded = bulkLoaded;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String[] getTables() {
+            return new String[]{"fake_" + name};
+        }
+
+        @Override
+        public boolean isBulkLoaded() {
+            return bulkLoaded;
+        }
+
+        @Override
+        public void open(Connection connection) {
+            this.opened++;
+            this.applied.clear();
+        }
+
+        @Override
+        public void apply(ConverterStatements statements, BlockEvent event) {
+            this.pending.add(event.getNumber());
+        }
+
+        @Override
+        public void reorganized(Connection connection, long fromNumber, long belowNumber) {
+            this.reorganized.add(fromNumber + "-" + belowNumber);
+        }
+
+        @Override
+        public void commit() {
+            this.applied.addAll(pending);
+            this.pending.clear();
+        }
+
+        @Override
+        public void rollback() {
+            this.pending.clear();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.nekonium.explorer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentChainWindowTest {
+
+    @Test
+    public void extendsTip() {
+        final RecentChainWindow window = new RecentChainWindow(4);
+
+        assertFalse(window.extendsTip(0, null));
+        assertEquals(-1, window.getTipNumber());
+        assertEquals(-1, window.getTipId());
+
+        window.push(10, 100, hashOf(10), hashOf(9));
+
+        assertTrue(window.extendsTip(11, hashOf(10)));
+        assertFalse(window.extendsTip(11, hashOf(9)));     // An uncle of the tip
+        assertFalse(window.extendsTip(12, hashOf(10)));
+        assertEquals(10, window.getTipNumber());
+        assertEquals(100, window.getTipId());
+    }
+
+    @Test
+    public void oldestIsDropped() {
+        final RecentChainWindow window = new RecentChainWindow(4);
+
+        for (long number = 0; number < 6; number++) {
+            window.push(number, number + 1, hashOf(number), number > 0 ? hashOf(number - 1) : null);
+        }
+
+        assertEquals(4, window.size());
+        assertFalse(window.contains(hashOf(0)));
+        assertFalse(window.contains(hashOf(1)));
+
+        for (long number = 2; number < 6; number++) {
+            assertTrue(window.contains(hashOf(number)));
+        }
+
+        assertEquals(6, window.getTipId());
+    }
+
+    @Test
+    public void startsOverOnReorg() {
+        final RecentChainWindow window = new RecentChainWindow(4);
+
+        window.push(10, 100, hashOf(10), hashOf(9));
+        window.push(11, 101, hashOf(11), hashOf(10));
+
+        final byte[] sideHash = hashOf(0x5_1de);
+
+        window.push(11, 102, sideHash, hashOf(10));     // Replaces #11, the window can't tell where the new chain meets it
+
+        assertEquals(1, window.size());
+        assertFalse(window.contains(hashOf(10)));
+        assertFalse(window.contains(hashOf(11)));
+        assertTrue(window.contains(sideHash));
+        assertEquals(102, window.getTipId());
+    }
+
+    @Test
+    public void sharedPrefix() {
+        final RecentChainWindow window = new RecentChainWindow(2);
+
+        final byte[] hash = hashOf(1);
+        final byte[] samePrefix = hashOf(1);
+
+        samePrefix[31] ^= 1;
+
+        window.push(1, 2, hash, hashOf(0));
+        window.push(2, 3, samePrefix, hash);
+
+        assertTrue(window.contains(samePrefix));
+        assertFalse(window.contains(hashOf(2)));
+
+        window.push(3, 4, hashOf(3), samePrefix);   // Drops the first one, not the index of the second
+
+        assertTrue(window.contains(samePrefix));
+        assertFalse(window.contains(hash));
+    }
+
+    private static byte[] hashOf(long number) {
+        final byte[] hash = new byte[32];
+
+        for (int i = 0; i < 8; i++) {
+            hash[i] = (byte) (number >>> (56 - i * 8));
+        }
+
+        hash[31] = (byte) 0xaa;
+
+        return hash;
+    }
+}
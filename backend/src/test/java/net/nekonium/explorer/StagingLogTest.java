@@ -0,0 +1,154 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.util.HexCodec;
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawBlockDecoder;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StagingLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readBack() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (StagingLog stagingLog = new StagingLog(directory, 1024)) {
+            append(stagingLog, 5, 20);
+
+            try (StagingLog.Reader reader = stagingLog.openReader(12)) {
+                for (long number = 12; number < 20; number++) {
+                    assertArrayEquals(hashOf(number), reader.next(0).getBlock().getHash());
+                }
+
+                assertNull(reader.next(0));     // Not appended yet
+            }
+        }
+
+        try (StagingLog stagingLog = new StagingLog(directory, 1024)) {
+            assertEquals(5, stagingLog.getFirstBlockNumber());
+            assertEquals(19, stagingLog.getLastBlockNumber());
+            assertArrayEquals(hashOf(19), stagingLog.getLastHash());
+        }
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (StagingLog stagingLog = new StagingLog(directory, Long.MAX_VALUE)) {
+            append(stagingLog, 0, 3);
+        }
+
+        final File segment = onlySegment(directory);
+        final long intact;
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            intact = file.length();
+            file.setLength(intact - 10);    // The process died in the middle of appending #2
+        }
+
+        try (StagingLog stagingLog = new StagingLog(directory, Long.MAX_VALUE)) {
+            assertEquals(1, stagingLog.getLastBlockNumber());
+            assertArrayEquals(hashOf(1), stagingLog.getLastHash());
+            assertEquals(intact - recordSize(2), segment.length());
+
+            // Appending continues from the last whole record
+            append(stagingLog, 2, 4);
+
+            try (StagingLog.Reader reader = stagingLog.openReader(0)) {
+                for (long number = 0; number < 4; number++) {
+                    assertArrayEquals(hashOf(number), reader.next(0).getBlock().getHash());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void brokenRecordIsCutOff() throws Exception {
+        final File directory = folder.newFolder();
+
+        try (StagingLog stagingLog = new StagingLog(directory, Long.MAX_VALUE)) {
+            append(stagingLog, 0, 3);
+        }
+
+        final File segment = onlySegment(directory);
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // A byte of the payload of #1, the header is still whole
+            final long position = recordSize(0) + 8 + 20;
+
+            file.seek(position);
+            final int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        }
+
+        try (StagingLog stagingLog = new StagingLog(directory, Long.MAX_VALUE)) {
+            // Everything from the broken record on is gone
+            assertEquals(0, stagingLog.getLastBlockNumber());
+            assertEquals(recordSize(0), segment.length());
+        }
+    }
+
+    private static void append(StagingLog stagingLog, long from, long to) throws IOException {
+        for (long number = from; number < to; number++) {
+            stagingLog.append(fetch(number));
+        }
+    }
+
+    private static File onlySegment(File directory) {
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+
+        assertEquals(1, segments.length);
+
+        return segments[0];
+    }
+
+    private static long recordSize(long number) throws IOException {
+        return 8 + StagingLog.encode(fetch(number)).length;
+    }
+
+    private static byte[] hashOf(long number) {
+        return HexCodec.decode(hexHashOf(number));
+    }
+
+    private static String hexHashOf(long number) {
+        return String.format("0x%064x", 0xb10c000L + number);
+    }
+
+    private static FetchedBlock fetch(long number) throws IOException {
+        final String json = "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"number\":\"0x" + Long.toHexString(number) + "\"," +
+                "\"hash\":\"" + hexHashOf(number) + "\"," +
+                "\"parentHash\":\"" + hexHashOf(number - 1) + "\"," +
+                "\"timestamp\":\"0x55ba4224\"," +
+                "\"miner\":\"0x05a56e2d52c817161883f50c441c3228cfe54d9f\"," +
+                "\"difficulty\":\"0x3ff800000\"," +
+                "\"gasLimit\":\"0x1388\"," +
+                "\"gasUsed\":\"0x0\"," +
+                "\"extraData\":\"0x\"," +
+                "\"nonce\":\"0x539bd4979fef1ec4\"," +
+                "\"size\":\"0x21b\"," +
+                "\"uncles\":[]," +
+                "\"transactions\":[]}}";
+
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        return new FetchedBlock(block, new RawBlock[0], new RawReceipt[0]);
+    }
+}
@@ -0,0 +1,142 @@
+package net.nekonium.explorer;
+
+import net.nekonium.explorer.web3jexpand.RawBlock;
+import net.nekonium.explorer.web3jexpand.RawBlockDecoder;
+import net.nekonium.explorer.web3jexpand.RawReceipt;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TokenTransferProjectionTest {
+
+    private static final String TRANSFER_TOPIC = "0xddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef";
+    private static final String TOKEN = "0x5df9b87991262f6ba471f09758cde1c0fc1de734";
+    private static final String FROM = "0x05a56e2d52c817161883f50c441c3228cfe54d9f";
+    private static final String TO = "0x88e96d4537bea4d9c05d12549907b32561d3bf31";
+    private static final long BLOCK_ID = 7;
+
+    @Test
+    public void transfer() throws Exception {
+        final FakeDatabase database = new FakeDatabase();
+        final List<List<Object>> transfers = record(database, "INSERT INTO token_transfers");
+        final List<List<Object>> balances = record(database, "INSERT INTO token_balances");
+
+        apply(database, log(TRANSFER_TOPIC, 3, "00000000000000000000000000000000000000000000000000000000000003e8"));
+
+        assertEquals(1, transfers.size());
+        assertEquals(BLOCK_ID, transfers.get(0).get(0));
+        assertEquals(3, transfers.get(0).get(2));       // Log index
+        assertEquals(1L, transfers.get(0).get(3));      // Token
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x03, (byte) 0xe8}, (byte[]) transfers.get(0).get(6));
+
+        final Map<Long, BigDecimal> holders = new HashMap<>();
+
+        for (List<Object> balance : balances) {
+            holders.put((Long) balance.get(1), (BigDecimal) balance.get(2));
+        }
+
+        assertEquals(new BigDecimal(-1000), holders.get(2L));
+        assertEquals(new BigDecimal(1000), holders.get(3L));
+        assertEquals(0, database.count("INSERT IGNORE INTO unindexed_tokens"));
+    }
+
+    @Test
+    public void transferOver128Bits() throws Exception {
+        final FakeDatabase database = new FakeDatabase();
+        final List<List<Object>> marks = record(database, "INSERT IGNORE INTO unindexed_tokens");
+
+        apply(database, log(TRANSFER_TOPIC, 0, "0000000000000000000000000000000100000000000000000000000000000000"));
+
+        assertEquals(0, database.count("INSERT INTO token_transfers"));
+        assertEquals(0, database.count("INSERT INTO token_balances"));
+        assertEquals(1, marks.size());
+        assertEquals(1L, marks.get(0).get(0));
+        assertEquals(BLOCK_ID, marks.get(0).get(1));
+    }
+
+    @Test
+    public void notTransfer() throws Exception {
+        final FakeDatabase database = new FakeDatabase();
+
+        // Approval(address,address,uint256)
+        apply(database, log("0x8c5be1e5ebec7d5bd14f71427d1e84f3dd0314c0f7b2291e5b200ac8c7c3b925", 0,
+                "00000000000000000000000000000000000000000000000000000000000003e8"));
+
+        assertEquals(0, database.count("INSERT INTO token_transfers"));
+        assertEquals(0, database.count("INSERT IGNORE INTO unindexed_tokens"));
+    }
+
+    private static List<List<Object>> record(FakeDatabase database, String sqlPrefix) {
+        final List<List<Object>> rows = new ArrayList<>();
+
+        database.on(sqlPrefix, parameters -> {
+            rows.add(new ArrayList<>(parameters));
+            return null;
+        });
+
+        return rows;
+    }
+
+    private static void apply(FakeDatabase database, String log) throws Exception {
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(stream("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"number\":\"0x64\",\"hash\":\"" + hash(1) + "\",\"parentHash\":\"" + hash(2) + "\"," +
+                "\"timestamp\":\"0x55ba4224\",\"miner\":\"" + FROM + "\",\"difficulty\":\"0x1\",\"gasLimit\":\"0x1388\"," +
+                "\"gasUsed\":\"0x5208\",\"extraData\":\"0x\",\"nonce\":\"0x0\",\"size\":\"0x21b\",\"uncles\":[]," +
+                "\"transactions\":[{\"hash\":\"" + hash(3) + "\",\"transactionIndex\":\"0x0\",\"from\":\"" + FROM + "\",\"to\":\"" + TOKEN + "\"," +
+                "\"gas\":\"0x5208\",\"gasPrice\":\"0x1\",\"value\":\"0x0\",\"nonce\":\"0x0\",\"input\":\"0x\"}]}}"));
+        final List<RawReceipt> receipts = RawBlockDecoder.RECEIPTS.decode(stream("[{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"transactionHash\":\"" + hash(3) + "\",\"gasUsed\":\"0x5208\",\"contractAddress\":null,\"logs\":[" + log + "]}}]"));
+
+        final Map<String, Long> addressIds = new HashMap<>();
+
+        addressIds.put(TOKEN, 1L);
+        addressIds.put(FROM, 2L);
+        addressIds.put(TO, 3L);
+
+        final AddressIdResolver resolver = new AddressIdResolver() {
+            @Override
+            public long getOrInsert(String prefixedAddress, AddressType addressType, boolean careType) {
+                return get(prefixedAddress);
+            }
+
+            @Override
+            public long get(String prefixedAddress) {
+                return addressIds.get(prefixedAddress.toLowerCase());
+            }
+        };
+
+        final FetchedBlock fetchedBlock = new FetchedBlock(block, new RawBlock[0], receipts.toArray(new RawReceipt[0]));
+
+        try (Connection connection = database.getConnection(); ConverterStatements statements = new ConverterStatements(connection, true)) {
+            new TokenTransferProjection().apply(statements, new BlockEvent(fetchedBlock, BLOCK_ID, resolver));
+            statements.flush();
+        }
+    }
+
+    private static String log(String topic, int logIndex, String data) {
+        return "{\"address\":\"" + TOKEN + "\",\"topics\":[\"" + topic + "\",\"" + topicOf(FROM) + "\",\"" + topicOf(TO) + "\"]," +
+                "\"data\":\"0x" + data + "\",\"logIndex\":\"0x" + Integer.toHexString(logIndex) + "\",\"removed\":false}";
+    }
+
+    private static String topicOf(String address) {
+        return "0x000000000000000000000000" + address.substring(2);
+    }
+
+    private static String hash(int n) {
+        return String.format("0x%064x", n);
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
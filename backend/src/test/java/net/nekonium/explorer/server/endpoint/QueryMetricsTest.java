@@ -0,0 +1,85 @@
+package net.nekonium.explorer.server.endpoint;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryMetricsTest {
+
+    @Test
+    public void empty() {
+        final QueryMetrics metrics = new QueryMetrics();
+
+        assertEquals(0, metrics.getAcceptedCount());
+        assertEquals(0, metrics.getAverageWaitMillis(), 0);
+        assertEquals(0, metrics.getAverageHandleMillis(), 0);
+        assertEquals(0, metrics.getMaxWaitMillis());
+    }
+
+    @Test
+    public void counts() {
+        final QueryMetrics metrics = new QueryMetrics();
+
+        for (int i = 0; i < 4; i++) {
+            metrics.accepted();
+        }
+
+        metrics.rejected();
+        metrics.waited(millis(2));
+        metrics.handled(millis(10), false);
+        metrics.waited(millis(4));
+        metrics.handled(millis(30), true);
+        metrics.waited(millis(6));
+        metrics.handled(millis(20), false);
+        metrics.shed(millis(40));
+
+        assertEquals(4, metrics.getAcceptedCount());
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(1, metrics.getShedCount());
+        assertEquals(2, metrics.getHandledCount());
+        assertEquals(1, metrics.getFailedCount());
+
+        // Shed ones waited too, but never reached a handler
+        assertEquals(13, metrics.getAverageWaitMillis(), 0.001);
+        assertEquals(40, metrics.getMaxWaitMillis());
+        assertEquals(20, metrics.getAverageHandleMillis(), 0.001);
+        assertEquals(30, metrics.getMaxHandleMillis());
+
+        assertTrue(metrics.toString().startsWith("Accepted 4 requests, 1 rejected and 1 shed as busy, 2 handled, 1 failed"));
+    }
+
+    @Test
+    public void fromManyThreads() throws Exception {
+        final QueryMetrics metrics = new QueryMetrics();
+        final Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            final long handleNanos = millis(i + 1);
+
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    metrics.accepted();
+                    metrics.waited(0);
+                    metrics.handled(handleNanos, false);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, metrics.getAcceptedCount());
+        assertEquals(40000, metrics.getHandledCount());
+        assertEquals(2.5, metrics.getAverageHandleMillis(), 0.001);
+        assertEquals(4, metrics.getMaxHandleMillis());
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
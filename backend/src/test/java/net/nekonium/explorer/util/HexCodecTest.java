@@ -0,0 +1,75 @@
+package net.nekonium.explorer.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HexCodecTest {
+
+    private static final byte[] BYTES = {0x00, 0x0f, 0x10, 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff};
+
+    @Test
+    public void encode() {
+        assertEquals("000f107f80abff", HexCodec.encode(BYTES));
+        assertEquals("0x000f107f80abff", HexCodec.encodePrefixed(BYTES));
+        assertEquals("", HexCodec.encode(new byte[0]));
+        assertEquals("0x", HexCodec.encodePrefixed(new byte[0]));
+    }
+
+    @Test
+    public void decodePrefixAndCase() {
+        assertArrayEquals(BYTES, HexCodec.decode("000f107f80abff"));
+        assertArrayEquals(BYTES, HexCodec.decode("0x000f107f80abff"));
+        assertArrayEquals(BYTES, HexCodec.decode("0X000F107F80ABFF"));
+        assertArrayEquals(BYTES, HexCodec.decode("0x000F107f80AbfF"));
+        assertArrayEquals(new byte[0], HexCodec.decode("0x"));
+        assertArrayEquals(new byte[0], HexCodec.decode(""));
+    }
+
+    @Test
+    public void decodePartOfCharArray() {
+        final char[] chars = "\"0x000f107f80abff\",\"0XAB\"".toCharArray();
+
+        assertArrayEquals(BYTES, HexCodec.decode(chars, 1, 16));
+        assertArrayEquals(new byte[]{(byte) 0xab}, HexCodec.decode(chars, 20, 4));
+        assertArrayEquals(new byte[]{0x0f, 0x10}, HexCodec.decode(chars, 5, 4));
+    }
+
+    @Test
+    public void roundTrip() {
+        final byte[] bytes = new byte[256];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        assertArrayEquals(bytes, HexCodec.decode(HexCodec.encodePrefixed(bytes)));
+        assertArrayEquals(bytes, HexCodec.decode(HexCodec.encode(bytes).toUpperCase()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeOddLength() {
+        HexCodec.decode("0xabc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeNotHex() {
+        HexCodec.decode("0xabcg");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeDoublePrefix() {
+        HexCodec.decode("0x0xab");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeCharArrayOddLength() {
+        HexCodec.decode("0xabc".toCharArray(), 0, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeCharArrayNotHex() {
+        HexCodec.decode("0x12 4".toCharArray(), 0, 6);
+    }
+}
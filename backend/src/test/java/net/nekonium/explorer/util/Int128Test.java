@@ -0,0 +1,221 @@
+package net.nekonium.explorer.util;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Int128Test {
+
+    private static final BigInteger MAX = BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE);
+    private static final BigInteger MIN = BigInteger.ONE.shiftLeft(127).negate();
+
+    private static final BigInteger[] SAMPLES = {
+            BigInteger.ZERO,
+            BigInteger.ONE,
+            BigInteger.ONE.negate(),
+            BigInteger.valueOf(127),
+            BigInteger.valueOf(128),
+            BigInteger.valueOf(-128),
+            BigInteger.valueOf(-129),
+            BigInteger.valueOf(Long.MAX_VALUE),
+            BigInteger.valueOf(Long.MIN_VALUE),
+            BigInteger.ONE.shiftLeft(64),
+            BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+            BigInteger.ONE.shiftLeft(64).negate(),
+            new BigInteger("7500000000000000000"),
+            new BigInteger("123456789012345678901234567890"),
+            new BigInteger("-123456789012345678901234567890"),
+            MAX,
+            MIN
+    };
+
+    @Test
+    public void toStringMatchesBigInteger() {
+        for (BigInteger sample : SAMPLES) {
+            assertEquals(sample.toString(), Int128.valueOf(sample).toString());
+        }
+    }
+
+    @Test
+    public void byteArrayRoundTrip() {
+        for (BigInteger sample : SAMPLES) {
+            final Int128 value = Int128.valueOf(sample);
+
+            assertArrayEquals(sample.toString(), sample.toByteArray(), value.toByteArray());
+            assertEquals(value, Int128.fromByteArray(sample.toByteArray()));
+            assertEquals(sample, value.toBigInteger());
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void fromEmptyByteArray() {
+        Int128.fromByteArray(new byte[0]);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void fromTooLongByteArray() {
+        Int128.fromByteArray(new byte[17]);
+    }
+
+    @Test
+    public void signum() {
+        for (BigInteger sample : SAMPLES) {
+            assertEquals(sample.toString(), sample.signum(), Int128.valueOf(sample).signum());
+        }
+    }
+
+    @Test
+    public void negateAndAbs() {
+        for (BigInteger sample : SAMPLES) {
+            if (sample.equals(MIN)) {
+                continue;
+            }
+
+            final Int128 value = Int128.valueOf(sample);
+
+            assertEquals(sample.abs(), value.abs().toBigInteger());
+            assertEquals(sample, value.toBigInteger());  // abs() is a new one
+            assertEquals(sample.negate(), value.negate().toBigInteger());
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void negateMinOverflows() {
+        Int128.valueOf(MIN).negate();
+    }
+
+    @Test
+    public void addAndSubtract() {
+        for (BigInteger a : SAMPLES) {
+            for (BigInteger b : SAMPLES) {
+                final BigInteger sum = a.add(b);
+                final BigInteger difference = a.subtract(b);
+
+                if (fits(sum)) {
+                    assertEquals(a + " + " + b, sum, Int128.valueOf(a).add(Int128.valueOf(b)).toBigInteger());
+                } else {
+                    assertOverflow(() -> Int128.valueOf(a).add(Int128.valueOf(b)));
+                }
+
+                if (fits(difference) && !b.equals(MIN)) {
+                    assertEquals(a + " - " + b, difference, Int128.valueOf(a).subtract(Int128.valueOf(b)).toBigInteger());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void addCarriesIntoHigh() {
+        final Int128 value = new Int128(0, -1L);   // 2^64 - 1
+
+        value.add(1);
+
+        assertEquals(1, value.getHigh());
+        assertEquals(0, value.getLow());
+
+        value.add(-1);
+
+        assertEquals(0, value.getHigh());
+        assertEquals(-1L, value.getLow());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void addOverflows() {
+        Int128.valueOf(MAX).add(1);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void subtractOverflows() {
+        Int128.valueOf(MIN).add(-1);
+    }
+
+    @Test
+    public void addProduct() {
+        final long[] multipliers = {0, 1, 2, 21000, 4700000, Integer.MAX_VALUE, Long.MAX_VALUE};
+
+        for (BigInteger a : SAMPLES) {
+            for (BigInteger b : SAMPLES) {
+                for (long multiplier : multipliers) {
+                    final BigInteger product = b.multiply(BigInteger.valueOf(multiplier));
+                    final BigInteger sum = a.add(product);
+                    final BigInteger difference = a.subtract(product);
+
+                    if (fits(product) && fits(sum) && !b.equals(MIN)) {
+                        assertEquals(a + " + " + multiplier + " * " + b, sum,
+                                Int128.valueOf(a).addProduct(multiplier, Int128.valueOf(b)).toBigInteger());
+                    }
+
+                    if (fits(product) && fits(difference) && !b.equals(MIN)) {
+                        assertEquals(a + " - " + multiplier + " * " + b, difference,
+                                Int128.valueOf(a).subtractProduct(multiplier, Int128.valueOf(b)).toBigInteger());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void addProductOfFee() {
+        // 21000 gas at 20 gwei, from a balance of 1 NUKO
+        final Int128 balance = Int128.valueOf(new BigInteger("1000000000000000000"));
+
+        balance.subtractProduct(21000, Int128.valueOf(20000000000L));
+
+        assertEquals("999580000000000000", balance.toString());
+    }
+
+    @Test
+    public void subtractProductDownToMin() {
+        final Int128 value = Int128.valueOf(MIN.add(BigInteger.ONE));
+
+        value.subtractProduct(1, Int128.valueOf(1));
+
+        assertEquals(MIN, value.toBigInteger());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void addProductOverflowsInProduct() {
+        new Int128().addProduct(Long.MAX_VALUE, Int128.ofUnsigned(1L << 62, 0));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void addProductOverflowsInSum() {
+        Int128.valueOf(MAX).addProduct(1, Int128.valueOf(1));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void ofUnsignedOverflows() {
+        Int128.ofUnsigned(Long.MIN_VALUE, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void valueOfBigIntegerOverflows() {
+        Int128.valueOf(MAX.add(BigInteger.ONE));
+    }
+
+    @Test
+    public void compareTo() {
+        for (BigInteger a : SAMPLES) {
+            for (BigInteger b : SAMPLES) {
+                assertEquals(a + " <=> " + b, a.compareTo(b), Integer.signum(Int128.valueOf(a).compareTo(Int128.valueOf(b))));
+            }
+        }
+    }
+
+    private static boolean fits(BigInteger value) {
+        return value.compareTo(MIN) >= 0 && value.compareTo(MAX) <= 0;
+    }
+
+    private static void assertOverflow(Runnable runnable) {
+        try {
+            runnable.run();
+            fail("Expected an overflow");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.nekonium.explorer.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        final LongHashMap<String> map = new LongHashMap<>();
+
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-1, "b"));
+        assertNull(map.put(0, "c"));    // 0 is a key like any other
+
+        assertEquals("a", map.put(1, "d"));
+        assertEquals("d", map.get(1));
+        assertEquals("b", map.get(-1));
+        assertEquals("c", map.get(0));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(2));
+        assertEquals(3, map.size());
+
+        assertEquals("c", map.remove(0));
+        assertNull(map.remove(0));
+        assertEquals(2, map.size());
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValue() {
+        new LongHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void sameAsHashMap() {
+        final LongHashMap<Long> map = new LongHashMap<>(4);     // Grows many times
+        final Map<Long, Long> expected = new HashMap<>();
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            // Sequential ids and random ones, the mix has to spread both
+            final long key = random.nextBoolean() ? random.nextInt(5000) : random.nextLong();
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        final Map<Long, Long> visited = new HashMap<>();
+
+        map.forEach(visited::put);
+
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,92 @@
+package net.nekonium.explorer.web3jexpand;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonFramerTest {
+
+    @Test
+    public void oneValue() {
+        assertEquals(Arrays.asList("{\"id\":1,\"result\":\"0x1\"}"), frame("{\"id\":1,\"result\":\"0x1\"}"));
+    }
+
+    @Test
+    public void valuesInOneRead() {
+        assertEquals(Arrays.asList("{\"id\":1}", "[{\"id\":2},{\"id\":3}]", "{\"id\":4}"),
+                frame("{\"id\":1}\n[{\"id\":2},{\"id\":3}]  \r\n{\"id\":4}\n"));
+    }
+
+    @Test
+    public void valueSplitAcrossReads() {
+        assertEquals(Arrays.asList("{\"id\":1,\"result\":{\"number\":\"0x10\"}}", "{\"id\":2}"),
+                frame("{\"id\":1,\"res", "ult\":{\"number\"", ":\"0x10\"}", "}\n{\"id\"", ":2}"));
+    }
+
+    @Test
+    public void valueSplitIntoSingleBytes() {
+        final String json = "{\"a\":[1,{\"b\":\"}]\\\"{\"}]}\n[\"x\"]";
+        final String[] reads = new String[json.length()];
+
+        for (int i = 0; i < json.length(); i++) {
+            reads[i] = json.substring(i, i + 1);
+        }
+
+        assertEquals(Arrays.asList("{\"a\":[1,{\"b\":\"}]\\\"{\"}]}", "[\"x\"]"), frame(reads));
+    }
+
+    @Test
+    public void bracketsInStrings() {
+        assertEquals(Arrays.asList("{\"error\":{\"message\":\"unexpected } or ] in [input]\"}}"),
+                frame("{\"error\":{\"message\":\"unexpected } or ] in [input]\"}}"));
+    }
+
+    @Test
+    public void escapesInStrings() {
+        // An escaped quote doesn't end the string, an escaped backslash right before the quote does
+        assertEquals(Arrays.asList("{\"a\":\"\\\"}\"}", "{\"b\":\"\\\\\"}"),
+                frame("{\"a\":\"\\\"}\"}{\"b\":\"\\\\\"}"));
+    }
+
+    @Test
+    public void escapeSplitAcrossReads() {
+        assertEquals(Arrays.asList("{\"a\":\"\\\"}\"}"), frame("{\"a\":\"\\", "\"}\"}"));
+    }
+
+    @Test
+    public void valueLargerThanBuffer() {
+        final StringBuilder builder = new StringBuilder("{\"input\":\"");
+
+        while (builder.length() < 200000) {
+            builder.append("0123456789abcdef");
+        }
+
+        final String json = builder.append("\"}").toString();
+        final int half = json.length() / 2;
+
+        assertEquals(Arrays.asList(json), frame(json.substring(0, half), json.substring(half)));
+    }
+
+    @Test
+    public void nothingUntilFinished() {
+        assertEquals(new ArrayList<String>(), frame("{\"id\":1,", "\"result\":[1,2"));
+    }
+
+    private static List<String> frame(String... reads) {
+        final UnixIpcMultiplexer.JsonFramer framer = new UnixIpcMultiplexer.JsonFramer();
+        final List<String> frames = new ArrayList<>();
+
+        for (String read : reads) {
+            framer.feed(ByteBuffer.wrap(read.getBytes(StandardCharsets.UTF_8)),
+                    (bytes, offset, length) -> frames.add(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+        }
+
+        return frames;
+    }
+}
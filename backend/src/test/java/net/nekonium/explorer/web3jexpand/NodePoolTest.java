@@ -0,0 +1,242 @@
+package net.nekonium.explorer.web3jexpand;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Test;
+import org.web3j.protocol.Service;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NodePoolTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final List<NodePool> pools = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (NodePool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void failover() throws Exception {
+        final FakeNode broken = new FakeNode(Behavior.FAIL);
+        final FakeNode working = new FakeNode(Behavior.ANSWER);
+
+        final NodePool pool = pool(NodePool.Routing.ROUND_ROBIN, broken.connection(true), working.connection(true));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("0x3039", blockNumber(pool));
+        }
+
+        // Left alone after failing once, the calls go to the working node
+        assertEquals(1, broken.calls.get());
+        assertEquals(10, working.calls.get());
+        assertFalse(pool.getNodes().get(0).isHealthy());
+        assertEquals(1, pool.getNodes().get(0).getFailureCount());
+        assertTrue(pool.getNodes().get(1).isHealthy());
+    }
+
+    @Test
+    public void nullResultIsAskedAgain() throws Exception {
+        final FakeNode behind = new FakeNode(Behavior.NULL_RESULT);
+        final FakeNode working = new FakeNode(Behavior.ANSWER);
+
+        final NodePool pool = pool(NodePool.Routing.ROUND_ROBIN, behind.connection(true), working.connection(true));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("0x3039", blockNumber(pool));
+        }
+
+        // Answered by the other node, but not a failure of the one behind
+        assertEquals(4, working.calls.get());
+        assertEquals(0, pool.getNodes().get(0).getFailureCount());
+        assertTrue(pool.getNodes().get(0).isHealthy());
+    }
+
+    @Test
+    public void downNodeIsTriedWhenNothingElse() throws Exception {
+        final FakeNode node = new FakeNode(Behavior.FAIL);
+
+        final NodePool pool = pool(NodePool.Routing.LEAST_LATENCY, node.connection(true));
+
+        try {
+            blockNumber(pool);
+            fail();
+        } catch (IOException e) {
+            // Expected, the only node failed
+        }
+
+        assertFalse(pool.getNodes().get(0).isHealthy());
+
+        node.behavior = Behavior.ANSWER;
+
+        assertEquals("0x3039", blockNumber(pool));
+        assertTrue(pool.getNodes().get(0).isHealthy());
+    }
+
+    @Test
+    public void sendBatchKeepsOrder() throws Exception {
+        final FakeNode batchNode = new FakeNode(Behavior.ANSWER);
+        final FakeNode singleNode = new FakeNode(Behavior.ANSWER);
+
+        batchNode.reversed = true;  // Responses of a batch can come back in any order
+
+        final List<Request<?, EthBlockNumber>> requests = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            requests.add(new Request<>("eth_blockNumber", Collections.singletonList("0x" + i), i + 1, null, EthBlockNumber.class));
+        }
+
+        for (FakeNode node : Arrays.asList(batchNode, singleNode)) {
+            final NodePool pool = pool(NodePool.Routing.ROUND_ROBIN, node.connection(node == batchNode));
+            final List<EthBlockNumber> responses = pool.sendBatch(requests, EthBlockNumber.class);
+
+            assertEquals(5, responses.size());
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals("0x" + i, responses.get(i).getResult());
+            }
+        }
+
+        assertEquals(1, batchNode.calls.get());     // One round trip
+        assertEquals(5, singleNode.calls.get());
+    }
+
+    @Test
+    public void rawClient() throws Exception {
+        final FakeNode batchNode = new FakeNode(Behavior.ANSWER);
+        final FakeNode singleNode = new FakeNode(Behavior.ANSWER);
+
+        assertNull(pool(NodePool.Routing.ROUND_ROBIN, batchNode.connection(true), singleNode.connection(false)).getRawClient());
+
+        final RawClient rawClient = pool(NodePool.Routing.ROUND_ROBIN, batchNode.connection(true)).getRawClient();
+
+        assertNotNull(rawClient);
+
+        final ArrayNode batch = JsonNodeFactory.instance.arrayNode();
+
+        batch.add(rawClient.createRequest("eth_blockNumber", "0x0"));
+        batch.add(rawClient.createRequest("eth_blockNumber", "0x1"));
+
+        final JsonNode response = rawClient.send(batch, inputStream -> OBJECT_MAPPER.readTree(inputStream));
+
+        assertEquals(2, response.size());
+        assertEquals(1, batchNode.calls.get());
+    }
+
+    private NodePool pool(NodePool.Routing routing, NodeConnection... nodes) {
+        final NodePool pool = new NodePool(Arrays.asList(nodes), routing, false);
+
+        pools.add(pool);
+
+        return pool;
+    }
+
+    private static String blockNumber(NodePool pool) throws IOException {
+        return pool.send(new Request<>("eth_blockNumber", Collections.<String>emptyList(), 1, null, EthBlockNumber.class), EthBlockNumber.class).getResult();
+    }
+
+    private enum Behavior {
+        ANSWER, NULL_RESULT, FAIL
+    }
+
+    /**
+     * Answers with the first parameter of a request, or {@code 0x3039} without one
+     */
+    private static class FakeNode {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile Behavior behavior;
+        private volatile boolean reversed;
+
+        private FakeNode(Behavior behavior) {
+            this.behavior = behavior;
+        }
+
+        private NodeConnection connection(boolean batch) {
+            final Service service = new Service(false) {
+                @Override
+                protected InputStream performIO(String payload) throws IOException {
+                    return respond(payload.getBytes(StandardCharsets.UTF_8));
+                }
+            };
+
+            final BatchService batchService = !batch ? null : new BatchService(false) {
+                @Override
+                protected InputStream performBatchIO(byte[] payload) throws IOException {
+                    return respond(payload);
+                }
+            };
+
+            return new NodeConnection("fake-" + System.identityHashCode(this), service, batchService);
+        }
+
+        private InputStream respond(byte[] payload) throws IOException {
+            calls.incrementAndGet();
+
+            if (behavior == Behavior.FAIL) {
+                throw new IOException("Node is down");
+            }
+
+            final JsonNode request = OBJECT_MAPPER.readTree(payload);
+            final JsonNode response;
+
+            if (request.isArray()) {
+                final List<JsonNode> responses = new ArrayList<>();
+
+                for (JsonNode element : request) {
+                    responses.add(responseOf(element));
+                }
+
+                if (reversed) {
+                    Collections.reverse(responses);
+                }
+
+                response = JsonNodeFactory.instance.arrayNode().addAll(responses);
+            } else {
+                response = responseOf(request);
+            }
+
+            return new ByteArrayInputStream(OBJECT_MAPPER.writeValueAsBytes(response));
+        }
+
+        private ObjectNode responseOf(JsonNode request) {
+            final ObjectNode response = JsonNodeFactory.instance.objectNode();
+
+            response.put("jsonrpc", "2.0");
+            response.set("id", request.get("id"));
+
+            if (behavior == Behavior.NULL_RESULT) {
+                response.putNull("result");
+            } else {
+                response.put("result", request.path("params").path(0).asText("0x3039"));
+            }
+
+            return response;
+        }
+    }
+}
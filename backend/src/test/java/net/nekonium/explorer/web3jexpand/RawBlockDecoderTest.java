@@ -0,0 +1,181 @@
+package net.nekonium.explorer.web3jexpand;
+
+import net.nekonium.explorer.util.HexCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RawBlockDecoderTest {
+
+    private static final String HASH = "0x88e96d4537bea4d9c05d12549907b32561d3bf31f45aae734cdc119f13406cb6";
+    private static final String PARENT_HASH = "0xd4e56740f876aef8c010b86a40d5f56745a118d0906a34e69aec8c0db1cb8fa3";
+    private static final String TX_HASH = "0x5c504ed432cb51138bcf09aa5e8a410dd4a1e204ef84bfed1be16dfba1b22060";
+    private static final String MINER = "0x05a56e2d52c817161883f50c441c3228cfe54d9f";
+    private static final String TO = "0x5df9b87991262f6ba471f09758cde1c0fc1de734";
+
+    private static final String BLOCK = "{" +
+            "\"number\":\"0x1b4\"," +
+            "\"hash\":\"" + HASH + "\"," +
+            "\"parentHash\":\"" + PARENT_HASH + "\"," +
+            "\"logsBloom\":\"0x00\"," +
+            "\"timestamp\":\"0x55ba4224\"," +
+            "\"miner\":\"" + MINER + "\"," +
+            "\"difficulty\":\"0x3ff800000\"," +
+            "\"totalDifficulty\":\"0x7ff800000\"," +
+            "\"gasLimit\":\"0x1388\"," +
+            "\"gasUsed\":\"0x5208\"," +
+            "\"extraData\":\"0x476574682f76312e302e30\"," +
+            "\"nonce\":\"0x539bd4979fef1ec4\"," +
+            "\"size\":\"0x21b\"," +
+            "\"sealFields\":[\"0x01\",{\"nested\":[1,2]}]," +
+            "\"uncles\":[\"" + PARENT_HASH + "\"]," +
+            "\"transactions\":[" +
+            "{\"hash\":\"" + TX_HASH + "\",\"transactionIndex\":\"0x0\",\"from\":\"" + MINER + "\",\"to\":\"" + TO + "\"," +
+            "\"gas\":\"0x5208\",\"gasPrice\":\"0x4a817c800\",\"value\":\"0xde0b6b3a76400000\",\"nonce\":\"0x7\",\"input\":\"0x\"}," +
+            "{\"hash\":\"" + HASH + "\",\"transactionIndex\":\"0x1\",\"from\":\"" + TO + "\",\"to\":null," +
+            "\"gas\":\"0x47b760\",\"gasPrice\":\"0x1\",\"value\":\"0x10000000000000000000\",\"nonce\":\"0x0\",\"input\":\"0x6060\"}" +
+            "]}";
+
+    @Test
+    public void block() throws IOException {
+        final RawBlock block = RawBlockDecoder.BLOCK.decode(stream("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":" + BLOCK + "}"));
+
+        assertEquals(0x1b4, block.getNumber());
+        assertArrayEquals(HexCodec.decode(HASH), block.getHash());
+        assertArrayEquals(HexCodec.decode(PARENT_HASH), block.getParentHash());
+        assertEquals(0x55ba4224, block.getTimestamp());
+        assertEquals(MINER, block.getMiner());
+        assertEquals(0x3ff800000L, block.getDifficulty());
+        assertEquals(0x1388, block.getGasLimit());
+        assertEquals(0x5208, block.getGasUsed());
+        assertArrayEquals("Geth/v1.0.0".getBytes(StandardCharsets.US_ASCII), block.getExtraData());
+        assertEquals(0x539bd4979fef1ec4L, block.getNonce());
+        assertEquals(0x21b, block.getSize());
+        assertEquals(1, block.getUncleHashes().length);
+        assertArrayEquals(HexCodec.decode(PARENT_HASH), block.getUncleHashes()[0]);
+
+        final RawTransaction[] transactions = block.getTransactions();
+
+        assertEquals(2, transactions.length);
+
+        assertArrayEquals(HexCodec.decode(TX_HASH), transactions[0].getHash());
+        assertEquals(0, transactions[0].getIndex());
+        assertEquals(MINER, transactions[0].getFrom());
+        assertEquals(TO, transactions[0].getTo());
+        assertEquals(21000, transactions[0].getGas());
+        assertEquals("20000000000", transactions[0].getGasPrice().toString());
+        assertEquals("16000000000000000000", transactions[0].getValue().toString());  // Over a signed long
+        assertEquals(7, transactions[0].getNonce());
+        assertArrayEquals(new byte[0], transactions[0].getInput());
+
+        assertEquals(1, transactions[1].getIndex());
+        assertNull(transactions[1].getTo());
+        assertEquals(new BigInteger("10000000000000000000", 16), transactions[1].getValue().toBigInteger());  // Over 64 bits
+        assertArrayEquals(new byte[]{0x60, 0x60}, transactions[1].getInput());
+    }
+
+    @Test
+    public void nullBlock() throws IOException {
+        assertNull(RawBlockDecoder.BLOCK.decode(stream("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":null}")));
+    }
+
+    @Test
+    public void blocksBatch() throws IOException {
+        final List<RawBlock> blocks = RawBlockDecoder.BLOCKS.decode(stream("[" +
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":null}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":" + BLOCK + "}" +
+                "]"));
+
+        assertEquals(1, blocks.size());
+        assertEquals(0x1b4, blocks.get(0).getNumber());
+    }
+
+    @Test
+    public void receiptsBatch() throws IOException {
+        final List<RawReceipt> receipts = RawBlockDecoder.RECEIPTS.decode(stream("[" +
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{" +
+                "\"transactionHash\":\"" + TX_HASH + "\",\"blockNumber\":\"0x1b4\",\"gasUsed\":\"0x5208\",\"contractAddress\":null," +
+                "\"logs\":[{\"address\":\"" + TO + "\",\"topics\":[\"" + HASH + "\",\"" + PARENT_HASH + "\"],\"data\":\"0x01\",\"logIndex\":\"0x3\",\"removed\":false}]}}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":null}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":3,\"result\":{" +
+                "\"transactionHash\":\"" + HASH + "\",\"gasUsed\":\"0x47b760\",\"contractAddress\":\"" + TO + "\",\"logs\":[]}}" +
+                "]"));
+
+        assertEquals(2, receipts.size());
+
+        final RawReceipt receipt = receipts.get(0);
+
+        assertArrayEquals(HexCodec.decode(TX_HASH), receipt.getTransactionHash());
+        assertEquals(21000, receipt.getGasUsed());
+        assertNull(receipt.getContractAddress());
+        assertEquals(1, receipt.getLogs().length);
+        assertEquals(TO, receipt.getLogs()[0].getAddress());
+        assertEquals(2, receipt.getLogs()[0].getTopics().length);
+        assertArrayEquals(HexCodec.decode(PARENT_HASH), receipt.getLogs()[0].getTopics()[1]);
+        assertArrayEquals(new byte[]{0x01}, receipt.getLogs()[0].getData());
+        assertEquals(3, receipt.getLogs()[0].getLogIndex());
+
+        assertArrayEquals(HexCodec.decode(HASH), receipts.get(1).getTransactionHash());
+        assertEquals(TO, receipts.get(1).getContractAddress());
+        assertEquals(0, receipts.get(1).getLogs().length);
+    }
+
+    @Test
+    public void errorResponse() {
+        assertIOException("Node returned an error: missing trie node",
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"error\":{\"code\":-32000,\"message\":\"missing trie node\"}}");
+    }
+
+    @Test
+    public void errorInBatch() {
+        try {
+            RawBlockDecoder.RECEIPTS.decode(stream("[{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":null}," +
+                    "{\"jsonrpc\":\"2.0\",\"id\":2,\"error\":{\"code\":-32000,\"message\":\"busy\"}}]"));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Node returned an error: busy", e.getMessage());
+        }
+    }
+
+    @Test
+    public void pendingBlock() {
+        assertIOException("A pending block or not a block", "{\"id\":1,\"result\":{\"number\":null,\"hash\":null,\"transactions\":[]}}");
+    }
+
+    @Test
+    public void blockWithoutTransactionObjects() {
+        assertIOException("Block was fetched without transaction objects",
+                "{\"id\":1,\"result\":{\"hash\":\"" + HASH + "\",\"transactions\":[\"" + TX_HASH + "\"]}}");
+    }
+
+    @Test
+    public void quantityNotHex() {
+        assertIOException(null, "{\"id\":1,\"result\":{\"number\":\"0x1z\",\"hash\":\"" + HASH + "\"}}");
+    }
+
+    private static void assertIOException(String message, String json) {
+        try {
+            RawBlockDecoder.BLOCK.decode(stream(json));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            if (message != null) {
+                assertEquals(message, e.getMessage());
+            }
+        }
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,24 +1,3 @@
-DELIMITER :
-
-CREATE FUNCTION `NEKH`(
-  `param` BLOB
-
-
-)
-  RETURNS mediumtext CHARSET utf8
-LANGUAGE SQL
-DETERMINISTIC
-NO SQL
-  SQL SECURITY INVOKER
-  COMMENT 'Inputs data, returns nekonium format hex string'
-  BEGIN
-    RETURN CONCAT('0x', LOWER(HEX(param)));
-  END:
-
-DELIMITER ;
-
-
-
 CREATE TABLE `addresses` (
   `internal_id` INT(10) UNSIGNED NOT NULL AUTO_INCREMENT,
   `address` BINARY(20) NOT NULL,
@@ -166,5 +145,66 @@ CREATE TABLE `balance_changes` (
   ENGINE=InnoDB
 ;
 
-GRANT SELECT, INSERT, UPDATE ON `explorer`.* TO 'explorer-backend'@'localhost';
-GRANT EXECUTE ON FUNCTION `explorer`.`nekh` TO 'explorer-backend'@'localhost';
\ No newline at end of file
+# How far each projection (derived tables like balance) has got, -1 if nothing is applied
+CREATE TABLE `projections` (
+  `name` VARCHAR(64) NOT NULL,
+  `number` BIGINT(20) NOT NULL,
+  `hash` BINARY(32) NULL DEFAULT NULL,
+  PRIMARY KEY (`name`)
+)
+  COLLATE='utf8_general_ci'
+  ENGINE=InnoDB
+;
+
+# ERC20 Transfer events from receipt logs, the transaction is (block_id, transaction_index)
+CREATE TABLE `token_transfers` (
+  `internal_id` INT(10) UNSIGNED NOT NULL AUTO_INCREMENT,
+  `block_id` INT(10) UNSIGNED NOT NULL,
+  `transaction_index` SMALLINT(5) UNSIGNED NOT NULL,
+  `log_index` SMALLINT(5) UNSIGNED NOT NULL,
+  `token_id` INT(10) UNSIGNED NOT NULL,
+  `from_id` INT(10) UNSIGNED NOT NULL,
+  `to_id` INT(10) UNSIGNED NOT NULL,
+  `value` BINARY(16) NOT NULL,
+  PRIMARY KEY (`internal_id`),
+  INDEX `token_id` (`token_id`, `internal_id`),
+  INDEX `from_id` (`from_id`, `internal_id`),
+  INDEX `to_id` (`to_id`, `internal_id`),
+  INDEX `block_id` (`block_id`),
+  CONSTRAINT `FK_token_transfers_blocks` FOREIGN KEY (`block_id`) REFERENCES `blocks` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE,
+  CONSTRAINT `FK_token_transfers_address` FOREIGN KEY (`token_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE,
+  CONSTRAINT `FK_token_transfers_address_2` FOREIGN KEY (`from_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE,
+  CONSTRAINT `FK_token_transfers_address_3` FOREIGN KEY (`to_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE
+)
+  COLLATE='utf8_general_ci'
+  ENGINE=InnoDB
+;
+
+# Token balance of every holder on the main chain, DECIMAL so that holders can be listed by balance
+CREATE TABLE `token_balances` (
+  `token_id` INT(10) UNSIGNED NOT NULL,
+  `address_id` INT(10) UNSIGNED NOT NULL,
+  `balance` DECIMAL(40,0) NOT NULL,
+  PRIMARY KEY (`token_id`, `address_id`),
+  INDEX `token_id_balance` (`token_id`, `balance`, `address_id`),
+  CONSTRAINT `FK_token_balances_address` FOREIGN KEY (`token_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE,
+  CONSTRAINT `FK_token_balances_address_2` FOREIGN KEY (`address_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE
+)
+  COLLATE='utf8_general_ci'
+  ENGINE=InnoDB
+;
+
+# Tokens with a Transfer on the block whose value is over 128 bits, not in token_transfers, so their transfers and holders are not complete
+CREATE TABLE `unindexed_tokens` (
+  `token_id` INT(10) UNSIGNED NOT NULL,
+  `block_id` INT(10) UNSIGNED NOT NULL,
+  PRIMARY KEY (`token_id`, `block_id`),
+  CONSTRAINT `FK_unindexed_tokens_address` FOREIGN KEY (`token_id`) REFERENCES `addresses` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE,
+  CONSTRAINT `FK_unindexed_tokens_blocks` FOREIGN KEY (`block_id`) REFERENCES `blocks` (`internal_id`) ON UPDATE CASCADE ON DELETE CASCADE
+)
+  COLLATE='utf8_general_ci'
+  ENGINE=InnoDB
+;
+
+# ALTER (and REFERENCES for the foreign keys) is for bootstrap, which drops indexes and foreign keys before loading and adds them back after
+GRANT SELECT, INSERT, UPDATE, DELETE, ALTER, REFERENCES ON `explorer`.* TO 'explorer-backend'@'localhost';